@@ -0,0 +1,116 @@
+import java.io.*;
+import java.time.Instant;
+
+/**
+ * Export a SecureSSLProxy access log ring file to CSV or JSON lines
+ * Usage: java AccessLogReader [ring-file] [csv|json]
+ */
+public class AccessLogReader {
+    private static final String DEFAULT_FILE = "proxy-access.ring";
+
+    public static void main(String[] args) {
+        String fileName = args.length > 0 ? args[0] : DEFAULT_FILE;
+        String format = args.length > 1 ? args[1].toLowerCase() : "csv";
+
+        if (!format.equals("csv") && !format.equals("json")) {
+            System.err.println("Usage: java AccessLogReader [ring-file] [csv|json]");
+            System.exit(1);
+        }
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 65536));
+        try {
+            if (format.equals("csv")) {
+                out.println("sequence,time,client_ip,client_port,outcome,sni,protocol,cipher," +
+                    "client_subject,bytes_in,bytes_out,handshake_us,total_us");
+            }
+            AccessLogRing.read(new File(fileName), record -> {
+                if (format.equals("csv")) {
+                    writeCsv(out, record);
+                } else {
+                    writeJson(out, record);
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Failed to read access log: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            out.flush();
+        }
+    }
+
+    private static void writeCsv(PrintWriter out, AccessLogRing.AccessRecord record) {
+        out.print(record.sequence);
+        out.print(',');
+        out.print(Instant.ofEpochMilli(record.startMillis));
+        out.print(',');
+        out.print(address(record));
+        out.print(',');
+        out.print(record.clientPort);
+        out.print(',');
+        out.print(record.outcome);
+        out.print(',');
+        out.print(csv(record.sni));
+        out.print(',');
+        out.print(csv(record.protocol));
+        out.print(',');
+        out.print(csv(record.cipher));
+        out.print(',');
+        out.print(csv(record.clientSubject));
+        out.print(',');
+        out.print(record.bytesIn);
+        out.print(',');
+        out.print(record.bytesOut);
+        out.print(',');
+        out.print(record.handshakeMicros);
+        out.print(',');
+        out.println(record.totalMicros);
+    }
+
+    private static void writeJson(PrintWriter out, AccessLogRing.AccessRecord record) {
+        out.println("{\"sequence\":" + record.sequence +
+            ",\"time\":\"" + Instant.ofEpochMilli(record.startMillis) + "\"" +
+            ",\"client_ip\":" + json(address(record)) +
+            ",\"client_port\":" + record.clientPort +
+            ",\"outcome\":\"" + record.outcome + "\"" +
+            ",\"sni\":" + json(record.sni) +
+            ",\"protocol\":" + json(record.protocol) +
+            ",\"cipher\":" + json(record.cipher) +
+            ",\"client_subject\":" + json(record.clientSubject) +
+            ",\"bytes_in\":" + record.bytesIn +
+            ",\"bytes_out\":" + record.bytesOut +
+            ",\"handshake_us\":" + record.handshakeMicros +
+            ",\"total_us\":" + record.totalMicros + "}");
+    }
+
+    private static String address(AccessLogRing.AccessRecord record) {
+        return record.clientAddress != null ? record.clientAddress.getHostAddress() : null;
+    }
+
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private static String json(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,311 @@
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Fixed-size, memory-mapped ring file of binary per-connection access records.
+ *
+ * Every record occupies one fixed-size slot, so writers only claim a sequence
+ * number and fill their own slot with absolute puts: no locks, no stdout and
+ * no allocation on the write path beyond copying the client address bytes.
+ * Once the ring is full the oldest records are overwritten. The header's next
+ * sequence only moves forward, by compare-and-set, since writers finish out of
+ * order. Use AccessLogReader to export a ring file to CSV or JSON.
+ *
+ * Slot layout (little endian):
+ *   0  commit marker (sequence + 1, 0 while being written)
+ *   8  start time (epoch millis)
+ *   16 client address (16 bytes, IPv4 stored as IPv4-mapped IPv6)
+ *   32 client port (int), 36 outcome (byte)
+ *   40 bytes in, 48 bytes out, 56 handshake micros, 64 total micros
+ *   72 SNI, protocol, cipher, client subject as length-prefixed UTF-8
+ */
+public final class AccessLogRing implements Closeable {
+    public enum Outcome { OK, REJECTED, SHED, HANDSHAKE_FAILED, TIMEOUT, ERROR }
+
+    private static final long MAGIC = 0x53534c414c4f4731L; // "SSLALOG1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int HEADER_NEXT_SEQUENCE = 24;
+    static final int RECORD_SIZE = 512;
+    private static final int STRINGS_OFFSET = 72;
+    private static final int MAX_SNI = 96;
+    private static final int MAX_PROTOCOL = 16;
+    private static final int MAX_CIPHER = 64;
+    private static final int MAX_SUBJECT = RECORD_SIZE - STRINGS_OFFSET - 8 - MAX_SNI - MAX_PROTOCOL - MAX_CIPHER;
+    private static final Outcome[] OUTCOMES = Outcome.values();
+    // Atomic access to the header's next sequence in the mapped file
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final AtomicLong nextSequence;
+
+    private AccessLogRing(FileChannel channel, MappedByteBuffer buffer, int capacity, long nextSequence) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.nextSequence = new AtomicLong(nextSequence);
+    }
+
+    /**
+     * Open or create a ring file. An existing ring with a different capacity is recreated.
+     */
+    public static AccessLogRing open(File file, int capacity) throws IOException {
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        FileChannel channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            boolean fresh = channel.size() == 0;
+            if (channel.size() > size) {
+                channel.truncate(size);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            long next = 0;
+            if (buffer.getLong(0) == MAGIC && buffer.getInt(8) == VERSION &&
+                    buffer.getInt(12) == RECORD_SIZE && buffer.getInt(16) == capacity) {
+                next = buffer.getLong(HEADER_NEXT_SEQUENCE);
+                // A writer stopped between its commit marker and the header leaves the header behind
+                for (int i = 0; i < capacity; i++) {
+                    next = Math.max(next, buffer.getLong(HEADER_SIZE + i * RECORD_SIZE));
+                }
+            } else if (!fresh) {
+                // A new file is already zeroed (and stays sparse); an old one must be cleared
+                for (int i = 0; i < capacity; i++) {
+                    buffer.putLong(HEADER_SIZE + i * RECORD_SIZE, 0L);
+                }
+            }
+            if (next == 0) {
+                buffer.putLong(0, MAGIC);
+                buffer.putInt(8, VERSION);
+                buffer.putInt(12, RECORD_SIZE);
+                buffer.putInt(16, capacity);
+                buffer.putLong(HEADER_NEXT_SEQUENCE, 0L);
+            }
+            return new AccessLogRing(channel, buffer, capacity, next);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getWrittenCount() {
+        return nextSequence.get();
+    }
+
+    /**
+     * Append a record, overwriting the oldest one when the ring is full
+     */
+    public void append(AccessRecord record) {
+        long sequence = nextSequence.getAndIncrement();
+        int base = HEADER_SIZE + (int) (sequence % capacity) * RECORD_SIZE;
+
+        buffer.putLong(base, 0L);
+        VarHandle.releaseFence();
+
+        buffer.putLong(base + 8, record.startMillis);
+        putAddress(base + 16, record.clientAddress);
+        buffer.putInt(base + 32, record.clientPort);
+        buffer.put(base + 36, (byte) record.outcome.ordinal());
+        buffer.putLong(base + 40, record.bytesIn);
+        buffer.putLong(base + 48, record.bytesOut);
+        buffer.putLong(base + 56, record.handshakeMicros);
+        buffer.putLong(base + 64, record.totalMicros);
+
+        int offset = base + STRINGS_OFFSET;
+        offset = putString(offset, record.sni, MAX_SNI);
+        offset = putString(offset, record.protocol, MAX_PROTOCOL);
+        offset = putString(offset, record.cipher, MAX_CIPHER);
+        putString(offset, record.clientSubject, MAX_SUBJECT);
+
+        VarHandle.releaseFence();
+        buffer.putLong(base, sequence + 1);
+        advanceHeader(sequence + 1);
+    }
+
+    /**
+     * Raise the header's next sequence to at least next; a slower writer never moves it back
+     */
+    private void advanceHeader(long next) {
+        long current = (long) LONGS.getVolatile(buffer, HEADER_NEXT_SEQUENCE);
+        while (current < next) {
+            long witness = (long) LONGS.compareAndExchange(buffer, HEADER_NEXT_SEQUENCE, current, next);
+            if (witness == current) {
+                return;
+            }
+            current = witness;
+        }
+    }
+
+    private void putAddress(int offset, InetAddress address) {
+        if (address == null) {
+            for (int i = 0; i < 16; i++) {
+                buffer.put(offset + i, (byte) 0);
+            }
+            return;
+        }
+        byte[] raw = address.getAddress();
+        if (raw.length == 4) {
+            for (int i = 0; i < 10; i++) {
+                buffer.put(offset + i, (byte) 0);
+            }
+            buffer.put(offset + 10, (byte) 0xff);
+            buffer.put(offset + 11, (byte) 0xff);
+            for (int i = 0; i < 4; i++) {
+                buffer.put(offset + 12 + i, raw[i]);
+            }
+        } else {
+            for (int i = 0; i < 16; i++) {
+                buffer.put(offset + i, raw[i]);
+            }
+        }
+    }
+
+    /**
+     * Write a 2-byte length plus UTF-8 bytes, truncated at a character boundary
+     */
+    private int putString(int offset, String value, int maxBytes) {
+        int length = 0;
+        if (value != null) {
+            int limit = maxBytes - 2;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (Character.isSurrogate(c)) {
+                    c = '?';
+                }
+                int size = c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+                if (length + size > limit) {
+                    break;
+                }
+                int p = offset + 2 + length;
+                if (size == 1) {
+                    buffer.put(p, (byte) c);
+                } else if (size == 2) {
+                    buffer.put(p, (byte) (0xc0 | (c >> 6)));
+                    buffer.put(p + 1, (byte) (0x80 | (c & 0x3f)));
+                } else {
+                    buffer.put(p, (byte) (0xe0 | (c >> 12)));
+                    buffer.put(p + 1, (byte) (0x80 | ((c >> 6) & 0x3f)));
+                    buffer.put(p + 2, (byte) (0x80 | (c & 0x3f)));
+                }
+                length += size;
+            }
+        }
+        buffer.putShort(offset, (short) length);
+        return offset + 2 + length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    /**
+     * Read every committed record of a ring file, oldest first
+     */
+    public static void read(File file, Consumer<AccessRecord> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.size() < HEADER_SIZE || buffer.getLong(0) != MAGIC) {
+                throw new IOException("Not an access log ring file: " + file);
+            }
+            if (buffer.getInt(8) != VERSION || buffer.getInt(12) != RECORD_SIZE) {
+                throw new IOException("Unsupported access log ring version in " + file);
+            }
+
+            int capacity = buffer.getInt(16);
+            long next = buffer.getLong(HEADER_NEXT_SEQUENCE);
+
+            // Start at the oldest slot; the marker, not the slot, tells the sequence
+            // because live writers may be ahead of the header
+            for (int i = 0; i < capacity; i++) {
+                int base = HEADER_SIZE + (int) ((next + i) % capacity) * RECORD_SIZE;
+                long marker = buffer.getLong(base);
+                if (marker == 0) {
+                    continue;
+                }
+                AccessRecord record = readRecord(buffer, base);
+                if (buffer.getLong(base) != marker) {
+                    continue; // overwritten while reading
+                }
+                record.sequence = marker - 1;
+                consumer.accept(record);
+            }
+        }
+    }
+
+    private static AccessRecord readRecord(ByteBuffer buffer, int base) {
+        AccessRecord record = new AccessRecord();
+        record.startMillis = buffer.getLong(base + 8);
+        byte[] raw = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            raw[i] = buffer.get(base + 16 + i);
+        }
+        try {
+            record.clientAddress = InetAddress.getByAddress(raw);
+        } catch (UnknownHostException e) {
+            // 16 bytes is always a valid address length
+        }
+        record.clientPort = buffer.getInt(base + 32);
+        int outcome = buffer.get(base + 36);
+        record.outcome = outcome >= 0 && outcome < OUTCOMES.length ? OUTCOMES[outcome] : Outcome.ERROR;
+        record.bytesIn = buffer.getLong(base + 40);
+        record.bytesOut = buffer.getLong(base + 48);
+        record.handshakeMicros = buffer.getLong(base + 56);
+        record.totalMicros = buffer.getLong(base + 64);
+
+        int[] offset = { base + STRINGS_OFFSET };
+        record.sni = readString(buffer, offset);
+        record.protocol = readString(buffer, offset);
+        record.cipher = readString(buffer, offset);
+        record.clientSubject = readString(buffer, offset);
+        return record;
+    }
+
+    private static String readString(ByteBuffer buffer, int[] offset) {
+        int length = buffer.getShort(offset[0]) & 0xffff;
+        byte[] bytes = new byte[Math.min(length, RECORD_SIZE)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset[0] + 2 + i);
+        }
+        offset[0] += 2 + length;
+        return length == 0 ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * One connection's access record, filled in by the proxy handler
+     */
+    public static final class AccessRecord {
+        long sequence;
+        long startMillis;
+        InetAddress clientAddress;
+        String clientHost; // formatted once for events and logs, not stored in the ring
+        int clientPort;
+        Outcome outcome = Outcome.OK;
+        long bytesIn;
+        long bytesOut;
+        long handshakeMicros;
+        long totalMicros;
+        String sni;
+        String protocol;
+        String cipher;
+        String clientSubject;
+    }
+}
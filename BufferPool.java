@@ -0,0 +1,476 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared slab allocator for socket I/O buffers.
+ *
+ * Buffers come in three size classes: small (request heads), one TLS record
+ * plus overhead, and large (bulk transfers). Each class carves 1 MB slabs
+ * into fixed slices that are recycled and never freed. Long-lived worker
+ * threads (see withThreadCache) keep a small cache per class in front of the
+ * shared free lists, so the common acquire/release pair touches no shared
+ * state; other threads go to the shared lists directly, so nothing stays
+ * parked on a thread that exits. Once the pool reaches its limit, extra
+ * buffers are plain unpooled allocations.
+ *
+ * PooledInputStream and PooledOutputStream hold a buffer only while data is
+ * in flight. They give it back before blocking on an idle socket, so heap
+ * use follows active transfers rather than open connections. Both move
+ * between size classes based on how full their last reads or flushes were.
+ */
+public final class BufferPool {
+    public static final int SMALL = 0;
+    public static final int RECORD = 1;
+    public static final int LARGE = 2;
+
+    // A TLS record carries up to 16 KB of plaintext plus header, MAC/tag and padding
+    private static final int[] CLASS_SIZES = {4096, 16384 + 1024, 65536};
+    private static final int SLAB_SIZE = 1024 * 1024;
+    private static final int THREAD_CACHE_SIZE = 16;
+    private static final long MAX_POOL_BYTES = (System.getenv("SSL_BUFFER_POOL_MB") != null ?
+        Long.parseLong(System.getenv("SSL_BUFFER_POOL_MB")) : 64) * 1024 * 1024;
+
+    private static final BufferPool SHARED = new BufferPool(MAX_POOL_BYTES);
+
+    /**
+     * One slice of a slab; use array[offset .. offset + capacity)
+     */
+    public static final class Buffer {
+        final byte[] array;
+        final int offset;
+        final int capacity;
+        final int sizeClass;
+        final boolean pooled;
+        boolean free;
+
+        Buffer(byte[] array, int offset, int capacity, int sizeClass, boolean pooled) {
+            this.array = array;
+            this.offset = offset;
+            this.capacity = capacity;
+            this.sizeClass = sizeClass;
+            this.pooled = pooled;
+        }
+    }
+
+    private static final class ThreadCache {
+        final Buffer[][] buffers = new Buffer[CLASS_SIZES.length][THREAD_CACHE_SIZE];
+        final int[] counts = new int[CLASS_SIZES.length];
+    }
+
+    private final long maxBytes;
+    private final ThreadLocal<ThreadCache> threadCache = new ThreadLocal<>();
+    private final ConcurrentLinkedQueue<Buffer>[] shared;
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong inUseBytes = new AtomicLong();
+    private final AtomicLong highWaterBytes = new AtomicLong();
+    private final LongAdder unpooled = new LongAdder();
+    private final LongAdder slabs = new LongAdder();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BufferPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.shared = new ConcurrentLinkedQueue[CLASS_SIZES.length];
+        for (int i = 0; i < shared.length; i++) {
+            shared[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    public static int size(int sizeClass) {
+        return CLASS_SIZES[sizeClass];
+    }
+
+    /**
+     * Wrap a worker thread's body so the thread caches buffers while it runs
+     * and hands them back to the shared lists when it finishes
+     */
+    public Runnable withThreadCache(Runnable body) {
+        return () -> {
+            threadCache.set(new ThreadCache());
+            try {
+                body.run();
+            } finally {
+                ThreadCache cache = threadCache.get();
+                threadCache.remove();
+                for (int sizeClass = 0; sizeClass < CLASS_SIZES.length; sizeClass++) {
+                    for (int i = 0; i < cache.counts[sizeClass]; i++) {
+                        shared[sizeClass].offer(cache.buffers[sizeClass][i]);
+                    }
+                }
+            }
+        };
+    }
+
+    public Buffer acquire(int sizeClass) {
+        ThreadCache cache = threadCache.get();
+        Buffer buffer;
+        if (cache != null && cache.counts[sizeClass] > 0) {
+            int index = --cache.counts[sizeClass];
+            buffer = cache.buffers[sizeClass][index];
+            cache.buffers[sizeClass][index] = null;
+        } else {
+            buffer = shared[sizeClass].poll();
+            if (buffer == null) {
+                buffer = allocateSlab(sizeClass);
+            }
+        }
+        buffer.free = false;
+
+        long inUse = inUseBytes.addAndGet(buffer.capacity);
+        long highWater = highWaterBytes.get();
+        while (inUse > highWater && !highWaterBytes.compareAndSet(highWater, inUse)) {
+            highWater = highWaterBytes.get();
+        }
+        return buffer;
+    }
+
+    public void release(Buffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (buffer.free) {
+            throw new IllegalStateException("Buffer released twice");
+        }
+        buffer.free = true;
+        inUseBytes.addAndGet(-buffer.capacity);
+        if (!buffer.pooled) {
+            return;
+        }
+
+        ThreadCache cache = threadCache.get();
+        int sizeClass = buffer.sizeClass;
+        if (cache != null && cache.counts[sizeClass] < THREAD_CACHE_SIZE) {
+            cache.buffers[sizeClass][cache.counts[sizeClass]++] = buffer;
+        } else {
+            shared[sizeClass].offer(buffer);
+        }
+    }
+
+    /**
+     * Carve a new slab into buffers, or fall back to an unpooled buffer when the pool is full
+     */
+    private synchronized Buffer allocateSlab(int sizeClass) {
+        Buffer buffer = shared[sizeClass].poll();
+        if (buffer != null) {
+            return buffer;
+        }
+
+        int size = CLASS_SIZES[sizeClass];
+        if (allocatedBytes.get() + SLAB_SIZE > maxBytes) {
+            unpooled.increment();
+            return new Buffer(new byte[size], 0, size, sizeClass, false);
+        }
+
+        byte[] slab = new byte[SLAB_SIZE];
+        allocatedBytes.addAndGet(SLAB_SIZE);
+        slabs.increment();
+        for (int offset = size; offset + size <= SLAB_SIZE; offset += size) {
+            shared[sizeClass].offer(new Buffer(slab, offset, size, sizeClass, true));
+        }
+        return new Buffer(slab, 0, size, sizeClass, true);
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    public long getInUseBytes() {
+        return inUseBytes.get();
+    }
+
+    public long getHighWaterBytes() {
+        return highWaterBytes.get();
+    }
+
+    public void registerMetrics(ProxyMetrics metrics) {
+        metrics.gauge("bufferpool.allocated_bytes", this::getAllocatedBytes);
+        metrics.gauge("bufferpool.in_use_bytes", this::getInUseBytes);
+        metrics.gauge("bufferpool.high_water_bytes", this::getHighWaterBytes);
+        metrics.gauge("bufferpool.slabs", slabs::sum);
+        metrics.gauge("bufferpool.unpooled", unpooled::sum);
+    }
+
+    /**
+     * Size class tracking shared by the pooled streams: two transfers that
+     * fill the buffer move up a class, four that use under a quarter move down
+     */
+    private static final class AdaptiveSize {
+        private static final int GROW_AFTER = 2;
+        private static final int SHRINK_AFTER = 4;
+
+        int sizeClass;
+        private int fullStreak = 0;
+        private int smallStreak = 0;
+
+        AdaptiveSize(int sizeClass) {
+            this.sizeClass = sizeClass;
+        }
+
+        void record(int bytes, int capacity) {
+            if (bytes >= capacity) {
+                smallStreak = 0;
+                if (++fullStreak >= GROW_AFTER && sizeClass < LARGE) {
+                    sizeClass++;
+                    fullStreak = 0;
+                }
+            } else if (bytes <= capacity / 4) {
+                fullStreak = 0;
+                if (++smallStreak >= SHRINK_AFTER && sizeClass > SMALL) {
+                    sizeClass--;
+                    smallStreak = 0;
+                }
+            } else {
+                fullStreak = 0;
+                smallStreak = 0;
+            }
+        }
+    }
+
+    /**
+     * Buffered input stream on pooled buffers, with a bounded readLine for HTTP heads
+     */
+    public static final class PooledInputStream extends InputStream {
+        private final InputStream in;
+        private final BufferPool pool;
+        private final AdaptiveSize size;
+        private Buffer buffer;
+        private int position;
+        private int limit;
+
+        public PooledInputStream(InputStream in, BufferPool pool, int initialSizeClass) {
+            this.in = in;
+            this.pool = pool;
+            this.size = new AdaptiveSize(initialSizeClass);
+        }
+
+        /**
+         * Refill once everything buffered has been consumed; false at end of stream
+         */
+        private boolean fill() throws IOException {
+            if (position < limit) {
+                return true;
+            }
+            if (buffer != null && (buffer.sizeClass != size.sizeClass || in.available() == 0)) {
+                // About to block or switch size: hold no buffer while waiting
+                pool.release(buffer);
+                buffer = null;
+            }
+
+            position = 0;
+            limit = 0;
+            if (buffer == null) {
+                int first = in.read();
+                if (first < 0) {
+                    return false;
+                }
+                buffer = pool.acquire(size.sizeClass);
+                buffer.array[buffer.offset] = (byte) first;
+                limit = 1;
+            }
+
+            // Take whatever is already readable without blocking again
+            while (limit < buffer.capacity && (limit == 0 || in.available() > 0)) {
+                int n = in.read(buffer.array, buffer.offset + limit, buffer.capacity - limit);
+                if (n < 0) {
+                    break;
+                }
+                limit += n;
+            }
+            size.record(limit, buffer.capacity);
+            return limit > 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return buffer.array[buffer.offset + position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, limit - position);
+            System.arraycopy(buffer.array, buffer.offset + position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (limit - position) + in.available();
+        }
+
+        /**
+         * Read one line as ISO-8859-1 without its CRLF; null at end of stream
+         */
+        public String readLine(int maxLength) throws IOException {
+            StringBuilder line = null;
+            while (fill()) {
+                int start = buffer.offset + position;
+                int end = buffer.offset + limit;
+                for (int i = start; i < end; i++) {
+                    if (buffer.array[i] == '\n') {
+                        int length = i - start;
+                        if (length > 0 && buffer.array[i - 1] == '\r') {
+                            length--;
+                        }
+                        String part = new String(buffer.array, start, length, StandardCharsets.ISO_8859_1);
+                        position += i - start + 1;
+                        if (line == null) {
+                            return part;
+                        }
+                        if (line.length() + part.length() > maxLength) {
+                            throw new IOException("Line exceeds " + maxLength + " bytes");
+                        }
+                        // A CR at the end of the previous chunk belongs to this line ending
+                        if (length == 0 && line.length() > 0 && line.charAt(line.length() - 1) == '\r') {
+                            line.setLength(line.length() - 1);
+                        }
+                        return line.append(part).toString();
+                    }
+                }
+                if (line == null) {
+                    line = new StringBuilder();
+                }
+                line.append(new String(buffer.array, start, end - start, StandardCharsets.ISO_8859_1));
+                position = limit;
+                if (line.length() > maxLength) {
+                    throw new IOException("Line exceeds " + maxLength + " bytes");
+                }
+            }
+            return line != null && line.length() > 0 ? line.toString() : null;
+        }
+
+        /**
+         * Give the buffer back to the pool; the stream stays usable
+         */
+        public void release() {
+            if (buffer != null) {
+                pool.release(buffer);
+                buffer = null;
+                position = 0;
+                limit = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            release();
+            in.close();
+        }
+    }
+
+    /**
+     * Buffered output stream on pooled buffers; flush() writes and returns the buffer
+     */
+    public static final class PooledOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final BufferPool pool;
+        private final AdaptiveSize size;
+        private Buffer buffer;
+        private int count;
+        private int written;
+
+        public PooledOutputStream(OutputStream out, BufferPool pool, int initialSizeClass) {
+            this.out = out;
+            this.pool = pool;
+            this.size = new AdaptiveSize(initialSizeClass);
+        }
+
+        private void ensureBuffer() {
+            if (buffer == null) {
+                buffer = pool.acquire(size.sizeClass);
+                count = 0;
+            }
+        }
+
+        private void drain() throws IOException {
+            if (count > 0) {
+                out.write(buffer.array, buffer.offset, count);
+                written += count;
+                count = 0;
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureBuffer();
+            if (count == buffer.capacity) {
+                drain();
+            }
+            buffer.array[buffer.offset + count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                ensureBuffer();
+                if (count == 0 && len >= buffer.capacity) {
+                    // Large writes go straight through without a copy
+                    out.write(b, off, len);
+                    written += len;
+                    return;
+                }
+                int n = Math.min(len, buffer.capacity - count);
+                System.arraycopy(b, off, buffer.array, buffer.offset + count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == buffer.capacity) {
+                    drain();
+                }
+            }
+        }
+
+        public void write(String ascii) throws IOException {
+            write(ascii.getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (buffer != null) {
+                drain();
+                size.record(written, buffer.capacity);
+                pool.release(buffer);
+                buffer = null;
+            }
+            written = 0;
+            out.flush();
+        }
+
+        /**
+         * Give the buffer back without writing, e.g. when the connection failed
+         */
+        public void release() {
+            if (buffer != null) {
+                pool.release(buffer);
+                buffer = null;
+                count = 0;
+                written = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                release();
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,510 @@
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.util.Locale;
+
+/**
+ * Certificate chain facts read straight from the DER encoding in one pass.
+ *
+ * X509Certificate.getSubjectAlternativeNames() builds a List per name, which
+ * for the 10000-SAN test certificates means tens of thousands of objects just
+ * to count them. This walks the encoded bytes with a cursor instead: OIDs are
+ * compared as bytes, SAN entries are counted and matched against the host name
+ * where they lie, and only a handful of small objects are created per
+ * certificate. Hostname matching follows RFC 6125: subject alternative names
+ * only, with a wildcard allowed as the whole left-most label.
+ */
+final class CertificateAnalyzer {
+    private static final int SEQUENCE = 0x30;
+    private static final int OBJECT_IDENTIFIER = 0x06;
+    private static final int BIT_STRING = 0x03;
+    private static final int OCTET_STRING = 0x04;
+    private static final int INTEGER = 0x02;
+    private static final int BOOLEAN = 0x01;
+    private static final int UTC_TIME = 0x17;
+    private static final int GENERALIZED_TIME = 0x18;
+    private static final int EXPLICIT_VERSION = 0xA0;
+    private static final int EXPLICIT_EXTENSIONS = 0xA3;
+    private static final int SAN_DNS_NAME = 0x82;
+    private static final int SAN_IP_ADDRESS = 0x87;
+
+    private static final byte[] OID_SUBJECT_ALT_NAME = oid("2.5.29.17");
+    private static final byte[] OID_BASIC_CONSTRAINTS = oid("2.5.29.19");
+    private static final byte[] OID_RSA = oid("1.2.840.113549.1.1.1");
+    private static final byte[] OID_RSA_PSS = oid("1.2.840.113549.1.1.10");
+    private static final byte[] OID_EC = oid("1.2.840.10045.2.1");
+    private static final byte[] OID_DSA = oid("1.2.840.10040.4.1");
+    private static final byte[] OID_ED25519 = oid("1.3.101.112");
+    private static final byte[] OID_ED448 = oid("1.3.101.113");
+
+    // Named curves and their sizes
+    private static final byte[][] CURVE_OIDS = {
+        oid("1.2.840.10045.3.1.7"), oid("1.3.132.0.34"), oid("1.3.132.0.35"), oid("1.3.132.0.10")
+    };
+    private static final int[] CURVE_BITS = {256, 384, 521, 256};
+
+    private static final byte[][] SIGNATURE_OIDS = {
+        oid("1.2.840.113549.1.1.4"), oid("1.2.840.113549.1.1.5"), oid("1.2.840.113549.1.1.11"),
+        oid("1.2.840.113549.1.1.12"), oid("1.2.840.113549.1.1.13"), oid("1.2.840.113549.1.1.10"),
+        oid("1.2.840.10045.4.1"), oid("1.2.840.10045.4.3.2"), oid("1.2.840.10045.4.3.3"),
+        oid("1.2.840.10045.4.3.4"), oid("1.3.101.112"), oid("1.3.101.113"),
+        oid("1.2.840.10040.4.3"), oid("2.16.840.1.101.3.4.3.2")
+    };
+    private static final String[] SIGNATURE_NAMES = {
+        "MD5withRSA", "SHA1withRSA", "SHA256withRSA",
+        "SHA384withRSA", "SHA512withRSA", "RSASSA-PSS",
+        "SHA1withECDSA", "SHA256withECDSA", "SHA384withECDSA",
+        "SHA512withECDSA", "Ed25519", "Ed448",
+        "SHA1withDSA", "SHA256withDSA"
+    };
+
+    /**
+     * What one certificate says about itself
+     */
+    static final class CertificateFacts {
+        String keyAlgorithm;
+        int keyBits;
+        String signatureAlgorithm;
+        int dnsNames;
+        int ipAddresses;
+        int otherNames;
+        boolean hostMatch;
+        boolean certificateAuthority;
+        long notAfterMillis;
+
+        int sanCount() {
+            return dnsNames + ipAddresses + otherNames;
+        }
+
+        boolean weakSignature() {
+            return signatureAlgorithm.startsWith("MD5") || signatureAlgorithm.startsWith("SHA1");
+        }
+    }
+
+    /**
+     * Facts for every certificate in a chain, leaf first
+     */
+    static final class ChainReport {
+        final CertificateFacts[] certificates;
+        final long analysisNanos;
+
+        ChainReport(CertificateFacts[] certificates, long analysisNanos) {
+            this.certificates = certificates;
+            this.analysisNanos = analysisNanos;
+        }
+
+        CertificateFacts leaf() {
+            return certificates[0];
+        }
+
+        /**
+         * Smallest key in the chain, in bits
+         */
+        int weakestKeyBits() {
+            int weakest = Integer.MAX_VALUE;
+            for (CertificateFacts facts : certificates) {
+                weakest = Math.min(weakest, facts.keyBits);
+            }
+            return weakest;
+        }
+
+        /**
+         * Whether a certificate below the root is signed with MD5 or SHA-1
+         */
+        boolean weakSignature() {
+            for (int i = 0; i < certificates.length; i++) {
+                if (certificates[i].weakSignature() && !(i == certificates.length - 1 && i > 0)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String summary() {
+            CertificateFacts leaf = leaf();
+            return leaf.keyAlgorithm + " " + leaf.keyBits + ", " + leaf.signatureAlgorithm + ", " +
+                leaf.sanCount() + " SANs (" + leaf.dnsNames + " DNS, " + leaf.ipAddresses + " IP), host " +
+                (leaf.hostMatch ? "matches" : "does not match") + ", chain of " + certificates.length +
+                (weakSignature() ? ", weak signature" : "") +
+                String.format(" (analyzed in %.1f us)", analysisNanos / 1000.0);
+        }
+    }
+
+    private CertificateAnalyzer() {
+    }
+
+    /**
+     * Analyze a chain as presented by the peer; host is matched against the leaf only
+     */
+    static ChainReport analyze(Certificate[] chain, String host) throws CertificateEncodingException {
+        long start = System.nanoTime();
+        HostName hostName = host != null ? new HostName(host) : null;
+        CertificateFacts[] facts = new CertificateFacts[chain.length];
+        for (int i = 0; i < chain.length; i++) {
+            facts[i] = analyze(chain[i].getEncoded(), i == 0 ? hostName : null);
+        }
+        return new ChainReport(facts, System.nanoTime() - start);
+    }
+
+    /**
+     * Analyze one DER-encoded certificate. Malformed input throws IllegalArgumentException.
+     */
+    static CertificateFacts analyze(byte[] der, String host) {
+        return analyze(der, host != null ? new HostName(host) : null);
+    }
+
+    private static CertificateFacts analyze(byte[] der, HostName host) {
+        CertificateFacts facts = new CertificateFacts();
+        Tlv certificate = new Tlv();
+        Tlv tbs = new Tlv();
+        Tlv field = new Tlv();
+        Tlv inner = new Tlv();
+
+        certificate.read(der, 0, der.length, SEQUENCE);
+        int next = tbs.read(der, certificate.start, certificate.end, SEQUENCE);
+        // signatureAlgorithm after the TBS: AlgorithmIdentifier { OID, params }
+        field.read(der, next, certificate.end, SEQUENCE);
+        inner.read(der, field.start, field.end, OBJECT_IDENTIFIER);
+        facts.signatureAlgorithm = lookup(der, inner, SIGNATURE_OIDS, SIGNATURE_NAMES);
+
+        // TBS: [0] version, serial, signature, issuer, validity, subject, subjectPublicKeyInfo, ..., [3] extensions
+        int pos = tbs.start;
+        pos = field.read(der, pos, tbs.end, -1);
+        if (field.tag == EXPLICIT_VERSION) {
+            pos = field.read(der, pos, tbs.end, INTEGER);
+        }
+        pos = field.read(der, pos, tbs.end, SEQUENCE); // signature
+        pos = field.read(der, pos, tbs.end, SEQUENCE); // issuer
+        pos = field.read(der, pos, tbs.end, SEQUENCE); // validity
+        int notAfter = inner.read(der, field.start, field.end, -1);
+        inner.read(der, notAfter, field.end, -1);
+        facts.notAfterMillis = time(der, inner);
+        pos = field.read(der, pos, tbs.end, SEQUENCE); // subject
+        pos = field.read(der, pos, tbs.end, SEQUENCE); // subjectPublicKeyInfo
+        publicKey(der, field, facts);
+
+        while (pos < tbs.end) {
+            pos = field.read(der, pos, tbs.end, -1);
+            if (field.tag == EXPLICIT_EXTENSIONS) {
+                Tlv extensions = new Tlv();
+                extensions.read(der, field.start, field.end, SEQUENCE);
+                extensions(der, extensions, host, facts);
+            }
+        }
+        return facts;
+    }
+
+    private static void publicKey(byte[] der, Tlv spki, CertificateFacts facts) {
+        Tlv algorithm = new Tlv();
+        Tlv part = new Tlv();
+        int keyPos = algorithm.read(der, spki.start, spki.end, SEQUENCE);
+        int paramsPos = part.read(der, algorithm.start, algorithm.end, OBJECT_IDENTIFIER);
+        Tlv key = new Tlv();
+        key.read(der, keyPos, spki.end, BIT_STRING);
+        int keyStart = key.start + 1; // unused-bits byte
+
+        if (part.contentEquals(der, OID_RSA) || part.contentEquals(der, OID_RSA_PSS)) {
+            facts.keyAlgorithm = "RSA";
+            Tlv rsaKey = new Tlv();
+            rsaKey.read(der, keyStart, key.end, SEQUENCE);
+            part.read(der, rsaKey.start, rsaKey.end, INTEGER);
+            facts.keyBits = integerBits(der, part);
+        } else if (part.contentEquals(der, OID_EC)) {
+            facts.keyAlgorithm = "EC";
+            part.read(der, paramsPos, algorithm.end, -1);
+            facts.keyBits = -1;
+            if (part.tag == OBJECT_IDENTIFIER) {
+                for (int i = 0; i < CURVE_OIDS.length; i++) {
+                    if (part.contentEquals(der, CURVE_OIDS[i])) {
+                        facts.keyBits = CURVE_BITS[i];
+                    }
+                }
+            }
+            if (facts.keyBits < 0) {
+                // Explicit or unknown curve: size from the point, 04 || X || Y or 02/03 || X
+                int pointLength = key.end - keyStart;
+                facts.keyBits = (der[keyStart] == 0x04 ? (pointLength - 1) / 2 : pointLength - 1) * 8;
+            }
+        } else if (part.contentEquals(der, OID_DSA)) {
+            facts.keyAlgorithm = "DSA";
+            Tlv params = new Tlv();
+            params.read(der, paramsPos, algorithm.end, SEQUENCE);
+            part.read(der, params.start, params.end, INTEGER);
+            facts.keyBits = integerBits(der, part);
+        } else if (part.contentEquals(der, OID_ED25519)) {
+            facts.keyAlgorithm = "Ed25519";
+            facts.keyBits = 256;
+        } else if (part.contentEquals(der, OID_ED448)) {
+            facts.keyAlgorithm = "Ed448";
+            facts.keyBits = 456;
+        } else {
+            facts.keyAlgorithm = dotted(der, part);
+            facts.keyBits = (key.end - keyStart) * 8;
+        }
+    }
+
+    private static void extensions(byte[] der, Tlv extensions, HostName host, CertificateFacts facts) {
+        Tlv extension = new Tlv();
+        Tlv part = new Tlv();
+        Tlv name = new Tlv();
+        int pos = extensions.start;
+        while (pos < extensions.end) {
+            pos = extension.read(der, pos, extensions.end, SEQUENCE);
+            int valuePos = part.read(der, extension.start, extension.end, OBJECT_IDENTIFIER);
+            boolean san = part.contentEquals(der, OID_SUBJECT_ALT_NAME);
+            boolean basicConstraints = !san && part.contentEquals(der, OID_BASIC_CONSTRAINTS);
+            if (!san && !basicConstraints) {
+                continue;
+            }
+            valuePos = part.read(der, valuePos, extension.end, -1);
+            if (part.tag == BOOLEAN) {
+                part.read(der, valuePos, extension.end, OCTET_STRING); // skip critical
+            } else if (part.tag != OCTET_STRING) {
+                throw new IllegalArgumentException("Extension value is not an OCTET STRING");
+            }
+            Tlv value = new Tlv();
+            value.read(der, part.start, part.end, SEQUENCE);
+
+            if (basicConstraints) {
+                if (value.start < value.end) {
+                    part.read(der, value.start, value.end, -1);
+                    facts.certificateAuthority = part.tag == BOOLEAN && part.end > part.start && der[part.start] != 0;
+                }
+                continue;
+            }
+
+            // GeneralNames: one TLV per name, context tags [0]..[8]
+            int namePos = value.start;
+            while (namePos < value.end) {
+                namePos = name.read(der, namePos, value.end, -1);
+                if (name.tag == SAN_DNS_NAME) {
+                    facts.dnsNames++;
+                    if (host != null && !facts.hostMatch && host.address == null) {
+                        facts.hostMatch = host.matchesDns(der, name.start, name.end);
+                    }
+                } else if (name.tag == SAN_IP_ADDRESS) {
+                    facts.ipAddresses++;
+                    if (host != null && !facts.hostMatch && host.address != null) {
+                        facts.hostMatch = name.contentEquals(der, host.address);
+                    }
+                } else {
+                    facts.otherNames++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Host name prepared once per chain: lower-case ASCII bytes, or the address for an IP literal
+     */
+    private static final class HostName {
+        final byte[] name;
+        final byte[] address;
+        // Index of the first '.', where a wildcard's suffix starts
+        final int firstDot;
+
+        HostName(String host) {
+            String normalized = host.toLowerCase(Locale.ROOT);
+            if (normalized.endsWith(".")) {
+                normalized = normalized.substring(0, normalized.length() - 1);
+            }
+            byte[] literal = null;
+            if (DnsCache.isLiteral(normalized)) {
+                try {
+                    literal = InetAddress.getByName(normalized).getAddress();
+                } catch (UnknownHostException e) {
+                    // Not a valid literal after all; matched as a name and fails
+                }
+            }
+            this.address = literal;
+            this.name = normalized.getBytes(StandardCharsets.US_ASCII);
+            this.firstDot = normalized.indexOf('.');
+        }
+
+        /**
+         * Whether the dNSName at der[start, end) covers this host; a wildcard only as the whole left-most label
+         */
+        boolean matchesDns(byte[] der, int start, int end) {
+            if (end > start && der[end - 1] == '.') {
+                end--;
+            }
+            if (end - start > 2 && der[start] == '*' && der[start + 1] == '.') {
+                // "*.example.com" matches exactly one non-empty label in front of ".example.com"
+                return firstDot > 0 && name.length - firstDot == end - start - 1 &&
+                    equalsIgnoreCase(der, start + 1, name, firstDot, end - start - 1);
+            }
+            return name.length == end - start && equalsIgnoreCase(der, start, name, 0, name.length);
+        }
+
+        private static boolean equalsIgnoreCase(byte[] der, int derStart, byte[] lower, int lowerStart, int length) {
+            for (int i = 0; i < length; i++) {
+                int b = der[derStart + i];
+                if (b >= 'A' && b <= 'Z') {
+                    b += 'a' - 'A';
+                }
+                if (b != lower[lowerStart + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * One DER element: tag and content bounds in the encoded array
+     */
+    private static final class Tlv {
+        int tag;
+        int start;
+        int end;
+
+        /**
+         * Read the element at pos (within limit), expecting tag unless it is -1; returns the position after it
+         */
+        int read(byte[] der, int pos, int limit, int expectedTag) {
+            if (pos + 2 > limit) {
+                throw new IllegalArgumentException("Truncated DER at offset " + pos);
+            }
+            tag = der[pos++] & 0xff;
+            if ((tag & 0x1f) == 0x1f) {
+                throw new IllegalArgumentException("Unsupported high tag number at offset " + (pos - 1));
+            }
+            if (expectedTag >= 0 && tag != expectedTag) {
+                throw new IllegalArgumentException(String.format("Expected tag 0x%02x but found 0x%02x at offset %d",
+                    expectedTag, tag, pos - 1));
+            }
+            int length = der[pos++] & 0xff;
+            if (length >= 0x80) {
+                int bytes = length & 0x7f;
+                if (bytes == 0 || bytes > 3 || pos + bytes > limit) {
+                    throw new IllegalArgumentException("Unsupported DER length at offset " + (pos - 1));
+                }
+                length = 0;
+                for (int i = 0; i < bytes; i++) {
+                    length = (length << 8) | (der[pos++] & 0xff);
+                }
+            }
+            if (length > limit - pos) {
+                throw new IllegalArgumentException("DER element overruns its container at offset " + pos);
+            }
+            start = pos;
+            end = pos + length;
+            return end;
+        }
+
+        boolean contentEquals(byte[] der, byte[] expected) {
+            if (end - start != expected.length) {
+                return false;
+            }
+            for (int i = 0; i < expected.length; i++) {
+                if (der[start + i] != expected[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static String lookup(byte[] der, Tlv oid, byte[][] oids, String[] names) {
+        for (int i = 0; i < oids.length; i++) {
+            if (oid.contentEquals(der, oids[i])) {
+                return names[i];
+            }
+        }
+        return dotted(der, oid);
+    }
+
+    /**
+     * Significant bits of a positive INTEGER
+     */
+    private static int integerBits(byte[] der, Tlv integer) {
+        int pos = integer.start;
+        while (pos < integer.end - 1 && der[pos] == 0) {
+            pos++;
+        }
+        return (integer.end - pos - 1) * 8 + (32 - Integer.numberOfLeadingZeros(der[pos] & 0xff));
+    }
+
+    /**
+     * UTCTime or GeneralizedTime ("Z" form, as RFC 5280 requires) as epoch milliseconds
+     */
+    private static long time(byte[] der, Tlv time) {
+        int pos = time.start;
+        int year;
+        if (time.tag == UTC_TIME) {
+            year = digits(der, pos, 2);
+            year += year < 50 ? 2000 : 1900;
+            pos += 2;
+        } else if (time.tag == GENERALIZED_TIME) {
+            year = digits(der, pos, 4);
+            pos += 4;
+        } else {
+            throw new IllegalArgumentException(String.format("Expected a time but found tag 0x%02x", time.tag));
+        }
+        int month = digits(der, pos, 2);
+        int day = digits(der, pos + 2, 2);
+        int hour = digits(der, pos + 4, 2);
+        int minute = digits(der, pos + 6, 2);
+        int second = time.end - pos > 10 ? digits(der, pos + 8, 2) : 0;
+
+        // Days since 1970-01-01 in the proleptic Gregorian calendar
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+        return ((days * 24 + hour) * 60 + minute) * 60_000L + second * 1000L;
+    }
+
+    private static int digits(byte[] der, int pos, int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            int digit = der[pos + i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Malformed time at offset " + (pos + i));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static String dotted(byte[] der, Tlv oid) {
+        StringBuilder out = new StringBuilder();
+        long value = 0;
+        boolean first = true;
+        for (int i = oid.start; i < oid.end; i++) {
+            value = (value << 7) | (der[i] & 0x7f);
+            if ((der[i] & 0x80) == 0) {
+                if (first) {
+                    int arc = (int) Math.min(2, value / 40);
+                    out.append(arc).append('.').append(value - arc * 40L);
+                    first = false;
+                } else {
+                    out.append('.').append(value);
+                }
+                value = 0;
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * OID content bytes (no tag or length) for a dotted string
+     */
+    private static byte[] oid(String dotted) {
+        String[] arcs = dotted.split("\\.");
+        java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+        long first = Long.parseLong(arcs[0]) * 40 + Long.parseLong(arcs[1]);
+        for (int i = 1; i < arcs.length; i++) {
+            long arc = i == 1 ? first : Long.parseLong(arcs[i]);
+            int groups = Math.max(1, (64 - Long.numberOfLeadingZeros(arc) + 6) / 7);
+            for (int g = groups - 1; g >= 0; g--) {
+                out.write((int) ((arc >>> (7 * g)) & 0x7f) | (g > 0 ? 0x80 : 0));
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,439 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.*;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import javax.net.ssl.*;
+
+/**
+ * Local CA that mints a leaf certificate per requested host name (SNI) on demand.
+ *
+ * Generating a key pair is the slow part of minting (tens of milliseconds for
+ * RSA 2048), so a background thread keeps a pool of them ready and the first
+ * handshake for a new host name only pays for one CA signature. The CA key is
+ * EC P-256, which keeps that signature cheap whatever the leaf key type.
+ * Minted certificates are kept in an LRU cache by host name; concurrent first
+ * handshakes for a name wait on one mint. Each minted leaf has its own key
+ * manager alias, so a handshake's chain and private key always belong
+ * together. Names outside the mint policy, or beyond its rate, get the
+ * default host's certificate instead of a new one.
+ *
+ * The CA is stored in a PKCS#12 file and reused across restarts, with its
+ * certificate next to it as PEM for clients to trust. The PKCS#12 file and a
+ * directory created for it are readable by the owner only.
+ */
+final class CertificateAuthority {
+    private static final String CA_ALIAS = "proxy-ca";
+    // Host name used when the client sends no SNI
+    private static final String DEFAULT_HOST = "localhost";
+    private static final int LEAF_VALID_DAYS = 397;
+
+    private final PrivateKey caKey;
+    private final X509Certificate caCertificate;
+    private final KeyPairPool keyPool;
+    private final int cacheSize;
+    // Access-ordered, so iteration starts at the least recently used host; pending until minted
+    private final LinkedHashMap<String, CompletableFuture<Leaf>> leaves = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder minted = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder mintNanos = new LongAdder();
+    private final LongAdder mintsRefused = new LongAdder();
+    // Guarded by this
+    private Predicate<String> mintable = host -> true;
+    private int mintsPerMinute = Integer.MAX_VALUE;
+    private long mintWindow;
+    private int mintsInWindow;
+
+    /**
+     * A minted certificate chain (leaf, CA), its private key and the key manager alias naming both
+     */
+    static final class Leaf {
+        final String alias;
+        final X509Certificate[] chain;
+        final PrivateKey privateKey;
+
+        Leaf(String alias, X509Certificate[] chain, PrivateKey privateKey) {
+            this.alias = alias;
+            this.chain = chain;
+            this.privateKey = privateKey;
+        }
+    }
+
+    private CertificateAuthority(PrivateKey caKey, X509Certificate caCertificate, String leafKeyType,
+            int poolSize, int cacheSize) throws GeneralSecurityException {
+        this.caKey = caKey;
+        this.caCertificate = caCertificate;
+        this.keyPool = new KeyPairPool(leafKeyType, poolSize);
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * CA loaded from caFile, or created and saved there (plus caFile's PEM sibling) if it does not exist.
+     * Leaf keys are "RSA" (2048 bit) or "EC" (P-256).
+     */
+    static CertificateAuthority loadOrCreate(File caFile, char[] password, String leafKeyType, int poolSize,
+            int cacheSize) throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        if (caFile.exists()) {
+            try (FileInputStream in = new FileInputStream(caFile)) {
+                keyStore.load(in, password);
+            }
+            return new CertificateAuthority((PrivateKey) keyStore.getKey(CA_ALIAS, password),
+                (X509Certificate) keyStore.getCertificate(CA_ALIAS), leafKeyType, poolSize, cacheSize);
+        }
+
+        KeyPair caKeyPair = generateKeyPair("EC");
+        X509Certificate caCertificate = new CertificateBuilder()
+            .subject("CN=SecureSSLProxy Local CA " + Long.toHexString(System.currentTimeMillis()) + ", O=SecureSSLProxy")
+            .certificateAuthority(true)
+            .validDays(3650)
+            .selfSign(caKeyPair);
+        keyStore.load(null, null);
+        keyStore.setKeyEntry(CA_ALIAS, caKeyPair.getPrivate(), password, new Certificate[]{caCertificate});
+        File directory = caFile.getAbsoluteFile().getParentFile();
+        if (!directory.exists()) {
+            createPrivateDirectories(directory.toPath());
+        }
+        try (OutputStream out = createPrivateFile(caFile.toPath())) {
+            keyStore.store(out, password);
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(pemFile(caFile)), StandardCharsets.US_ASCII)) {
+            out.write(toPem(caCertificate));
+        }
+        return new CertificateAuthority(caKeyPair.getPrivate(), caCertificate, leafKeyType, poolSize, cacheSize);
+    }
+
+    /**
+     * In-memory CA for tests and benchmarks; nothing is written to disk
+     */
+    static CertificateAuthority ephemeral(String leafKeyType, int poolSize, int cacheSize)
+            throws GeneralSecurityException {
+        KeyPair caKeyPair = generateKeyPair("EC");
+        X509Certificate caCertificate = new CertificateBuilder()
+            .subject("CN=SecureSSLProxy Ephemeral CA, O=SecureSSLProxy")
+            .certificateAuthority(true)
+            .validDays(1)
+            .selfSign(caKeyPair);
+        return new CertificateAuthority(caKeyPair.getPrivate(), caCertificate, leafKeyType, poolSize, cacheSize);
+    }
+
+    private static void createPrivateDirectories(Path directory) throws IOException {
+        try {
+            Files.createDirectories(directory,
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createDirectories(directory);
+        }
+    }
+
+    /**
+     * New file with owner-only permissions where the file system has them; fails if it already exists
+     */
+    private static OutputStream createPrivateFile(Path file) throws IOException {
+        try {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(file);
+        }
+        return Files.newOutputStream(file);
+    }
+
+    /**
+     * "proxy-ca.p12" -> "proxy-ca.pem"
+     */
+    static File pemFile(File caFile) {
+        String name = caFile.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(caFile.getAbsoluteFile().getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + ".pem");
+    }
+
+    private static String toPem(X509Certificate certificate) throws GeneralSecurityException {
+        return "-----BEGIN CERTIFICATE-----\n" +
+            Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII)).encodeToString(certificate.getEncoded()) +
+            "\n-----END CERTIFICATE-----\n";
+    }
+
+    private static KeyPair generateKeyPair(String type) throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(type);
+        if (type.equals("EC")) {
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+        } else {
+            generator.initialize(2048);
+        }
+        return generator.generateKeyPair();
+    }
+
+    X509Certificate getCertificate() {
+        return caCertificate;
+    }
+
+    String getLeafKeyType() {
+        return keyPool.type;
+    }
+
+    void registerMetrics(ProxyMetrics metrics) {
+        metrics.gauge("ca.minted", minted::sum);
+        metrics.gauge("ca.cache_hits", cacheHits::sum);
+        metrics.gauge("ca.cache_entries", this::cachedCount);
+        metrics.gauge("ca.mint_micros_avg", () -> {
+            long count = minted.sum();
+            return count > 0 ? mintNanos.sum() / count / 1000 : 0;
+        });
+        metrics.gauge("ca.mints_refused", mintsRefused::sum);
+        metrics.gauge("ca.keypool.available", keyPool.ready::size);
+        metrics.gauge("ca.keypool.misses", keyPool.misses::sum);
+    }
+
+    private synchronized int cachedCount() {
+        return leaves.size();
+    }
+
+    /**
+     * Mint only for host names mintable accepts, and at most perMinute new certificates a minute
+     */
+    synchronized void restrictMinting(Predicate<String> mintable, int perMinute) {
+        this.mintable = mintable;
+        this.mintsPerMinute = perMinute;
+    }
+
+    // Caller holds the lock
+    private boolean mayMint(String host) {
+        if (host.equals(DEFAULT_HOST)) {
+            return true;
+        }
+        if (!mintable.test(host)) {
+            return false;
+        }
+        long window = System.currentTimeMillis() / 60000;
+        if (window != mintWindow) {
+            mintWindow = window;
+            mintsInWindow = 0;
+        }
+        if (mintsInWindow >= mintsPerMinute) {
+            return false;
+        }
+        mintsInWindow++;
+        return true;
+    }
+
+    /**
+     * The minted leaf named by alias, or null once it has left the cache
+     */
+    private synchronized Leaf byAlias(String alias) {
+        int hash = alias.lastIndexOf('#');
+        CompletableFuture<Leaf> pending = leaves.get(hash > 0 ? alias.substring(0, hash) : alias);
+        Leaf leaf = pending != null ? pending.getNow(null) : null;
+        return leaf != null && leaf.alias.equals(alias) ? leaf : null;
+    }
+
+    /**
+     * Certificate chain and key for host, minted and cached on first use; null if the mint policy refuses host.
+     * Concurrent callers for a new host wait for one mint.
+     */
+    Leaf leafFor(String host) throws GeneralSecurityException {
+        host = host.toLowerCase(Locale.ROOT);
+        CompletableFuture<Leaf> pending;
+        boolean mint = false;
+        synchronized (this) {
+            pending = leaves.get(host);
+            if (pending != null) {
+                cacheHits.increment();
+            } else if (!mayMint(host)) {
+                mintsRefused.increment();
+                return null;
+            } else {
+                pending = new CompletableFuture<>();
+                leaves.put(host, pending);
+                mint = true;
+                Iterator<String> eldest = leaves.keySet().iterator();
+                while (leaves.size() > cacheSize && eldest.hasNext()) {
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+        }
+
+        if (mint) {
+            try {
+                pending.complete(mint(host));
+            } catch (GeneralSecurityException | RuntimeException e) {
+                synchronized (this) {
+                    leaves.remove(host, pending);
+                }
+                pending.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return pending.join();
+        } catch (CompletionException e) {
+            throw new GeneralSecurityException("Cannot mint certificate for " + host, e.getCause());
+        }
+    }
+
+    /**
+     * Sign a new leaf for host with a pooled key pair; runs outside the lock
+     */
+    private Leaf mint(String host) throws GeneralSecurityException {
+        long start = System.nanoTime();
+        KeyPair keyPair = keyPool.take();
+        CertificateBuilder builder = new CertificateBuilder()
+            .subject("CN=" + host)
+            .publicKey(keyPair.getPublic())
+            .validDays(LEAF_VALID_DAYS)
+            .dnsName(host);
+        if (host.equals(DEFAULT_HOST)) {
+            builder.ipAddress(InetAddress.getLoopbackAddress());
+        }
+        X509Certificate certificate = builder.sign(caCertificate.getSubjectX500Principal(), caKey);
+        Leaf leaf = new Leaf(host + "#" + certificate.getSerialNumber().toString(16),
+            new X509Certificate[]{certificate, caCertificate}, keyPair.getPrivate());
+        mintNanos.add(System.nanoTime() - start);
+        minted.increment();
+        return leaf;
+    }
+
+    /**
+     * Server key manager that picks the certificate by SNI, minting it if needed
+     */
+    X509ExtendedKeyManager keyManager() {
+        return new MintingKeyManager();
+    }
+
+    void close() {
+        keyPool.close();
+    }
+
+    /**
+     * Pre-generated key pairs, refilled by a daemon thread; an empty pool falls back to generating inline
+     */
+    private static final class KeyPairPool {
+        final String type;
+        final BlockingQueue<KeyPair> ready;
+        final LongAdder misses = new LongAdder();
+        private final Thread filler;
+
+        KeyPairPool(String type, int size) throws GeneralSecurityException {
+            this.type = type;
+            this.ready = new ArrayBlockingQueue<>(Math.max(1, size));
+            KeyPairGenerator.getInstance(type); // fail now on an unsupported type
+
+            filler = new Thread(() -> {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        ready.put(generateKeyPair(type));
+                    }
+                } catch (InterruptedException e) {
+                    // Closed
+                } catch (GeneralSecurityException e) {
+                    System.err.println("Key pair pool stopped: " + e.getMessage());
+                }
+            }, "ca-keygen");
+            filler.setDaemon(true);
+            filler.setPriority(Thread.MIN_PRIORITY);
+            filler.start();
+        }
+
+        KeyPair take() throws GeneralSecurityException {
+            KeyPair keyPair = ready.poll();
+            if (keyPair != null) {
+                return keyPair;
+            }
+            misses.increment();
+            return generateKeyPair(type);
+        }
+
+        void close() {
+            filler.interrupt();
+        }
+    }
+
+    /**
+     * Aliases name one minted leaf ("host#n"); a server alias is only offered for the leaf key type the pool produces
+     */
+    private final class MintingKeyManager extends X509ExtendedKeyManager {
+        @Override
+        public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+            SSLSession session = socket instanceof SSLSocket ? ((SSLSocket) socket).getHandshakeSession() : null;
+            return chooseAlias(keyType, session);
+        }
+
+        @Override
+        public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+            return chooseAlias(keyType, engine != null ? engine.getHandshakeSession() : null);
+        }
+
+        private String chooseAlias(String keyType, SSLSession session) {
+            if (!keyPool.type.equals(keyType)) {
+                return null;
+            }
+            String host = DEFAULT_HOST;
+            if (session instanceof ExtendedSSLSession) {
+                for (SNIServerName name : ((ExtendedSSLSession) session).getRequestedServerNames()) {
+                    if (name instanceof SNIHostName) {
+                        host = ((SNIHostName) name).getAsciiName();
+                        break;
+                    }
+                }
+            }
+            // Minted (or waited for) here, so the chain and key looked up by alias below are one pair
+            Leaf leaf = leaf(host);
+            if (leaf == null && !host.equals(DEFAULT_HOST)) {
+                leaf = leaf(DEFAULT_HOST);
+            }
+            return leaf != null ? leaf.alias : null;
+        }
+
+        @Override
+        public X509Certificate[] getCertificateChain(String alias) {
+            Leaf leaf = byAlias(alias);
+            return leaf != null ? leaf.chain.clone() : null;
+        }
+
+        @Override
+        public PrivateKey getPrivateKey(String alias) {
+            Leaf leaf = byAlias(alias);
+            return leaf != null ? leaf.privateKey : null;
+        }
+
+        private Leaf leaf(String host) {
+            try {
+                return leafFor(host);
+            } catch (GeneralSecurityException e) {
+                System.err.println("Cannot mint certificate for " + host + ": " + e.getMessage());
+                return null;
+            }
+        }
+
+        @Override
+        public String[] getServerAliases(String keyType, Principal[] issuers) {
+            if (!keyPool.type.equals(keyType)) {
+                return null;
+            }
+            Leaf leaf = leaf(DEFAULT_HOST);
+            return leaf != null ? new String[]{leaf.alias} : null;
+        }
+
+        @Override
+        public String[] getClientAliases(String keyType, Principal[] issuers) {
+            return null;
+        }
+
+        @Override
+        public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+import java.io.*;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.security.*;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.ECKey;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * Minimal X.509 v3 certificate builder (DER encoding done by hand, since the
+ * JDK has no public API for issuing certificates). Supports subject
+ * alternative names, basic constraints and key usage, signed with
+ * SHA256withRSA or SHA256/384withECDSA depending on the issuer key.
+ */
+final class CertificateBuilder {
+    private static final String OID_BASIC_CONSTRAINTS = "2.5.29.19";
+    private static final String OID_KEY_USAGE = "2.5.29.15";
+    private static final String OID_SUBJECT_ALT_NAME = "2.5.29.17";
+    private static final String OID_SHA256_WITH_RSA = "1.2.840.113549.1.1.11";
+    private static final String OID_SHA256_WITH_ECDSA = "1.2.840.10045.4.3.2";
+    private static final String OID_SHA384_WITH_ECDSA = "1.2.840.10045.4.3.3";
+
+    private static final int KEY_USAGE_DIGITAL_SIGNATURE = 0x80;
+    private static final int KEY_USAGE_KEY_ENCIPHERMENT = 0x20;
+    private static final int KEY_USAGE_KEY_CERT_SIGN = 0x04;
+    private static final int KEY_USAGE_CRL_SIGN = 0x02;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private X500Principal subject = new X500Principal("CN=localhost");
+    private PublicKey publicKey;
+    private Date notBefore = new Date(System.currentTimeMillis() - 60_000);
+    private Date notAfter = new Date(System.currentTimeMillis() + 365L * 24 * 3600 * 1000);
+    private final List<String> dnsNames = new ArrayList<>();
+    private final List<InetAddress> ipAddresses = new ArrayList<>();
+    private boolean certificateAuthority = false;
+
+    CertificateBuilder subject(String distinguishedName) {
+        this.subject = new X500Principal(distinguishedName);
+        return this;
+    }
+
+    CertificateBuilder publicKey(PublicKey publicKey) {
+        this.publicKey = publicKey;
+        return this;
+    }
+
+    CertificateBuilder validity(Date notBefore, Date notAfter) {
+        this.notBefore = notBefore;
+        this.notAfter = notAfter;
+        return this;
+    }
+
+    CertificateBuilder validDays(int days) {
+        return validity(new Date(System.currentTimeMillis() - 60_000),
+            new Date(System.currentTimeMillis() + days * 24L * 3600 * 1000));
+    }
+
+    CertificateBuilder dnsName(String name) {
+        dnsNames.add(name);
+        return this;
+    }
+
+    CertificateBuilder ipAddress(InetAddress address) {
+        ipAddresses.add(address);
+        return this;
+    }
+
+    CertificateBuilder certificateAuthority(boolean certificateAuthority) {
+        this.certificateAuthority = certificateAuthority;
+        return this;
+    }
+
+    /**
+     * Self-signed certificate for the given key pair
+     */
+    X509Certificate selfSign(KeyPair keyPair) throws GeneralSecurityException {
+        publicKey = keyPair.getPublic();
+        return sign(subject, keyPair.getPrivate());
+    }
+
+    /**
+     * Certificate for this builder's public key, issued by the given issuer
+     */
+    X509Certificate sign(X500Principal issuer, PrivateKey issuerKey) throws GeneralSecurityException {
+        if (publicKey == null) {
+            throw new IllegalStateException("No public key set");
+        }
+        String signatureOid = signatureOid(issuerKey);
+        byte[] algorithm = sequence(oid(signatureOid), issuerKey.getAlgorithm().equals("RSA") ? nullValue() : new byte[0]);
+
+        byte[] tbs = sequence(
+            explicit(0, integer(BigInteger.valueOf(2))),
+            integer(new BigInteger(64, RANDOM).setBit(63)),
+            algorithm,
+            issuer.getEncoded(),
+            sequence(time(notBefore), time(notAfter)),
+            subject.getEncoded(),
+            publicKey.getEncoded(),
+            explicit(3, sequence(extensions())));
+
+        Signature signature = Signature.getInstance(signatureAlgorithm(signatureOid));
+        signature.initSign(issuerKey);
+        signature.update(tbs);
+        byte[] certificate = sequence(tbs, algorithm, bitString(signature.sign(), 0));
+
+        CertificateFactory factory = CertificateFactory.getInstance("X.509");
+        try {
+            return (X509Certificate) factory.generateCertificate(new ByteArrayInputStream(certificate));
+        } catch (CertificateException e) {
+            throw new GeneralSecurityException("Generated certificate does not parse", e);
+        }
+    }
+
+    private byte[] extensions() {
+        List<byte[]> extensions = new ArrayList<>();
+        extensions.add(extension(OID_BASIC_CONSTRAINTS, true,
+            certificateAuthority ? sequence(tlv(0x01, new byte[]{(byte) 0xff})) : sequence()));
+
+        int usage = certificateAuthority
+            ? KEY_USAGE_KEY_CERT_SIGN | KEY_USAGE_CRL_SIGN | KEY_USAGE_DIGITAL_SIGNATURE
+            : KEY_USAGE_DIGITAL_SIGNATURE | (publicKey.getAlgorithm().equals("RSA") ? KEY_USAGE_KEY_ENCIPHERMENT : 0);
+        extensions.add(extension(OID_KEY_USAGE, true,
+            bitString(new byte[]{(byte) usage}, Integer.numberOfTrailingZeros(usage))));
+
+        if (!dnsNames.isEmpty() || !ipAddresses.isEmpty()) {
+            List<byte[]> names = new ArrayList<>();
+            for (String name : dnsNames) {
+                names.add(tlv(0x82, name.getBytes(java.nio.charset.StandardCharsets.US_ASCII)));
+            }
+            for (InetAddress address : ipAddresses) {
+                names.add(tlv(0x87, address.getAddress()));
+            }
+            extensions.add(extension(OID_SUBJECT_ALT_NAME, false, sequence(names.toArray(new byte[0][]))));
+        }
+        return concat(extensions.toArray(new byte[0][]));
+    }
+
+    private static String signatureOid(PrivateKey key) throws GeneralSecurityException {
+        switch (key.getAlgorithm()) {
+            case "RSA":
+                return OID_SHA256_WITH_RSA;
+            case "EC":
+                int fieldSize = ((ECKey) key).getParams().getCurve().getField().getFieldSize();
+                return fieldSize > 256 ? OID_SHA384_WITH_ECDSA : OID_SHA256_WITH_ECDSA;
+            default:
+                throw new NoSuchAlgorithmException("Unsupported issuer key: " + key.getAlgorithm());
+        }
+    }
+
+    private static String signatureAlgorithm(String oid) {
+        switch (oid) {
+            case OID_SHA256_WITH_RSA:
+                return "SHA256withRSA";
+            case OID_SHA384_WITH_ECDSA:
+                return "SHA384withECDSA";
+            default:
+                return "SHA256withECDSA";
+        }
+    }
+
+    // DER encoding helpers
+
+    private static byte[] extension(String oid, boolean critical, byte[] value) {
+        return sequence(oid(oid), critical ? tlv(0x01, new byte[]{(byte) 0xff}) : new byte[0], tlv(0x04, value));
+    }
+
+    private static byte[] time(Date date) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTime(date);
+        boolean utcTime = calendar.get(Calendar.YEAR) < 2050;
+        SimpleDateFormat format = new SimpleDateFormat(utcTime ? "yyMMddHHmmss'Z'" : "yyyyMMddHHmmss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return tlv(utcTime ? 0x17 : 0x18, format.format(date).getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] integer(BigInteger value) {
+        return tlv(0x02, value.toByteArray());
+    }
+
+    private static byte[] nullValue() {
+        return new byte[]{0x05, 0x00};
+    }
+
+    private static byte[] bitString(byte[] bits, int unusedBits) {
+        byte[] content = new byte[bits.length + 1];
+        content[0] = (byte) unusedBits;
+        System.arraycopy(bits, 0, content, 1, bits.length);
+        return tlv(0x03, content);
+    }
+
+    private static byte[] oid(String dotted) {
+        String[] parts = dotted.split("\\.");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(Integer.parseInt(parts[0]) * 40 + Integer.parseInt(parts[1]));
+        for (int i = 2; i < parts.length; i++) {
+            long value = Long.parseLong(parts[i]);
+            int shift = 63 - Long.numberOfLeadingZeros(value | 1);
+            for (int group = shift / 7; group > 0; group--) {
+                out.write((int) ((value >>> (group * 7)) & 0x7f) | 0x80);
+            }
+            out.write((int) (value & 0x7f));
+        }
+        return tlv(0x06, out.toByteArray());
+    }
+
+    private static byte[] explicit(int tag, byte[] content) {
+        return tlv(0xa0 | tag, content);
+    }
+
+    private static byte[] sequence(byte[]... elements) {
+        return tlv(0x30, concat(elements));
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] tlv(int tag, byte[] content) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length + 6);
+        out.write(tag);
+        int length = content.length;
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int bytes = (32 - Integer.numberOfLeadingZeros(length) + 7) / 8;
+            out.write(0x80 | bytes);
+            for (int i = bytes - 1; i >= 0; i--) {
+                out.write(length >>> (i * 8));
+            }
+        }
+        out.write(content, 0, content.length);
+        return out.toByteArray();
+    }
+}
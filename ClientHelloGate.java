@@ -0,0 +1,163 @@
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds accepted connections off the handshake pool until the client has sent
+ * its first bytes.
+ *
+ * A handshake thread blocks on every client read, so a client that connects
+ * and stays silent would hold one for the whole handshake deadline. Here a
+ * single selector thread watches the silent connections instead: a readable
+ * one is put back in blocking mode and handed on, one still silent after the
+ * deadline is handed to the timeout callback. Deadlines are all the same
+ * length, so arrival order is deadline order and expiry only looks at the head.
+ */
+public final class ClientHelloGate implements Closeable {
+    private static final class Waiter {
+        final SocketChannel channel;
+        final Runnable onReadable;
+        final Runnable onSilent;
+        final long deadline;
+        SelectionKey key;
+        boolean readable;
+        boolean done;
+
+        Waiter(SocketChannel channel, Runnable onReadable, Runnable onSilent, long deadline) {
+            this.channel = channel;
+            this.onReadable = onReadable;
+            this.onSilent = onSilent;
+            this.deadline = deadline;
+        }
+    }
+
+    private final long timeoutNanos;
+    private final Selector selector;
+    private final Queue<Waiter> arrivals = new ConcurrentLinkedQueue<>();
+    private final ArrayDeque<Waiter> byDeadline = new ArrayDeque<>(); // selector thread only
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public ClientHelloGate(long timeoutMillis) throws IOException {
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, "client-hello-gate");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Wait for the client on a newly accepted channel. Exactly one of the callbacks
+     * runs, on the gate thread, so both must be quick: onReadable with the channel
+     * back in blocking mode, onSilent when the deadline passes or the channel fails.
+     */
+    public void await(SocketChannel channel, Runnable onReadable, Runnable onSilent) {
+        waiting.incrementAndGet();
+        arrivals.add(new Waiter(channel, onReadable, onSilent, System.nanoTime() + timeoutNanos));
+        selector.wakeup();
+    }
+
+    /**
+     * Connections accepted but not yet heard from
+     */
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    private void run() {
+        // Keys cancelled in one round are only deregistered by the next select,
+        // and a channel cannot go back to blocking mode before that
+        List<Waiter> handOff = new ArrayList<>();
+        while (running) {
+            try {
+                if (!handOff.isEmpty()) {
+                    selector.selectNow();
+                } else if (byDeadline.isEmpty()) {
+                    selector.select();
+                } else {
+                    long remaining = byDeadline.peek().deadline - System.nanoTime();
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining) + 1));
+                }
+            } catch (IOException e) {
+                continue;
+            }
+            for (Waiter waiter : handOff) {
+                finish(waiter);
+            }
+            handOff.clear();
+
+            Waiter arrival;
+            while ((arrival = arrivals.poll()) != null) {
+                try {
+                    arrival.channel.configureBlocking(false);
+                    arrival.key = arrival.channel.register(selector, SelectionKey.OP_READ, arrival);
+                    byDeadline.add(arrival);
+                } catch (IOException | RuntimeException e) {
+                    arrival.done = true;
+                    finish(arrival);
+                }
+            }
+
+            for (SelectionKey key : selector.selectedKeys()) {
+                Waiter waiter = (Waiter) key.attachment();
+                key.cancel();
+                waiter.readable = true;
+                waiter.done = true;
+                handOff.add(waiter);
+            }
+            selector.selectedKeys().clear();
+
+            long now = System.nanoTime();
+            Waiter head;
+            while ((head = byDeadline.peek()) != null && (head.done || now - head.deadline >= 0)) {
+                byDeadline.poll();
+                if (!head.done) {
+                    head.key.cancel();
+                    head.done = true;
+                    handOff.add(head);
+                }
+            }
+        }
+        for (Waiter waiter : handOff) {
+            waiter.readable = false;
+            finish(waiter);
+        }
+        for (Waiter waiter : byDeadline) {
+            if (!waiter.done) {
+                finish(waiter);
+            }
+        }
+        for (Waiter waiter : arrivals) {
+            finish(waiter);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+
+    private void finish(Waiter waiter) {
+        waiting.decrementAndGet();
+        try {
+            if (waiter.readable) {
+                waiter.channel.configureBlocking(true);
+                waiter.onReadable.run();
+                return;
+            }
+        } catch (IOException e) {
+            // Fall through and drop it like a silent client
+        }
+        waiter.onSilent.run();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,228 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hashed timing wheel tracking handshake, header-read, idle and lifetime
+ * deadlines for every proxy connection.
+ *
+ * Each connection is one intrusive list node placed in the bucket of its
+ * nearest deadline, so register, phase change and cancel are O(1) and a single
+ * ticker thread serves any number of connections. Expired connections are
+ * closed, which also unblocks a handler stuck in a read or a write.
+ */
+public final class ConnectionTimeoutWheel {
+    public enum Phase { HANDSHAKE, HEADER_READ, IDLE }
+
+    /** Reported when the max-lifetime deadline fires before the phase deadline */
+    public static final String LIFETIME = "lifetime";
+
+    private final long tickNanos;
+    private final int mask;
+    private final Entry[] buckets;
+    private final long startNanos;
+    private final Thread ticker;
+    private final Map<String, LongAdder> expiredCounters = new HashMap<>();
+    private final LongAdder expiredTotal;
+    private long currentTick = 0;
+    private int tracked = 0;
+    private volatile boolean running = true;
+
+    /**
+     * @param tickMillis resolution of the wheel
+     * @param wheelSize number of buckets, rounded up to a power of two
+     */
+    public ConnectionTimeoutWheel(long tickMillis, int wheelSize, ProxyMetrics metrics) {
+        int size = Integer.highestOneBit(Math.max(16, wheelSize - 1) << 1);
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.mask = size - 1;
+        this.buckets = new Entry[size];
+        this.startNanos = System.nanoTime();
+
+        for (Phase phase : Phase.values()) {
+            String name = phase.name().toLowerCase(Locale.ROOT);
+            expiredCounters.put(name, metrics.counter("timeouts.expired." + name));
+        }
+        expiredCounters.put(LIFETIME, metrics.counter("timeouts.expired." + LIFETIME));
+        this.expiredTotal = metrics.counter("timeouts.expired.total");
+        metrics.gauge("timeouts.tracked", this::getTrackedCount);
+
+        this.ticker = new Thread(this::runTicker, "timeout-wheel");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * Start tracking a connection in the given phase
+     */
+    public Entry register(Closeable target, Phase phase, long phaseTimeoutMillis, long maxLifetimeMillis) {
+        Entry entry = new Entry(target);
+        long now = System.nanoTime();
+        entry.lifetimeDeadline = now + TimeUnit.MILLISECONDS.toNanos(maxLifetimeMillis);
+        entry.phase = phase;
+        entry.phaseDeadline = now + TimeUnit.MILLISECONDS.toNanos(phaseTimeoutMillis);
+        synchronized (this) {
+            tracked++;
+            schedule(entry);
+        }
+        return entry;
+    }
+
+    public synchronized int getTrackedCount() {
+        return tracked;
+    }
+
+    public void shutdown() {
+        running = false;
+        ticker.interrupt();
+    }
+
+    /**
+     * Handle for one tracked connection
+     */
+    public final class Entry {
+        private final Closeable target;
+        private Phase phase;
+        private long phaseDeadline;
+        private long lifetimeDeadline;
+        private long deadlineTick;
+        private Entry prev;
+        private Entry next;
+        private boolean scheduled = false;
+        private boolean done = false;
+        private volatile boolean expired = false;
+
+        private Entry(Closeable target) {
+            this.target = target;
+        }
+
+        /**
+         * Move to a new phase with a fresh deadline; the lifetime deadline is kept
+         */
+        public void enterPhase(Phase newPhase, long timeoutMillis) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            synchronized (ConnectionTimeoutWheel.this) {
+                if (done) {
+                    return;
+                }
+                unlink(this);
+                phase = newPhase;
+                phaseDeadline = deadline;
+                schedule(this);
+            }
+        }
+
+        /**
+         * True once the wheel closed this connection because a deadline passed
+         */
+        public boolean isExpired() {
+            return expired;
+        }
+
+        /**
+         * Stop tracking; safe to call more than once
+         */
+        public void cancel() {
+            synchronized (ConnectionTimeoutWheel.this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                tracked--;
+                unlink(this);
+            }
+        }
+    }
+
+    private void schedule(Entry entry) {
+        long deadline = Math.min(entry.phaseDeadline, entry.lifetimeDeadline);
+        long tick = (deadline - startNanos + tickNanos - 1) / tickNanos;
+        // Never schedule into a bucket the ticker has already passed
+        entry.deadlineTick = Math.max(tick, currentTick + 1);
+
+        int index = (int) (entry.deadlineTick & mask);
+        entry.prev = null;
+        entry.next = buckets[index];
+        if (entry.next != null) {
+            entry.next.prev = entry;
+        }
+        buckets[index] = entry;
+        entry.scheduled = true;
+    }
+
+    private void unlink(Entry entry) {
+        if (!entry.scheduled) {
+            return;
+        }
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            buckets[(int) (entry.deadlineTick & mask)] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+        entry.scheduled = false;
+    }
+
+    private void runTicker() {
+        List<Entry> expired = new ArrayList<>();
+        while (running) {
+            long nextTickNanos = startNanos + (currentTick + 1) * tickNanos;
+            long sleepNanos = nextTickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+
+            long nowTick = (System.nanoTime() - startNanos) / tickNanos;
+            synchronized (this) {
+                // Catch up on every tick that elapsed, e.g. after a GC pause
+                while (currentTick < nowTick) {
+                    currentTick++;
+                    collectExpired(currentTick, expired);
+                }
+            }
+
+            for (Entry entry : expired) {
+                expire(entry);
+            }
+            expired.clear();
+        }
+    }
+
+    private void collectExpired(long tick, List<Entry> expired) {
+        int index = (int) (tick & mask);
+        Entry entry = buckets[index];
+        while (entry != null) {
+            Entry next = entry.next;
+            // Entries for later rotations of the wheel share the bucket and stay put
+            if (entry.deadlineTick <= tick) {
+                unlink(entry);
+                entry.done = true;
+                entry.expired = true;
+                tracked--;
+                expired.add(entry);
+            }
+            entry = next;
+        }
+    }
+
+    private void expire(Entry entry) {
+        String reason = entry.lifetimeDeadline <= entry.phaseDeadline
+            ? LIFETIME : entry.phase.name().toLowerCase(Locale.ROOT);
+        expiredCounters.get(reason).increment();
+        expiredTotal.increment();
+        try {
+            entry.target.close();
+        } catch (IOException e) {
+            // Already closed by the handler
+        }
+    }
+}
@@ -0,0 +1,60 @@
+import jdk.jfr.*;
+
+/**
+ * JDK Flight Recorder event with the phase timings of one proxy connection.
+ * Disabled unless a recording enables it, e.g.
+ * java -XX:StartFlightRecording=filename=proxy.jfr,settings=profile SecureSSLProxy
+ * Phases that did not run are reported as -1.
+ */
+@Name("SecureSSLProxy.ConnectionTiming")
+@Label("Proxy Connection Timing")
+@Category({"SecureSSLProxy", "Connections"})
+@Description("Per-phase timing of one SecureSSLProxy client connection")
+@StackTrace(false)
+public class ConnectionTimingEvent extends Event {
+    @Label("Client Address")
+    String clientAddress;
+
+    @Label("Outcome")
+    String outcome;
+
+    @Label("Accept")
+    @Timespan(Timespan.NANOSECONDS)
+    long accept;
+
+    @Label("IP Check")
+    @Timespan(Timespan.NANOSECONDS)
+    long ipCheck;
+
+    @Label("Handshake Queue Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    long handshakeQueue;
+
+    @Label("TLS Handshake")
+    @Timespan(Timespan.NANOSECONDS)
+    long handshake;
+
+    @Label("Client Certificate Check")
+    @Timespan(Timespan.NANOSECONDS)
+    long clientCertCheck;
+
+    @Label("Worker Queue Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    long workerQueue;
+
+    @Label("Request Read")
+    @Timespan(Timespan.NANOSECONDS)
+    long requestRead;
+
+    @Label("Response Write")
+    @Timespan(Timespan.NANOSECONDS)
+    long responseWrite;
+
+    @Label("Close")
+    @Timespan(Timespan.NANOSECONDS)
+    long close;
+
+    @Label("Total")
+    @Timespan(Timespan.NANOSECONDS)
+    long total;
+}
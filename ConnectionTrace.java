@@ -0,0 +1,107 @@
+import java.util.Locale;
+
+/**
+ * Per-connection phase timer for the proxy.
+ *
+ * Begin and end stamps are raw System.nanoTime values in one primitive array,
+ * so tracing a phase is two array stores. When the connection finishes, every
+ * completed phase is recorded into a "trace.<phase>" histogram and, only if a
+ * JFR recording has the event enabled, one ConnectionTimingEvent is committed.
+ */
+public final class ConnectionTrace {
+    public enum Phase {
+        ACCEPT, IP_CHECK, HANDSHAKE_QUEUE, HANDSHAKE, CLIENT_CERT_CHECK,
+        WORKER_QUEUE, REQUEST_READ, RESPONSE_WRITE, CLOSE
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final ThreadLocal<ConnectionTrace> CURRENT = new ThreadLocal<>();
+    private static final String[] HISTOGRAM_NAMES = new String[PHASES.length];
+    static {
+        for (Phase phase : PHASES) {
+            HISTOGRAM_NAMES[phase.ordinal()] = "trace." + phase.name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final long[] stamps = new long[PHASES.length * 2];
+    private final long createdAt;
+
+    public ConnectionTrace() {
+        this.createdAt = System.nanoTime();
+    }
+
+    public void begin(Phase phase) {
+        stamps[phase.ordinal() * 2] = System.nanoTime();
+    }
+
+    public void end(Phase phase) {
+        stamps[phase.ordinal() * 2 + 1] = System.nanoTime();
+    }
+
+    /**
+     * Nanoseconds since the connection was accepted
+     */
+    public long elapsed() {
+        return System.nanoTime() - createdAt;
+    }
+
+    /**
+     * Nanoseconds spent in a phase, or -1 if it did not complete
+     */
+    public long duration(Phase phase) {
+        long begin = stamps[phase.ordinal() * 2];
+        long end = stamps[phase.ordinal() * 2 + 1];
+        return begin != 0 && end != 0 ? end - begin : -1;
+    }
+
+    /**
+     * Bind this trace to the current thread, so callbacks without a connection
+     * reference (such as trust manager checks during the handshake) can find it
+     */
+    public void bind() {
+        CURRENT.set(this);
+    }
+
+    public static void unbind() {
+        CURRENT.remove();
+    }
+
+    public static ConnectionTrace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Feed phase durations into the metrics histograms and emit the JFR event
+     */
+    public void finish(ProxyMetrics metrics, String clientAddress, String outcome) {
+        long total = elapsed();
+        for (Phase phase : PHASES) {
+            long duration = duration(phase);
+            if (duration >= 0) {
+                metrics.histogram(histogramName(phase)).record(duration);
+            }
+        }
+        metrics.histogram("trace.total").record(total);
+
+        ConnectionTimingEvent event = new ConnectionTimingEvent();
+        if (event.isEnabled()) {
+            event.clientAddress = clientAddress;
+            event.outcome = outcome;
+            event.accept = duration(Phase.ACCEPT);
+            event.ipCheck = duration(Phase.IP_CHECK);
+            event.handshakeQueue = duration(Phase.HANDSHAKE_QUEUE);
+            event.handshake = duration(Phase.HANDSHAKE);
+            event.clientCertCheck = duration(Phase.CLIENT_CERT_CHECK);
+            event.workerQueue = duration(Phase.WORKER_QUEUE);
+            event.requestRead = duration(Phase.REQUEST_READ);
+            event.responseWrite = duration(Phase.RESPONSE_WRITE);
+            event.close = duration(Phase.CLOSE);
+            event.total = total;
+            event.commit();
+        }
+    }
+
+    private static String histogramName(Phase phase) {
+        return HISTOGRAM_NAMES[phase.ordinal()];
+    }
+}
@@ -0,0 +1,201 @@
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import javax.net.ssl.*;
+
+/**
+ * What TLS costs for dashboard assets: static file downloads from DashboardServer
+ * over plain HTTP (FileChannel.transferTo, no user-space copy) against HTTPS with
+ * one TLS record per socket write and with batched records.
+ *
+ * Files of each size are written to a temporary document root and fetched
+ * back to back by one client over fresh connections (TLS sessions resume, as
+ * a browser's would). Client and server share this JVM, so CPU time covers
+ * decryption as well as encryption; the HTTP row is the floor for both.
+ *
+ * Usage: java DashboardBenchmark [seconds-per-case] [file sizes in KB, e.g. 64,1024,32768]
+ */
+public class DashboardBenchmark {
+    private static final int[] RECORD_BATCHES = {1, 16};
+
+    static class Result {
+        String mode;
+        int fileKilobytes;
+        long requests;
+        double megabytesPerSecond;
+        double cpuMillisPerMegabyte;
+    }
+
+    private final long caseMillis;
+    private final SSLContext serverContext;
+    private final SSLContext clientContext;
+
+    DashboardBenchmark(long caseMillis) throws Exception {
+        this.caseMillis = caseMillis;
+        KeyPair keyPair = ProxyBenchmark.KeyType.EC_P256.generate();
+        X509Certificate certificate = new CertificateBuilder()
+            .subject("CN=localhost, O=DashboardServer Benchmark")
+            .dnsName("localhost")
+            .validDays(1)
+            .selfSign(keyPair);
+        this.serverContext = ProxyBenchmark.serverContext(keyPair, certificate);
+        this.clientContext = ProxyBenchmark.clientContext(certificate);
+    }
+
+    public List<Result> run(int[] fileKilobytes) throws Exception {
+        File root = Files.createTempDirectory("dashboard-bench").toFile();
+        List<Result> results = new ArrayList<>();
+        try {
+            Random random = new Random(42);
+            for (int size : fileKilobytes) {
+                byte[] data = new byte[size * 1024];
+                random.nextBytes(data);
+                Files.write(new File(root, "asset-" + size + ".bin").toPath(), data);
+            }
+
+            results.addAll(runMode("HTTP transferTo", null, 0, root, fileKilobytes));
+            for (int batch : RECORD_BATCHES) {
+                results.addAll(runMode("HTTPS " + batch + " record" + (batch > 1 ? "s" : "") + "/write",
+                    serverContext, batch, root, fileKilobytes));
+            }
+        } finally {
+            for (File file : Objects.requireNonNull(root.listFiles())) {
+                file.delete();
+            }
+            root.delete();
+        }
+        return results;
+    }
+
+    private List<Result> runMode(String mode, SSLContext context, int recordBatch, File root, int[] fileKilobytes)
+            throws Exception {
+        DashboardServer server = new DashboardServer(0, context, root.getPath());
+        server.setVerbose(false);
+        if (recordBatch > 0) {
+            server.setRecordBatch(recordBatch);
+        }
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                System.err.println("Dashboard failed: " + e.getMessage());
+            }
+        }, "benchmark-dashboard");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        while (server.getLocalPort() == 0 && serverThread.isAlive()) {
+            Thread.sleep(10);
+        }
+
+        List<Result> results = new ArrayList<>();
+        try {
+            for (int size : fileKilobytes) {
+                Result result = measure(mode, context != null, server.getLocalPort(), size);
+                results.add(result);
+                System.out.printf("  %-22s %8d KB %9.1f MB/s %8.2f cpu-ms/MB%n", mode, size,
+                    result.megabytesPerSecond, result.cpuMillisPerMegabyte);
+            }
+        } finally {
+            server.stop();
+            serverThread.join(5000);
+        }
+        return results;
+    }
+
+    /**
+     * Sequential downloads of one file; a warm-up fifth of the time is not counted
+     */
+    private Result measure(String mode, boolean tls, int port, int size) throws IOException {
+        Result result = new Result();
+        result.mode = mode;
+        result.fileKilobytes = size;
+        byte[] buffer = new byte[64 * 1024];
+        byte[] request = ("GET /asset-" + size + ".bin HTTP/1.1\r\nHost: localhost\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+        long expected = size * 1024L;
+
+        long warmupEnd = System.nanoTime() + caseMillis * 1_000_000L / 5;
+        long end = warmupEnd + caseMillis * 1_000_000L;
+        long wallStart = 0;
+        long cpuStart = 0;
+        long bytes = 0;
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= end) {
+                break;
+            }
+            if (wallStart == 0 && now >= warmupEnd) {
+                wallStart = now;
+                cpuStart = ProxyBenchmark.processCpuNanos();
+                bytes = 0;
+                result.requests = 0;
+            }
+            try (Socket socket = tls ? clientContext.getSocketFactory().createSocket("127.0.0.1", port)
+                    : new Socket("127.0.0.1", port)) {
+                socket.setTcpNoDelay(true);
+                socket.getOutputStream().write(request);
+                InputStream in = socket.getInputStream();
+                long received = 0;
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    received += n;
+                }
+                if (received < expected) {
+                    throw new IOException("Short response for " + size + " KB: " + received + " bytes");
+                }
+                bytes += expected;
+                result.requests++;
+            }
+        }
+        long wall = System.nanoTime() - wallStart;
+        long cpu = ProxyBenchmark.processCpuNanos() - cpuStart;
+        double megabytes = bytes / (1024.0 * 1024.0);
+        result.megabytesPerSecond = wallStart > 0 ? megabytes * 1e9 / wall : 0;
+        result.cpuMillisPerMegabyte = cpuStart >= 0 && megabytes > 0 ? cpu / 1e6 / megabytes : 0;
+        return result;
+    }
+
+    private static void printReport(List<Result> results) {
+        Map<Integer, Result> plain = new HashMap<>();
+        for (Result r : results) {
+            if (r.mode.startsWith("HTTP ")) {
+                plain.put(r.fileKilobytes, r);
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%-22s %10s %10s %10s %12s %12s%n", "Mode", "File KB", "Requests", "MB/s", "cpu-ms/MB", "CPU vs HTTP");
+        for (Result r : results) {
+            Result baseline = plain.get(r.fileKilobytes);
+            String ratio = baseline != null && baseline.cpuMillisPerMegabyte > 0
+                ? String.format("%.1fx", r.cpuMillisPerMegabyte / baseline.cpuMillisPerMegabyte) : "-";
+            System.out.printf("%-22s %10d %10d %10.1f %12.2f %12s%n", r.mode, r.fileKilobytes, r.requests,
+                r.megabytesPerSecond, r.cpuMillisPerMegabyte, ratio);
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2.0;
+            String[] sizes = (args.length > 1 ? args[1] : "64,1024,32768").split(",");
+            int[] fileKilobytes = new int[sizes.length];
+            for (int i = 0; i < sizes.length; i++) {
+                fileKilobytes[i] = Integer.parseInt(sizes[i].trim());
+            }
+
+            System.out.println("=== DashboardServer Static File Benchmark ===");
+            System.out.println("File sizes (KB): " + Arrays.toString(fileKilobytes) + ", " + seconds + "s per case\n");
+            DashboardBenchmark benchmark = new DashboardBenchmark((long) (seconds * 1000));
+            printReport(benchmark.run(fileKilobytes));
+
+        } catch (Exception e) {
+            System.err.println("Benchmark failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,35 +1,116 @@
 import java.io.*;
 import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import javax.net.ssl.*;
 
 /**
- * Simple HTTP server to serve the SSL Proxy Dashboard
+ * Simple HTTP server to serve the SSL Proxy Dashboard, optionally over HTTPS
  */
 public class DashboardServer {
     private static final int DASHBOARD_PORT = 8080;
+    private static final int DASHBOARD_HTTPS_PORT = 8443;
     private static final String DOCUMENT_ROOT = ".";
+    // Interface the dashboard listens on; loopback unless deliberately exposed
+    private static final String BIND_ADDRESS = System.getenv("DASHBOARD_BIND") != null ?
+        System.getenv("DASHBOARD_BIND") : "127.0.0.1";
+    private static final int MAX_REQUEST_LINE = 8192;
+    // Deadlines from accept: the request head, then no write progress, then the whole connection
+    private static final int REQUEST_TIMEOUT = 10000;
+    private static final int IDLE_TIMEOUT = 30000;
+    private static final int MAX_CONNECTION_LIFETIME = 600000;
+    // Largest transferTo on the plain file path; the idle deadline is renewed after each one and
+    // after each TLS record batch, so only a reader that stops taking data is cut off
+    private static final long FILE_SEGMENT = 64 * 1024;
+    // Full TLS records collected per socket write on the HTTPS file path
+    private static final int TLS_RECORD_BATCH = System.getenv("DASHBOARD_TLS_RECORD_BATCH") != null ?
+        Integer.parseInt(System.getenv("DASHBOARD_TLS_RECORD_BATCH")) : 16;
+    // Proxy event feed followed and streamed to browsers on /events ("off" to disable)
+    private static final String EVENT_SOURCE = System.getenv("DASHBOARD_EVENT_SOURCE") != null ?
+        System.getenv("DASHBOARD_EVENT_SOURCE") : "127.0.0.1:9445";
+    private static final int EVENT_RING_SIZE = System.getenv("DASHBOARD_EVENT_RING") != null ?
+        Integer.parseInt(System.getenv("DASHBOARD_EVENT_RING")) : 16384;
+    private static final int MAX_EVENT_SUBSCRIBERS = 64;
+    private static final int EVENT_BATCH = 256;
+    private static final long EVENT_POLL_MILLIS = 50;
+    private static final long EVENT_PING_MILLIS = 15000;
+    // A viewer whose socket has not taken a write for this long is disconnected
+    private static final long SLOW_CONSUMER_TIMEOUT = 10000;
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
     
     private volatile boolean running = false;
     private ExecutorService threadPool;
+    private final BufferPool bufferPool = BufferPool.shared();
+    private final int port;
+    private final SSLContext sslContext;
+    private final String documentRoot;
+    private volatile ServerSocketChannel serverChannel;
+    private int recordBatch = TLS_RECORD_BATCH;
+    private boolean verbose = true;
+    private final EventRing events = new EventRing(EVENT_RING_SIZE);
+    private final Set<EventSubscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final LongAdder eventsDropped = new LongAdder();
+    private EventFeed eventFeed;
+    private Timer eventWatchdog;
+    // Closes connections whose client stops sending or reading; event streams leave it on upgrade
+    private final ConnectionTimeoutWheel timeoutWheel = new ConnectionTimeoutWheel(100, 1024, new ProxyMetrics());
     
     public DashboardServer() {
-        this.threadPool = Executors.newFixedThreadPool(10);
+        this(DASHBOARD_PORT, null, DOCUMENT_ROOT);
+    }
+    
+    /**
+     * Dashboard on the given port (0 for ephemeral); HTTPS when sslContext is non-null
+     */
+    public DashboardServer(int port, SSLContext sslContext, String documentRoot) {
+        this.port = port;
+        this.sslContext = sslContext;
+        this.documentRoot = documentRoot;
+        this.threadPool = Executors.newFixedThreadPool(10, task -> {
+            Thread thread = new Thread(bufferPool.withThreadCache(task), "dashboard-worker");
+            thread.setDaemon(false);
+            return thread;
+        });
+    }
+    
+    /**
+     * Server context from the proxy's P12 certificate (SSL_P12_FILE / SSL_P12_PASSWORD)
+     */
+    public static SSLContext createSSLContext() throws Exception {
+        KeyManager[] keyManagers = SecureSSLProxy.loadKeyManagers();
+        if (keyManagers == null) {
+            throw new FileNotFoundException("P12 certificate not found; set SSL_P12_FILE for HTTPS mode");
+        }
+        SSLContext context = SSLContext.getInstance("TLSv1.3");
+        context.init(keyManagers, null, new SecureRandom());
+        return context;
     }
     
     public void start() throws IOException {
-        ServerSocket serverSocket = new ServerSocket(DASHBOARD_PORT);
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getByName(BIND_ADDRESS), port));
+        this.serverChannel = serverChannel;
         running = true;
         
-        log("Dashboard Server started on http://localhost:" + DASHBOARD_PORT);
-        log("Open http://localhost:" + DASHBOARD_PORT + " in your browser");
+        String url = (sslContext != null ? "https" : "http") + "://localhost:" + getLocalPort();
+        log("Dashboard Server started on " + url);
+        log("Open " + url + " in your browser");
         
         while (running) {
             try {
-                Socket clientSocket = serverSocket.accept();
-                threadPool.submit(() -> handleRequest(clientSocket));
+                SocketChannel clientChannel = serverChannel.accept();
+                // Time queued for a worker counts toward the request deadline
+                ConnectionTimeoutWheel.Entry timeout = timeoutWheel.register(clientChannel,
+                    ConnectionTimeoutWheel.Phase.HEADER_READ, REQUEST_TIMEOUT, MAX_CONNECTION_LIFETIME);
+                threadPool.submit(() -> handleRequest(clientChannel, timeout));
             } catch (IOException e) {
                 if (running) {
                     log("Error accepting connection: " + e.getMessage());
@@ -37,93 +118,414 @@ public class DashboardServer {
             }
         }
         
-        serverSocket.close();
+        serverChannel.close();
         threadPool.shutdown();
+        timeoutWheel.shutdown();
+    }
+    
+    public int getLocalPort() {
+        ServerSocketChannel channel = serverChannel;
+        return channel != null ? channel.socket().getLocalPort() : port;
+    }
+    
+    public void setRecordBatch(int recordBatch) {
+        this.recordBatch = recordBatch;
+    }
+    
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+    
+    /**
+     * Follow the proxy's event feed at host:port and stream it to browsers on /events
+     */
+    public void followProxyEvents(String hostPort) {
+        int colon = hostPort.lastIndexOf(':');
+        eventFeed = EventFeed.follow(events, hostPort.substring(0, colon),
+            Integer.parseInt(hostPort.substring(colon + 1)), this::log);
+        
+        // Writes block only the viewer's own thread; one stuck for too long is cut off
+        eventWatchdog = new Timer("dashboard-events-watchdog", true);
+        eventWatchdog.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                long now = System.nanoTime();
+                for (EventSubscriber subscriber : subscribers) {
+                    long started = subscriber.writeStartedNanos;
+                    if (started != 0 && now - started > SLOW_CONSUMER_TIMEOUT * 1_000_000L) {
+                        log("Disconnecting slow event viewer " + subscriber.remote);
+                        subscriber.disconnect();
+                    }
+                }
+            }
+        }, 1000, 1000);
+        log("Streaming proxy events from " + hostPort + " on /events");
     }
     
-    private void handleRequest(Socket clientSocket) {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-             PrintWriter out = new PrintWriter(clientSocket.getOutputStream());
-             BufferedOutputStream dataOut = new BufferedOutputStream(clientSocket.getOutputStream())) {
+    private void handleRequest(SocketChannel clientChannel, ConnectionTimeoutWheel.Entry timeout) {
+        TlsChannel tls = null;
+        BufferPool.PooledInputStream in = null;
+        BufferPool.PooledOutputStream out = null;
+        boolean handedOff = false;
+        try {
+            clientChannel.socket().setTcpNoDelay(true);
+            InputStream rawIn;
+            OutputStream rawOut;
+            if (sslContext != null) {
+                SSLEngine engine = sslContext.createSSLEngine();
+                engine.setUseClientMode(false);
+                engine.setEnabledProtocols(new String[]{"TLSv1.3", "TLSv1.2"});
+                tls = new TlsChannel(clientChannel, engine, recordBatch);
+                tls.handshake();
+                rawIn = tls.getInputStream();
+                rawOut = tls.getOutputStream();
+            } else {
+                rawIn = Channels.newInputStream(clientChannel);
+                rawOut = Channels.newOutputStream(clientChannel);
+            }
+            in = new BufferPool.PooledInputStream(rawIn, bufferPool, BufferPool.SMALL);
+            out = new BufferPool.PooledOutputStream(rawOut, bufferPool, BufferPool.RECORD);
             
-            String input = in.readLine();
+            String input = in.readLine(MAX_REQUEST_LINE);
             if (input == null) return;
             
+            // Consume the request headers; closing with unread input would reset the connection
+            // and could discard the tail of a large response
+            Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            String header;
+            while ((header = in.readLine(MAX_REQUEST_LINE)) != null && !header.isEmpty()) {
+                int colon = header.indexOf(':');
+                if (colon > 0) {
+                    headers.put(header.substring(0, colon).trim(), header.substring(colon + 1).trim());
+                }
+            }
+            timeout.enterPhase(ConnectionTimeoutWheel.Phase.IDLE, IDLE_TIMEOUT);
+            
             StringTokenizer parse = new StringTokenizer(input);
             String method = parse.nextToken().toUpperCase();
             String fileRequested = parse.nextToken().toLowerCase();
             
+            if (method.equals("GET") && (fileRequested.equals("/events") || fileRequested.startsWith("/events?"))) {
+                handedOff = openEventStream(fileRequested, headers, clientChannel, tls, in, out);
+                if (handedOff) {
+                    timeout.cancel();
+                }
+                return;
+            }
+            
             if (fileRequested.equals("/")) {
                 fileRequested = "/index.html";
             }
             
-            File file = new File(DOCUMENT_ROOT, fileRequested);
-            int fileLength = (int) file.length();
+            File file = new File(documentRoot, fileRequested);
+            long fileLength = file.length();
             String content = getContentType(fileRequested);
             
             if (method.equals("GET")) {
-                if (file.exists()) {
-                    byte[] fileData = readFileData(file, fileLength);
-                    
+                if (file.isFile()) {
                     // Send HTTP Headers
-                    out.println("HTTP/1.1 200 OK");
-                    out.println("Server: SSL-Proxy-Dashboard/1.0");
-                    out.println("Date: " + new Date());
-                    out.println("Content-type: " + content);
-                    out.println("Content-length: " + fileLength);
-                    out.println("Access-Control-Allow-Origin: *");
-                    out.println("Cache-Control: no-cache");
-                    out.println();
-                    out.flush();
+                    out.write("HTTP/1.1 200 OK\r\n" +
+                        "Server: SSL-Proxy-Dashboard/1.0\r\n" +
+                        "Date: " + new Date() + "\r\n" +
+                        "Content-type: " + content + "\r\n" +
+                        "Content-length: " + fileLength + "\r\n" +
+                        "Access-Control-Allow-Origin: *\r\n" +
+                        "Cache-Control: no-cache\r\n" +
+                        "\r\n");
                     
-                    dataOut.write(fileData, 0, fileLength);
-                    dataOut.flush();
+                    out.flush();
+                    sendFileData(file, fileLength, clientChannel, tls, timeout);
                     
-                    log("GET " + fileRequested + " - 200 OK");
+                    if (verbose) {
+                        log("GET " + fileRequested + " - 200 OK");
+                    }
                 } else {
                     // File not found
                     String errorMessage = "<html><body><h1>404 File Not Found</h1><p>The file " + fileRequested + " was not found.</p></body></html>";
                     
-                    out.println("HTTP/1.1 404 File Not Found");
-                    out.println("Server: SSL-Proxy-Dashboard/1.0");
-                    out.println("Date: " + new Date());
-                    out.println("Content-type: text/html");
-                    out.println("Content-length: " + errorMessage.length());
-                    out.println();
+                    out.write("HTTP/1.1 404 File Not Found\r\n" +
+                        "Server: SSL-Proxy-Dashboard/1.0\r\n" +
+                        "Date: " + new Date() + "\r\n" +
+                        "Content-type: text/html\r\n" +
+                        "Content-length: " + errorMessage.length() + "\r\n" +
+                        "\r\n" +
+                        errorMessage);
                     out.flush();
                     
-                    out.println(errorMessage);
-                    out.flush();
-                    
-                    log("GET " + fileRequested + " - 404 Not Found");
+                    if (verbose) {
+                        log("GET " + fileRequested + " - 404 Not Found");
+                    }
                 }
             }
             
         } catch (IOException e) {
-            log("Error handling request: " + e.getMessage());
+            if (!timeout.isExpired()) {
+                log("Error handling request: " + e.getMessage());
+            } else if (verbose) {
+                log("Closed connection that stopped sending or reading");
+            }
         } finally {
-            try {
-                clientSocket.close();
-            } catch (IOException e) {
-                log("Error closing socket: " + e.getMessage());
+            if (!handedOff) {
+                timeout.cancel();
+                if (in != null) {
+                    in.release();
+                }
+                if (out != null) {
+                    out.release();
+                }
+                closeChannel(clientChannel, tls);
             }
         }
     }
     
-    private byte[] readFileData(File file, int fileLength) throws IOException {
-        FileInputStream fileIn = null;
-        byte[] fileData = new byte[fileLength];
+    private void closeChannel(SocketChannel clientChannel, TlsChannel tls) {
+        try {
+            if (tls != null) {
+                tls.close();
+            } else {
+                clientChannel.close();
+            }
+        } catch (IOException e) {
+            log("Error closing socket: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Upgrade to a WebSocket and hand the connection to its own thread; false if refused.
+     * Query parameters filter the stream: types=request,close and client=address prefix.
+     */
+    private boolean openEventStream(String target, Map<String, String> headers, SocketChannel clientChannel,
+            TlsChannel tls, BufferPool.PooledInputStream in, BufferPool.PooledOutputStream out) throws IOException {
+        String key = headers.get("Sec-WebSocket-Key");
+        if (eventFeed == null || key == null || !"websocket".equalsIgnoreCase(headers.get("Upgrade"))) {
+            sendStatus(out, eventFeed == null ? "503 Service Unavailable" : "426 Upgrade Required",
+                "Event stream needs a WebSocket connection and a proxy event feed");
+            return false;
+        }
+        if (!sameOrigin(headers)) {
+            sendStatus(out, "403 Forbidden", "Event stream is only served to the dashboard's own pages");
+            return false;
+        }
+        if (subscribers.size() >= MAX_EVENT_SUBSCRIBERS) {
+            sendStatus(out, "503 Service Unavailable", "Too many event viewers");
+            return false;
+        }
         
+        String accept;
         try {
-            fileIn = new FileInputStream(file);
-            fileIn.read(fileData);
-        } finally {
-            if (fileIn != null) {
-                fileIn.close();
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            accept = Base64.getEncoder().encodeToString(
+                sha1.digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        out.write("HTTP/1.1 101 Switching Protocols\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Sec-WebSocket-Accept: " + accept + "\r\n" +
+            "\r\n");
+        out.flush();
+        
+        EventSubscriber subscriber = new EventSubscriber(target, clientChannel, tls, in, out);
+        subscribers.add(subscriber);
+        Thread thread = new Thread(subscriber, "dashboard-events-" + subscriber.remote);
+        thread.setDaemon(true);
+        thread.start();
+        if (verbose) {
+            log("Event viewer connected: " + subscriber.remote + " (" + subscribers.size() + " watching)");
+        }
+        return true;
+    }
+    
+    /**
+     * Browsers always send Origin on WebSocket upgrades; another site's page must not read the event stream.
+     * Clients that send no Origin are not browsers acting for a user and are let through.
+     */
+    private static boolean sameOrigin(Map<String, String> headers) {
+        String origin = headers.get("Origin");
+        if (origin == null) {
+            return true;
+        }
+        String host = headers.get("Host");
+        try {
+            String authority = new URI(origin).getRawAuthority();
+            return host != null && authority != null && authority.equalsIgnoreCase(host);
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+    
+    private void sendStatus(BufferPool.PooledOutputStream out, String status, String message) throws IOException {
+        out.write("HTTP/1.1 " + status + "\r\n" +
+            "Server: SSL-Proxy-Dashboard/1.0\r\n" +
+            "Content-type: text/plain\r\n" +
+            "Content-length: " + message.length() + "\r\n" +
+            "\r\n" +
+            message);
+        out.flush();
+    }
+    
+    /**
+     * One WebSocket viewer. Reads the dashboard's event ring from its own cursor and sends
+     * each batch of matching events as one text frame holding a JSON array. A viewer that
+     * falls a ring behind gets a dropped event with the number it missed; incoming frames
+     * are never read, so filters are fixed by the URL.
+     */
+    private final class EventSubscriber implements Runnable {
+        final String remote;
+        private final SocketChannel channel;
+        private final TlsChannel tls;
+        private final BufferPool.PooledInputStream in;
+        private final BufferPool.PooledOutputStream out;
+        private final Set<EventRing.Type> types;
+        private final String clientPrefix;
+        volatile long writeStartedNanos = 0;
+        
+        EventSubscriber(String target, SocketChannel channel, TlsChannel tls, BufferPool.PooledInputStream in,
+                BufferPool.PooledOutputStream out) throws IOException {
+            this.remote = String.valueOf(channel.getRemoteAddress()).replace("/", "");
+            this.channel = channel;
+            this.tls = tls;
+            this.in = in;
+            this.out = out;
+            Set<EventRing.Type> types = null;
+            String clientPrefix = null;
+            int query = target.indexOf('?');
+            if (query >= 0) {
+                for (String parameter : target.substring(query + 1).split("&")) {
+                    int equals = parameter.indexOf('=');
+                    String name = equals > 0 ? parameter.substring(0, equals) : parameter;
+                    String value = equals > 0 ? URLDecoder.decode(parameter.substring(equals + 1), "UTF-8") : "";
+                    if (name.equals("types") && !value.isEmpty()) {
+                        types = EnumSet.noneOf(EventRing.Type.class);
+                        for (String type : value.split(",")) {
+                            types.add(EventRing.Type.of(type.trim()));
+                        }
+                        // Link state and gaps are always shown
+                        types.addAll(EnumSet.of(EventRing.Type.PROXY, EventRing.Type.FEED, EventRing.Type.DROPPED));
+                    } else if (name.equals("client") && !value.isEmpty()) {
+                        clientPrefix = value;
+                    }
+                }
+            }
+            this.types = types;
+            this.clientPrefix = clientPrefix;
+        }
+        
+        private boolean matches(EventRing.Event event) {
+            if (types != null && !types.contains(event.type)) {
+                return false;
+            }
+            return clientPrefix == null || event.client == null || event.client.startsWith(clientPrefix);
+        }
+        
+        @Override
+        public void run() {
+            List<EventRing.Event> batch = new ArrayList<>(EVENT_BATCH);
+            StringBuilder frame = new StringBuilder(8192);
+            long cursor = events.oldestSequence();
+            long lastWrite = System.currentTimeMillis();
+            try {
+                while (running) {
+                    batch.clear();
+                    long from = cursor;
+                    cursor = events.read(cursor, batch, EVENT_BATCH);
+                    long missed = cursor - from - batch.size();
+                    
+                    frame.setLength(0);
+                    frame.append('[');
+                    if (missed > 0) {
+                        eventsDropped.add(missed);
+                        frame.append(EventFeed.dropped(missed));
+                    }
+                    for (EventRing.Event event : batch) {
+                        if (matches(event)) {
+                            if (frame.length() > 1) {
+                                frame.append(',');
+                            }
+                            frame.append(event.toJson());
+                        }
+                    }
+                    
+                    if (frame.length() > 1) {
+                        sendFrame(0x1, frame.append(']').toString().getBytes(StandardCharsets.UTF_8));
+                        lastWrite = System.currentTimeMillis();
+                    } else if (batch.isEmpty()) {
+                        if (System.currentTimeMillis() - lastWrite > EVENT_PING_MILLIS) {
+                            // Finds viewers that went away while nothing was happening
+                            sendFrame(0x9, new byte[0]);
+                            lastWrite = System.currentTimeMillis();
+                        }
+                        Thread.sleep(EVENT_POLL_MILLIS);
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // Viewer went away or was disconnected
+            } finally {
+                subscribers.remove(this);
+                in.release();
+                out.release();
+                closeChannel(channel, tls);
+                if (verbose) {
+                    log("Event viewer disconnected: " + remote);
+                }
+            }
+        }
+        
+        /**
+         * Unmasked server frame, FIN set
+         */
+        private void sendFrame(int opcode, byte[] payload) throws IOException {
+            writeStartedNanos = System.nanoTime();
+            out.write(0x80 | opcode);
+            if (payload.length < 126) {
+                out.write(payload.length);
+            } else if (payload.length < 65536) {
+                out.write(126);
+                out.write(payload.length >>> 8);
+                out.write(payload.length);
+            } else {
+                out.write(127);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    out.write((int) ((long) payload.length >>> shift));
+                }
             }
+            out.write(payload, 0, payload.length);
+            out.flush();
+            writeStartedNanos = 0;
         }
         
-        return fileData;
+        void disconnect() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+    }
+    
+    /**
+     * Send the file body after the headers have been flushed: transferTo for plain HTTP,
+     * batched full-size TLS records from a direct buffer for HTTPS
+     */
+    private void sendFileData(File file, long length, SocketChannel clientChannel, TlsChannel tls,
+            ConnectionTimeoutWheel.Entry timeout) throws IOException {
+        Runnable progress = () -> timeout.enterPhase(ConnectionTimeoutWheel.Phase.IDLE, IDLE_TIMEOUT);
+        try (FileChannel fileChannel = FileChannel.open(file.toPath())) {
+            if (tls != null) {
+                tls.sendFile(fileChannel, 0, length, progress);
+                return;
+            }
+            long position = 0;
+            while (position < length) {
+                long n = fileChannel.transferTo(position, Math.min(FILE_SEGMENT, length - position), clientChannel);
+                if (n <= 0) {
+                    throw new EOFException("File shorter than expected: " + file);
+                }
+                position += n;
+                progress.run();
+            }
+        }
     }
     
     private String getContentType(String fileRequested) {
@@ -149,6 +551,24 @@ public class DashboardServer {
     public void stop() {
         running = false;
         log("Dashboard Server stopping...");
+        if (eventWatchdog != null) {
+            eventWatchdog.cancel();
+        }
+        if (eventFeed != null) {
+            try {
+                eventFeed.close();
+            } catch (IOException e) {
+                log("Error closing event feed: " + e.getMessage());
+            }
+        }
+        ServerSocketChannel channel = serverChannel;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log("Error closing server socket: " + e.getMessage());
+            }
+        }
     }
     
     private void log(String message) {
@@ -158,7 +578,12 @@ public class DashboardServer {
     
     public static void main(String[] args) {
         try {
-            DashboardServer server = new DashboardServer();
+            DashboardServer server = args.length > 0 && args[0].equals("https")
+                ? new DashboardServer(DASHBOARD_HTTPS_PORT, createSSLContext(), DOCUMENT_ROOT)
+                : new DashboardServer();
+            if (!EVENT_SOURCE.equals("off")) {
+                server.followProxyEvents(EVENT_SOURCE);
+            }
             
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 System.out.println("\nShutting down Dashboard Server...");
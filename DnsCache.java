@@ -0,0 +1,290 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Host name cache in front of a pluggable resolver, shared by the scanner and upstream dialing.
+ *
+ * Answers are kept for a positive TTL and failures for a shorter negative TTL.
+ * The JVM's own process-wide answer cache (networkaddress.cache.ttl) is left
+ * as configured, so a name can stay that much longer. Lookups run on a small
+ * pool: concurrent lookups of one name share a single resolution, prefetch()
+ * resolves a whole target list in parallel, and a hit in the last fifth of an
+ * entry's lifetime refreshes it in the background, so names that stay in use
+ * never expire in front of a caller.
+ */
+final class DnsCache implements Closeable {
+    // Fraction of the TTL after which a hit triggers a background refresh
+    private static final double REFRESH_AHEAD = 0.8;
+    private static final Pattern LITERAL = Pattern.compile("[0-9]{1,3}(\\.[0-9]{1,3}){3}|\\[?[0-9a-fA-F.]*:[0-9a-fA-F:.%]*]?");
+
+    /**
+     * Where answers come from
+     */
+    interface Resolver {
+        InetAddress[] resolve(String host) throws UnknownHostException;
+    }
+
+    private static final class Entry {
+        final InetAddress[] addresses;
+        final UnknownHostException failure;
+        final long createdNanos;
+        final long expiresNanos;
+        volatile boolean refreshing;
+
+        Entry(InetAddress[] addresses, UnknownHostException failure, long createdNanos, long ttlNanos) {
+            this.addresses = addresses;
+            this.failure = failure;
+            this.createdNanos = createdNanos;
+            this.expiresNanos = createdNanos + ttlNanos;
+        }
+    }
+
+    private final Resolver resolver;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final int maxEntries;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder lookupNanos = new LongAdder();
+
+    DnsCache(Resolver resolver, long ttlMillis, long negativeTtlMillis, int threads, int maxEntries) {
+        this.resolver = resolver;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+        this.maxEntries = maxEntries;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "dns-resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * The platform resolver
+     */
+    static Resolver system() {
+        return InetAddress::getAllByName;
+    }
+
+    /**
+     * Hosts-file stand-in for the platform resolver: "address name [name...]" lines, # comments.
+     * Names it does not list fail, so a run against it never touches the network.
+     */
+    static Resolver hostsFile(File file) throws IOException {
+        Map<String, List<InetAddress>> hosts = new HashMap<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                String[] fields = (comment >= 0 ? line.substring(0, comment) : line).trim().split("\\s+");
+                if (fields.length < 2) {
+                    continue;
+                }
+                if (!isLiteral(fields[0])) {
+                    throw new IOException(file + ":" + lineNumber + ": not an IP address: " + fields[0]);
+                }
+                InetAddress literal = InetAddress.getByName(fields[0]);
+                for (int i = 1; i < fields.length; i++) {
+                    String name = fields[i].toLowerCase(Locale.ROOT);
+                    hosts.computeIfAbsent(name, key -> new ArrayList<>())
+                        .add(InetAddress.getByAddress(name, literal.getAddress()));
+                }
+            }
+        }
+        return host -> {
+            List<InetAddress> addresses = hosts.get(host.toLowerCase(Locale.ROOT));
+            if (addresses == null) {
+                throw new UnknownHostException(host + ": not in " + file);
+            }
+            return addresses.toArray(new InetAddress[0]);
+        };
+    }
+
+    void registerMetrics(ProxyMetrics metrics) {
+        metrics.gauge("dns.hits", hits::sum);
+        metrics.gauge("dns.negative_hits", negativeHits::sum);
+        metrics.gauge("dns.misses", misses::sum);
+        metrics.gauge("dns.refreshes", refreshes::sum);
+        metrics.gauge("dns.entries", entries::size);
+        metrics.gauge("dns.lookup_micros_avg", () -> {
+            long count = lookups.sum();
+            return count > 0 ? lookupNanos.sum() / count / 1000 : 0;
+        });
+    }
+
+    /**
+     * All addresses for host, from the cache when possible. A cached failure is thrown again until it expires.
+     */
+    InetAddress[] resolve(String host) throws UnknownHostException {
+        try {
+            return addresses(resolveAsync(host).get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnknownHostException(host + ": interrupted");
+        } catch (ExecutionException e) {
+            throw new UnknownHostException(host + ": " + e.getCause());
+        }
+    }
+
+    /**
+     * Resolved socket addresses for host:port, in resolver order, to be tried in turn.
+     * They keep the host name, so TLS still sends it as SNI.
+     */
+    List<InetSocketAddress> addresses(String host, int port) throws UnknownHostException {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (InetAddress address : resolve(host)) {
+            addresses.add(new InetSocketAddress(InetAddress.getByAddress(host, address.getAddress()), port));
+        }
+        return addresses;
+    }
+
+    /**
+     * Resolve every host in parallel and wait up to timeoutMillis; returns the hosts that failed or did not finish
+     */
+    List<String> prefetch(Collection<String> hosts, long timeoutMillis) {
+        Map<String, CompletableFuture<Entry>> pending = new LinkedHashMap<>();
+        for (String host : hosts) {
+            pending.putIfAbsent(key(host), resolveAsync(host));
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        List<String> failed = new ArrayList<>();
+        for (Map.Entry<String, CompletableFuture<Entry>> lookup : pending.entrySet()) {
+            try {
+                Entry entry = lookup.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (entry.failure != null) {
+                    failed.add(lookup.getKey());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.add(lookup.getKey());
+            } catch (ExecutionException | TimeoutException e) {
+                failed.add(lookup.getKey());
+            }
+        }
+        return failed;
+    }
+
+    private CompletableFuture<Entry> resolveAsync(String host) {
+        if (isLiteral(host)) {
+            // Parsed, not looked up; nothing to cache
+            try {
+                return CompletableFuture.completedFuture(
+                    new Entry(new InetAddress[]{InetAddress.getByName(host)}, null, System.nanoTime(), 0));
+            } catch (UnknownHostException e) {
+                return CompletableFuture.completedFuture(new Entry(null, e, System.nanoTime(), 0));
+            }
+        }
+        String key = key(host);
+        long now = System.nanoTime();
+        Entry entry = entries.get(key);
+        if (entry != null && now < entry.expiresNanos) {
+            if (entry.failure != null) {
+                negativeHits.increment();
+            } else {
+                hits.increment();
+                if (!entry.refreshing && now - entry.createdNanos > (entry.expiresNanos - entry.createdNanos) * REFRESH_AHEAD) {
+                    entry.refreshing = true;
+                    refreshes.increment();
+                    lookup(key);
+                }
+            }
+            return CompletableFuture.completedFuture(entry);
+        }
+        misses.increment();
+        return lookup(key);
+    }
+
+    /**
+     * Start a lookup for key, or join the one already running
+     */
+    private CompletableFuture<Entry> lookup(String key) {
+        CompletableFuture<Entry> created = new CompletableFuture<>();
+        CompletableFuture<Entry> running = inFlight.putIfAbsent(key, created);
+        if (running != null) {
+            return running;
+        }
+        try {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                Entry entry;
+                try {
+                    entry = new Entry(resolver.resolve(key), null, start, ttlNanos);
+                } catch (UnknownHostException e) {
+                    entry = new Entry(null, e, start, negativeTtlNanos);
+                } catch (RuntimeException e) {
+                    UnknownHostException failure = new UnknownHostException(key + ": " + e);
+                    entry = new Entry(null, failure, start, negativeTtlNanos);
+                }
+                lookups.increment();
+                lookupNanos.add(System.nanoTime() - start);
+                store(key, entry);
+                inFlight.remove(key, created);
+                created.complete(entry);
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    private void store(String key, Entry entry) {
+        Entry previous = entries.get(key);
+        if (entry.failure != null && previous != null && previous.failure == null && previous.refreshing &&
+                System.nanoTime() < previous.expiresNanos) {
+            // A failed refresh keeps the answer we have until it expires
+            previous.refreshing = false;
+            return;
+        }
+        entries.put(key, entry);
+        if (entries.size() > maxEntries) {
+            long now = System.nanoTime();
+            entries.values().removeIf(cached -> cached.expiresNanos <= now);
+            // Still full of live entries: drop arbitrary ones rather than grow
+            Iterator<String> keys = entries.keySet().iterator();
+            while (entries.size() > maxEntries && keys.hasNext()) {
+                if (!keys.next().equals(key)) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    private static InetAddress[] addresses(Entry entry) throws UnknownHostException {
+        if (entry.failure != null) {
+            throw new UnknownHostException(entry.failure.getMessage());
+        }
+        return entry.addresses;
+    }
+
+    /**
+     * IPv4 dotted quad or IPv6 (optionally bracketed) literal
+     */
+    static boolean isLiteral(String host) {
+        return LITERAL.matcher(host).matches();
+    }
+
+    private static String key(String host) {
+        return host.toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
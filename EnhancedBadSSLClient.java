@@ -2,8 +2,10 @@ import java.io.*;
 import java.net.*;
 import java.security.*;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import javax.net.ssl.*;
 
 /**
@@ -13,6 +15,11 @@ import javax.net.ssl.*;
 public class EnhancedBadSSLClient {
     private static final String P12_FILE = "badssl.com-client.p12";
     private static final String P12_PASSWORD = "badssl.com";
+    private static final String RESULTS_DIR = System.getenv("SCAN_RESULTS_DIR") != null ? 
+        System.getenv("SCAN_RESULTS_DIR") : "scan-results";
+    // Resolve endpoints from a hosts file instead of DNS
+    private static final String HOSTS_FILE = System.getenv("SCAN_HOSTS_FILE");
+    private static final int DNS_THREADS = 16;
     
     // Various BadSSL test endpoints
     private static final List<TestEndpoint> BADSSL_ENDPOINTS = Arrays.asList(
@@ -48,6 +55,7 @@ public class EnhancedBadSSLClient {
     );
     
     private SSLContext sslContext;
+    private final DnsCache dnsCache;
     
     static class TestEndpoint {
         String host;
@@ -67,6 +75,22 @@ public class EnhancedBadSSLClient {
     
     public EnhancedBadSSLClient() throws Exception {
         this.sslContext = createSSLContextWithClientCert();
+        DnsCache.Resolver resolver = HOSTS_FILE != null ? DnsCache.hostsFile(new File(HOSTS_FILE)) : DnsCache.system();
+        this.dnsCache = new DnsCache(resolver, 300_000, 30_000, DNS_THREADS, 100_000);
+    }
+    
+    /**
+     * Resolve all endpoint hosts in parallel before probing, so probes never wait on DNS one at a time
+     */
+    private void prefetch(List<TestEndpoint> endpoints) {
+        List<String> hosts = new ArrayList<>();
+        for (TestEndpoint endpoint : endpoints) {
+            hosts.add(endpoint.host);
+        }
+        long start = System.nanoTime();
+        List<String> failed = dnsCache.prefetch(hosts, 30_000);
+        System.out.printf("Resolved %d hosts in %.0f ms%s%n%n", hosts.size() - failed.size(),
+            (System.nanoTime() - start) / 1e6, failed.isEmpty() ? "" : ", unresolved: " + String.join(", ", failed));
     }
     
     private SSLContext createSSLContextWithClientCert() throws Exception {
@@ -127,6 +151,8 @@ public class EnhancedBadSSLClient {
         int successCount = 0;
         int expectedFailures = 0;
         int unexpectedResults = 0;
+        List<ScanResultStore.ScanRecord> records = new ArrayList<>();
+        prefetch(BADSSL_ENDPOINTS);
         
         for (TestEndpoint endpoint : BADSSL_ENDPOINTS) {
             System.out.println("🔗 Testing: " + endpoint.host + ":" + endpoint.port + endpoint.path);
@@ -134,6 +160,7 @@ public class EnhancedBadSSLClient {
             System.out.println("   Client Cert Required: " + (endpoint.requiresClientCert ? "Yes" : "No"));
             
             TestResult result = testEndpoint(endpoint);
+            records.add(result.toRecord(endpoint));
             
             switch (result.status) {
                 case SUCCESS:
@@ -152,6 +179,9 @@ public class EnhancedBadSSLClient {
                     System.out.println("   X ERROR: " + result.message);
                     break;
             }
+            if (result.chain != null) {
+                System.out.println("   Chain: " + result.chain.summary());
+            }
             System.out.println();
         }
         
@@ -162,21 +192,74 @@ public class EnhancedBadSSLClient {
         System.out.println("! Expected Failures: " + expectedFailures);
         System.out.println("? Unexpected Results: " + unexpectedResults);
         System.out.println("\nNote: Many failures are EXPECTED as BadSSL is designed to test various SSL/TLS scenarios.");
+        
+        saveResults(records);
+    }
+    
+    /**
+     * Append this run to the result store and report what changed since the previous run
+     */
+    private void saveResults(List<ScanResultStore.ScanRecord> records) {
+        try (ScanResultStore store = ScanResultStore.open(new File(RESULTS_DIR))) {
+            store.appendRun(System.currentTimeMillis(), records);
+            System.out.println("\nResults saved to " + RESULTS_DIR + " (run " + store.getRunCount() + ")");
+            printChanges(store);
+        } catch (IOException e) {
+            System.err.println("Failed to save scan results: " + e.getMessage());
+        }
+    }
+    
+    private static void printChanges(ScanResultStore store) throws IOException {
+        if (store.getRunCount() < 2) {
+            System.out.println("No previous run to compare against");
+            return;
+        }
+        List<ScanResultStore.Change> changes = store.changesSinceLastRun();
+        System.out.println("=== Changes Since Last Run: " + changes.size() + " ===");
+        for (ScanResultStore.Change change : changes) {
+            System.out.println((change.statusChanged() ? "! " : "  ") + change);
+        }
+    }
+    
+    private static void printHandshakePercentiles(ScanResultStore store, int runs) throws IOException {
+        System.out.println("=== p95 Handshake Time (last " + runs + " runs) ===");
+        for (Map.Entry<String, Long> entry : store.handshakePercentile(runs, 0.95).entrySet()) {
+            System.out.printf("%-50s %8.1f ms%n", entry.getKey(), entry.getValue() / 1_000_000.0);
+        }
     }
     
     private TestResult testEndpoint(TestEndpoint endpoint) {
+        long connectNanos = -1;
+        long handshakeNanos = -1;
+        String protocol = null;
+        String cipher = null;
+        byte[] fingerprint = null;
+        CertificateAnalyzer.ChainReport chain = null;
         try {
+            InetSocketAddress address;
+            try {
+                address = dnsCache.addresses(endpoint.host, endpoint.port).get(0);
+            } catch (UnknownHostException e) {
+                return new TestResult(TestStatus.ERROR, "DNS Error: " + e.getMessage())
+                    .withTimings(null, null, null, -1, -1, -1);
+            }
             SSLSocketFactory factory = sslContext.getSocketFactory();
             SSLSocket socket = (SSLSocket) factory.createSocket();
-            socket.connect(new InetSocketAddress(endpoint.host, endpoint.port), 10000);
+            long start = System.nanoTime();
+            socket.connect(address, 10000);
+            connectNanos = System.nanoTime() - start;
             
+            start = System.nanoTime();
             socket.startHandshake();
+            handshakeNanos = System.nanoTime() - start;
             
             SSLSession session = socket.getSession();
-            String protocol = session.getProtocol();
-            String cipher = session.getCipherSuite();
+            protocol = session.getProtocol();
+            cipher = session.getCipherSuite();
+            fingerprint = certificateFingerprint(session);
+            chain = analyzeChain(session, endpoint.host);
             
-            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            PrintWriter out = new PrintWriter(socket.getOutputStream());
             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
             
             out.println("GET " + endpoint.path + " HTTP/1.1");
@@ -184,42 +267,76 @@ public class EnhancedBadSSLClient {
             out.println("User-Agent: EnhancedBadSSLClient/1.0");
             out.println("Connection: close");
             out.println();
+            // Time to first byte is measured from the moment the whole request is on the wire
+            out.flush();
+            start = System.nanoTime();
             
             String statusLine = in.readLine();
+            long ttfbNanos = System.nanoTime() - start;
             socket.close();
             
+            TestResult result;
             if (statusLine != null) {
                 if (statusLine.contains("200")) {
-                    return new TestResult(TestStatus.SUCCESS, 
+                    result = new TestResult(TestStatus.SUCCESS, 
                         "HTTP 200 OK - Protocol: " + protocol + ", Cipher: " + cipher);
                 } else if (statusLine.contains("400") && endpoint.requiresClientCert) {
-                    return new TestResult(TestStatus.EXPECTED_FAILURE, 
+                    result = new TestResult(TestStatus.EXPECTED_FAILURE, 
                         "HTTP 400 - Client certificate required but connection made");
                 } else if (statusLine.contains("404")) {
-                    return new TestResult(TestStatus.SUCCESS, 
+                    result = new TestResult(TestStatus.SUCCESS, 
                         "HTTP 404 - Endpoint doesn't exist but SSL connection successful");
                 } else {
-                    return new TestResult(TestStatus.UNEXPECTED, 
+                    result = new TestResult(TestStatus.UNEXPECTED, 
                         statusLine + " - Protocol: " + protocol);
                 }
             } else {
-                return new TestResult(TestStatus.UNEXPECTED, "No HTTP response received");
+                result = new TestResult(TestStatus.UNEXPECTED, "No HTTP response received");
             }
+            return result.withTimings(protocol, cipher, fingerprint, connectNanos, handshakeNanos, ttfbNanos)
+                .withChain(chain);
             
         } catch (Exception e) {
-            String error = e.getMessage();
+            String error = String.valueOf(e.getMessage());
             
             // Categorize expected vs unexpected errors
+            TestResult result;
             if (error.contains("certificate") || error.contains("trust") || 
                 error.contains("verify") || error.contains("chain")) {
-                return new TestResult(TestStatus.EXPECTED_FAILURE, 
+                result = new TestResult(TestStatus.EXPECTED_FAILURE, 
                     "SSL Certificate Error: " + error);
             } else if (error.contains("timeout") || error.contains("refused")) {
-                return new TestResult(TestStatus.EXPECTED_FAILURE, 
+                result = new TestResult(TestStatus.EXPECTED_FAILURE, 
                     "Connection Error: " + error);
             } else {
-                return new TestResult(TestStatus.ERROR, "Unexpected Error: " + error);
+                result = new TestResult(TestStatus.ERROR, "Unexpected Error: " + error);
             }
+            return result.withTimings(protocol, cipher, fingerprint, connectNanos, handshakeNanos, -1)
+                .withChain(chain);
+        }
+    }
+    
+    /**
+     * SHA-256 of the server's leaf certificate, or null if it was not presented
+     */
+    private static byte[] certificateFingerprint(SSLSession session) {
+        try {
+            java.security.cert.Certificate[] chain = session.getPeerCertificates();
+            return MessageDigest.getInstance("SHA-256").digest(chain[0].getEncoded());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Key sizes, signatures, SAN counts and host match for the server's chain, or null if it cannot be read
+     */
+    private static CertificateAnalyzer.ChainReport analyzeChain(SSLSession session, String host) {
+        try {
+            return CertificateAnalyzer.analyze(session.getPeerCertificates(), host);
+        } catch (Exception e) {
+            System.out.println("⚠ Cannot analyze certificate chain: " + e.getMessage());
+            return null;
         }
     }
     
@@ -230,11 +347,47 @@ public class EnhancedBadSSLClient {
     static class TestResult {
         TestStatus status;
         String message;
+        String protocol;
+        String cipher;
+        byte[] fingerprint;
+        long connectNanos = -1;
+        long handshakeNanos = -1;
+        long ttfbNanos = -1;
+        CertificateAnalyzer.ChainReport chain;
         
         TestResult(TestStatus status, String message) {
             this.status = status;
             this.message = message;
         }
+        
+        TestResult withTimings(String protocol, String cipher, byte[] fingerprint,
+                long connectNanos, long handshakeNanos, long ttfbNanos) {
+            this.protocol = protocol;
+            this.cipher = cipher;
+            this.fingerprint = fingerprint;
+            this.connectNanos = connectNanos;
+            this.handshakeNanos = handshakeNanos;
+            this.ttfbNanos = ttfbNanos;
+            return this;
+        }
+        
+        TestResult withChain(CertificateAnalyzer.ChainReport chain) {
+            this.chain = chain;
+            return this;
+        }
+        
+        ScanResultStore.ScanRecord toRecord(TestEndpoint endpoint) {
+            ScanResultStore.ScanRecord record = new ScanResultStore.ScanRecord();
+            record.endpoint = endpoint.host + ":" + endpoint.port + endpoint.path;
+            record.status = status.name();
+            record.protocol = protocol;
+            record.cipher = cipher;
+            record.fingerprint = fingerprint;
+            record.connectNanos = connectNanos;
+            record.handshakeNanos = handshakeNanos;
+            record.ttfbNanos = ttfbNanos;
+            return record;
+        }
     }
     
     public static void main(String[] args) {
@@ -243,10 +396,20 @@ public class EnhancedBadSSLClient {
             
             if (args.length > 0 && "full".equals(args[0])) {
                 client.testAllBadSSLEndpoints();
+            } else if (args.length > 0 && "changes".equals(args[0])) {
+                try (ScanResultStore store = ScanResultStore.open(new File(RESULTS_DIR))) {
+                    printChanges(store);
+                }
+            } else if (args.length > 0 && "latency".equals(args[0])) {
+                int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+                try (ScanResultStore store = ScanResultStore.open(new File(RESULTS_DIR))) {
+                    printHandshakePercentiles(store, runs);
+                }
             } else {
                 // Quick test of main working endpoints
                 System.out.println("=== Quick BadSSL Test (Working Endpoints) ===");
-                System.out.println("For full test suite, run: java EnhancedBadSSLClient full\n");
+                System.out.println("For full test suite, run: java EnhancedBadSSLClient full");
+                System.out.println("Compare stored runs: java EnhancedBadSSLClient changes | latency [runs]\n");
                 
                 TestEndpoint[] quickTests = {
                     new TestEndpoint("client.badssl.com", 443, "/", "Client Certificate Required", true),
@@ -255,12 +418,16 @@ public class EnhancedBadSSLClient {
                     new TestEndpoint("mozilla-modern.badssl.com", 443, "/", "Mozilla Modern", false),
                     new TestEndpoint("extended-validation.badssl.com", 443, "/", "Extended Validation", false)
                 };
+                client.prefetch(Arrays.asList(quickTests));
                 
                 for (TestEndpoint endpoint : quickTests) {
                     System.out.println("🔗 Testing: " + endpoint.host);
                     System.out.println("   " + endpoint.description);
                     TestResult result = client.testEndpoint(endpoint);
                     System.out.println("   Result: " + result.message);
+                    if (result.chain != null) {
+                        System.out.println("   Chain: " + result.chain.summary());
+                    }
                     System.out.println();
                 }
             }
@@ -0,0 +1,161 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Event stream between processes on one host, one JSON event per line.
+ *
+ * The proxy serves its EventRing on a loopback port; every feed client gets a
+ * thread that reads the ring from its own cursor, so the proxy threads that
+ * publish never wait on it. The dashboard follows the feed into a ring of its
+ * own and reconnects whenever the proxy restarts.
+ */
+final class EventFeed implements Closeable {
+    private static final int BATCH = 512;
+    private static final long POLL_MILLIS = 20;
+    private static final long KEEPALIVE_MILLIS = 5000;
+    private static final long RECONNECT_MILLIS = 1000;
+
+    private final ServerSocket serverSocket;
+    private volatile Socket followSocket;
+    private volatile boolean closed = false;
+
+    private EventFeed(ServerSocket serverSocket) {
+        this.serverSocket = serverSocket;
+    }
+
+    /**
+     * Serve ring on 127.0.0.1:port. Each client first gets a proxy event (start time and proxy port),
+     * then the events still in the ring and everything after.
+     */
+    static EventFeed serve(EventRing ring, int port, long startedMillis, int proxyPort) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port, 16, InetAddress.getLoopbackAddress());
+        EventFeed feed = new EventFeed(serverSocket);
+        Thread acceptor = new Thread(() -> {
+            while (!feed.closed) {
+                try {
+                    Socket client = serverSocket.accept();
+                    Thread sender = new Thread(() -> feed.send(ring, client, startedMillis, proxyPort), "event-feed-sender");
+                    sender.setDaemon(true);
+                    sender.start();
+                } catch (IOException e) {
+                    // Closed, or a failed accept; the loop condition decides
+                }
+            }
+        }, "event-feed");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return feed;
+    }
+
+    int getLocalPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void send(EventRing ring, Socket client, long startedMillis, int proxyPort) {
+        List<EventRing.Event> batch = new ArrayList<>(BATCH);
+        try (Socket socket = client;
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), 65536)) {
+            socket.setTcpNoDelay(true);
+            out.write(new EventRing.Event(0, System.currentTimeMillis(), EventRing.Type.PROXY, null, 0,
+                "started", Long.toString(startedMillis), "proxyPort", Integer.toString(proxyPort)).toJson());
+            out.write('\n');
+            out.flush();
+
+            long cursor = ring.oldestSequence();
+            long idleSince = System.currentTimeMillis();
+            while (!closed) {
+                batch.clear();
+                long from = cursor;
+                cursor = ring.read(cursor, batch, BATCH);
+                long missed = cursor - from - batch.size();
+                if (missed > 0) {
+                    out.write(dropped(missed));
+                    out.write('\n');
+                }
+                for (EventRing.Event event : batch) {
+                    out.write(event.toJson());
+                    out.write('\n');
+                }
+                if (!batch.isEmpty() || missed > 0) {
+                    out.flush();
+                    idleSince = System.currentTimeMillis();
+                } else {
+                    if (System.currentTimeMillis() - idleSince > KEEPALIVE_MILLIS) {
+                        // Blank line, ignored by followers; finds clients that went away while idle
+                        out.write('\n');
+                        out.flush();
+                        idleSince = System.currentTimeMillis();
+                    }
+                    Thread.sleep(POLL_MILLIS);
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // Client went away
+        }
+    }
+
+    static String dropped(long count) {
+        return new EventRing.Event(0, System.currentTimeMillis(), EventRing.Type.DROPPED, null, 0,
+            "count", Long.toString(count)).toJson();
+    }
+
+    /**
+     * Follow the feed at host:port into ring, reconnecting until closed. Link changes are published as feed events.
+     */
+    static EventFeed follow(EventRing ring, String host, int port, Consumer<String> log) {
+        EventFeed feed = new EventFeed(null);
+        Thread follower = new Thread(() -> {
+            boolean wasConnected = false;
+            while (!feed.closed) {
+                try (Socket socket = new Socket()) {
+                    feed.followSocket = socket;
+                    socket.connect(new InetSocketAddress(host, port), (int) RECONNECT_MILLIS);
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                    log.accept("Following proxy events from " + host + ":" + port);
+                    ring.publish(EventRing.Type.FEED, null, 0, "state", "connected");
+                    wasConnected = true;
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (!line.isEmpty()) {
+                            try {
+                                ring.publish(EventRing.Event.parse(line));
+                            } catch (RuntimeException e) {
+                                log.accept("Skipping malformed event: " + e.getMessage());
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    // Proxy not running or gone; retry below
+                }
+                if (wasConnected) {
+                    ring.publish(EventRing.Type.FEED, null, 0, "state", "disconnected");
+                    wasConnected = false;
+                }
+                try {
+                    Thread.sleep(RECONNECT_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "event-feed-follower");
+        follower.setDaemon(true);
+        follower.start();
+        return feed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        Socket socket = followSocket;
+        if (socket != null) {
+            socket.close();
+        }
+    }
+}
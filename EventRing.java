@@ -0,0 +1,259 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded in-memory ring of connection events (connect, handshake, request, close).
+ *
+ * Publishing is lock-free and never waits: a producer claims the next sequence
+ * number and stores its event in that slot, overwriting the oldest one. Readers
+ * keep their own cursor and copy events out at their own pace. A reader that
+ * falls a full ring behind skips ahead to the oldest event still held, and the
+ * gap tells it how many it missed, so a slow reader loses events instead of
+ * holding up the proxy threads.
+ */
+final class EventRing {
+    enum Type {
+        CONNECT, HANDSHAKE, REQUEST, CLOSE,
+        // Not connection events: proxy state on feed connect, feed link state, and events a reader missed
+        PROXY, FEED, DROPPED;
+
+        final String label = name().toLowerCase(Locale.ROOT);
+
+        static Type of(String label) {
+            return valueOf(label.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * One event; fields are name/value pairs after the common ones. The JSON form is built once, on first read.
+     */
+    static final class Event {
+        final long sequence;
+        final long timeMillis;
+        final Type type;
+        final String client;
+        final int port;
+        private final String[] fields;
+        private volatile String json;
+
+        Event(long sequence, long timeMillis, Type type, String client, int port, String... fields) {
+            this.sequence = sequence;
+            this.timeMillis = timeMillis;
+            this.type = type;
+            this.client = client;
+            this.port = port;
+            this.fields = fields;
+        }
+
+        String get(String name) {
+            for (int i = 0; i + 1 < fields.length; i += 2) {
+                if (fields[i].equals(name)) {
+                    return fields[i + 1];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Flat JSON object: seq, time, type, client, port, then the fields as strings
+         */
+        String toJson() {
+            String result = json;
+            if (result == null) {
+                StringBuilder out = new StringBuilder(96 + fields.length * 16);
+                out.append("{\"seq\":").append(sequence)
+                    .append(",\"time\":").append(timeMillis)
+                    .append(",\"type\":\"").append(type.label).append('"');
+                if (client != null) {
+                    out.append(",\"client\":");
+                    quote(out, client);
+                    out.append(",\"port\":").append(port);
+                }
+                for (int i = 0; i + 1 < fields.length; i += 2) {
+                    if (fields[i + 1] != null) {
+                        out.append(',');
+                        quote(out, fields[i]);
+                        out.append(':');
+                        quote(out, fields[i + 1]);
+                    }
+                }
+                result = out.append('}').toString();
+                json = result;
+            }
+            return result;
+        }
+
+        /**
+         * Parse the output of toJson(); the sequence number is replaced by the caller's ring
+         */
+        static Event parse(String json) {
+            Map<String, String> values = new LinkedHashMap<>();
+            int i = json.indexOf('{') + 1;
+            while (i > 0 && i < json.length()) {
+                i = skipSpace(json, i);
+                if (i >= json.length() || json.charAt(i) == '}') {
+                    break;
+                }
+                StringBuilder name = new StringBuilder();
+                i = readString(json, i, name);
+                i = skipSpace(json, i);
+                if (json.charAt(i++) != ':') {
+                    throw new IllegalArgumentException("Expected ':' in event: " + json);
+                }
+                i = skipSpace(json, i);
+                StringBuilder value = new StringBuilder();
+                if (json.charAt(i) == '"') {
+                    i = readString(json, i, value);
+                } else {
+                    while (i < json.length() && ",}".indexOf(json.charAt(i)) < 0) {
+                        value.append(json.charAt(i++));
+                    }
+                }
+                values.put(name.toString(), value.toString().trim());
+                i = skipSpace(json, i);
+                if (i < json.length() && json.charAt(i) == ',') {
+                    i++;
+                }
+            }
+
+            Type type = Type.of(values.remove("type"));
+            values.remove("seq");
+            String time = values.remove("time");
+            String client = values.remove("client");
+            String port = values.remove("port");
+            String[] fields = new String[values.size() * 2];
+            int f = 0;
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                fields[f++] = entry.getKey();
+                fields[f++] = entry.getValue();
+            }
+            return new Event(0, time != null ? Long.parseLong(time) : System.currentTimeMillis(), type, client,
+                port != null ? Integer.parseInt(port) : 0, fields);
+        }
+
+        private static int skipSpace(String s, int i) {
+            while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+                i++;
+            }
+            return i;
+        }
+
+        private static int readString(String s, int i, StringBuilder out) {
+            if (s.charAt(i) != '"') {
+                throw new IllegalArgumentException("Expected string at " + i + " in event: " + s);
+            }
+            i++;
+            while (s.charAt(i) != '"') {
+                char c = s.charAt(i++);
+                if (c == '\\') {
+                    char escaped = s.charAt(i++);
+                    switch (escaped) {
+                        case 'n': out.append('\n'); break;
+                        case 'r': out.append('\r'); break;
+                        case 't': out.append('\t'); break;
+                        case 'u': out.append((char) Integer.parseInt(s.substring(i, i + 4), 16)); i += 4; break;
+                        default: out.append(escaped);
+                    }
+                } else {
+                    out.append(c);
+                }
+            }
+            return i + 1;
+        }
+
+        private static void quote(StringBuilder out, String value) {
+            out.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    out.append('\\').append(c);
+                } else if (c == '\n') {
+                    out.append("\\n");
+                } else if (c == '\r') {
+                    out.append("\\r");
+                } else if (c < 0x20) {
+                    out.append(String.format("\\u%04x", (int) c));
+                } else {
+                    out.append(c);
+                }
+            }
+            out.append('"');
+        }
+    }
+
+    private final AtomicReferenceArray<Event> slots;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * Ring holding the most recent capacity events (rounded up to a power of two)
+     */
+    EventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Publish an event for the connection from client:port (client null for events without one)
+     */
+    long publish(Type type, String client, int port, String... fields) {
+        return publish(System.currentTimeMillis(), type, client, port, fields);
+    }
+
+    long publish(long timeMillis, Type type, String client, int port, String... fields) {
+        long sequence = next.getAndIncrement();
+        slots.set((int) sequence & mask, new Event(sequence, timeMillis, type, client, port, fields));
+        return sequence;
+    }
+
+    /**
+     * Re-publish an event from another ring under this ring's numbering
+     */
+    long publish(Event event) {
+        return publish(event.timeMillis, event.type, event.client, event.port, event.fields);
+    }
+
+    /**
+     * Sequence number the next event will get
+     */
+    long nextSequence() {
+        return next.get();
+    }
+
+    /**
+     * Oldest sequence number a reader starting now can still get
+     */
+    long oldestSequence() {
+        return Math.max(0, next.get() - capacity());
+    }
+
+    /**
+     * Copy up to max events from sequence from onward into out and return the new cursor.
+     * If the cursor moved by more than the events copied, the difference was overwritten before it was read.
+     */
+    long read(long from, List<Event> out, int max) {
+        long cursor = from;
+        int copied = 0;
+        while (copied < max) {
+            Event event = slots.get((int) cursor & mask);
+            if (event == null || event.sequence < cursor) {
+                break; // not published yet
+            }
+            if (event.sequence > cursor) {
+                // Lapped: resume at the oldest event the ring still holds
+                cursor = Math.max(cursor + 1, next.get() - capacity());
+                continue;
+            }
+            out.add(event);
+            copied++;
+            cursor++;
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,388 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * Worker pool that shares its threads between tenants by weighted fair queuing.
+ *
+ * Every tenant (a client certificate subject, or the client IP without one)
+ * has its own queue. Each tenant carries a virtual time: the worker time its
+ * tasks have used divided by its weight. A free worker takes the next task of
+ * the waiting tenant with the lowest virtual time, so under contention tenants
+ * get worker time in proportion to their weights however many tasks each one
+ * queues. A task is charged an estimate (the tenant's recent average) when it
+ * starts and corrected when it ends, so a burst of dispatches cannot outrun
+ * the accounting. A tenant that was idle rejoins at the current virtual time
+ * instead of cashing in the time it did not use.
+ *
+ * Connections hold a worker for their whole keep-alive life, so fair ordering
+ * alone would not help once one tenant holds every worker. Whatever the
+ * shares, at most workers - reserve connections run at once (reserve is a
+ * sixteenth of the workers, at least one). The last reserve workers only run
+ * HTTP/2 streams: a stream runs inside a connection its tenant already holds
+ * and that connection waits on it, so streams are queued fairly but never held
+ * back, and one always finds a free worker. Within the connection limit a
+ * tenant may always run connections up to its weighted share of it among the
+ * tenants with work plus one newcomer, and beyond its share only while more
+ * than reserve connection workers are free; those are what a newcomer, whose
+ * share is still untouched, is served from at once. Tenants that are all
+ * within their shares can still take every connection worker between them,
+ * and a newcomer then waits for the next one released.
+ */
+final class FairScheduler {
+    static final int DEFAULT_WEIGHT = 1;
+    // Cost charged for a tenant's first task, before it has a measured average
+    private static final long INITIAL_COST_NANOS = 1_000_000;
+    private static final String OTHER = "other";
+
+    private final Object lock = new Object();
+    private final int workers;
+    // Workers kept for streams, and free connection workers a tenant over its share must leave for others
+    private final int reserve;
+    // Workers connections may hold; the rest are kept for HTTP/2 streams
+    private final int connectionSlots;
+    private final ProxyMetrics metrics;
+    private final Consumer<String> log;
+    private final Map<String, Tenant> tenants = new HashMap<>();
+    // Tenants with a task that may start now, lowest virtual time first
+    private final TreeSet<Tenant> ready = new TreeSet<>(
+        Comparator.comparingLong((Tenant tenant) -> tenant.virtualNanos).thenComparingLong(tenant -> tenant.id));
+    private volatile Map<String, Weight> weights = Collections.emptyMap();
+    private final Map<String, Stats> stats = new HashMap<>();
+    private long nextTenantId = 0;
+    // Virtual time of the last task started; idle tenants rejoin here
+    private long virtualNanos = 0;
+    private int presentWeight = 0;
+    private int queued = 0;
+    private int running = 0;
+    private int runningConnections = 0;
+    private boolean shutdown = false;
+
+    /**
+     * Weight and metrics label for a configured tenant
+     */
+    static final class Weight {
+        final String label;
+        final int weight;
+
+        Weight(String label, int weight) {
+            this.label = label;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Task {
+        final Runnable runnable;
+        final boolean capped;
+        final long queuedNanos = System.nanoTime();
+
+        Task(Runnable runnable, boolean capped) {
+            this.runnable = runnable;
+            this.capped = capped;
+        }
+    }
+
+    private static final class Tenant {
+        final String key;
+        final long id;
+        final Stats stats;
+        int weight;
+        long virtualNanos;
+        long averageCostNanos = INITIAL_COST_NANOS;
+        // Streams first: their connection is already running and waits on them
+        final ArrayDeque<Task> streams = new ArrayDeque<>();
+        final ArrayDeque<Task> connections = new ArrayDeque<>();
+        int runningConnections;
+        int runningTasks;
+
+        Tenant(String key, long id, int weight, Stats stats) {
+            this.key = key;
+            this.id = id;
+            this.weight = weight;
+            this.stats = stats;
+        }
+
+        boolean idle() {
+            return runningTasks == 0 && streams.isEmpty() && connections.isEmpty();
+        }
+    }
+
+    /**
+     * Exported per configured tenant label, plus one shared "other" for everyone else
+     */
+    private static final class Stats {
+        int queued;
+        int running;
+        final ProxyMetrics.Histogram wait;
+
+        Stats(ProxyMetrics.Histogram wait) {
+            this.wait = wait;
+        }
+    }
+
+    FairScheduler(int workers, ProxyMetrics metrics, Consumer<String> log) {
+        this.workers = workers;
+        this.reserve = Math.max(1, workers / 16);
+        this.connectionSlots = workers - reserve;
+        this.metrics = metrics;
+        this.log = log;
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(BufferPool.shared().withThreadCache(this::work), "proxy-worker-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+        }
+        metrics.gauge("scheduler.queue_depth", () -> {
+            synchronized (lock) {
+                return queued;
+            }
+        });
+        metrics.gauge("scheduler.running", () -> {
+            synchronized (lock) {
+                return running;
+            }
+        });
+        metrics.gauge("scheduler.tenants", () -> {
+            synchronized (lock) {
+                return tenants.size();
+            }
+        });
+        statsFor(OTHER);
+    }
+
+    /**
+     * Tenant key for a connection: the certificate subject (RFC 2253) if the client sent one, else its IP address
+     */
+    static String tenantKey(String clientSubject, String clientAddress) {
+        return clientSubject != null ? "cert:" + clientSubject : "ip:" + clientAddress;
+    }
+
+    /**
+     * Tenant weights file, one "label weight tenant" line each, # comments. The tenant is a certificate
+     * subject ("CN=Partner, O=Example") or "ip:address"; the label names its scheduler metrics.
+     */
+    static Map<String, Weight> loadWeights(File file) throws IOException {
+        Map<String, Weight> weights = new HashMap<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+", 3);
+                if (fields.length < 3 || !fields[0].matches("[A-Za-z0-9_-]+") || !fields[1].matches("[1-9][0-9]{0,3}")) {
+                    throw new IOException(file + ":" + lineNumber + ": expected '<label> <weight 1-9999> <subject|ip:address>'");
+                }
+                String key;
+                try {
+                    key = fields[2].startsWith("ip:") ? fields[2] : "cert:" + new X500Principal(fields[2]).getName();
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(file + ":" + lineNumber + ": " + e.getMessage(), e);
+                }
+                weights.put(key, new Weight(fields[0], Integer.parseInt(fields[1])));
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Replace the configured weights; tenants with queued or running work pick up their new weight at once
+     */
+    void setWeights(Map<String, Weight> weights) {
+        synchronized (lock) {
+            this.weights = weights;
+            for (Weight weight : weights.values()) {
+                statsFor(weight.label);
+            }
+            for (Tenant tenant : tenants.values()) {
+                int updated = weightOf(tenant.key);
+                presentWeight += updated - tenant.weight;
+                tenant.weight = updated;
+            }
+        }
+    }
+
+    int weightOf(String tenantKey) {
+        Weight weight = weights.get(tenantKey);
+        return weight != null ? weight.weight : DEFAULT_WEIGHT;
+    }
+
+    /**
+     * Queue a connection for tenant; it counts against the tenant's share of workers while it runs
+     */
+    void submit(String tenant, Runnable connection) {
+        enqueue(tenant, new Task(connection, true));
+    }
+
+    /**
+     * Executor for work inside one of tenant's running connections (HTTP/2 streams)
+     */
+    Executor executor(String tenant) {
+        return runnable -> enqueue(tenant, new Task(runnable, false));
+    }
+
+    private void enqueue(String key, Task task) {
+        synchronized (lock) {
+            if (shutdown) {
+                throw new RejectedExecutionException("Scheduler is shut down");
+            }
+            Tenant tenant = tenants.get(key);
+            if (tenant == null) {
+                Weight weight = weights.get(key);
+                tenant = new Tenant(key, nextTenantId++, weight != null ? weight.weight : DEFAULT_WEIGHT,
+                    statsFor(weight != null ? weight.label : OTHER));
+                tenant.virtualNanos = virtualNanos;
+                tenants.put(key, tenant);
+                presentWeight += tenant.weight;
+            } else if (tenant.idle()) {
+                tenant.virtualNanos = Math.max(tenant.virtualNanos, virtualNanos);
+            }
+            ready.remove(tenant);
+            (task.capped ? tenant.connections : tenant.streams).add(task);
+            tenant.stats.queued++;
+            queued++;
+            updateReady(tenant);
+            lock.notify();
+        }
+    }
+
+    private Stats statsFor(String label) {
+        Stats existing = stats.get(label);
+        if (existing != null) {
+            return existing;
+        }
+        Stats created = new Stats(metrics.histogram("tenant." + label + ".wait"));
+        stats.put(label, created);
+        metrics.gauge("tenant." + label + ".queued", () -> {
+            synchronized (lock) {
+                return created.queued;
+            }
+        });
+        metrics.gauge("tenant." + label + ".running", () -> {
+            synchronized (lock) {
+                return created.running;
+            }
+        });
+        return created;
+    }
+
+    /**
+     * Whether tenant may start another connection: never into the stream workers, otherwise within its
+     * weighted share of the connection workers among tenants with work and one newcomer of default weight,
+     * or beyond it while more than the reserve of them is free
+     */
+    private boolean mayStartConnection(Tenant tenant) {
+        if (runningConnections >= connectionSlots) {
+            return false;
+        }
+        long share = Math.max(1, (long) connectionSlots * tenant.weight / (presentWeight + DEFAULT_WEIGHT));
+        return tenant.runningConnections < share || connectionSlots - runningConnections > reserve;
+    }
+
+    /**
+     * Put tenant in the ready set if it has a task that may start now. Caller holds the lock and has removed it.
+     */
+    private void updateReady(Tenant tenant) {
+        if (!tenant.streams.isEmpty() || (!tenant.connections.isEmpty() && mayStartConnection(tenant))) {
+            ready.add(tenant);
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Task task;
+            Tenant tenant;
+            long estimate;
+            synchronized (lock) {
+                while (true) {
+                    while (ready.isEmpty()) {
+                        if (shutdown && queued == 0) {
+                            lock.notifyAll();
+                            return;
+                        }
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    tenant = ready.pollFirst();
+                    // Other workers may have taken the idle ones since it was marked ready;
+                    // it is checked again when a task finishes
+                    if (!tenant.streams.isEmpty() || mayStartConnection(tenant)) {
+                        break;
+                    }
+                }
+                task = tenant.streams.isEmpty() ? tenant.connections.poll() : tenant.streams.poll();
+                if (task.capped) {
+                    tenant.runningConnections++;
+                    runningConnections++;
+                }
+                tenant.runningTasks++;
+                tenant.stats.queued--;
+                tenant.stats.running++;
+                queued--;
+                running++;
+                virtualNanos = Math.max(virtualNanos, tenant.virtualNanos);
+                estimate = tenant.averageCostNanos;
+                tenant.virtualNanos += estimate / tenant.weight;
+                updateReady(tenant);
+                tenant.stats.wait.record(System.nanoTime() - task.queuedNanos);
+            }
+
+            long start = System.nanoTime();
+            try {
+                task.runnable.run();
+            } catch (RuntimeException e) {
+                StringWriter trace = new StringWriter();
+                e.printStackTrace(new PrintWriter(trace));
+                log.accept("Worker task failed: " + trace);
+            } finally {
+                finished(tenant, task, estimate, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private void finished(Tenant tenant, Task task, long estimate, long cost) {
+        synchronized (lock) {
+            ready.remove(tenant);
+            tenant.virtualNanos += (cost - estimate) / tenant.weight;
+            tenant.averageCostNanos += (cost - tenant.averageCostNanos) / 8;
+            if (task.capped) {
+                tenant.runningConnections--;
+                runningConnections--;
+            }
+            tenant.runningTasks--;
+            tenant.stats.running--;
+            running--;
+            if (tenant.idle()) {
+                tenants.remove(tenant.key);
+                presentWeight -= tenant.weight;
+            } else {
+                updateReady(tenant);
+            }
+            // A freed slot or a departed tenant can raise other tenants' connection limits
+            if (queued > ready.size()) {
+                for (Tenant waiting : tenants.values()) {
+                    if (!waiting.connections.isEmpty() && !ready.contains(waiting)) {
+                        updateReady(waiting);
+                    }
+                }
+            }
+            lock.notifyAll();
+        }
+    }
+
+    void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            lock.notifyAll();
+        }
+    }
+}
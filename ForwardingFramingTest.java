@@ -0,0 +1,247 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.*;
+
+/**
+ * Request smuggling checks for SecureSSLProxy's absolute-form forwarding.
+ *
+ * A proxy with a throwaway certificate forwards to a loopback origin that
+ * records every request head it receives. Requests that repeat Content-Length
+ * or Transfer-Encoding, or list several lengths, must be answered 400 without
+ * anything reaching the origin. Well-formed bodies must arrive with exactly one
+ * framing header, written by the proxy from what it parsed.
+ *
+ * The proxy reads its forwarding settings from the environment when the class
+ * loads, so without SSL_FORWARD_HOSTS the test runs itself again in a child JVM
+ * with forwarding to loopback allowed.
+ *
+ * Usage: java ForwardingFramingTest
+ * Exit status: 0 passed, 1 a check failed, 2 the harness could not run.
+ */
+public class ForwardingFramingTest {
+    private static final int SOCKET_TIMEOUT = 10000;
+    private static final long ORIGIN_WAIT_MILLIS = 1000;
+
+    private final SSLSocketFactory clientFactory;
+    private final SSLContext serverContext;
+    private final ServerSocket origin;
+    private final BlockingQueue<String> originHeads = new LinkedBlockingQueue<>();
+    private final List<String> failures = new ArrayList<>();
+    private SecureSSLProxy proxy;
+
+    ForwardingFramingTest() throws Exception {
+        KeyPair keyPair = ProxyBenchmark.KeyType.EC_P256.generate();
+        X509Certificate certificate = new CertificateBuilder()
+            .subject("CN=localhost, O=SecureSSLProxy Framing Test")
+            .dnsName("localhost")
+            .validDays(1)
+            .selfSign(keyPair);
+        this.serverContext = ProxyBenchmark.serverContext(keyPair, certificate);
+        this.clientFactory = ProxyBenchmark.clientContext(certificate).getSocketFactory();
+        this.origin = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Run every case; returns the failed checks, empty if it passed
+     */
+    public List<String> run() throws Exception {
+        Thread originThread = new Thread(this::serveOrigin, "framing-origin");
+        originThread.setDaemon(true);
+        originThread.start();
+        proxy = new SecureSSLProxy(serverContext, 0);
+        proxy.setVerbose(false);
+        Thread proxyThread = new Thread(() -> {
+            try {
+                proxy.start();
+            } catch (Exception e) {
+                System.err.println("Proxy failed: " + e.getMessage());
+            }
+        }, "framing-proxy");
+        proxyThread.start();
+        while (proxy.getLocalPort() == 0 && proxyThread.isAlive()) {
+            Thread.sleep(10);
+        }
+
+        try {
+            expectRejected("Content-Length: 0 then 50",
+                "Content-Length: 0\r\nContent-Length: 50\r\n", "GET /smuggled HTTP/1.1\r\nHost: x\r\n\r\n");
+            expectRejected("the same Content-Length twice",
+                "Content-Length: 5\r\ncontent-length: 5\r\n", "hello");
+            expectRejected("a Content-Length list",
+                "Content-Length: 5, 6\r\n", "hello");
+            expectRejected("Transfer-Encoding twice",
+                "Transfer-Encoding: chunked\r\nTransfer-Encoding: chunked\r\n", "0\r\n\r\n");
+            expectRejected("Transfer-Encoding and Content-Length",
+                "Transfer-Encoding: chunked\r\nContent-Length: 5\r\n", "0\r\n\r\n");
+
+            expectForwarded("a Content-Length body", "POST",
+                "Content-Length: 5\r\n", "hello", "Content-Length: 5");
+            expectForwarded("a chunked body", "POST",
+                "Transfer-Encoding: chunked\r\n", "5\r\nhello\r\n0\r\n\r\n", "Transfer-Encoding: chunked");
+            expectForwarded("an empty body", "POST",
+                "Content-Length: 0\r\n", "", "Content-Length: 0");
+            expectForwarded("no body", "GET", "", "", null);
+        } finally {
+            proxy.stop();
+            proxyThread.join(5000);
+            origin.close();
+        }
+        return failures;
+    }
+
+    private void expectRejected(String name, String framing, String body) throws Exception {
+        String status = send("POST", framing, body);
+        if (!status.startsWith("HTTP/1.1 400 ")) {
+            failures.add(name + ": expected 400, got " + status);
+        }
+        String head = originHeads.poll(ORIGIN_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        if (head != null) {
+            failures.add(name + ": reached the origin as\n" + head);
+        }
+    }
+
+    private void expectForwarded(String name, String method, String framing, String body, String expectedFraming)
+            throws Exception {
+        String status = send(method, framing, body);
+        if (!status.startsWith("HTTP/1.1 200 ")) {
+            failures.add(name + ": expected 200, got " + status);
+            return;
+        }
+        String head = originHeads.poll(SOCKET_TIMEOUT, TimeUnit.MILLISECONDS);
+        if (head == null) {
+            failures.add(name + ": never reached the origin");
+            return;
+        }
+        List<String> framingLines = new ArrayList<>();
+        for (String line : head.split("\r\n")) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15) ||
+                    line.regionMatches(true, 0, "Transfer-Encoding:", 0, 18)) {
+                framingLines.add(line);
+            }
+        }
+        List<String> expected = expectedFraming != null ? Collections.singletonList(expectedFraming)
+            : Collections.emptyList();
+        if (!framingLines.equals(expected)) {
+            failures.add(name + ": origin saw framing " + framingLines + ", expected " + expected);
+        }
+    }
+
+    /**
+     * One forwarded request on its own connection; returns the response status line
+     */
+    private String send(String method, String framing, String body) throws IOException {
+        try (SSLSocket socket = (SSLSocket) clientFactory.createSocket("127.0.0.1", proxy.getLocalPort())) {
+            socket.setSoTimeout(SOCKET_TIMEOUT);
+            SSLParameters parameters = socket.getSSLParameters();
+            parameters.setApplicationProtocols(new String[]{"http/1.1"});
+            socket.setSSLParameters(parameters);
+            String request = method + " http://127.0.0.1:" + origin.getLocalPort() + "/framing HTTP/1.1\r\n" +
+                "Host: 127.0.0.1:" + origin.getLocalPort() + "\r\n" + framing + "\r\n" + body;
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            String status = readLine(socket.getInputStream());
+            return status != null ? status : "(closed)";
+        } catch (SocketTimeoutException e) {
+            // The proxy is still waiting for body bytes it framed differently from the origin
+            return "(no response within " + SOCKET_TIMEOUT + " ms)";
+        }
+    }
+
+    /**
+     * Record each request head, read off its body by the framing it arrived with, and answer 200
+     */
+    private void serveOrigin() {
+        while (!origin.isClosed()) {
+            try (Socket socket = origin.accept()) {
+                socket.setSoTimeout(SOCKET_TIMEOUT);
+                InputStream in = socket.getInputStream();
+                StringBuilder head = new StringBuilder();
+                long length = 0;
+                boolean chunked = false;
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    head.append(line).append("\r\n");
+                    if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                        length = Long.parseLong(line.substring(15).trim());
+                    } else if (line.regionMatches(true, 0, "Transfer-Encoding:", 0, 18)) {
+                        chunked = true;
+                    }
+                }
+                if (chunked) {
+                    while ((line = readLine(in)) != null && !line.equals("0")) {
+                        in.readNBytes(Integer.parseInt(line.trim(), 16) + 2);
+                    }
+                    readLine(in);
+                } else {
+                    in.readNBytes((int) length);
+                }
+                originHeads.add(head.toString());
+                socket.getOutputStream().write(
+                    "HTTP/1.1 200 OK\r\nContent-Length: 2\r\nConnection: close\r\n\r\nok".getBytes(StandardCharsets.US_ASCII));
+            } catch (IOException | RuntimeException e) {
+                // The next case reports what is missing
+            }
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return b < 0 && line.length() == 0 ? null : line.toString();
+    }
+
+    /**
+     * Run this class again with forwarding to loopback enabled; returns its exit status
+     */
+    private static int runConfigured() throws IOException, InterruptedException {
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+            ForwardingFramingTest.class.getName());
+        builder.environment().put("SSL_FORWARD_HOSTS", "127.0.0.1");
+        builder.environment().put("SSL_FORWARD_PRIVATE", "true");
+        builder.environment().put("SSL_ACCESS_LOG", "off");
+        builder.environment().put("SSL_EVENT_PORT", "0");
+        builder.environment().put("SSL_CACHE_MB", "0");
+        return builder.inheritIO().start().waitFor();
+    }
+
+    public static void main(String[] args) {
+        try {
+            if (System.getenv("SSL_FORWARD_HOSTS") == null) {
+                System.exit(runConfigured());
+            }
+            System.out.println("=== SecureSSLProxy Forwarding Framing Test ===");
+            List<String> failures = new ForwardingFramingTest().run();
+            if (failures.isEmpty()) {
+                System.out.println("PASSED");
+                System.exit(0);
+            }
+            System.out.println("FAILED");
+            for (String failure : failures) {
+                System.out.println("  " + failure);
+            }
+            System.exit(1);
+
+        } catch (Exception e) {
+            System.err.println("Framing test failed to run: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks that GossipRateLimiter nodes agree on per-IP counts, including across
+ * a minute rollover.
+ *
+ * Three limiters gossip over loopback, each with its own stepped clock. They
+ * must converge on the cluster count within a minute. Then one node counts a
+ * last burst and rolls into the next minute while the others are still in the
+ * old one: the burst must still reach them. Finally all three count in the new
+ * minute and must converge again from zero.
+ *
+ * Usage: java GossipConvergenceTest
+ * Exit status: 0 passed, 1 a check failed, 2 the harness could not run.
+ */
+public class GossipConvergenceTest {
+    private static final long INTERVAL_MILLIS = 100;
+    private static final long CONVERGE_MILLIS = 3000;
+    private static final String SECRET = "gossip-convergence-test";
+    private static final long MINUTE = 60000;
+
+    private final InetAddress client = InetAddress.getByAddress(new byte[]{(byte) 203, 0, 113, 7});
+    private final List<AtomicLong> clocks = new ArrayList<>();
+    private final List<GossipRateLimiter> nodes = new ArrayList<>();
+    private final List<String> failures = new ArrayList<>();
+
+    GossipConvergenceTest() throws Exception {
+        // Late in a minute, so stepping a clock by a few seconds crosses into the next one
+        long start = (System.currentTimeMillis() / MINUTE) * MINUTE + MINUTE - 1000;
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            try (DatagramSocket probe = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+                addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), probe.getLocalPort()));
+            }
+            clocks.add(new AtomicLong(start));
+        }
+        for (int i = 0; i < 3; i++) {
+            List<InetSocketAddress> peers = new ArrayList<>(addresses);
+            peers.remove(i);
+            AtomicLong clock = clocks.get(i);
+            nodes.add(new GossipRateLimiter(addresses.get(i), peers, SECRET, INTERVAL_MILLIS, clock::get));
+        }
+    }
+
+    /**
+     * Run the checks; returns the failed ones, empty if it passed
+     */
+    public List<String> run() throws Exception {
+        try {
+            acquire(0, 3);
+            acquire(1, 2);
+            acquire(2, 1);
+            expectCounts("within the first minute", 6, 6, 6);
+
+            // Node 0's last burst, then its clock moves on before its next round
+            acquire(0, 4);
+            clocks.get(0).addAndGet(2000);
+            expectCounts("after node 0 rolled over", 0, 10, 10);
+
+            clocks.get(1).addAndGet(2000);
+            clocks.get(2).addAndGet(2000);
+            expectCounts("at the start of the next minute", 0, 0, 0);
+            acquire(0, 1);
+            acquire(1, 1);
+            acquire(2, 1);
+            expectCounts("within the next minute", 3, 3, 3);
+        } finally {
+            for (GossipRateLimiter node : nodes) {
+                node.close();
+            }
+        }
+        return failures;
+    }
+
+    private void acquire(int node, int connections) {
+        for (int i = 0; i < connections; i++) {
+            nodes.get(node).tryAcquire(client, Integer.MAX_VALUE);
+        }
+    }
+
+    private void expectCounts(String name, int... expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + CONVERGE_MILLIS;
+        int[] counts = new int[nodes.size()];
+        while (true) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = nodes.get(i).count(client);
+            }
+            if (Arrays.equals(counts, expected)) {
+                System.out.println("ok   " + name + ": " + Arrays.toString(counts));
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                failures.add(name + ": counts " + Arrays.toString(counts) + ", expected " + Arrays.toString(expected));
+                return;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            System.out.println("=== GossipRateLimiter Convergence Test ===");
+            List<String> failures = new GossipConvergenceTest().run();
+            if (failures.isEmpty()) {
+                System.out.println("PASSED");
+                System.exit(0);
+            }
+            System.out.println("FAILED");
+            for (String failure : failures) {
+                System.out.println("  " + failure);
+            }
+            System.exit(1);
+
+        } catch (Exception e) {
+            System.err.println("Gossip test failed to run: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,369 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Per-IP connections-per-minute counts, optionally shared with peer proxy nodes.
+ *
+ * Each window (one wall-clock minute) holds a grow-only counter per IP with one
+ * slot per node: a node only increments its own slot and the count for an IP
+ * is the sum of all slots. Every interval a node sends its own slots to each
+ * peer over UDP: the entries changed since the last round, plus a full resend
+ * every few rounds to cover lost datagrams. Receivers keep the maximum per
+ * slot, so duplicated, reordered or stale datagrams are harmless and all nodes
+ * converge on the same counts. The accept path only touches local maps and
+ * never waits on the network.
+ *
+ * Windows follow the local clock only. A peer whose clock is already in the
+ * next minute has its counts kept in a pending window that becomes current
+ * when this node gets there; any other epoch is dropped, so a datagram can
+ * never move this node's window. The first round after a window rolls over
+ * still sends the outgoing window's changed entries under its own epoch, so
+ * the increments of its last interval reach peers that are still in it.
+ *
+ * With no peers configured this is a plain local counter.
+ */
+final class GossipRateLimiter implements Closeable {
+    private static final long WINDOW_MILLIS = 60000;
+    private static final int MAGIC = 0x53524c47; // "SRLG"
+    private static final int MAX_DATAGRAM = 1200;
+    private static final int MAC_LENGTH = 16;
+    private static final int FULL_SYNC_ROUNDS = 8;
+
+    /**
+     * Counts for one IP in one window
+     */
+    private static final class Slots {
+        final AtomicInteger local = new AtomicInteger();
+        final Map<Long, Integer> remote = new ConcurrentHashMap<>();
+        volatile int remoteTotal;
+        volatile boolean dirty;
+
+        int total() {
+            return local.get() + remoteTotal;
+        }
+    }
+
+    private static final class Window {
+        final long epoch;
+        final ConcurrentHashMap<InetAddress, Slots> counts = new ConcurrentHashMap<>();
+
+        Window(long epoch) {
+            this.epoch = epoch;
+        }
+    }
+
+    private final long nodeId = new SecureRandom().nextLong();
+    private final LongSupplier clock;
+    private final List<InetSocketAddress> peers;
+    private final byte[] secret;
+    private final DatagramSocket socket;
+    private final Timer timer;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile Window window;
+    private volatile Window next;
+    // The window replaced at the last rollover, until a round has sent its last changes
+    private volatile Window outgoing;
+    private int round = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * Local-only limiter
+     */
+    GossipRateLimiter() {
+        this.clock = System::currentTimeMillis;
+        this.window = new Window(clock.getAsLong() / WINDOW_MILLIS);
+        this.next = new Window(window.epoch + 1);
+        this.peers = Collections.emptyList();
+        this.secret = null;
+        this.socket = null;
+        this.timer = null;
+    }
+
+    /**
+     * Limiter that listens for peer counts on bindAddress and sends its own every intervalMillis.
+     * Datagrams are authenticated with a truncated HMAC-SHA256 of the secret and others are dropped.
+     */
+    GossipRateLimiter(InetSocketAddress bindAddress, List<InetSocketAddress> peers, String secret,
+            long intervalMillis) throws IOException {
+        this(bindAddress, peers, secret, intervalMillis, System::currentTimeMillis);
+    }
+
+    /**
+     * As above with the wall clock windows are taken from, for tests that step it across a minute
+     */
+    GossipRateLimiter(InetSocketAddress bindAddress, List<InetSocketAddress> peers, String secret,
+            long intervalMillis, LongSupplier clock) throws IOException {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("Rate limit gossip requires a shared secret");
+        }
+        this.clock = clock;
+        this.window = new Window(clock.getAsLong() / WINDOW_MILLIS);
+        this.next = new Window(window.epoch + 1);
+        this.peers = new ArrayList<>(peers);
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.socket = new DatagramSocket(bindAddress);
+
+        Thread receiver = new Thread(this::receiveLoop, "ratelimit-gossip");
+        receiver.setDaemon(true);
+        receiver.start();
+
+        this.timer = new Timer("ratelimit-gossip-send", true);
+        timer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                broadcast();
+            }
+        }, intervalMillis, intervalMillis);
+    }
+
+    /**
+     * Parse "host:port,host:port" peer lists
+     */
+    static List<InetSocketAddress> parsePeers(String peers) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        if (peers == null) {
+            return addresses;
+        }
+        for (String peer : peers.split(",")) {
+            peer = peer.trim();
+            if (peer.isEmpty()) {
+                continue;
+            }
+            int colon = peer.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Peer must be host:port: " + peer);
+            }
+            String host = peer.substring(0, colon);
+            if (host.startsWith("[") && host.endsWith("]")) {
+                host = host.substring(1, host.length() - 1);
+            }
+            addresses.add(new InetSocketAddress(host, Integer.parseInt(peer.substring(colon + 1))));
+        }
+        return addresses;
+    }
+
+    void registerMetrics(ProxyMetrics metrics) {
+        metrics.gauge("ratelimit.tracked_ips", () -> currentWindow().counts.size());
+        metrics.gauge("ratelimit.gossip.peers", peers::size);
+        metrics.gauge("ratelimit.gossip.sent", sent::sum);
+        metrics.gauge("ratelimit.gossip.received", received::sum);
+        metrics.gauge("ratelimit.gossip.dropped", dropped::sum);
+    }
+
+    /**
+     * Count a connection from this IP unless the cluster-wide count for the current minute is already above limit
+     */
+    boolean tryAcquire(InetAddress address, int limit) {
+        Slots slots = currentWindow().counts.computeIfAbsent(address, k -> new Slots());
+        if (slots.total() > limit) {
+            return false;
+        }
+        slots.local.incrementAndGet();
+        slots.dirty = true;
+        return true;
+    }
+
+    /**
+     * Cluster-wide connections from this IP in the current minute, as far as this node knows
+     */
+    int count(InetAddress address) {
+        Slots slots = currentWindow().counts.get(address);
+        return slots != null ? slots.total() : 0;
+    }
+
+    /**
+     * The window for the local clock's minute, rolling forward when it has passed; never null.
+     * If the clock steps back, counting continues in the newest window.
+     */
+    private Window currentWindow() {
+        long epoch = clock.getAsLong() / WINDOW_MILLIS;
+        Window current = window;
+        if (current.epoch >= epoch) {
+            return current;
+        }
+        synchronized (this) {
+            if (window.epoch < epoch) {
+                // Counts peers sent ahead of time for this minute carry over
+                outgoing = window;
+                window = next.epoch == epoch ? next : new Window(epoch);
+                next = new Window(epoch + 1);
+            }
+            return window;
+        }
+    }
+
+    /**
+     * The window a peer's counts for epoch belong to: the current minute or the next one, else null
+     */
+    private Window peerWindow(long epoch) {
+        Window current = currentWindow();
+        if (current.epoch == epoch) {
+            return current;
+        }
+        Window upcoming = next;
+        return upcoming.epoch == epoch ? upcoming : null;
+    }
+
+    private void broadcast() {
+        Window current = currentWindow();
+        Window last = outgoing;
+        outgoing = null;
+        boolean full = ++round % FULL_SYNC_ROUNDS == 0;
+        try {
+            if (last != null) {
+                sendWindow(last, false);
+            }
+            sendWindow(current, full);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            // Never let one failed round cancel the timer
+            if (!closed) {
+                dropped.increment();
+            }
+        }
+    }
+
+    /**
+     * Send this node's slots of one window: those changed since the last round, or all of them
+     */
+    private void sendWindow(Window target, boolean full) throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(MAX_DATAGRAM);
+        DataOutputStream out = new DataOutputStream(buffer);
+        int entries = 0;
+        for (Map.Entry<InetAddress, Slots> entry : target.counts.entrySet()) {
+            Slots slots = entry.getValue();
+            if (!full && !slots.dirty) {
+                continue;
+            }
+            slots.dirty = false;
+            byte[] address = entry.getKey().getAddress();
+            if (buffer.size() + 1 + address.length + 4 + MAC_LENGTH > MAX_DATAGRAM) {
+                send(buffer.toByteArray(), target.epoch, entries);
+                buffer.reset();
+                entries = 0;
+            }
+            out.writeByte(address.length);
+            out.write(address);
+            out.writeInt(slots.local.get());
+            entries++;
+        }
+        if (entries > 0) {
+            send(buffer.toByteArray(), target.epoch, entries);
+        }
+    }
+
+    private void send(byte[] body, long epoch, int entries) throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(body.length + 32);
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(MAGIC);
+        out.writeLong(nodeId);
+        out.writeLong(epoch);
+        out.writeShort(entries);
+        out.write(body);
+        out.write(mac(buffer.toByteArray(), buffer.size()));
+        byte[] datagram = buffer.toByteArray();
+        for (InetSocketAddress peer : peers) {
+            socket.send(new DatagramPacket(datagram, datagram.length, peer));
+            sent.increment();
+        }
+    }
+
+    private void receiveLoop() {
+        byte[] data = new byte[MAX_DATAGRAM + 64];
+        while (!closed) {
+            DatagramPacket packet = new DatagramPacket(data, data.length);
+            try {
+                socket.receive(packet);
+                if (merge(packet.getData(), packet.getLength())) {
+                    received.increment();
+                } else {
+                    dropped.increment();
+                }
+            } catch (IOException | GeneralSecurityException e) {
+                if (!closed) {
+                    dropped.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply a peer's slots, keeping the maximum per slot; false if the datagram is malformed or unauthenticated
+     */
+    private boolean merge(byte[] data, int length) throws IOException, GeneralSecurityException {
+        if (length < MAC_LENGTH) {
+            return false;
+        }
+        length -= MAC_LENGTH;
+        if (!MessageDigest.isEqual(mac(data, length), Arrays.copyOfRange(data, length, length + MAC_LENGTH))) {
+            return false;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, length));
+        if (length < 22 || in.readInt() != MAGIC) {
+            return false;
+        }
+        long sender = in.readLong();
+        long epoch = in.readLong();
+        int entries = in.readUnsignedShort();
+        if (sender == nodeId) {
+            return true;
+        }
+        Window target = peerWindow(epoch);
+        if (target == null) {
+            return true; // stale minute, or a clock too far ahead
+        }
+
+        for (int i = 0; i < entries; i++) {
+            int addressLength = in.readUnsignedByte();
+            if (addressLength != 4 && addressLength != 16) {
+                return false;
+            }
+            byte[] address = new byte[addressLength];
+            in.readFully(address);
+            int count = in.readInt();
+
+            Slots slots = target.counts.computeIfAbsent(InetAddress.getByAddress(address), k -> new Slots());
+            Integer previous = slots.remote.get(sender);
+            if (previous == null || count > previous) {
+                slots.remote.put(sender, count);
+                int total = 0;
+                for (int value : slots.remote.values()) {
+                    total += value;
+                }
+                slots.remoteTotal = total;
+            }
+        }
+        return true;
+    }
+
+    private byte[] mac(byte[] data, int length) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+        mac.update(data, 0, length);
+        return Arrays.copyOf(mac.doFinal(), MAC_LENGTH);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (timer != null) {
+            timer.cancel();
+        }
+        if (socket != null) {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,335 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * HPACK header compression (RFC 7541) for the HTTP/2 listener.
+ * The Decoder supports the full format including Huffman strings and the
+ * dynamic table; the Encoder uses static table indexes and Huffman coding but
+ * never adds to the dynamic table, so it needs no per-connection state.
+ */
+final class Hpack {
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    private static final String[][] STATIC_TABLE = {
+        {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"},
+        {":path", "/index.html"}, {":scheme", "http"}, {":scheme", "https"}, {":status", "200"},
+        {":status", "204"}, {":status", "206"}, {":status", "304"}, {":status", "400"},
+        {":status", "404"}, {":status", "500"}, {"accept-charset", ""}, {"accept-encoding", "gzip, deflate"},
+        {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""}, {"access-control-allow-origin", ""},
+        {"age", ""}, {"allow", ""}, {"authorization", ""}, {"cache-control", ""},
+        {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+        {"content-location", ""}, {"content-range", ""}, {"content-type", ""}, {"cookie", ""},
+        {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""},
+        {"from", ""}, {"host", ""}, {"if-match", ""}, {"if-modified-since", ""},
+        {"if-none-match", ""}, {"if-range", ""}, {"if-unmodified-since", ""}, {"last-modified", ""},
+        {"link", ""}, {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""},
+        {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""},
+        {"retry-after", ""}, {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""},
+        {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""},
+        {"www-authenticate", ""}
+    };
+
+    // Huffman code lengths for symbols 0..256 (EOS); the HPACK code is canonical,
+    // so the codes themselves are derived from the lengths
+    private static final byte[] HUFFMAN_LENGTHS = {
+        13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+        6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6, 5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+        13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+        15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5, 6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+        20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23, 24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+        22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23, 21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+        26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25, 19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+        20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23, 26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+        30
+    };
+    private static final int EOS = 256;
+    private static final int MAX_CODE_LENGTH = 30;
+
+    private static final int[] HUFFMAN_CODES = new int[HUFFMAN_LENGTHS.length];
+    // Canonical decoding tables, indexed by code length
+    private static final int[] FIRST_CODE = new int[MAX_CODE_LENGTH + 1];
+    private static final int[] FIRST_INDEX = new int[MAX_CODE_LENGTH + 1];
+    private static final int[] LENGTH_COUNT = new int[MAX_CODE_LENGTH + 1];
+    private static final int[] SORTED_SYMBOLS = new int[HUFFMAN_LENGTHS.length];
+
+    static {
+        for (byte length : HUFFMAN_LENGTHS) {
+            LENGTH_COUNT[length]++;
+        }
+        int code = 0;
+        int index = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            code = (code + LENGTH_COUNT[length - 1]) << 1;
+            FIRST_CODE[length] = code;
+            FIRST_INDEX[length] = index;
+            for (int symbol = 0; symbol < HUFFMAN_LENGTHS.length; symbol++) {
+                if (HUFFMAN_LENGTHS[symbol] == length) {
+                    HUFFMAN_CODES[symbol] = code + (index - FIRST_INDEX[length]);
+                    SORTED_SYMBOLS[index++] = symbol;
+                }
+            }
+        }
+    }
+
+    private Hpack() {
+    }
+
+    static final class HpackException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        HpackException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Stateful decoder; one per connection, used only by the frame reader thread
+     */
+    static final class Decoder {
+        private final int maxTableSize;
+        private final int maxHeaderListSize;
+        private String[][] entries = new String[32][];
+        private int head = 0; // slot of the newest entry
+        private int count = 0;
+        private int size = 0;
+        private int capacity;
+
+        Decoder(int maxTableSize, int maxHeaderListSize) {
+            this.maxTableSize = maxTableSize;
+            this.maxHeaderListSize = maxHeaderListSize;
+            this.capacity = maxTableSize;
+        }
+
+        /**
+         * Decode a complete header block into ordered name/value pairs
+         */
+        List<String[]> decode(byte[] block, int length) throws HpackException {
+            List<String[]> headers = new ArrayList<>();
+            int[] pos = { 0 };
+            int listSize = 0;
+            boolean headerSeen = false;
+            while (pos[0] < length) {
+                int b = block[pos[0]] & 0xff;
+                String name;
+                String value;
+                if ((b & 0x80) != 0) {
+                    String[] entry = lookup(readInt(block, pos, length, 7));
+                    name = entry[0];
+                    value = entry[1];
+                } else if ((b & 0xe0) == 0x20) {
+                    if (headerSeen) {
+                        throw new HpackException("Table size update after header field");
+                    }
+                    int newCapacity = readInt(block, pos, length, 5);
+                    if (newCapacity > maxTableSize) {
+                        throw new HpackException("Table size update above limit: " + newCapacity);
+                    }
+                    capacity = newCapacity;
+                    evict(0);
+                    continue;
+                } else {
+                    boolean indexing = (b & 0xc0) == 0x40;
+                    int nameIndex = readInt(block, pos, length, indexing ? 6 : 4);
+                    name = nameIndex == 0 ? readString(block, pos, length) : lookup(nameIndex)[0];
+                    value = readString(block, pos, length);
+                    if (indexing) {
+                        add(name, value);
+                    }
+                }
+                headerSeen = true;
+                listSize += name.length() + value.length() + 32;
+                if (listSize > maxHeaderListSize) {
+                    throw new HpackException("Header list too large");
+                }
+                headers.add(new String[] { name, value });
+            }
+            return headers;
+        }
+
+        private String[] lookup(int index) throws HpackException {
+            if (index <= 0) {
+                throw new HpackException("Invalid header index 0");
+            }
+            if (index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1];
+            }
+            int dynamicIndex = index - STATIC_TABLE.length - 1;
+            if (dynamicIndex >= count) {
+                throw new HpackException("Header index out of range: " + index);
+            }
+            return entries[(head + dynamicIndex) % entries.length];
+        }
+
+        private void add(String name, String value) {
+            int entrySize = name.length() + value.length() + 32;
+            if (entrySize > capacity) {
+                // An entry larger than the table empties it
+                count = 0;
+                size = 0;
+                return;
+            }
+            evict(entrySize);
+            if (count == entries.length) {
+                String[][] grown = new String[entries.length * 2][];
+                for (int i = 0; i < count; i++) {
+                    grown[i] = entries[(head + i) % entries.length];
+                }
+                entries = grown;
+                head = 0;
+            }
+            head = (head - 1 + entries.length) % entries.length;
+            entries[head] = new String[] { name, value };
+            count++;
+            size += entrySize;
+        }
+
+        private void evict(int needed) {
+            while (count > 0 && size + needed > capacity) {
+                String[] oldest = entries[(head + count - 1) % entries.length];
+                size -= oldest[0].length() + oldest[1].length() + 32;
+                entries[(head + count - 1) % entries.length] = null;
+                count--;
+            }
+        }
+    }
+
+    static int readInt(byte[] block, int[] pos, int length, int prefixBits) throws HpackException {
+        int mask = (1 << prefixBits) - 1;
+        int value = block[pos[0]++] & mask;
+        if (value < mask) {
+            return value;
+        }
+        int shift = 0;
+        while (true) {
+            if (pos[0] >= length) {
+                throw new HpackException("Truncated integer");
+            }
+            int b = block[pos[0]++] & 0xff;
+            value += (b & 0x7f) << shift;
+            if (value < 0 || shift > 21) {
+                throw new HpackException("Integer overflow");
+            }
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    static String readString(byte[] block, int[] pos, int length) throws HpackException {
+        if (pos[0] >= length) {
+            throw new HpackException("Truncated string");
+        }
+        boolean huffman = (block[pos[0]] & 0x80) != 0;
+        int stringLength = readInt(block, pos, length, 7);
+        if (stringLength > length - pos[0]) {
+            throw new HpackException("Truncated string");
+        }
+        int start = pos[0];
+        pos[0] += stringLength;
+        if (!huffman) {
+            return new String(block, start, stringLength, StandardCharsets.ISO_8859_1);
+        }
+        return huffmanDecode(block, start, stringLength);
+    }
+
+    static String huffmanDecode(byte[] data, int offset, int length) throws HpackException {
+        StringBuilder sb = new StringBuilder(length * 8 / 5);
+        int code = 0;
+        int codeLength = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int b = data[i] & 0xff;
+            for (int bit = 7; bit >= 0; bit--) {
+                code = (code << 1) | ((b >>> bit) & 1);
+                codeLength++;
+                int delta = code - FIRST_CODE[codeLength];
+                if (LENGTH_COUNT[codeLength] > 0 && delta >= 0 && delta < LENGTH_COUNT[codeLength]) {
+                    int symbol = SORTED_SYMBOLS[FIRST_INDEX[codeLength] + delta];
+                    if (symbol == EOS) {
+                        throw new HpackException("EOS in Huffman string");
+                    }
+                    sb.append((char) symbol);
+                    code = 0;
+                    codeLength = 0;
+                } else if (codeLength == MAX_CODE_LENGTH) {
+                    throw new HpackException("Invalid Huffman code");
+                }
+            }
+        }
+        // Padding must be a prefix of EOS (all ones) and shorter than a byte
+        if (codeLength > 7 || code != (1 << codeLength) - 1) {
+            throw new HpackException("Invalid Huffman padding");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stateless encoder: static table matches, otherwise literals without indexing
+     */
+    static void encode(ByteArrayOutputStream out, String name, String value) {
+        int nameIndex = 0;
+        for (int i = 0; i < STATIC_TABLE.length; i++) {
+            if (STATIC_TABLE[i][0].equals(name)) {
+                if (STATIC_TABLE[i][1].equals(value)) {
+                    writeInt(out, 0x80, 7, i + 1);
+                    return;
+                }
+                if (nameIndex == 0) {
+                    nameIndex = i + 1;
+                }
+            }
+        }
+        writeInt(out, 0x00, 4, nameIndex);
+        if (nameIndex == 0) {
+            writeString(out, name);
+        }
+        writeString(out, value);
+    }
+
+    static void writeInt(ByteArrayOutputStream out, int flags, int prefixBits, int value) {
+        int mask = (1 << prefixBits) - 1;
+        if (value < mask) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | mask);
+        value -= mask;
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] raw = value.getBytes(StandardCharsets.ISO_8859_1);
+        long bits = 0;
+        for (byte b : raw) {
+            bits += HUFFMAN_LENGTHS[b & 0xff];
+        }
+        int huffmanLength = (int) ((bits + 7) / 8);
+        if (huffmanLength >= raw.length) {
+            writeInt(out, 0x00, 7, raw.length);
+            out.write(raw, 0, raw.length);
+            return;
+        }
+
+        writeInt(out, 0x80, 7, huffmanLength);
+        long buffer = 0;
+        int buffered = 0;
+        for (byte b : raw) {
+            int symbol = b & 0xff;
+            buffer = (buffer << HUFFMAN_LENGTHS[symbol]) | HUFFMAN_CODES[symbol];
+            buffered += HUFFMAN_LENGTHS[symbol];
+            while (buffered >= 8) {
+                buffered -= 8;
+                out.write((int) (buffer >>> buffered) & 0xff);
+            }
+        }
+        if (buffered > 0) {
+            // Pad with the most significant bits of EOS (all ones)
+            out.write((int) ((buffer << (8 - buffered)) | (0xff >>> buffered)) & 0xff);
+        }
+    }
+}
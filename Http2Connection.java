@@ -0,0 +1,786 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Server side of one HTTP/2 connection (RFC 7540) negotiated through ALPN.
+ *
+ * The calling thread runs the frame reader; each complete request stream is
+ * handed to the worker executor, so one TLS connection serves many concurrent
+ * requests. Responses are written under a single connection lock which also
+ * guards the send flow-control windows; writers wait on a condition until the
+ * peer opens the window with WINDOW_UPDATE.
+ *
+ * When the peer sends GOAWAY or closes its side, no new streams are taken
+ * and the connection stays open until the streams already handed to workers
+ * have written their responses, for at most DRAIN_TIMEOUT_MILLIS.
+ */
+final class Http2Connection {
+    private static final byte[] CLIENT_PREFACE =
+        "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int FRAME_DATA = 0x0;
+    private static final int FRAME_HEADERS = 0x1;
+    private static final int FRAME_PRIORITY = 0x2;
+    private static final int FRAME_RST_STREAM = 0x3;
+    private static final int FRAME_SETTINGS = 0x4;
+    private static final int FRAME_PUSH_PROMISE = 0x5;
+    private static final int FRAME_PING = 0x6;
+    private static final int FRAME_GOAWAY = 0x7;
+    private static final int FRAME_WINDOW_UPDATE = 0x8;
+    private static final int FRAME_CONTINUATION = 0x9;
+
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    private static final int NO_ERROR = 0x0;
+    private static final int PROTOCOL_ERROR = 0x1;
+    private static final int INTERNAL_ERROR = 0x2;
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+    private static final int STREAM_CLOSED = 0x5;
+    private static final int FRAME_SIZE_ERROR = 0x6;
+    private static final int REFUSED_STREAM = 0x7;
+    private static final int COMPRESSION_ERROR = 0x9;
+
+    private static final int DEFAULT_WINDOW_SIZE = 65535;
+    private static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    private static final int MAX_CONCURRENT_STREAMS = 100;
+    private static final int MAX_HEADER_LIST_SIZE = 65536;
+    private static final int MAX_REQUEST_BODY = 1024 * 1024;
+    private static final long DRAIN_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * A complete request received on one stream
+     */
+    static final class Request {
+        final int streamId;
+        final String method;
+        final String path;
+        final String authority;
+        final Map<String, String> headers;
+        final byte[] body;
+
+        Request(int streamId, String method, String path, String authority,
+                Map<String, String> headers, byte[] body) {
+            this.streamId = streamId;
+            this.method = method;
+            this.path = path;
+            this.authority = authority;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Response for one stream; header names must be lowercase
+     */
+    static final class Response {
+        final int status;
+        final Map<String, String> headers = new LinkedHashMap<>();
+        final byte[] body;
+
+        Response(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        Response header(String name, String value) {
+            headers.put(name.toLowerCase(Locale.ROOT), value);
+            return this;
+        }
+    }
+
+    interface RequestHandler {
+        Response handle(Request request) throws IOException;
+    }
+
+    private static final class Stream {
+        final int id;
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        Map<String, String> headers;
+        String method;
+        String path;
+        String authority;
+        long sendWindow;
+        int receiveWindow = DEFAULT_WINDOW_SIZE;
+        boolean remoteClosed = false;
+        volatile boolean reset = false;
+        boolean tooLarge = false;
+
+        Stream(int id, long sendWindow) {
+            this.id = id;
+            this.sendWindow = sendWindow;
+        }
+    }
+
+    private static final class Http2Exception extends IOException {
+        private static final long serialVersionUID = 1L;
+        final int errorCode;
+
+        Http2Exception(int errorCode, String message) {
+            super(message);
+            this.errorCode = errorCode;
+        }
+    }
+
+    private final BufferPool.PooledInputStream pooledIn;
+    private final DataInputStream in;
+    private final BufferPool.PooledOutputStream out;
+    private final BufferPool bufferPool;
+    private final Executor executor;
+    private final RequestHandler handler;
+    private final Runnable activityListener;
+    private final ProxyMetrics metrics;
+    private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+
+    // Guarded by writeLock
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Condition windowOpened = writeLock.newCondition();
+    private final Condition streamsFinished = writeLock.newCondition();
+    // Streams handed to the executor whose responses are not yet written
+    private int activeStreams = 0;
+    private long connectionSendWindow = DEFAULT_WINDOW_SIZE;
+    private int peerInitialWindowSize = DEFAULT_WINDOW_SIZE;
+    private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private volatile boolean closed = false;
+
+    // Reader thread only
+    private boolean goingAway = false;
+    private int lastStreamId = 0;
+    private int connectionReceiveWindow = DEFAULT_WINDOW_SIZE;
+    private Stream headerStream;
+    private ByteArrayOutputStream headerBlock;
+    private boolean headerEndStream;
+    private boolean headerTrailers;
+    // Payload of the frame being processed, a pooled buffer held only for the duration of one frame
+    private byte[] frameBuffer;
+    private int frameOffset;
+
+    Http2Connection(InputStream in, OutputStream out, Executor executor, RequestHandler handler,
+            Runnable activityListener, ProxyMetrics metrics, BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        this.pooledIn = new BufferPool.PooledInputStream(in, bufferPool, BufferPool.RECORD);
+        this.in = new DataInputStream(pooledIn);
+        this.out = new BufferPool.PooledOutputStream(out, bufferPool, BufferPool.RECORD);
+        this.executor = executor;
+        this.handler = handler;
+        this.activityListener = activityListener;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Serve the connection until the peer closes it or a connection error occurs
+     */
+    void serve() throws IOException {
+        byte[] preface = new byte[CLIENT_PREFACE.length];
+        in.readFully(preface);
+        if (!Arrays.equals(preface, CLIENT_PREFACE)) {
+            throw new IOException("Invalid HTTP/2 client preface");
+        }
+
+        sendSettings();
+        try {
+            while (!closed) {
+                if (!readFrame()) {
+                    break;
+                }
+                activityListener.run();
+                if (goingAway && !hasActiveStreams()) {
+                    break;
+                }
+            }
+            awaitActiveStreams();
+        } catch (Http2Exception e) {
+            goAway(e.errorCode, e.getMessage());
+            throw e;
+        } catch (EOFException e) {
+            // Peer closed the connection; responses already being written may still get through
+            awaitActiveStreams();
+        } finally {
+            closed = true;
+            pooledIn.release();
+            writeLock.lock();
+            try {
+                windowOpened.signalAll();
+                out.release();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    private boolean hasActiveStreams() {
+        writeLock.lock();
+        try {
+            return activeStreams > 0;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Wait up to DRAIN_TIMEOUT_MILLIS for dispatched streams to finish their responses
+     */
+    private void awaitActiveStreams() {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MILLIS);
+        writeLock.lock();
+        try {
+            while (activeStreams > 0 && remaining > 0) {
+                remaining = streamsFinished.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void sendSettings() throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        writeSetting(payload, SETTINGS_MAX_CONCURRENT_STREAMS, MAX_CONCURRENT_STREAMS);
+        writeSetting(payload, SETTINGS_ENABLE_PUSH, 0);
+        writeSetting(payload, SETTINGS_MAX_HEADER_LIST_SIZE, MAX_HEADER_LIST_SIZE);
+        writeFrame(FRAME_SETTINGS, 0, 0, payload.toByteArray(), 0, payload.size(), true);
+    }
+
+    private static void writeSetting(ByteArrayOutputStream payload, int id, int value) {
+        payload.write(id >>> 8);
+        payload.write(id);
+        payload.write(value >>> 24);
+        payload.write(value >>> 16);
+        payload.write(value >>> 8);
+        payload.write(value);
+    }
+
+    private boolean readFrame() throws IOException {
+        int b0 = in.read();
+        if (b0 < 0) {
+            return false;
+        }
+        int length = (b0 << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        int type = in.readUnsignedByte();
+        int flags = in.readUnsignedByte();
+        int streamId = in.readInt() & 0x7fffffff;
+
+        if (length > DEFAULT_MAX_FRAME_SIZE) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Frame too large: " + length);
+        }
+        BufferPool.Buffer payload = bufferPool.acquire(BufferPool.RECORD);
+        frameBuffer = payload.array;
+        frameOffset = payload.offset;
+        try {
+            in.readFully(frameBuffer, frameOffset, length);
+            processFrame(type, flags, streamId, length);
+        } finally {
+            frameBuffer = null;
+            bufferPool.release(payload);
+        }
+        return true;
+    }
+
+    private void processFrame(int type, int flags, int streamId, int length) throws IOException {
+        if (headerStream != null && type != FRAME_CONTINUATION) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Expected CONTINUATION");
+        }
+
+        switch (type) {
+            case FRAME_DATA:
+                onData(streamId, flags, length);
+                break;
+            case FRAME_HEADERS:
+                onHeaders(streamId, flags, length);
+                break;
+            case FRAME_CONTINUATION:
+                onContinuation(streamId, flags, length);
+                break;
+            case FRAME_PRIORITY:
+                if (streamId == 0 || length != 5) {
+                    throw new Http2Exception(PROTOCOL_ERROR, "Invalid PRIORITY frame");
+                }
+                break;
+            case FRAME_RST_STREAM:
+                onReset(streamId, length);
+                break;
+            case FRAME_SETTINGS:
+                onSettings(streamId, flags, length);
+                break;
+            case FRAME_PING:
+                if (streamId != 0 || length != 8) {
+                    throw new Http2Exception(PROTOCOL_ERROR, "Invalid PING frame");
+                }
+                if ((flags & FLAG_ACK) == 0) {
+                    writeFrame(FRAME_PING, FLAG_ACK, 0, frameBuffer, frameOffset, 8, true);
+                }
+                break;
+            case FRAME_GOAWAY:
+                // Finish what is in flight, then close
+                goingAway = true;
+                break;
+            case FRAME_WINDOW_UPDATE:
+                onWindowUpdate(streamId, length);
+                break;
+            case FRAME_PUSH_PROMISE:
+                throw new Http2Exception(PROTOCOL_ERROR, "Clients must not push");
+            default:
+                // Unknown frame types are ignored
+                break;
+        }
+    }
+
+    private void onHeaders(int streamId, int flags, int length) throws IOException {
+        if (streamId == 0 || (streamId & 1) == 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Invalid stream id for HEADERS: " + streamId);
+        }
+        // A second HEADERS on a stream whose request is still arriving carries its trailers
+        Stream open = null;
+        if (streamId <= lastStreamId) {
+            open = streams.get(streamId);
+            if (open == null || open.remoteClosed) {
+                throw new Http2Exception(PROTOCOL_ERROR, "HEADERS on closed stream " + streamId);
+            }
+        } else {
+            lastStreamId = streamId;
+        }
+
+        int offset = 0;
+        int padding = 0;
+        if ((flags & FLAG_PADDED) != 0) {
+            padding = frameBuffer[frameOffset] & 0xff;
+            offset = 1;
+        }
+        if ((flags & FLAG_PRIORITY) != 0) {
+            offset += 5;
+        }
+        if (offset + padding > length) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Invalid HEADERS padding");
+        }
+
+        Stream stream = open;
+        if (stream == null) {
+            writeLock.lock();
+            try {
+                stream = new Stream(streamId, peerInitialWindowSize);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        headerStream = stream;
+        headerBlock = new ByteArrayOutputStream();
+        headerBlock.write(frameBuffer, frameOffset + offset, length - offset - padding);
+        headerEndStream = (flags & FLAG_END_STREAM) != 0;
+        headerTrailers = open != null;
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            completeHeaders();
+        }
+    }
+
+    private void onContinuation(int streamId, int flags, int length) throws IOException {
+        if (headerStream == null || headerStream.id != streamId) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Unexpected CONTINUATION");
+        }
+        if (headerBlock.size() + length > MAX_HEADER_LIST_SIZE) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Header block too large");
+        }
+        headerBlock.write(frameBuffer, frameOffset, length);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            completeHeaders();
+        }
+    }
+
+    private void completeHeaders() throws IOException {
+        Stream stream = headerStream;
+        byte[] block = headerBlock.toByteArray();
+        headerStream = null;
+        headerBlock = null;
+
+        // Always decoded, so the HPACK table stays in step with the client's
+        List<String[]> decoded;
+        try {
+            decoded = decoder.decode(block, block.length);
+        } catch (Hpack.HpackException e) {
+            throw new Http2Exception(COMPRESSION_ERROR, e.getMessage());
+        }
+        if (headerTrailers) {
+            // Trailer fields are not passed on; they must end the request
+            if (!headerEndStream) {
+                streams.remove(stream.id);
+                sendReset(stream.id, PROTOCOL_ERROR);
+                return;
+            }
+            metrics.increment("http2.trailers_discarded");
+            stream.remoteClosed = true;
+            dispatch(stream);
+            return;
+        }
+
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (String[] header : decoded) {
+            switch (header[0]) {
+                case ":method":
+                    stream.method = header[1];
+                    break;
+                case ":path":
+                    stream.path = header[1];
+                    break;
+                case ":authority":
+                    stream.authority = header[1];
+                    break;
+                default:
+                    if (!header[0].startsWith(":")) {
+                        headers.merge(header[0], header[1], (a, b) -> a + ", " + b);
+                    }
+                    break;
+            }
+        }
+        stream.headers = headers;
+
+        if (stream.method == null || stream.path == null) {
+            sendReset(stream.id, PROTOCOL_ERROR);
+            return;
+        }
+        if (goingAway) {
+            sendReset(stream.id, REFUSED_STREAM);
+            return;
+        }
+        if (streams.size() >= MAX_CONCURRENT_STREAMS) {
+            metrics.increment("http2.streams.refused");
+            sendReset(stream.id, REFUSED_STREAM);
+            return;
+        }
+
+        streams.put(stream.id, stream);
+        metrics.increment("http2.streams");
+        if (headerEndStream) {
+            stream.remoteClosed = true;
+            dispatch(stream);
+        }
+    }
+
+    private void onData(int streamId, int flags, int length) throws IOException {
+        if (streamId == 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, "DATA on stream 0");
+        }
+        int offset = 0;
+        int padding = 0;
+        if ((flags & FLAG_PADDED) != 0) {
+            padding = frameBuffer[frameOffset] & 0xff;
+            offset = 1;
+        }
+        if (offset + padding > length) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Invalid DATA padding");
+        }
+
+        // Flow control counts the whole frame, padding included
+        connectionReceiveWindow -= length;
+        if (connectionReceiveWindow < 0) {
+            throw new Http2Exception(FLOW_CONTROL_ERROR, "Connection receive window exceeded");
+        }
+        if (length > 0) {
+            connectionReceiveWindow += length;
+            sendWindowUpdate(0, length);
+        }
+
+        Stream stream = streams.get(streamId);
+        if (stream == null || stream.remoteClosed) {
+            if (streamId > lastStreamId) {
+                throw new Http2Exception(PROTOCOL_ERROR, "DATA on idle stream " + streamId);
+            }
+            sendReset(streamId, STREAM_CLOSED);
+            return;
+        }
+        stream.receiveWindow -= length;
+        if (stream.receiveWindow < 0) {
+            streams.remove(streamId);
+            sendReset(streamId, FLOW_CONTROL_ERROR);
+            return;
+        }
+
+        int dataLength = length - offset - padding;
+        if (stream.body.size() + dataLength > MAX_REQUEST_BODY) {
+            stream.tooLarge = true;
+        } else {
+            stream.body.write(frameBuffer, frameOffset + offset, dataLength);
+        }
+
+        if ((flags & FLAG_END_STREAM) != 0) {
+            stream.remoteClosed = true;
+            dispatch(stream);
+        } else if (length > 0) {
+            // Bodies are buffered up to MAX_REQUEST_BODY, so the window is reopened at once
+            stream.receiveWindow += length;
+            sendWindowUpdate(streamId, length);
+        }
+    }
+
+    private void onReset(int streamId, int length) throws IOException {
+        if (streamId == 0 || length != 4) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Invalid RST_STREAM frame");
+        }
+        Stream stream = streams.remove(streamId);
+        if (stream != null) {
+            stream.reset = true;
+            writeLock.lock();
+            try {
+                windowOpened.signalAll();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    private void onSettings(int streamId, int flags, int length) throws IOException {
+        if (streamId != 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, "SETTINGS on a stream");
+        }
+        if ((flags & FLAG_ACK) != 0) {
+            if (length != 0) {
+                throw new Http2Exception(FRAME_SIZE_ERROR, "SETTINGS ack with payload");
+            }
+            return;
+        }
+        if (length % 6 != 0) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid SETTINGS length");
+        }
+
+        writeLock.lock();
+        try {
+            for (int i = 0; i < length; i += 6) {
+                int id = ((frameBuffer[frameOffset + i] & 0xff) << 8) | (frameBuffer[frameOffset + i + 1] & 0xff);
+                int value = payloadInt(i + 2);
+                if (id == SETTINGS_INITIAL_WINDOW_SIZE) {
+                    if (value < 0) {
+                        throw new Http2Exception(FLOW_CONTROL_ERROR, "Initial window size too large");
+                    }
+                    int delta = value - peerInitialWindowSize;
+                    peerInitialWindowSize = value;
+                    for (Stream stream : streams.values()) {
+                        stream.sendWindow += delta;
+                    }
+                } else if (id == SETTINGS_MAX_FRAME_SIZE) {
+                    if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xffffff) {
+                        throw new Http2Exception(PROTOCOL_ERROR, "Invalid max frame size");
+                    }
+                    peerMaxFrameSize = value;
+                } else if (id == SETTINGS_ENABLE_PUSH && value != 0 && value != 1) {
+                    throw new Http2Exception(PROTOCOL_ERROR, "Invalid ENABLE_PUSH");
+                }
+                // HEADER_TABLE_SIZE only limits our encoder's dynamic table, which is never used
+            }
+            windowOpened.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+        writeFrame(FRAME_SETTINGS, FLAG_ACK, 0, new byte[0], 0, 0, true);
+    }
+
+    private void onWindowUpdate(int streamId, int length) throws IOException {
+        if (length != 4) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid WINDOW_UPDATE length");
+        }
+        int increment = payloadInt(0) & 0x7fffffff;
+        if (increment == 0) {
+            if (streamId == 0) {
+                throw new Http2Exception(PROTOCOL_ERROR, "Zero WINDOW_UPDATE");
+            }
+            sendReset(streamId, PROTOCOL_ERROR);
+            return;
+        }
+
+        writeLock.lock();
+        try {
+            if (streamId == 0) {
+                connectionSendWindow += increment;
+                if (connectionSendWindow > Integer.MAX_VALUE) {
+                    throw new Http2Exception(FLOW_CONTROL_ERROR, "Connection window overflow");
+                }
+            } else {
+                Stream stream = streams.get(streamId);
+                if (stream != null) {
+                    stream.sendWindow += increment;
+                }
+            }
+            windowOpened.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private int payloadInt(int index) {
+        int i = frameOffset + index;
+        return ((frameBuffer[i] & 0xff) << 24) | ((frameBuffer[i + 1] & 0xff) << 16) |
+            ((frameBuffer[i + 2] & 0xff) << 8) | (frameBuffer[i + 3] & 0xff);
+    }
+
+    private void dispatch(Stream stream) {
+        Request request = new Request(stream.id, stream.method, stream.path, stream.authority,
+            stream.headers, stream.body.toByteArray());
+        boolean tooLarge = stream.tooLarge;
+        writeLock.lock();
+        try {
+            activeStreams++;
+        } finally {
+            writeLock.unlock();
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    Response response = tooLarge
+                        ? new Response(413, "Request body too large".getBytes(StandardCharsets.UTF_8))
+                        : handler.handle(request);
+                    sendResponse(stream, response);
+                } catch (IOException e) {
+                    if (!closed) {
+                        sendResetQuietly(stream.id, INTERNAL_ERROR);
+                    }
+                } finally {
+                    streams.remove(stream.id);
+                    streamFinished();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            streams.remove(stream.id);
+            streamFinished();
+            sendResetQuietly(stream.id, REFUSED_STREAM);
+        }
+    }
+
+    private void streamFinished() {
+        writeLock.lock();
+        try {
+            activeStreams--;
+            streamsFinished.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void sendResponse(Stream stream, Response response) throws IOException {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        Hpack.encode(block, ":status", Integer.toString(response.status));
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            Hpack.encode(block, header.getKey(), header.getValue());
+        }
+        Hpack.encode(block, "content-length", Integer.toString(response.body.length));
+
+        byte[] headerBytes = block.toByteArray();
+        boolean endStream = response.body.length == 0;
+        writeLock.lock();
+        try {
+            // Header blocks above the peer's frame size continue in CONTINUATION frames
+            int chunk = Math.min(headerBytes.length, peerMaxFrameSize);
+            int flags = (chunk == headerBytes.length ? FLAG_END_HEADERS : 0) | (endStream ? FLAG_END_STREAM : 0);
+            writeFrame(FRAME_HEADERS, flags, stream.id, headerBytes, 0, chunk, false);
+            for (int offset = chunk; offset < headerBytes.length; offset += chunk) {
+                chunk = Math.min(headerBytes.length - offset, peerMaxFrameSize);
+                flags = offset + chunk == headerBytes.length ? FLAG_END_HEADERS : 0;
+                writeFrame(FRAME_CONTINUATION, flags, stream.id, headerBytes, offset, chunk, false);
+            }
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+
+        int offset = 0;
+        while (offset < response.body.length) {
+            writeLock.lock();
+            try {
+                long window;
+                while ((window = Math.min(connectionSendWindow, stream.sendWindow)) <= 0) {
+                    if (closed || stream.reset) {
+                        throw new IOException("Stream " + stream.id + " closed while writing");
+                    }
+                    // Frames already buffered must reach the peer, or it may never open the window
+                    out.flush();
+                    windowOpened.awaitUninterruptibly();
+                }
+                if (closed || stream.reset) {
+                    throw new IOException("Stream " + stream.id + " closed while writing");
+                }
+                int length = (int) Math.min(Math.min(window, peerMaxFrameSize), response.body.length - offset);
+                connectionSendWindow -= length;
+                stream.sendWindow -= length;
+                boolean last = offset + length == response.body.length;
+                writeFrame(FRAME_DATA, last ? FLAG_END_STREAM : 0, stream.id, response.body, offset, length, last);
+                offset += length;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    private void sendWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] payload = {
+            (byte) (increment >>> 24), (byte) (increment >>> 16), (byte) (increment >>> 8), (byte) increment
+        };
+        writeFrame(FRAME_WINDOW_UPDATE, 0, streamId, payload, 0, 4, true);
+    }
+
+    private void sendReset(int streamId, int errorCode) throws IOException {
+        byte[] payload = {
+            (byte) (errorCode >>> 24), (byte) (errorCode >>> 16), (byte) (errorCode >>> 8), (byte) errorCode
+        };
+        writeFrame(FRAME_RST_STREAM, 0, streamId, payload, 0, 4, true);
+    }
+
+    private void sendResetQuietly(int streamId, int errorCode) {
+        try {
+            sendReset(streamId, errorCode);
+        } catch (IOException e) {
+            // Connection is going away
+        }
+    }
+
+    private void goAway(int errorCode, String message) {
+        byte[] debug = message != null ? message.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        byte[] payload = new byte[8 + Math.min(debug.length, 256)];
+        payload[0] = (byte) (lastStreamId >>> 24);
+        payload[1] = (byte) (lastStreamId >>> 16);
+        payload[2] = (byte) (lastStreamId >>> 8);
+        payload[3] = (byte) lastStreamId;
+        payload[4] = (byte) (errorCode >>> 24);
+        payload[5] = (byte) (errorCode >>> 16);
+        payload[6] = (byte) (errorCode >>> 8);
+        payload[7] = (byte) errorCode;
+        System.arraycopy(debug, 0, payload, 8, payload.length - 8);
+        try {
+            writeFrame(FRAME_GOAWAY, 0, 0, payload, 0, payload.length, true);
+        } catch (IOException e) {
+            // Peer is already gone
+        }
+    }
+
+    private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length,
+            boolean flush) throws IOException {
+        writeLock.lock();
+        try {
+            out.write(length >>> 16);
+            out.write(length >>> 8);
+            out.write(length);
+            out.write(type);
+            out.write(flags);
+            out.write(streamId >>> 24);
+            out.write(streamId >>> 16);
+            out.write(streamId >>> 8);
+            out.write(streamId);
+            out.write(payload, offset, length);
+            if (flush) {
+                out.flush();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming HTTP/1.1 message bodies (Content-Length, chunked, or until close).
+ *
+ * A body is moved in fixed-size chunks through one pooled buffer, so memory
+ * use does not depend on its size. Copying is blocking and strictly
+ * alternating: the next chunk is only read once the previous one has been
+ * written, so a receiver that cannot keep up stops reads from the sender and
+ * TCP flow control pushes the backpressure back to it, instead of data piling
+ * up in the proxy.
+ */
+final class HttpBody {
+    enum Framing { NONE, LENGTH, CHUNKED, UNTIL_CLOSE }
+
+    private static final int MAX_CHUNK_LINE = 1024;
+    // Room for a chunk-size line in front of the data and its CRLF behind it
+    private static final int CHUNK_HEADER_ROOM = 10;
+    private static final int CHUNK_TRAILER_ROOM = 2;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Framing headers that are missing, contradictory or unsupported
+     */
+    static final class FramingException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        FramingException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The body exceeded the configured maximum
+     */
+    static final class TooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        TooLargeException(long maxSize) {
+            super("Body larger than " + maxSize + " bytes");
+        }
+    }
+
+    final Framing framing;
+    // Bytes for LENGTH; for a request without a body, 0 if it said Content-Length: 0 and -1 if it said nothing
+    final long length;
+
+    private HttpBody(Framing framing, long length) {
+        this.framing = framing;
+        this.length = length;
+    }
+
+    /**
+     * Reject a request head that repeats Content-Length or Transfer-Encoding, or lists several
+     * Content-Length values. Must run on the raw lines, before a header map keeps only one of them.
+     */
+    static void checkRequestFraming(List<String> headerLines) throws FramingException {
+        int contentLengths = 0;
+        int transferEncodings = 0;
+        for (String line : headerLines) {
+            String name = line.substring(0, line.indexOf(':')).trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                if (++contentLengths > 1 || line.indexOf(',') >= 0) {
+                    throw new FramingException("Repeated Content-Length");
+                }
+            } else if (name.equalsIgnoreCase("Transfer-Encoding") && ++transferEncodings > 1) {
+                throw new FramingException("Repeated Transfer-Encoding");
+            }
+        }
+    }
+
+    /**
+     * Request body framing; requests without Content-Length or chunked encoding have no body.
+     * Both headers together, or any other transfer coding, are rejected (request smuggling).
+     */
+    static HttpBody forRequest(Map<String, String> headers) throws FramingException {
+        String transferEncoding = headers.get("Transfer-Encoding");
+        String contentLength = headers.get("Content-Length");
+        if (transferEncoding != null) {
+            if (contentLength != null) {
+                throw new FramingException("Both Transfer-Encoding and Content-Length present");
+            }
+            if (!transferEncoding.trim().equalsIgnoreCase("chunked")) {
+                throw new FramingException("Unsupported Transfer-Encoding: " + transferEncoding);
+            }
+            return new HttpBody(Framing.CHUNKED, -1);
+        }
+        if (contentLength != null) {
+            long length = parseLength(contentLength);
+            return new HttpBody(length > 0 ? Framing.LENGTH : Framing.NONE, length);
+        }
+        return new HttpBody(Framing.NONE, -1);
+    }
+
+    /**
+     * The framing header to send a request body on with, written from what was parsed
+     * rather than copied from the client
+     */
+    void appendRequestFraming(StringBuilder head) {
+        if (framing == Framing.CHUNKED) {
+            head.append("Transfer-Encoding: chunked\r\n");
+        } else if (length >= 0) {
+            head.append("Content-Length: ").append(length).append("\r\n");
+        }
+    }
+
+    /**
+     * Response body framing for the given request method and status (RFC 7230 section 3.3.3)
+     */
+    static HttpBody forResponse(String requestMethod, int status, Map<String, String> headers) throws FramingException {
+        if (requestMethod.equals("HEAD") || status / 100 == 1 || status == 204 || status == 304) {
+            return new HttpBody(Framing.NONE, 0);
+        }
+        String transferEncoding = headers.get("Transfer-Encoding");
+        if (transferEncoding != null) {
+            return transferEncoding.toLowerCase().trim().endsWith("chunked")
+                ? new HttpBody(Framing.CHUNKED, -1) : new HttpBody(Framing.UNTIL_CLOSE, -1);
+        }
+        String contentLength = headers.get("Content-Length");
+        if (contentLength != null) {
+            long length = parseLength(contentLength);
+            return new HttpBody(length > 0 ? Framing.LENGTH : Framing.NONE, length);
+        }
+        return new HttpBody(Framing.UNTIL_CLOSE, -1);
+    }
+
+    private static long parseLength(String value) throws FramingException {
+        try {
+            long length = Long.parseLong(value.trim());
+            if (length < 0) {
+                throw new FramingException("Negative Content-Length: " + value);
+            }
+            return length;
+        } catch (NumberFormatException e) {
+            throw new FramingException("Invalid Content-Length: " + value);
+        }
+    }
+
+    /**
+     * Copy the body from in to out with the same framing, chunk by chunk.
+     * Throws TooLargeException once more than maxSize bytes of body data have been seen;
+     * progress runs after every chunk written. Returns the body bytes copied.
+     */
+    long transfer(BufferPool.PooledInputStream in, OutputStream out, long maxSize, BufferPool pool,
+            Runnable progress) throws IOException {
+        return transfer(in, out, null, maxSize, pool, progress);
+    }
+
+    /**
+     * As transfer(), also passing the decoded body data (no chunk framing) to tee if it is non-null
+     */
+    long transfer(BufferPool.PooledInputStream in, OutputStream out, OutputStream tee, long maxSize, BufferPool pool,
+            Runnable progress) throws IOException {
+        if (framing == Framing.NONE) {
+            return 0;
+        }
+        if (framing == Framing.LENGTH && length > maxSize) {
+            throw new TooLargeException(maxSize);
+        }
+        BufferPool.Buffer buffer = pool.acquire(BufferPool.LARGE);
+        try {
+            switch (framing) {
+                case LENGTH:
+                    return copy(in, out, tee, length, maxSize, buffer, progress);
+                case UNTIL_CLOSE:
+                    return copy(in, out, tee, -1, maxSize, buffer, progress);
+                default:
+                    return copyChunked(in, out, tee, maxSize, buffer, progress);
+            }
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Copy exactly count bytes, or until end of stream when count is negative
+     */
+    private static long copy(InputStream in, OutputStream out, OutputStream tee, long count, long maxSize,
+            BufferPool.Buffer buffer, Runnable progress) throws IOException {
+        long copied = 0;
+        while (count < 0 || copied < count) {
+            int want = count < 0 ? buffer.capacity : (int) Math.min(buffer.capacity, count - copied);
+            int n = in.read(buffer.array, buffer.offset, want);
+            if (n < 0) {
+                if (count < 0) {
+                    break;
+                }
+                throw new EOFException("Body ended after " + copied + " of " + count + " bytes");
+            }
+            copied += n;
+            if (copied > maxSize) {
+                throw new TooLargeException(maxSize);
+            }
+            out.write(buffer.array, buffer.offset, n);
+            if (tee != null) {
+                tee.write(buffer.array, buffer.offset, n);
+            }
+            flushIfIdle(in, out);
+            progress.run();
+        }
+        out.flush();
+        return copied;
+    }
+
+    /**
+     * Decode chunked input and re-encode it, one output chunk per buffer-full, each in a single write
+     */
+    private static long copyChunked(BufferPool.PooledInputStream in, OutputStream out, OutputStream tee, long maxSize,
+            BufferPool.Buffer buffer, Runnable progress) throws IOException {
+        int dataStart = buffer.offset + CHUNK_HEADER_ROOM;
+        int room = buffer.capacity - CHUNK_HEADER_ROOM - CHUNK_TRAILER_ROOM;
+        long copied = 0;
+        while (true) {
+            long chunkSize = parseChunkSize(in.readLine(MAX_CHUNK_LINE));
+            if (chunkSize == 0) {
+                break;
+            }
+            copied += chunkSize;
+            if (copied > maxSize) {
+                throw new TooLargeException(maxSize);
+            }
+            long remaining = chunkSize;
+            while (remaining > 0) {
+                int n = in.read(buffer.array, dataStart, (int) Math.min(room, remaining));
+                if (n < 0) {
+                    throw new EOFException("Chunked body ended mid-chunk");
+                }
+                remaining -= n;
+
+                // Size line goes right in front of the data, CRLF right behind it
+                int start = dataStart;
+                buffer.array[--start] = '\n';
+                buffer.array[--start] = '\r';
+                int value = n;
+                do {
+                    buffer.array[--start] = HEX[value & 0xf];
+                    value >>>= 4;
+                } while (value != 0);
+                buffer.array[dataStart + n] = '\r';
+                buffer.array[dataStart + n + 1] = '\n';
+                out.write(buffer.array, start, dataStart + n + CHUNK_TRAILER_ROOM - start);
+                if (tee != null) {
+                    tee.write(buffer.array, dataStart, n);
+                }
+                flushIfIdle(in, out);
+                progress.run();
+            }
+            String end = in.readLine(MAX_CHUNK_LINE);
+            if (end == null || !end.isEmpty()) {
+                throw new FramingException("Missing CRLF after chunk data");
+            }
+        }
+
+        // Last chunk, then any trailer fields up to the empty line
+        StringBuilder last = new StringBuilder("0\r\n");
+        String trailer;
+        while ((trailer = in.readLine(MAX_CHUNK_LINE)) != null && !trailer.isEmpty()) {
+            last.append(trailer).append("\r\n");
+        }
+        if (trailer == null) {
+            throw new EOFException("Chunked body ended before its last chunk");
+        }
+        last.append("\r\n");
+        out.write(last.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+        return copied;
+    }
+
+    /**
+     * Push out anything buffered before the next read would block, so a trickling body is not held back
+     */
+    private static void flushIfIdle(InputStream in, OutputStream out) throws IOException {
+        if (in.available() == 0) {
+            out.flush();
+        }
+    }
+
+    private static long parseChunkSize(String line) throws IOException {
+        if (line == null) {
+            throw new EOFException("Chunked body ended before its last chunk");
+        }
+        int extension = line.indexOf(';');
+        String size = (extension >= 0 ? line.substring(0, extension) : line).trim();
+        if (size.isEmpty() || size.length() > 15) {
+            throw new FramingException("Invalid chunk size: " + line);
+        }
+        try {
+            long value = Long.parseLong(size, 16);
+            if (value < 0) {
+                throw new FramingException("Invalid chunk size: " + line);
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new FramingException("Invalid chunk size: " + line);
+        }
+    }
+}
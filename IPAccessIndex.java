@@ -0,0 +1,254 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Immutable CIDR allow/deny index for the proxy accept path.
+ * Rules are stored in a binary trie over raw address bits, kept in flat arrays,
+ * so a lookup is a bounded walk of at most 32 (IPv4) or 128 (IPv6) steps.
+ * An Inet4Address is walked straight from its address bits with no allocation;
+ * an IPv6 one costs the copy of its 16 bytes. IPv4-mapped IPv6 addresses are
+ * matched as IPv4.
+ */
+public final class IPAccessIndex {
+    public enum Decision { NONE, ALLOW, DENY }
+
+    private static final Decision[] DECISIONS = Decision.values();
+    private static final int IPV4_ROOT = 0;
+    private static final int IPV6_ROOT = 1;
+
+    // children[2 * node + bit] holds the child node index, 0 means no child
+    // (the two roots are never children, so 0 is free to mean "none")
+    private final int[] children;
+    private final byte[] verdicts;
+    private final int ruleCount;
+
+    private IPAccessIndex(int[] children, byte[] verdicts, int ruleCount) {
+        this.children = children;
+        this.verdicts = verdicts;
+        this.ruleCount = ruleCount;
+    }
+
+    /**
+     * Look up an address; the longest matching prefix decides
+     */
+    public Decision lookup(InetAddress address) {
+        // Inet4Address hashes to its own address bits, where getAddress() would copy them
+        if (address instanceof Inet4Address) {
+            return lookupIPv4(address.hashCode());
+        }
+        return lookup(address.getAddress());
+    }
+
+    /**
+     * Look up raw network-order address bytes (4 or 16 bytes)
+     */
+    public Decision lookup(byte[] address) {
+        if (address.length == 4) {
+            return lookupIPv4(toInt(address, 0));
+        } else if (address.length == 16 && isIPv4Mapped(address)) {
+            return lookupIPv4(toInt(address, 12));
+        } else if (address.length != 16) {
+            return Decision.NONE;
+        }
+
+        int node = IPV6_ROOT;
+        byte best = verdicts[node];
+        for (int i = 0; i < 128; i++) {
+            int bit = (address[i >>> 3] >>> (7 - (i & 7))) & 1;
+            node = children[(node << 1) | bit];
+            if (node == 0) {
+                break;
+            }
+            if (verdicts[node] != 0) {
+                best = verdicts[node];
+            }
+        }
+        return DECISIONS[best];
+    }
+
+    private Decision lookupIPv4(int address) {
+        int node = IPV4_ROOT;
+        byte best = verdicts[node];
+        for (int i = 0; i < 32; i++) {
+            node = children[(node << 1) | ((address >>> (31 - i)) & 1)];
+            if (node == 0) {
+                break;
+            }
+            if (verdicts[node] != 0) {
+                best = verdicts[node];
+            }
+        }
+        return DECISIONS[best];
+    }
+
+    public int getRuleCount() {
+        return ruleCount;
+    }
+
+    public int getNodeCount() {
+        return verdicts.length;
+    }
+
+    private static int toInt(byte[] address, int offset) {
+        return (address[offset] & 0xff) << 24 | (address[offset + 1] & 0xff) << 16 |
+            (address[offset + 2] & 0xff) << 8 | (address[offset + 3] & 0xff);
+    }
+
+    private static boolean isIPv4Mapped(byte[] address) {
+        for (int i = 0; i < 10; i++) {
+            if (address[i] != 0) {
+                return false;
+            }
+        }
+        return address[10] == (byte) 0xff && address[11] == (byte) 0xff;
+    }
+
+    /**
+     * Load rules from a file with one "allow CIDR" or "deny CIDR" per line.
+     * Blank lines and lines starting with '#' are ignored.
+     */
+    public static IPAccessIndex load(File file, Builder builder) throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                if (parts.length != 2) {
+                    throw new IOException(file + ":" + lineNumber + ": expected '<allow|deny> <cidr>'");
+                }
+                try {
+                    if (parts[0].equalsIgnoreCase("allow")) {
+                        builder.allow(parts[1]);
+                    } else if (parts[0].equalsIgnoreCase("deny")) {
+                        builder.deny(parts[1]);
+                    } else {
+                        throw new IllegalArgumentException("unknown action: " + parts[0]);
+                    }
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(file + ":" + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Mutable trie builder; build() produces a compact immutable index
+     */
+    public static final class Builder {
+        private int[] children = new int[256];
+        private byte[] verdicts = new byte[128];
+        private int nodeCount = 2;
+        private int ruleCount = 0;
+
+        public Builder allow(String cidr) {
+            return add(Decision.ALLOW, cidr);
+        }
+
+        public Builder deny(String cidr) {
+            return add(Decision.DENY, cidr);
+        }
+
+        public Builder add(Decision decision, String cidr) {
+            if (decision == Decision.NONE) {
+                throw new IllegalArgumentException("NONE is not a rule");
+            }
+
+            String addressPart = cidr;
+            int prefix = -1;
+            int slash = cidr.indexOf('/');
+            if (slash >= 0) {
+                addressPart = cidr.substring(0, slash);
+                try {
+                    prefix = Integer.parseInt(cidr.substring(slash + 1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid prefix length: " + cidr);
+                }
+            }
+
+            byte[] address = parseLiteral(addressPart);
+            int offset = 0;
+            int maxBits = address.length * 8;
+            if (address.length == 16 && isIPv4Mapped(address)) {
+                offset = 12;
+                maxBits = 32;
+            }
+            // "::ffff:a.b.c.d/n" is written with an IPv6 prefix length
+            if (maxBits == 32 && addressPart.indexOf(':') >= 0 && slash >= 0) {
+                prefix -= 96;
+            }
+            if (slash < 0) {
+                prefix = maxBits;
+            }
+            if (prefix < 0 || prefix > maxBits) {
+                throw new IllegalArgumentException("invalid prefix length: " + cidr);
+            }
+
+            int node = maxBits == 32 ? IPV4_ROOT : IPV6_ROOT;
+            for (int i = 0; i < prefix; i++) {
+                int bit = (address[offset + (i >>> 3)] >>> (7 - (i & 7))) & 1;
+                int slot = (node << 1) | bit;
+                if (children[slot] == 0) {
+                    int child = newNode(); // may reallocate children
+                    children[slot] = child;
+                }
+                node = children[slot];
+            }
+
+            // Deny wins over allow for an identical prefix
+            byte verdict = (byte) decision.ordinal();
+            if (verdicts[node] != Decision.DENY.ordinal()) {
+                verdicts[node] = verdict;
+            }
+            ruleCount++;
+            return this;
+        }
+
+        private int newNode() {
+            if (nodeCount == verdicts.length) {
+                verdicts = Arrays.copyOf(verdicts, verdicts.length * 2);
+                children = Arrays.copyOf(children, children.length * 2);
+            }
+            return nodeCount++;
+        }
+
+        public IPAccessIndex build() {
+            return new IPAccessIndex(
+                Arrays.copyOf(children, nodeCount * 2),
+                Arrays.copyOf(verdicts, nodeCount),
+                ruleCount);
+        }
+    }
+
+    /**
+     * Parse an IP literal without ever falling back to a DNS lookup
+     */
+    static byte[] parseLiteral(String text) {
+        if (text.isEmpty()) {
+            throw new IllegalArgumentException("empty address");
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            boolean hex = (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+            if (!hex && c != '.' && c != ':') {
+                throw new IllegalArgumentException("not an IP literal: " + text);
+            }
+        }
+        if (text.indexOf(':') < 0 && !text.matches("\\d{1,3}(\\.\\d{1,3}){3}")) {
+            throw new IllegalArgumentException("not an IP literal: " + text);
+        }
+        try {
+            return InetAddress.getByName(text).getAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("not an IP literal: " + text);
+        }
+    }
+}
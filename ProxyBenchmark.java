@@ -0,0 +1,400 @@
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.security.*;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.*;
+
+/**
+ * Protocol / cipher suite / key type performance matrix for SecureSSLProxy.
+ *
+ * For every key type a throwaway certificate is generated and a proxy is
+ * started on a free local port with it. Every enabled protocol and cipher
+ * suite the key can serve is then measured twice:
+ *   - full handshakes against the proxy from several client threads (no
+ *     session resumption), reported per second and per CPU-second; client and
+ *     server share this JVM, so CPU time covers both ends of the handshake
+ *   - bulk record encryption + decryption on one core with an in-memory
+ *     SSLEngine pair using the same contexts (the proxy does not relay
+ *     payloads, so there is no tunnel to push bulk data through)
+ * The result is a ranked table and a suggested SSL_CIPHER_SUITES order per key type.
+ *
+ * Usage: java ProxyBenchmark [seconds-per-case] [client-threads] [key types, e.g. RSA_2048,EC_P256]
+ */
+public class ProxyBenchmark {
+    enum KeyType {
+        RSA_2048("RSA", 2048, null),
+        RSA_4096("RSA", 4096, null),
+        EC_P256("EC", 0, "secp256r1"),
+        EC_P384("EC", 0, "secp384r1");
+
+        final String algorithm;
+        final int size;
+        final String curve;
+
+        KeyType(String algorithm, int size, String curve) {
+            this.algorithm = algorithm;
+            this.size = size;
+            this.curve = curve;
+        }
+
+        KeyPair generate() throws GeneralSecurityException {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+            if (curve != null) {
+                generator.initialize(new ECGenParameterSpec(curve));
+            } else {
+                generator.initialize(size);
+            }
+            return generator.generateKeyPair();
+        }
+
+        boolean canServe(String cipherSuite) {
+            if (isTls13Suite(cipherSuite)) {
+                return true;
+            }
+            if (algorithm.equals("EC")) {
+                return cipherSuite.startsWith("TLS_ECDHE_ECDSA_");
+            }
+            return cipherSuite.startsWith("TLS_ECDHE_RSA_") || cipherSuite.startsWith("TLS_DHE_RSA_") ||
+                cipherSuite.startsWith("TLS_RSA_");
+        }
+    }
+
+    private static final String[] PROTOCOLS = {"TLSv1.3", "TLSv1.2"};
+    private static final int RECORD_SIZE = 16384;
+    private static final int BULK_WARMUP_RECORDS = 2000;
+    private static final long BULK_WARMUP_MILLIS = 2000;
+    private static final char[] KEY_PASSWORD = "benchmark".toCharArray();
+
+    static class Result {
+        KeyType keyType;
+        String protocol;
+        String cipherSuite;
+        double handshakesPerSecond;
+        double handshakesPerCpuSecond;
+        double bulkMegabytesPerSecond;
+        long failures;
+        double score;
+    }
+
+    private final long caseMillis;
+    private final int threads;
+
+    public ProxyBenchmark(long caseMillis, int threads) {
+        this.caseMillis = caseMillis;
+        this.threads = threads;
+    }
+
+    private static boolean isTls13Suite(String cipherSuite) {
+        return cipherSuite.startsWith("TLS_AES_") || cipherSuite.startsWith("TLS_CHACHA20_");
+    }
+
+    public List<Result> run(List<KeyType> keyTypes) throws Exception {
+        List<Result> results = new ArrayList<>();
+        for (KeyType keyType : keyTypes) {
+            System.out.println("Generating " + keyType + " certificate...");
+            KeyPair keyPair = keyType.generate();
+            X509Certificate certificate = new CertificateBuilder()
+                .subject("CN=localhost, O=SecureSSLProxy Benchmark")
+                .dnsName("localhost")
+                .validDays(1)
+                .selfSign(keyPair);
+            SSLContext serverContext = serverContext(keyPair, certificate);
+            SSLContext clientContext = clientContext(certificate);
+
+            SecureSSLProxy proxy = new SecureSSLProxy(serverContext, 0);
+            proxy.setVerbose(false);
+            Thread proxyThread = new Thread(() -> {
+                try {
+                    proxy.start();
+                } catch (Exception e) {
+                    System.err.println("Proxy failed: " + e.getMessage());
+                }
+            }, "benchmark-proxy");
+            proxyThread.setDaemon(true);
+            proxyThread.start();
+            while (proxy.getLocalPort() == 0 && proxyThread.isAlive()) {
+                Thread.sleep(10);
+            }
+            int port = proxy.getLocalPort();
+
+            try {
+                for (String protocol : PROTOCOLS) {
+                    for (String cipherSuite : serverContext.getDefaultSSLParameters().getCipherSuites()) {
+                        if (!keyType.canServe(cipherSuite) || isTls13Suite(cipherSuite) != protocol.equals("TLSv1.3")) {
+                            continue;
+                        }
+                        Result result = new Result();
+                        result.keyType = keyType;
+                        result.protocol = protocol;
+                        result.cipherSuite = cipherSuite;
+                        measureHandshakes(result, clientContext, port);
+                        measureBulk(result, clientContext, serverContext);
+                        results.add(result);
+                        System.out.printf("  %-8s %-8s %-45s %9.1f hs/s %9.1f MB/s%n", keyType, protocol,
+                            cipherSuite, result.handshakesPerSecond, result.bulkMegabytesPerSecond);
+                    }
+                }
+            } finally {
+                proxy.stop();
+                proxyThread.join(5000);
+            }
+        }
+        score(results);
+        return results;
+    }
+
+    static SSLContext serverContext(KeyPair keyPair, X509Certificate certificate) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("server", keyPair.getPrivate(), KEY_PASSWORD, new Certificate[]{certificate});
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, KEY_PASSWORD);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagerFactory.getKeyManagers(), null, new SecureRandom());
+        return context;
+    }
+
+    static SSLContext clientContext(X509Certificate certificate) throws Exception {
+        KeyStore trustStore = KeyStore.getInstance("PKCS12");
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("server", certificate);
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(trustStore);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagerFactory.getTrustManagers(), new SecureRandom());
+        return context;
+    }
+
+    /**
+     * Full handshakes against the proxy from several threads; a warm-up fifth of the time is not counted
+     */
+    private void measureHandshakes(Result result, SSLContext clientContext, int port) throws InterruptedException {
+        SSLSocketFactory factory = clientContext.getSocketFactory();
+        AtomicLong handshakes = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+        long warmupEnd = System.nanoTime() + caseMillis * 1_000_000L / 5;
+        long end = warmupEnd + caseMillis * 1_000_000L;
+        long[] cpuStart = new long[1];
+        long[] wallStart = new long[1];
+
+        Thread[] clients = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            clients[i] = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    boolean counted = System.nanoTime() >= warmupEnd;
+                    try (SSLSocket socket = (SSLSocket) factory.createSocket("127.0.0.1", port)) {
+                        socket.setEnabledProtocols(new String[]{result.protocol});
+                        socket.setEnabledCipherSuites(new String[]{result.cipherSuite});
+                        socket.setTcpNoDelay(true);
+                        socket.startHandshake();
+                        // Invalidate so the next connection cannot resume this session
+                        socket.getSession().invalidate();
+                        if (counted) {
+                            handshakes.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        if (counted) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            }, "benchmark-client-" + i);
+            clients[i].start();
+        }
+
+        while (System.nanoTime() < warmupEnd) {
+            Thread.sleep(1);
+        }
+        cpuStart[0] = processCpuNanos();
+        wallStart[0] = System.nanoTime();
+        for (Thread client : clients) {
+            client.join();
+        }
+        long wall = System.nanoTime() - wallStart[0];
+        long cpu = processCpuNanos() - cpuStart[0];
+
+        result.failures = failures.get();
+        result.handshakesPerSecond = handshakes.get() * 1e9 / wall;
+        result.handshakesPerCpuSecond = cpuStart[0] >= 0 && cpu > 0 ? handshakes.get() * 1e9 / cpu : 0;
+    }
+
+    static long processCpuNanos() {
+        java.lang.management.OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    /**
+     * Encrypt full-size records on a client engine and decrypt them on a server engine, one core
+     */
+    private void measureBulk(Result result, SSLContext clientContext, SSLContext serverContext) throws SSLException {
+        SSLEngine client = clientContext.createSSLEngine("localhost", 443);
+        client.setUseClientMode(true);
+        client.setEnabledProtocols(new String[]{result.protocol});
+        client.setEnabledCipherSuites(new String[]{result.cipherSuite});
+        SSLEngine server = serverContext.createSSLEngine();
+        server.setUseClientMode(false);
+        server.setEnabledProtocols(new String[]{result.protocol});
+        handshake(client, server);
+
+        ByteBuffer plain = ByteBuffer.allocate(RECORD_SIZE);
+        new Random(42).nextBytes(plain.array());
+        ByteBuffer network = ByteBuffer.allocate(client.getSession().getPacketBufferSize());
+        ByteBuffer decrypted = ByteBuffer.allocate(server.getSession().getApplicationBufferSize());
+
+        // Warm up until the cipher code is compiled; later cases of the same cipher finish quickly
+        long warmupEnd = System.nanoTime() + BULK_WARMUP_MILLIS * 1_000_000L;
+        for (int i = 0; i < BULK_WARMUP_RECORDS && System.nanoTime() < warmupEnd; i++) {
+            transferRecord(client, server, plain, network, decrypted);
+        }
+
+        long bytes = 0;
+        long start = System.nanoTime();
+        long end = start + caseMillis * 1_000_000L / 2;
+        while (System.nanoTime() < end) {
+            bytes += transferRecord(client, server, plain, network, decrypted);
+        }
+        result.bulkMegabytesPerSecond = bytes / ((System.nanoTime() - start) / 1e9) / (1024 * 1024);
+    }
+
+    private static int transferRecord(SSLEngine client, SSLEngine server, ByteBuffer plain, ByteBuffer network,
+            ByteBuffer decrypted) throws SSLException {
+        plain.clear();
+        network.clear();
+        client.wrap(plain, network);
+        network.flip();
+        decrypted.clear();
+        server.unwrap(network, decrypted);
+        return decrypted.position();
+    }
+
+    private static void handshake(SSLEngine client, SSLEngine server) throws SSLException {
+        int packetSize = Math.max(client.getSession().getPacketBufferSize(), server.getSession().getPacketBufferSize());
+        int applicationSize = Math.max(client.getSession().getApplicationBufferSize(),
+            server.getSession().getApplicationBufferSize());
+        ByteBuffer clientToServer = ByteBuffer.allocate(packetSize * 4);
+        ByteBuffer serverToClient = ByteBuffer.allocate(packetSize * 4);
+        ByteBuffer application = ByteBuffer.allocate(applicationSize);
+
+        client.beginHandshake();
+        server.beginHandshake();
+        for (int i = 0; isHandshaking(client) || isHandshaking(server); i++) {
+            if (i > 1000) {
+                throw new SSLException("In-memory handshake did not complete");
+            }
+            step(client, serverToClient, clientToServer, application);
+            step(server, clientToServer, serverToClient, application);
+        }
+    }
+
+    private static boolean isHandshaking(SSLEngine engine) {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        return status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING &&
+            status != SSLEngineResult.HandshakeStatus.FINISHED;
+    }
+
+    private static void step(SSLEngine engine, ByteBuffer in, ByteBuffer out, ByteBuffer application)
+            throws SSLException {
+        switch (engine.getHandshakeStatus()) {
+            case NEED_TASK:
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+                break;
+            case NEED_WRAP:
+                engine.wrap(ByteBuffer.allocate(0), out);
+                break;
+            case NEED_UNWRAP:
+            case NEED_UNWRAP_AGAIN:
+                in.flip();
+                application.clear();
+                engine.unwrap(in, application);
+                in.compact();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Score each case relative to the best handshake rate and bulk throughput of its
+     * key type and protocol, so both costs count equally in the ranking
+     */
+    private static void score(List<Result> results) {
+        Map<String, double[]> best = new HashMap<>();
+        for (Result result : results) {
+            double[] max = best.computeIfAbsent(result.keyType + "/" + result.protocol, k -> new double[2]);
+            max[0] = Math.max(max[0], result.handshakesPerCpuSecond > 0 ? result.handshakesPerCpuSecond : result.handshakesPerSecond);
+            max[1] = Math.max(max[1], result.bulkMegabytesPerSecond);
+        }
+        for (Result result : results) {
+            double[] max = best.get(result.keyType + "/" + result.protocol);
+            double handshakes = result.handshakesPerCpuSecond > 0 ? result.handshakesPerCpuSecond : result.handshakesPerSecond;
+            result.score = (max[0] > 0 ? handshakes / max[0] : 0) + (max[1] > 0 ? result.bulkMegabytesPerSecond / max[1] : 0);
+        }
+    }
+
+    private static void printReport(List<Result> results, int threads) {
+        List<Result> ranked = new ArrayList<>(results);
+        ranked.sort(Comparator.comparingDouble((Result r) -> r.score).reversed());
+
+        System.out.println();
+        System.out.println("=== Proxy TLS Performance Matrix (" + threads + " client threads, " +
+            Runtime.getRuntime().availableProcessors() + " cores) ===");
+        System.out.printf("%-4s %-8s %-8s %-45s %10s %10s %10s %7s %6s%n",
+            "Rank", "Key", "Protocol", "Cipher Suite", "hs/s", "hs/cpu-s", "bulk MB/s", "Failed", "Score");
+        int rank = 1;
+        for (Result r : ranked) {
+            System.out.printf("%-4d %-8s %-8s %-45s %10.1f %10.1f %10.1f %7d %6.2f%n", rank++, r.keyType, r.protocol,
+                r.cipherSuite, r.handshakesPerSecond, r.handshakesPerCpuSecond, r.bulkMegabytesPerSecond, r.failures, r.score);
+        }
+
+        System.out.println();
+        System.out.println("Suggested forward-secret preference order (export as SSL_CIPHER_SUITES):");
+        Map<KeyType, List<String>> orders = new EnumMap<>(KeyType.class);
+        for (Result r : ranked) {
+            // Static RSA key exchange is measured but never suggested: it has no forward secrecy
+            if (r.handshakesPerSecond > 0 && !r.cipherSuite.startsWith("TLS_RSA_")) {
+                orders.computeIfAbsent(r.keyType, k -> new ArrayList<>()).add(r.cipherSuite);
+            }
+        }
+        for (Map.Entry<KeyType, List<String>> entry : orders.entrySet()) {
+            // TLS 1.3 and 1.2 suites never compete, so one list serves both protocols
+            List<String> suites = new ArrayList<>(new LinkedHashSet<>(entry.getValue()));
+            System.out.println("  " + entry.getKey() + ": " + String.join(",", suites));
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+            int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            List<KeyType> keyTypes = new ArrayList<>();
+            if (args.length > 2) {
+                for (String name : args[2].split(",")) {
+                    keyTypes.add(KeyType.valueOf(name.trim().toUpperCase()));
+                }
+            } else {
+                keyTypes.addAll(Arrays.asList(KeyType.values()));
+            }
+
+            System.out.println("=== SecureSSLProxy TLS Benchmark ===");
+            System.out.println("Key types: " + keyTypes + ", " + seconds + "s per case, " + threads + " client threads\n");
+            ProxyBenchmark benchmark = new ProxyBenchmark((long) (seconds * 1000), threads);
+            printReport(benchmark.run(keyTypes), threads);
+
+        } catch (Exception e) {
+            System.err.println("Benchmark failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
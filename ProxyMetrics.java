@@ -0,0 +1,151 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Lightweight metrics registry for the proxy.
+ * Counters are LongAdders so hot paths never contend; gauges are sampled on render;
+ * histograms are fixed log-linear bucket arrays with lock-free recording.
+ */
+public final class ProxyMetrics {
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Get or create a counter; callers on hot paths should keep the returned reference
+     */
+    public LongAdder counter(String name) {
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(name, k -> new LongAdder());
+        }
+        return counter;
+    }
+
+    public void increment(String name) {
+        counter(name).increment();
+    }
+
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * Get or create a histogram of nanosecond values, rendered in microseconds
+     */
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(name, k -> new Histogram());
+        }
+        return histogram;
+    }
+
+    /**
+     * Render all metrics as sorted "name value" lines
+     */
+    public String render() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().sum());
+        }
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            String name = entry.getKey();
+            values.put(name + ".count", histogram.getCount());
+            values.put(name + ".p50_us", histogram.percentile(0.50) / 1000);
+            values.put(name + ".p90_us", histogram.percentile(0.90) / 1000);
+            values.put(name + ".p99_us", histogram.percentile(0.99) / 1000);
+            values.put(name + ".max_us", histogram.getMax() / 1000);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            sb.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Log-linear histogram: 8 sub-buckets per power of two, so any recorded
+     * value is reported within 12.5% using a fixed 512-slot array
+     */
+    public static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64 << SUB_BITS);
+        private final LongAdder count = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            buckets.incrementAndGet(index(value));
+            count.increment();
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Approximate value at the given quantile (0..1), 0 when empty
+         */
+        public long percentile(double quantile) {
+            long total = 0;
+            long[] snapshot = new long[buckets.length()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            long target = Math.max(1, (long) Math.ceil(total * quantile));
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= target) {
+                    return Math.min(lowerBound(i + 1) - 1, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        static int index(long value) {
+            if (value < SUB_COUNT) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            int sub = (int) (value >>> shift) & (SUB_COUNT - 1);
+            return ((shift + 1) << SUB_BITS) + sub;
+        }
+
+        static long lowerBound(int index) {
+            if (index < SUB_COUNT) {
+                return index;
+            }
+            int shift = (index >>> SUB_BITS) - 1;
+            int sub = index & (SUB_COUNT - 1);
+            return (long) (SUB_COUNT + sub) << shift;
+        }
+    }
+}
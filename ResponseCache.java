@@ -0,0 +1,674 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared HTTP cache for GET responses forwarded by the proxy (RFC 9111 subset).
+ *
+ * Freshness comes from s-maxage, max-age or Expires; responses without any but
+ * with an ETag or Last-Modified are stored as immediately stale so they can be
+ * revalidated with a conditional request. no-store, private, Set-Cookie and
+ * Vary: * responses are never stored. Vary is honoured by keying variants on the
+ * request header values the first response named.
+ *
+ * Bodies up to LARGE_OBJECT bytes live on the heap; larger ones go to an
+ * optional tier of memory-mapped files, so they do not count against the heap.
+ * Each tier has its own byte budget under a W-TinyLFU policy. Concurrent misses
+ * for the same key are coalesced: one request fetches, the others wait for it.
+ */
+final class ResponseCache {
+    static final int LARGE_OBJECT = 256 * 1024;
+    private static final int ENTRY_OVERHEAD = 256;
+    private static final int AVERAGE_OBJECT_SIZE = 16 * 1024;
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+    /**
+     * A stored response: status line, end-to-end header lines and body
+     */
+    static final class Entry {
+        final String key;
+        final String statusLine;
+        final List<String> headerLines;
+        final Map<String, String> headers;
+        final Body body;
+        final long storedAt;
+        final long initialAgeMillis;
+        final long freshnessMillis;
+        final boolean mustRevalidate;
+
+        Entry(String key, String statusLine, List<String> headerLines, Map<String, String> headers, Body body,
+                long storedAt, long initialAgeMillis, long freshnessMillis, boolean mustRevalidate) {
+            this.key = key;
+            this.statusLine = statusLine;
+            this.headerLines = headerLines;
+            this.headers = headers;
+            this.body = body;
+            this.storedAt = storedAt;
+            this.initialAgeMillis = initialAgeMillis;
+            this.freshnessMillis = freshnessMillis;
+            this.mustRevalidate = mustRevalidate;
+        }
+
+        long ageMillis(long now) {
+            return initialAgeMillis + Math.max(0, now - storedAt);
+        }
+
+        String etag() {
+            return headers.get("ETag");
+        }
+
+        boolean hasValidator() {
+            return headers.containsKey("ETag") || headers.containsKey("Last-Modified");
+        }
+
+        long weight() {
+            long weight = ENTRY_OVERHEAD + body.length();
+            for (String line : headerLines) {
+                weight += line.length();
+            }
+            return weight;
+        }
+    }
+
+    /**
+     * Cached body bytes, on the heap or in a mapped file
+     */
+    interface Body {
+        long length();
+
+        void writeTo(OutputStream out, BufferPool pool) throws IOException;
+
+        default void discard() {
+        }
+    }
+
+    private static final class HeapBody implements Body {
+        private final byte[] data;
+
+        HeapBody(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public long length() {
+            return data.length;
+        }
+
+        @Override
+        public void writeTo(OutputStream out, BufferPool pool) throws IOException {
+            out.write(data);
+        }
+    }
+
+    private static final class MappedBody implements Body {
+        private final File file;
+        private final MappedByteBuffer mapped;
+        private final AtomicInteger readers = new AtomicInteger();
+        private volatile boolean discarded = false;
+
+        MappedBody(File file) throws IOException {
+            this.file = file;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                this.mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+
+        @Override
+        public long length() {
+            return mapped.capacity();
+        }
+
+        @Override
+        public void writeTo(OutputStream out, BufferPool pool) throws IOException {
+            // Each reader gets its own view of the shared mapping
+            java.nio.ByteBuffer view = mapped.duplicate();
+            readers.incrementAndGet();
+            BufferPool.Buffer buffer = pool.acquire(BufferPool.LARGE);
+            try {
+                while (view.hasRemaining()) {
+                    int n = Math.min(buffer.capacity, view.remaining());
+                    view.get(buffer.array, buffer.offset, n);
+                    out.write(buffer.array, buffer.offset, n);
+                }
+            } finally {
+                pool.release(buffer);
+                if (readers.decrementAndGet() == 0 && discarded) {
+                    delete();
+                }
+            }
+        }
+
+        @Override
+        public void discard() {
+            // The mapping stays valid for readers still streaming it; where an open
+            // file cannot be unlinked, the last of them tries again
+            discarded = true;
+            if (readers.get() == 0) {
+                delete();
+            }
+        }
+
+        private void delete() {
+            // Windows keeps a mapped file until the mapping is collected; leave it to
+            // exit, or to the stale file sweep on the next start
+            if (!file.delete() && file.exists()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Collects a response body while it streams to the client: on the heap first,
+     * spilling to a file once it passes LARGE_OBJECT. Gives up once the body is too large for either tier.
+     */
+    final class Recorder extends OutputStream {
+        private ByteArrayOutputStream heap = new ByteArrayOutputStream();
+        private File file;
+        private OutputStream fileOut;
+        private long size = 0;
+        private boolean abandoned = false;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (abandoned) {
+                return;
+            }
+            size += len;
+            try {
+                if (fileOut == null && size > LARGE_OBJECT) {
+                    if (directory == null || size > maxMappedObject) {
+                        abandon();
+                        return;
+                    }
+                    file = new File(directory, fileSequence.incrementAndGet() + ".body");
+                    fileOut = new BufferedOutputStream(new FileOutputStream(file), 65536);
+                    heap.writeTo(fileOut);
+                    heap = null;
+                }
+                if (fileOut != null) {
+                    if (size > maxMappedObject) {
+                        abandon();
+                        return;
+                    }
+                    fileOut.write(b, off, len);
+                } else {
+                    heap.write(b, off, len);
+                }
+            } catch (IOException e) {
+                abandon();
+            }
+        }
+
+        void abandon() {
+            abandoned = true;
+            heap = null;
+            if (fileOut != null) {
+                try {
+                    fileOut.close();
+                } catch (IOException e) {
+                    // Deleted below either way
+                }
+                file.delete();
+                fileOut = null;
+            }
+        }
+
+        private Body finish() throws IOException {
+            if (abandoned) {
+                return null;
+            }
+            if (fileOut != null) {
+                fileOut.close();
+                fileOut = null;
+                return new MappedBody(file);
+            }
+            return new HeapBody(heap.toByteArray());
+        }
+    }
+
+    /**
+     * One upstream fetch that other requests for the same key can wait on
+     */
+    static final class Flight {
+        final String key;
+        final boolean leader;
+        private final CompletableFuture<Entry> result;
+
+        private Flight(String key, boolean leader, CompletableFuture<Entry> result) {
+            this.key = key;
+            this.leader = leader;
+            this.result = result;
+        }
+
+        /**
+         * The leader's stored entry, or null if it was not cacheable or took too long
+         */
+        Entry await(long timeoutMillis) {
+            try {
+                return result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException | TimeoutException e) {
+                return null;
+            }
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    // Request header names each URL's responses vary on
+    private final Map<String, List<String>> varyByUrl = new HashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+    private final TinyLfuPolicy<String> heapPolicy;
+    private final TinyLfuPolicy<String> mappedPolicy;
+    private final File directory;
+    private final long maxMappedObject;
+    private final AtomicLong fileSequence = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    /**
+     * Cache with heapBytes for bodies up to LARGE_OBJECT; with a directory, larger bodies
+     * (up to an eighth of mappedBytes each) are kept in memory-mapped files there
+     */
+    ResponseCache(long heapBytes, File directory, long mappedBytes) throws IOException {
+        this.heapPolicy = new TinyLfuPolicy<>(heapBytes, (int) Math.min(1 << 20, heapBytes / AVERAGE_OBJECT_SIZE));
+        this.directory = directory;
+        if (directory != null) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create cache directory " + directory);
+            }
+            // Bodies do not survive a restart; clear out the previous run's files
+            File[] stale = directory.listFiles((dir, name) -> name.endsWith(".body"));
+            if (stale != null) {
+                for (File file : stale) {
+                    file.delete();
+                }
+            }
+            this.mappedPolicy = new TinyLfuPolicy<>(mappedBytes, (int) Math.min(1 << 20, mappedBytes / LARGE_OBJECT));
+            this.maxMappedObject = mappedBytes / 8;
+        } else {
+            this.mappedPolicy = null;
+            this.maxMappedObject = 0;
+        }
+    }
+
+    void registerMetrics(ProxyMetrics metrics) {
+        metrics.gauge("cache.hits", hits::sum);
+        metrics.gauge("cache.misses", misses::sum);
+        metrics.gauge("cache.revalidated", revalidations::sum);
+        metrics.gauge("cache.coalesced", coalesced::sum);
+        metrics.gauge("cache.stores", stores::sum);
+        metrics.gauge("cache.evictions", evictions::sum);
+        metrics.gauge("cache.bytes_saved", bytesSaved::sum);
+        metrics.gauge("cache.hit_ratio_permille", () -> {
+            long h = hits.sum();
+            long total = h + misses.sum();
+            return total > 0 ? h * 1000 / total : 0;
+        });
+        metrics.gauge("cache.heap.bytes", () -> weightOf(heapPolicy));
+        metrics.gauge("cache.heap.entries", () -> sizeOf(heapPolicy));
+        if (mappedPolicy != null) {
+            metrics.gauge("cache.mapped.bytes", () -> weightOf(mappedPolicy));
+            metrics.gauge("cache.mapped.entries", () -> sizeOf(mappedPolicy));
+        }
+    }
+
+    private synchronized long weightOf(TinyLfuPolicy<String> policy) {
+        return policy.weightedSize();
+    }
+
+    private synchronized int sizeOf(TinyLfuPolicy<String> policy) {
+        return policy.size();
+    }
+
+    Recorder recorder() {
+        return new Recorder();
+    }
+
+    /**
+     * Cache key for a request: the URL plus the values of the headers its responses vary on
+     */
+    synchronized String key(String url, Map<String, String> requestHeaders) {
+        List<String> vary = varyByUrl.get(url);
+        if (vary == null || vary.isEmpty()) {
+            return url;
+        }
+        StringBuilder key = new StringBuilder(url);
+        for (String name : vary) {
+            String value = requestHeaders.get(name);
+            key.append('\n').append(name).append('=').append(value != null ? value.trim() : "");
+        }
+        return key.toString();
+    }
+
+    /**
+     * The stored response for key, fresh or stale, or null; every lookup feeds the frequency sketch
+     */
+    synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            policyFor(entry).recordAccess(key);
+        } else {
+            // Not known yet which tier the body will need, so both sketches count the miss
+            heapPolicy.recordAccess(key);
+            if (mappedPolicy != null) {
+                mappedPolicy.recordAccess(key);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Whether entry may be served without contacting the origin, given the request's Cache-Control
+     */
+    static boolean isFresh(Entry entry, Map<String, String> requestHeaders) {
+        Map<String, String> directives = cacheControl(requestHeaders.get("Cache-Control"));
+        if (directives.containsKey("no-cache") || "no-cache".equalsIgnoreCase(requestHeaders.get("Pragma"))) {
+            return false;
+        }
+        long age = entry.ageMillis(System.currentTimeMillis());
+        long lifetime = entry.freshnessMillis;
+        Long maxAge = seconds(directives.get("max-age"));
+        if (maxAge != null) {
+            lifetime = Math.min(lifetime, maxAge * 1000);
+        }
+        Long minFresh = seconds(directives.get("min-fresh"));
+        if (minFresh != null) {
+            age += minFresh * 1000;
+        }
+        return age < lifetime;
+    }
+
+    /**
+     * Requests the cache must not answer or store
+     */
+    static boolean bypass(Map<String, String> requestHeaders) {
+        return cacheControl(requestHeaders.get("Cache-Control")).containsKey("no-store");
+    }
+
+    /**
+     * Join the fetch for key; the first caller leads and must call complete()
+     */
+    Flight join(String key) {
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.increment();
+            return new Flight(key, false, existing);
+        }
+        return new Flight(key, true, mine);
+    }
+
+    void complete(Flight flight, Entry entry) {
+        if (flight.leader) {
+            inFlight.remove(flight.key, flight.result);
+            flight.result.complete(entry);
+        }
+    }
+
+    void recordHit(Entry entry) {
+        hits.increment();
+        bytesSaved.add(entry.body.length());
+    }
+
+    void recordMiss() {
+        misses.increment();
+    }
+
+    /**
+     * Store a response whose body was captured by recorder; returns the entry, or null if it may not be cached
+     */
+    Entry store(String url, Map<String, String> requestHeaders, String statusLine, int status,
+            List<String> headerLines, Map<String, String> headers, Recorder recorder) throws IOException {
+        long now = System.currentTimeMillis();
+        Map<String, String> directives = cacheControl(headers.get("Cache-Control"));
+        Long freshness = cacheableFreshness(status, requestHeaders, headers, directives, now);
+        if (freshness == null) {
+            recorder.abandon();
+            return null;
+        }
+        Body body = recorder.finish();
+        if (body == null) {
+            return null;
+        }
+
+        List<String> vary = new ArrayList<>();
+        String varyHeader = headers.get("Vary");
+        if (varyHeader != null) {
+            for (String name : varyHeader.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    vary.add(name.trim());
+                }
+            }
+        }
+        synchronized (this) {
+            varyByUrl.put(url, vary);
+        }
+        String key = key(url, requestHeaders);
+        Entry entry = new Entry(key, statusLine, headerLines, headers, body, now, ageHeader(headers),
+            freshness, directives.containsKey("must-revalidate") || directives.containsKey("proxy-revalidate"));
+        return insert(entry) ? entry : null;
+    }
+
+    /**
+     * The origin answered 304 to a revalidation: keep the body, take the new headers' freshness
+     */
+    Entry revalidated(Entry entry, List<String> headerLines, Map<String, String> headers) {
+        revalidations.increment();
+        Map<String, String> merged = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        merged.putAll(entry.headers);
+        merged.putAll(headers);
+        List<String> lines = new ArrayList<>();
+        for (String line : entry.headerLines) {
+            String name = line.substring(0, line.indexOf(':')).trim();
+            if (!headers.containsKey(name)) {
+                lines.add(line);
+            }
+        }
+        lines.addAll(headerLines);
+
+        long now = System.currentTimeMillis();
+        Map<String, String> directives = cacheControl(merged.get("Cache-Control"));
+        Long freshness = freshnessLifetime(merged, directives, now);
+        Entry refreshed = new Entry(entry.key, entry.statusLine, lines, merged, entry.body, now, ageHeader(headers),
+            freshness != null ? freshness : 0, entry.mustRevalidate);
+        synchronized (this) {
+            // Same body, so the policy weight only changes by the headers
+            if (entries.get(entry.key) == entry) {
+                entries.put(entry.key, refreshed);
+            }
+        }
+        return refreshed;
+    }
+
+    /**
+     * Drop every stored variant of url, e.g. after a successful unsafe request to it
+     */
+    synchronized void invalidate(String url) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> stored = it.next();
+            if (stored.getKey().equals(url) || stored.getKey().startsWith(url + "\n")) {
+                Entry entry = stored.getValue();
+                policyFor(entry).remove(entry.key);
+                entry.body.discard();
+                it.remove();
+            }
+        }
+    }
+
+    private TinyLfuPolicy<String> policyFor(Entry entry) {
+        return entry.body instanceof MappedBody ? mappedPolicy : heapPolicy;
+    }
+
+    private synchronized boolean insert(Entry entry) {
+        Entry previous = entries.remove(entry.key);
+        if (previous != null) {
+            policyFor(previous).remove(previous.key);
+            if (previous.body != entry.body) {
+                previous.body.discard();
+            }
+        }
+        boolean admitted = true;
+        for (String evictedKey : policyFor(entry).add(entry.key, entry.weight())) {
+            if (evictedKey.equals(entry.key)) {
+                admitted = false;
+                continue;
+            }
+            Entry evicted = entries.remove(evictedKey);
+            if (evicted != null) {
+                evicted.body.discard();
+                evictions.increment();
+            }
+        }
+        if (admitted) {
+            entries.put(entry.key, entry);
+            stores.increment();
+        } else {
+            entry.body.discard();
+        }
+        return admitted;
+    }
+
+    /**
+     * Freshness lifetime if this response may be stored by a shared cache, else null
+     */
+    private static Long cacheableFreshness(int status, Map<String, String> requestHeaders, Map<String, String> headers,
+            Map<String, String> directives, long now) {
+        if (status != 200 && status != 203 && status != 300 && status != 301 && status != 404 && status != 410) {
+            return null;
+        }
+        if (directives.containsKey("no-store") || directives.containsKey("private") ||
+                headers.containsKey("Set-Cookie") || "*".equals(headers.get("Vary"))) {
+            return null;
+        }
+        // Authorized responses are only shared when the origin explicitly allows it
+        if (requestHeaders.containsKey("Authorization") && !directives.containsKey("public") &&
+                !directives.containsKey("s-maxage") && !directives.containsKey("must-revalidate")) {
+            return null;
+        }
+        Long lifetime = freshnessLifetime(headers, directives, now);
+        if (lifetime != null) {
+            return lifetime;
+        }
+        // No explicit lifetime: still worth keeping if it can be revalidated cheaply
+        return headers.containsKey("ETag") || headers.containsKey("Last-Modified") ? 0L : null;
+    }
+
+    private static Long freshnessLifetime(Map<String, String> headers, Map<String, String> directives, long now) {
+        if (directives.containsKey("no-cache")) {
+            return 0L;
+        }
+        Long seconds = seconds(directives.get("s-maxage"));
+        if (seconds == null) {
+            seconds = seconds(directives.get("max-age"));
+        }
+        if (seconds != null) {
+            return seconds * 1000;
+        }
+        String expires = headers.get("Expires");
+        if (expires != null) {
+            Long expiresAt = httpDate(expires);
+            if (expiresAt == null) {
+                return 0L; // invalid Expires means already expired
+            }
+            Long date = httpDate(headers.get("Date"));
+            return Math.max(0, expiresAt - (date != null ? date : now));
+        }
+        return null;
+    }
+
+    private static long ageHeader(Map<String, String> headers) {
+        Long age = seconds(headers.get("Age"));
+        return age != null ? age * 1000 : 0;
+    }
+
+    static Map<String, String> cacheControl(String value) {
+        Map<String, String> directives = new HashMap<>();
+        if (value == null) {
+            return directives;
+        }
+        for (String part : value.split(",")) {
+            String directive = part.trim();
+            if (directive.isEmpty()) {
+                continue;
+            }
+            int equals = directive.indexOf('=');
+            if (equals < 0) {
+                directives.put(directive.toLowerCase(), "");
+            } else {
+                String argument = directive.substring(equals + 1).trim();
+                if (argument.length() >= 2 && argument.startsWith("\"") && argument.endsWith("\"")) {
+                    argument = argument.substring(1, argument.length() - 1);
+                }
+                directives.put(directive.substring(0, equals).trim().toLowerCase(), argument);
+            }
+        }
+        return directives;
+    }
+
+    private static Long seconds(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Long httpDate(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), HTTP_DATE).toInstant().toEpochMilli();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Whether a client's If-None-Match matches the entry's ETag (weak comparison)
+     */
+    static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        String stored = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(stored)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,393 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Append-only, columnar on-disk store for EnhancedBadSSLClient scan results.
+ *
+ * Each column is its own file of fixed-width little-endian values, so row i
+ * of a column sits at i * width and a query reads only the columns and row
+ * ranges it needs. Strings (endpoint, status, protocol, cipher) are
+ * dictionary-encoded as int ids in strings.dict. runs.idx maps every run to
+ * its row range; a run is committed by appending its index entry after the
+ * column data has been forced, and on open any uncommitted tail is truncated.
+ *
+ * Directory layout:
+ *   runs.idx         start row (long), timestamp millis (long), row count (int), reserved (int)
+ *   strings.dict     one dictionary string per line, id = line number
+ *   endpoint.col, status.col, protocol.col, cipher.col    int dictionary ids
+ *   fingerprint.col  SHA-256 of the leaf certificate (32 bytes, zero if none)
+ *   connect.col, handshake.col, ttfb.col                  long nanos (-1 if not reached)
+ */
+public final class ScanResultStore implements Closeable {
+    private static final int RUN_ENTRY_SIZE = 24;
+    private static final int FINGERPRINT_SIZE = 32;
+    private static final int SCAN_CHUNK_ROWS = 8192;
+
+    /**
+     * One scan result row
+     */
+    public static final class ScanRecord {
+        String endpoint;
+        String status;
+        String protocol;
+        String cipher;
+        byte[] fingerprint;
+        long connectNanos = -1;
+        long handshakeNanos = -1;
+        long ttfbNanos = -1;
+
+        String fingerprintHex() {
+            if (fingerprint == null) {
+                return "";
+            }
+            StringBuilder sb = new StringBuilder(fingerprint.length * 2);
+            for (byte b : fingerprint) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * An endpoint whose status, protocol, cipher or certificate differs between two runs
+     */
+    public static final class Change {
+        final String endpoint;
+        final ScanRecord previous;
+        final ScanRecord current;
+
+        Change(String endpoint, ScanRecord previous, ScanRecord current) {
+            this.endpoint = endpoint;
+            this.previous = previous;
+            this.current = current;
+        }
+
+        boolean statusChanged() {
+            return !Objects.equals(previous.status, current.status);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(endpoint).append(':');
+            describe(sb, "status", previous.status, current.status);
+            describe(sb, "protocol", previous.protocol, current.protocol);
+            describe(sb, "cipher", previous.cipher, current.cipher);
+            describe(sb, "certificate", previous.fingerprintHex(), current.fingerprintHex());
+            return sb.toString();
+        }
+
+        private static void describe(StringBuilder sb, String field, String before, String after) {
+            if (!Objects.equals(before, after)) {
+                sb.append(' ').append(field).append(' ').append(before).append(" -> ").append(after);
+            }
+        }
+    }
+
+    private final File directory;
+    private final FileChannel runs;
+    private final FileChannel endpointColumn;
+    private final FileChannel statusColumn;
+    private final FileChannel protocolColumn;
+    private final FileChannel cipherColumn;
+    private final FileChannel fingerprintColumn;
+    private final FileChannel connectColumn;
+    private final FileChannel handshakeColumn;
+    private final FileChannel ttfbColumn;
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private final Writer dictionary;
+    private final FileChannel dictionaryChannel;
+    private long runCount;
+    private long rowCount;
+
+    private ScanResultStore(File directory) throws IOException {
+        this.directory = directory;
+        this.runs = openChannel("runs.idx");
+        this.endpointColumn = openChannel("endpoint.col");
+        this.statusColumn = openChannel("status.col");
+        this.protocolColumn = openChannel("protocol.col");
+        this.cipherColumn = openChannel("cipher.col");
+        this.fingerprintColumn = openChannel("fingerprint.col");
+        this.connectColumn = openChannel("connect.col");
+        this.handshakeColumn = openChannel("handshake.col");
+        this.ttfbColumn = openChannel("ttfb.col");
+
+        File dictionaryFile = new File(directory, "strings.dict");
+        if (dictionaryFile.exists()) {
+            for (String line : Files.readAllLines(dictionaryFile.toPath(), StandardCharsets.UTF_8)) {
+                stringIds.put(line, strings.size());
+                strings.add(line);
+            }
+        }
+        FileOutputStream dictionaryOut = new FileOutputStream(dictionaryFile, true);
+        this.dictionaryChannel = dictionaryOut.getChannel();
+        this.dictionary = new BufferedWriter(new OutputStreamWriter(dictionaryOut, StandardCharsets.UTF_8));
+
+        recover();
+    }
+
+    /**
+     * Open or create a store in the given directory
+     */
+    public static ScanResultStore open(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create scan result directory: " + directory);
+        }
+        return new ScanResultStore(directory);
+    }
+
+    private FileChannel openChannel(String name) throws IOException {
+        return FileChannel.open(new File(directory, name).toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Drop anything written after the last committed run (e.g. after a crash mid-append)
+     */
+    private void recover() throws IOException {
+        runCount = runs.size() / RUN_ENTRY_SIZE;
+        runs.truncate(runCount * RUN_ENTRY_SIZE);
+        rowCount = 0;
+        if (runCount > 0) {
+            ByteBuffer entry = readRunEntry(runCount - 1);
+            rowCount = entry.getLong(0) + entry.getInt(16);
+        }
+        endpointColumn.truncate(rowCount * 4);
+        statusColumn.truncate(rowCount * 4);
+        protocolColumn.truncate(rowCount * 4);
+        cipherColumn.truncate(rowCount * 4);
+        fingerprintColumn.truncate(rowCount * FINGERPRINT_SIZE);
+        connectColumn.truncate(rowCount * 8);
+        handshakeColumn.truncate(rowCount * 8);
+        ttfbColumn.truncate(rowCount * 8);
+    }
+
+    public long getRunCount() {
+        return runCount;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Append the results of one scan as a new run
+     */
+    public synchronized void appendRun(long timestampMillis, List<ScanRecord> records) throws IOException {
+        int rows = records.size();
+        ByteBuffer endpoints = allocate(rows * 4);
+        ByteBuffer statuses = allocate(rows * 4);
+        ByteBuffer protocols = allocate(rows * 4);
+        ByteBuffer ciphers = allocate(rows * 4);
+        ByteBuffer fingerprints = allocate(rows * FINGERPRINT_SIZE);
+        ByteBuffer connects = allocate(rows * 8);
+        ByteBuffer handshakes = allocate(rows * 8);
+        ByteBuffer ttfbs = allocate(rows * 8);
+
+        for (ScanRecord record : records) {
+            endpoints.putInt(stringId(record.endpoint));
+            statuses.putInt(stringId(record.status));
+            protocols.putInt(stringId(record.protocol));
+            ciphers.putInt(stringId(record.cipher));
+            if (record.fingerprint != null) {
+                fingerprints.put(record.fingerprint, 0, FINGERPRINT_SIZE);
+            } else {
+                fingerprints.position(fingerprints.position() + FINGERPRINT_SIZE);
+            }
+            connects.putLong(record.connectNanos);
+            handshakes.putLong(record.handshakeNanos);
+            ttfbs.putLong(record.ttfbNanos);
+        }
+        // New strings must be on disk before any column refers to their ids
+        dictionary.flush();
+        dictionaryChannel.force(false);
+
+        // Column data first, then the run entry that makes it visible
+        appendColumn(endpointColumn, endpoints, rowCount * 4);
+        appendColumn(statusColumn, statuses, rowCount * 4);
+        appendColumn(protocolColumn, protocols, rowCount * 4);
+        appendColumn(cipherColumn, ciphers, rowCount * 4);
+        appendColumn(fingerprintColumn, fingerprints, rowCount * FINGERPRINT_SIZE);
+        appendColumn(connectColumn, connects, rowCount * 8);
+        appendColumn(handshakeColumn, handshakes, rowCount * 8);
+        appendColumn(ttfbColumn, ttfbs, rowCount * 8);
+
+        ByteBuffer entry = allocate(RUN_ENTRY_SIZE);
+        entry.putLong(rowCount).putLong(timestampMillis).putInt(rows).putInt(0);
+        appendColumn(runs, entry, runCount * RUN_ENTRY_SIZE);
+
+        runCount++;
+        rowCount += rows;
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void appendColumn(FileChannel channel, ByteBuffer data, long position) throws IOException {
+        data.flip();
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+        channel.force(false);
+    }
+
+    private int stringId(String value) throws IOException {
+        String key = value != null ? value.replace('\n', ' ').replace('\r', ' ') : "";
+        Integer id = stringIds.get(key);
+        if (id == null) {
+            id = strings.size();
+            strings.add(key);
+            stringIds.put(key, id);
+            dictionary.write(key);
+            dictionary.write('\n');
+        }
+        return id;
+    }
+
+    private String string(int id) {
+        String value = strings.get(id);
+        return value.isEmpty() ? null : value;
+    }
+
+    private ByteBuffer readRunEntry(long run) throws IOException {
+        ByteBuffer entry = allocate(RUN_ENTRY_SIZE);
+        readFully(runs, entry, run * RUN_ENTRY_SIZE);
+        return entry;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Column file is shorter than the run index");
+            }
+            position += n;
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Endpoints whose status, protocol, cipher or certificate changed between
+     * the last two runs. Only the rows of those two runs are read.
+     */
+    public synchronized List<Change> changesSinceLastRun() throws IOException {
+        List<Change> changes = new ArrayList<>();
+        if (runCount < 2) {
+            return changes;
+        }
+        Map<Integer, ScanRecord> previous = readRun(runCount - 2);
+        Map<Integer, ScanRecord> current = readRun(runCount - 1);
+
+        for (Map.Entry<Integer, ScanRecord> entry : current.entrySet()) {
+            ScanRecord before = previous.get(entry.getKey());
+            ScanRecord after = entry.getValue();
+            if (before != null && (!Objects.equals(before.status, after.status) ||
+                    !Objects.equals(before.protocol, after.protocol) ||
+                    !Objects.equals(before.cipher, after.cipher) ||
+                    !Arrays.equals(before.fingerprint, after.fingerprint))) {
+                changes.add(new Change(after.endpoint, before, after));
+            }
+        }
+        changes.sort(Comparator.comparing(change -> change.endpoint));
+        return changes;
+    }
+
+    private Map<Integer, ScanRecord> readRun(long run) throws IOException {
+        ByteBuffer entry = readRunEntry(run);
+        long start = entry.getLong(0);
+        int rows = entry.getInt(16);
+
+        ByteBuffer endpoints = readColumn(endpointColumn, start, rows, 4);
+        ByteBuffer statuses = readColumn(statusColumn, start, rows, 4);
+        ByteBuffer protocols = readColumn(protocolColumn, start, rows, 4);
+        ByteBuffer ciphers = readColumn(cipherColumn, start, rows, 4);
+        ByteBuffer fingerprints = readColumn(fingerprintColumn, start, rows, FINGERPRINT_SIZE);
+
+        Map<Integer, ScanRecord> records = new HashMap<>();
+        for (int i = 0; i < rows; i++) {
+            int endpointId = endpoints.getInt();
+            ScanRecord record = new ScanRecord();
+            record.endpoint = string(endpointId);
+            record.status = string(statuses.getInt());
+            record.protocol = string(protocols.getInt());
+            record.cipher = string(ciphers.getInt());
+            record.fingerprint = new byte[FINGERPRINT_SIZE];
+            fingerprints.get(record.fingerprint);
+            if (isZero(record.fingerprint)) {
+                record.fingerprint = null;
+            }
+            records.put(endpointId, record);
+        }
+        return records;
+    }
+
+    private static boolean isZero(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer readColumn(FileChannel channel, long startRow, int rows, int width) throws IOException {
+        ByteBuffer buffer = allocate(rows * width);
+        readFully(channel, buffer, startRow * width);
+        return buffer;
+    }
+
+    /**
+     * Handshake time at the given quantile per endpoint over the last N runs.
+     *
+     * Streams the endpoint and handshake columns in fixed-size chunks into one
+     * log-linear histogram per endpoint, so memory stays proportional to the
+     * number of endpoints rather than the number of rows. Values are accurate
+     * to within 12.5%.
+     */
+    public synchronized Map<String, Long> handshakePercentile(int lastRuns, double quantile) throws IOException {
+        Map<String, Long> result = new TreeMap<>();
+        if (runCount == 0 || lastRuns <= 0) {
+            return result;
+        }
+        long firstRun = Math.max(0, runCount - lastRuns);
+        long startRow = readRunEntry(firstRun).getLong(0);
+
+        Map<Integer, ProxyMetrics.Histogram> histograms = new HashMap<>();
+        ByteBuffer endpoints = allocate(SCAN_CHUNK_ROWS * 4);
+        ByteBuffer handshakes = allocate(SCAN_CHUNK_ROWS * 8);
+        for (long row = startRow; row < rowCount; row += SCAN_CHUNK_ROWS) {
+            int rows = (int) Math.min(SCAN_CHUNK_ROWS, rowCount - row);
+            endpoints.clear().limit(rows * 4);
+            handshakes.clear().limit(rows * 8);
+            readFully(endpointColumn, endpoints, row * 4);
+            readFully(handshakeColumn, handshakes, row * 8);
+            for (int i = 0; i < rows; i++) {
+                int endpointId = endpoints.getInt();
+                long nanos = handshakes.getLong();
+                if (nanos >= 0) {
+                    histograms.computeIfAbsent(endpointId, k -> new ProxyMetrics.Histogram()).record(nanos);
+                }
+            }
+        }
+
+        for (Map.Entry<Integer, ProxyMetrics.Histogram> entry : histograms.entrySet()) {
+            result.put(string(entry.getKey()), entry.getValue().percentile(quantile));
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        dictionary.close();
+        for (FileChannel channel : new FileChannel[]{runs, endpointColumn, statusColumn, protocolColumn,
+                cipherColumn, fingerprintColumn, connectColumn, handshakeColumn, ttfbColumn}) {
+            channel.close();
+        }
+    }
+}
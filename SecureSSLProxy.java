@@ -1,11 +1,15 @@
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.cert.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.net.ssl.*;
 
 /**
@@ -13,46 +17,428 @@ import javax.net.ssl.*;
  * Fixed all critical security vulnerabilities
  */
 public class SecureSSLProxy {
-    private static final int PROXY_PORT = 8444;
-    private static final int BUFFER_SIZE = 8192;
+    private static final int PROXY_PORT = System.getenv("PROXY_PORT") != null ?
+        Integer.parseInt(System.getenv("PROXY_PORT")) : 8444;
+    private static final int MAX_HEADER_LINE = 8192;
     private static final int MAX_CONNECTIONS = 100;
     private static final int CONNECTION_TIMEOUT = 30000; // 30 seconds
+    private static final int HANDSHAKE_TIMEOUT = 10000; // 10 seconds, includes queue wait
+    private static final int CLIENT_HELLO_TIMEOUT = 2000; // 2 seconds from accept to the client's first bytes
+    private static final int HEADER_READ_TIMEOUT = 10000; // 10 seconds for the whole request head
+    private static final int MAX_CONNECTION_LIFETIME = 300000; // 5 minutes
+    private static final int TIMEOUT_WHEEL_TICK = 100; // milliseconds
+    private static final int TIMEOUT_WHEEL_SIZE = 1024;
+    // Handshake threads block on the client's flights as well as doing the crypto; silent clients are
+    // held back until CLIENT_HELLO_TIMEOUT, so a small multiple of the cores covers the ones that talk
+    private static final int HANDSHAKE_THREADS = System.getenv("SSL_HANDSHAKE_THREADS") != null ?
+        Integer.parseInt(System.getenv("SSL_HANDSHAKE_THREADS")) : Runtime.getRuntime().availableProcessors() * 2;
+    private static final int HANDSHAKE_QUEUE_SIZE = System.getenv("SSL_HANDSHAKE_QUEUE") != null ?
+        Integer.parseInt(System.getenv("SSL_HANDSHAKE_QUEUE")) : 256;
     
     // Environment variables for secure configuration
     private static final String P12_FILE = System.getenv("SSL_P12_FILE") != null ? 
         System.getenv("SSL_P12_FILE") : "badssl.com-client.p12";
     private static final String P12_PASSWORD = System.getenv("SSL_P12_PASSWORD") != null ? 
         System.getenv("SSL_P12_PASSWORD") : "badssl.com";
+    private static final String ACCESS_RULES_FILE = System.getenv("SSL_ACCESS_RULES");
+    private static final String ACCESS_LOG_FILE = System.getenv("SSL_ACCESS_LOG") != null ?
+        System.getenv("SSL_ACCESS_LOG") : "proxy-access.ring";
+    private static final int ACCESS_LOG_RECORDS = System.getenv("SSL_ACCESS_LOG_RECORDS") != null ?
+        Integer.parseInt(System.getenv("SSL_ACCESS_LOG_RECORDS")) : 65536;
+    private static final long ACCESS_RULES_CHECK_INTERVAL = 30000; // 30 seconds
+    // Comma separated server cipher suite preference order, e.g. from ProxyBenchmark
+    private static final String CIPHER_SUITES = System.getenv("SSL_CIPHER_SUITES");
+    private static final int RATE_LIMIT_PER_MINUTE = 10;
+    // Optional UDP exchange of rate limit counts with other proxy nodes
+    private static final String GOSSIP_PEERS = System.getenv("SSL_GOSSIP_PEERS");
+    private static final int GOSSIP_PORT = System.getenv("SSL_GOSSIP_PORT") != null ?
+        Integer.parseInt(System.getenv("SSL_GOSSIP_PORT")) : 9444;
+    private static final String GOSSIP_BIND = System.getenv("SSL_GOSSIP_BIND") != null ?
+        System.getenv("SSL_GOSSIP_BIND") : "127.0.0.1";
+    private static final String GOSSIP_SECRET = System.getenv("SSL_GOSSIP_SECRET");
+    // Largest request body accepted, streamed through in fixed-size chunks whatever its size
+    private static final long MAX_BODY_SIZE = (System.getenv("SSL_MAX_BODY_MB") != null ?
+        Long.parseLong(System.getenv("SSL_MAX_BODY_MB")) : 10240) * 1024 * 1024;
+    // Absolute-form forwarding is off unless SSL_FORWARD_HOSTS lists the origins it may reach
+    private static final List<String> FORWARD_HOSTS = parseHostPatterns(System.getenv("SSL_FORWARD_HOSTS"));
+    private static final boolean FORWARD_PRIVATE = Boolean.parseBoolean(System.getenv("SSL_FORWARD_PRIVATE"));
+    private static final Set<String> HOP_BY_HOP_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    static {
+        HOP_BY_HOP_HEADERS.addAll(Arrays.asList("Connection", "Keep-Alive", "Proxy-Connection",
+            "Proxy-Authorization", "Proxy-Authenticate", "TE", "Trailer", "Upgrade", "Host", "Expect"));
+    }
+    // Response cache for forwarded GETs: heap budget (0 disables), optional mapped tier for large bodies
+    private static final long CACHE_HEAP_SIZE = (System.getenv("SSL_CACHE_MB") != null ?
+        Long.parseLong(System.getenv("SSL_CACHE_MB")) : 64) * 1024 * 1024;
+    private static final String CACHE_DIR = System.getenv("SSL_CACHE_DIR");
+    private static final long CACHE_MAPPED_SIZE = (System.getenv("SSL_CACHE_MAPPED_MB") != null ?
+        Long.parseLong(System.getenv("SSL_CACHE_MAPPED_MB")) : 1024) * 1024 * 1024;
+    // Local CA used to mint per-host certificates when the P12 file is missing; kept out of the dashboard's directory
+    private static final String CA_FILE = System.getenv("SSL_CA_FILE") != null ?
+        System.getenv("SSL_CA_FILE") : new File(System.getProperty("user.home"), ".secure-ssl-proxy/proxy-ca.p12").getPath();
+    private static final String CA_LEAF_KEY_TYPE = System.getenv("SSL_CA_KEY_TYPE") != null ?
+        System.getenv("SSL_CA_KEY_TYPE").toUpperCase() : "RSA";
+    private static final int CA_KEY_POOL_SIZE = System.getenv("SSL_CA_KEY_POOL") != null ?
+        Integer.parseInt(System.getenv("SSL_CA_KEY_POOL")) : 16;
+    private static final int CA_CACHE_SIZE = System.getenv("SSL_CA_CACHE") != null ?
+        Integer.parseInt(System.getenv("SSL_CA_CACHE")) : 1024;
+    // Names the CA mints for (any when unset) and how many new certificates it signs per minute
+    private static final List<String> CA_HOSTS = parseHostPatterns(System.getenv("SSL_CA_HOSTS"));
+    private static final int CA_MINTS_PER_MINUTE = System.getenv("SSL_CA_MINTS_PER_MINUTE") != null ?
+        Integer.parseInt(System.getenv("SSL_CA_MINTS_PER_MINUTE")) : 60;
+    // Connection events kept in memory, and the loopback port the dashboard follows them on (0 disables)
+    private static final int EVENT_RING_SIZE = System.getenv("SSL_EVENT_RING") != null ?
+        Integer.parseInt(System.getenv("SSL_EVENT_RING")) : 8192;
+    private static final int EVENT_FEED_PORT = System.getenv("SSL_EVENT_PORT") != null ?
+        Integer.parseInt(System.getenv("SSL_EVENT_PORT")) : 9445;
+    // Loopback handshakes run before the listener opens so the JIT has compiled the handshake path
+    private static final int WARMUP_HANDSHAKES = System.getenv("SSL_WARMUP_HANDSHAKES") != null ?
+        Integer.parseInt(System.getenv("SSL_WARMUP_HANDSHAKES")) : 0;
+    private static final long GOSSIP_INTERVAL = System.getenv("SSL_GOSSIP_INTERVAL_MS") != null ?
+        Long.parseLong(System.getenv("SSL_GOSSIP_INTERVAL_MS")) : 250;
+    // Upstream host name cache: answer and failure lifetimes, optional hosts file instead of system DNS
+    private static final long DNS_TTL = (System.getenv("SSL_DNS_TTL_SECONDS") != null ?
+        Long.parseLong(System.getenv("SSL_DNS_TTL_SECONDS")) : 60) * 1000;
+    private static final long DNS_NEGATIVE_TTL = (System.getenv("SSL_DNS_NEGATIVE_TTL_SECONDS") != null ?
+        Long.parseLong(System.getenv("SSL_DNS_NEGATIVE_TTL_SECONDS")) : 10) * 1000;
+    private static final String DNS_HOSTS_FILE = System.getenv("SSL_DNS_HOSTS_FILE");
+    private static final int DNS_THREADS = 8;
+    // Per-tenant worker weights by client certificate subject or IP, reloaded when changed
+    private static final String TENANT_WEIGHTS_FILE = System.getenv("SSL_TENANT_WEIGHTS");
+    private static final int DNS_CACHE_SIZE = 10000;
     
     private final SSLContext sslContext;
+    private final int port;
+    private volatile ServerSocketChannel serverChannel;
+    private volatile ClientHelloGate helloGate;
+    private SSLParameters serverParameters;
     private volatile boolean running = false;
-    private final ExecutorService threadPool;
-    private final Set<String> allowedIPs;
-    private final Map<String, Integer> connectionCounts;
+    private volatile boolean verbose = true;
+    private final FairScheduler scheduler;
+    private final ThreadPoolExecutor handshakePool;
+    private volatile IPAccessIndex accessIndex;
+    private volatile long accessRulesModified = 0;
+    private volatile long tenantWeightsModified = 0;
+    private final GossipRateLimiter rateLimiter;
+    private final ResponseCache responseCache;
+    private final DnsCache dnsCache;
+    private CertificateAuthority certificateAuthority;
     private final Timer cleanupTimer;
+    private final ProxyMetrics metrics;
+    private final ConnectionTimeoutWheel timeoutWheel;
+    private final AccessLogRing accessLog;
+    private final BufferPool bufferPool;
+    private final EventRing events;
+    private volatile EventFeed eventFeed;
+    private final StartupTimeline timeline;
+    private int warmupHandshakes = WARMUP_HANDSHAKES;
+    private volatile boolean firstRequestServed = false;
     
     public SecureSSLProxy() throws Exception {
-        this.threadPool = Executors.newFixedThreadPool(MAX_CONNECTIONS);
-        this.allowedIPs = new HashSet<>();
-        this.connectionCounts = new ConcurrentHashMap<>();
+        this(null, PROXY_PORT);
+    }
+    
+    /**
+     * Proxy with a caller-supplied SSL context (null loads the P12 file) on the given port (0 for any free port)
+     */
+    public SecureSSLProxy(SSLContext sslContext, int port) throws Exception {
+        this.timeline = new StartupTimeline();
+        long constructStart = timeline.begin();
+        this.port = port;
         this.cleanupTimer = new Timer(true);
+        this.metrics = new ProxyMetrics();
+        this.scheduler = new FairScheduler(MAX_CONNECTIONS, metrics, this::log);
+        timeline.registerMetrics(metrics);
+        
+        // P12 parsing, SecureRandom seeding and SSLContext setup are the slowest part of startup;
+        // they run on their own thread while the rest of the proxy is built
+        Callable<SSLContext> createContext = sslContext != null ? () -> sslContext : this::createSecureSSLContext;
+        FutureTask<SSLContext> sslContextTask = new FutureTask<>(createContext);
+        Thread sslContextThread = new Thread(sslContextTask, "startup-tls");
+        sslContextThread.setDaemon(true);
+        sslContextThread.start();
+        
+        this.dnsCache = createDnsCache();
+        this.rateLimiter = createRateLimiter();
+        this.responseCache = createResponseCache();
+        this.timeoutWheel = new ConnectionTimeoutWheel(TIMEOUT_WHEEL_TICK, TIMEOUT_WHEEL_SIZE, metrics);
+        this.handshakePool = createHandshakePool();
+        this.accessLog = openAccessLog();
+        this.bufferPool = BufferPool.shared();
+        bufferPool.registerMetrics(metrics);
+        this.events = new EventRing(EVENT_RING_SIZE);
+        metrics.gauge("events.published", events::nextSequence);
         
-        // Initialize allowed IPs (localhost only by default)
-        allowedIPs.add("127.0.0.1");
-        allowedIPs.add("::1");
-        allowedIPs.add("0:0:0:0:0:0:0:1");
+        // Initialize allowed IPs (localhost only by default, plus SSL_ACCESS_RULES)
+        this.accessIndex = defaultAccessRules().build();
+        reloadAccessRules();
+        reloadTenantWeights();
         
-        this.sslContext = createSecureSSLContext();
+        timeline.end("construct", constructStart);
+        long waitStart = timeline.begin();
+        try {
+            this.sslContext = sslContextTask.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        timeline.end("tls.wait", waitStart);
+        
+        // Rebuild the access index off the accept thread when the rules file changes
+        if (ACCESS_RULES_FILE != null) {
+            cleanupTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    reloadAccessRules();
+                }
+            }, ACCESS_RULES_CHECK_INTERVAL, ACCESS_RULES_CHECK_INTERVAL);
+        }
+        if (TENANT_WEIGHTS_FILE != null) {
+            cleanupTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    reloadTenantWeights();
+                }
+            }, ACCESS_RULES_CHECK_INTERVAL, ACCESS_RULES_CHECK_INTERVAL);
+        }
         
-        // Cleanup connections every minute
-        cleanupTimer.scheduleAtFixedRate(new TimerTask() {
+        log("SecureSSLProxy initialized with enhanced security");
+    }
+    
+    /**
+     * Bounded executor for TLS handshakes; a full queue rejects instead of growing
+     */
+    private ThreadPoolExecutor createHandshakePool() {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private int count = 0;
+            
             @Override
-            public void run() {
-                connectionCounts.clear();
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "tls-handshake-" + (++count));
+                thread.setDaemon(true);
+                return thread;
             }
-        }, 60000, 60000);
+        };
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(HANDSHAKE_THREADS, HANDSHAKE_THREADS,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(HANDSHAKE_QUEUE_SIZE),
+            threadFactory, new ThreadPoolExecutor.AbortPolicy());
         
-        log("SecureSSLProxy initialized with enhanced security");
+        metrics.gauge("handshake.queue.depth", () -> pool.getQueue().size());
+        metrics.gauge("handshake.active", pool::getActiveCount);
+        return pool;
+    }
+    
+    /**
+     * Per-IP rate limit counts, shared with SSL_GOSSIP_PEERS when configured.
+     * Counts reset each minute of this node's own clock; peer counts only apply to the minute they were sent for.
+     * Gossip needs SSL_GOSSIP_SECRET; unauthenticated peers could raise or reset any IP's count.
+     */
+    private GossipRateLimiter createRateLimiter() throws IOException {
+        List<InetSocketAddress> peers = GossipRateLimiter.parsePeers(GOSSIP_PEERS);
+        GossipRateLimiter limiter;
+        if (peers.isEmpty()) {
+            limiter = new GossipRateLimiter();
+        } else {
+            if (GOSSIP_SECRET == null || GOSSIP_SECRET.isEmpty()) {
+                throw new IllegalArgumentException("SSL_GOSSIP_PEERS requires SSL_GOSSIP_SECRET");
+            }
+            InetSocketAddress bindAddress = new InetSocketAddress(InetAddress.getByName(GOSSIP_BIND), GOSSIP_PORT);
+            limiter = new GossipRateLimiter(bindAddress, peers, GOSSIP_SECRET, GOSSIP_INTERVAL);
+            log("Rate limit gossip on UDP " + GOSSIP_BIND + ":" + GOSSIP_PORT + " with " + peers.size() + " peers");
+        }
+        limiter.registerMetrics(metrics);
+        return limiter;
+    }
+    
+    private ResponseCache createResponseCache() throws IOException {
+        if (CACHE_HEAP_SIZE <= 0) {
+            log("Response cache disabled");
+            return null;
+        }
+        ResponseCache cache = new ResponseCache(CACHE_HEAP_SIZE, CACHE_DIR != null ? new File(CACHE_DIR) : null,
+            CACHE_MAPPED_SIZE);
+        cache.registerMetrics(metrics);
+        log("Response cache: " + (CACHE_HEAP_SIZE >> 20) + " MB heap" +
+            (CACHE_DIR != null ? ", " + (CACHE_MAPPED_SIZE >> 20) + " MB mapped in " + CACHE_DIR : ""));
+        return cache;
+    }
+    
+    private DnsCache createDnsCache() throws IOException {
+        DnsCache.Resolver resolver = DNS_HOSTS_FILE != null ? DnsCache.hostsFile(new File(DNS_HOSTS_FILE)) : DnsCache.system();
+        DnsCache cache = new DnsCache(resolver, DNS_TTL, DNS_NEGATIVE_TTL, DNS_THREADS, DNS_CACHE_SIZE);
+        cache.registerMetrics(metrics);
+        if (DNS_HOSTS_FILE != null) {
+            log("Upstream names resolved from " + DNS_HOSTS_FILE + " only");
+        }
+        return cache;
+    }
+    
+    private AccessLogRing openAccessLog() {
+        if (ACCESS_LOG_FILE.isEmpty() || ACCESS_LOG_FILE.equalsIgnoreCase("off")) {
+            log("Access log disabled");
+            return null;
+        }
+        try {
+            AccessLogRing ring = AccessLogRing.open(new File(ACCESS_LOG_FILE), ACCESS_LOG_RECORDS);
+            metrics.gauge("accesslog.records", ring::getWrittenCount);
+            log("Access log: " + ACCESS_LOG_FILE + " (" + ACCESS_LOG_RECORDS + " records)");
+            return ring;
+        } catch (IOException e) {
+            log("WARNING: Access log disabled, cannot open " + ACCESS_LOG_FILE + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Serve the event ring to the dashboard on 127.0.0.1:SSL_EVENT_PORT
+     */
+    private void startEventFeed() {
+        if (EVENT_FEED_PORT <= 0) {
+            return;
+        }
+        try {
+            eventFeed = EventFeed.serve(events, EVENT_FEED_PORT, System.currentTimeMillis(), getLocalPort());
+            log("Event feed on 127.0.0.1:" + eventFeed.getLocalPort() + " (" + events.capacity() + " events kept)");
+        } catch (IOException e) {
+            log("WARNING: Event feed disabled, cannot listen on port " + EVENT_FEED_PORT + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Called after every response; the first one completes the startup timeline
+     */
+    private void requestServed() {
+        if (!firstRequestServed) {
+            firstRequestServed = true;
+            timeline.mark("first_request");
+            log("First request served " + timeline.millisSinceStart("first_request") + " ms after JVM start");
+        }
+    }
+    
+    /**
+     * Final bookkeeping for a connection: access log record, phase histograms, JFR event and close event
+     */
+    private void finishConnection(AccessLogRing.AccessRecord record, ConnectionTrace trace, 
+            AccessLogRing.Outcome outcome) {
+        record.outcome = outcome;
+        record.totalMicros = trace.elapsed() / 1000;
+        if (accessLog != null) {
+            accessLog.append(record);
+        }
+        trace.finish(metrics, record.clientHost, outcome.name());
+        events.publish(EventRing.Type.CLOSE, record.clientHost, record.clientPort,
+            "outcome", outcome.name(), "bytesIn", Long.toString(record.bytesIn), "bytesOut", Long.toString(record.bytesOut),
+            "micros", Long.toString(record.totalMicros));
+    }
+    
+    /**
+     * Host name allowlist: names, ".example.com" for a domain and its subdomains, or "*" for any host
+     */
+    private static List<String> parseHostPatterns(String hosts) {
+        List<String> entries = new ArrayList<>();
+        if (hosts != null) {
+            for (String entry : hosts.split(",")) {
+                entry = entry.trim().toLowerCase(Locale.ROOT);
+                if (entry.startsWith("*.")) {
+                    entry = entry.substring(1);
+                }
+                if (!entry.isEmpty()) {
+                    entries.add(entry);
+                }
+            }
+        }
+        return entries;
+    }
+    
+    static boolean hostMatches(List<String> patterns, String host) {
+        String name = host.toLowerCase(Locale.ROOT);
+        for (String entry : patterns) {
+            if (entry.equals("*") || entry.equals(name) ||
+                    (entry.startsWith(".") && (name.endsWith(entry) || name.equals(entry.substring(1))))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * False for loopback, link-local, private, shared, unspecified and multicast addresses
+     */
+    static boolean isPublicAddress(InetAddress address) {
+        if (address.isLoopbackAddress() || address.isLinkLocalAddress() || address.isSiteLocalAddress() ||
+                address.isAnyLocalAddress() || address.isMulticastAddress()) {
+            return false;
+        }
+        byte[] bytes = address.getAddress();
+        if (bytes.length == 4) {
+            // 0.0.0.0/8 and the 100.64.0.0/10 carrier-grade NAT range
+            return bytes[0] != 0 && !((bytes[0] & 0xff) == 100 && (bytes[1] & 0xc0) == 64);
+        }
+        // fc00::/7 unique local addresses
+        return (bytes[0] & 0xfe) != 0xfc;
+    }
+    
+    private static IPAccessIndex.Builder defaultAccessRules() {
+        return new IPAccessIndex.Builder()
+            .allow("127.0.0.1/32")
+            .allow("::1/128");
+    }
+    
+    /**
+     * Rebuild the CIDR access index from SSL_ACCESS_RULES if the file changed.
+     * The new index is swapped in atomically; on error the previous one stays active.
+     */
+    public void reloadAccessRules() {
+        if (ACCESS_RULES_FILE == null) {
+            return;
+        }
+        
+        File rulesFile = new File(ACCESS_RULES_FILE);
+        long modified = rulesFile.lastModified();
+        if (modified == 0) {
+            log("WARNING: Access rules file not found: " + ACCESS_RULES_FILE);
+            return;
+        }
+        if (modified == accessRulesModified) {
+            return;
+        }
+        
+        try {
+            IPAccessIndex index = IPAccessIndex.load(rulesFile, defaultAccessRules());
+            accessIndex = index;
+            accessRulesModified = modified;
+            log("Access rules loaded: " + index.getRuleCount() + " rules, " + 
+                index.getNodeCount() + " trie nodes");
+        } catch (IOException e) {
+            log("Failed to load access rules, keeping previous rules: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Reload the worker weights from SSL_TENANT_WEIGHTS if the file changed; on error the previous weights stay
+     */
+    private void reloadTenantWeights() {
+        if (TENANT_WEIGHTS_FILE == null) {
+            return;
+        }
+        
+        File weightsFile = new File(TENANT_WEIGHTS_FILE);
+        long modified = weightsFile.lastModified();
+        if (modified == 0) {
+            log("WARNING: Tenant weights file not found: " + TENANT_WEIGHTS_FILE);
+            return;
+        }
+        if (modified == tenantWeightsModified) {
+            return;
+        }
+        
+        try {
+            Map<String, FairScheduler.Weight> weights = FairScheduler.loadWeights(weightsFile);
+            scheduler.setWeights(weights);
+            tenantWeightsModified = modified;
+            log("Tenant weights loaded: " + weights.size() + " tenants");
+        } catch (IOException e) {
+            log("Failed to load tenant weights, keeping previous weights: " + e.getMessage());
+        }
     }
     
     /**
@@ -60,37 +446,155 @@ public class SecureSSLProxy {
      */
     private SSLContext createSecureSSLContext() throws Exception {
         // Load P12 certificate for server authentication
-        KeyStore keyStore = null;
-        KeyManagerFactory keyManagerFactory = null;
-        
-        File p12File = new File(P12_FILE);
-        if (p12File.exists()) {
-            log("Loading P12 certificate: " + P12_FILE);
-            keyStore = KeyStore.getInstance("PKCS12");
-            
-            try (FileInputStream fis = new FileInputStream(p12File)) {
-                keyStore.load(fis, P12_PASSWORD.toCharArray());
-                log("P12 certificate loaded successfully");
-                
-                keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-                keyManagerFactory.init(keyStore, P12_PASSWORD.toCharArray());
-            }
+        long keystoreStart = timeline.begin();
+        KeyManager[] keyManagers = loadKeyManagers();
+        if (keyManagers != null) {
+            log("P12 certificate loaded successfully: " + P12_FILE);
         } else {
-            log("WARNING: P12 file not found: " + P12_FILE + " - generating self-signed certificate");
-            // In production, you should use proper certificates
+            // Without a configured certificate, mint one per requested host name from a local CA
+            if (!new File(CA_FILE).exists() && System.getenv("SSL_P12_PASSWORD") == null) {
+                throw new IllegalStateException("P12 file not found: " + P12_FILE +
+                    ". Set SSL_P12_PASSWORD to create the local CA " + CA_FILE + " under a password of your own");
+            }
+            certificateAuthority = CertificateAuthority.loadOrCreate(new File(CA_FILE), P12_PASSWORD.toCharArray(),
+                CA_LEAF_KEY_TYPE, CA_KEY_POOL_SIZE, CA_CACHE_SIZE);
+            certificateAuthority.restrictMinting(host -> CA_HOSTS.isEmpty() || hostMatches(CA_HOSTS, host),
+                CA_MINTS_PER_MINUTE);
+            certificateAuthority.registerMetrics(metrics);
+            keyManagers = new KeyManager[] { certificateAuthority.keyManager() };
+            log("WARNING: P12 file not found: " + P12_FILE + " - minting " + CA_LEAF_KEY_TYPE +
+                " certificates per host name from local CA " + CA_FILE);
+            log("Clients must trust " + CertificateAuthority.pemFile(new File(CA_FILE)) + " (" +
+                certificateAuthority.getCertificate().getSubjectX500Principal().getName() + ")");
         }
+        timeline.end("tls.keystore", keystoreStart);
+        
+        // Seed now rather than inside the first handshake
+        long randomStart = timeline.begin();
+        SecureRandom random = new SecureRandom();
+        random.nextBytes(new byte[16]);
+        timeline.end("tls.random", randomStart);
         
         // Secure trust manager with proper validation
+        long initStart = timeline.begin();
         TrustManager[] trustManagers = new TrustManager[] {
             new SecureX509TrustManager()
         };
         
         SSLContext context = SSLContext.getInstance("TLSv1.3");
-        KeyManager[] keyManagers = keyManagerFactory != null ? keyManagerFactory.getKeyManagers() : null;
-        context.init(keyManagers, trustManagers, new SecureRandom());
+        context.init(keyManagers, trustManagers, random);
+        // Builds the default session and engine parameters that the first accept would otherwise pay for
+        context.createSSLEngine().getSupportedCipherSuites();
+        timeline.end("tls.init", initStart);
         return context;
     }
     
+    /**
+     * Handshakes with this proxy's context over loopback, on a throwaway listener, before the real one opens.
+     * The first real clients then hit compiled handshake code instead of the interpreter.
+     */
+    private void warmUp(SSLContext context, int handshakes) throws IOException, GeneralSecurityException {
+        SSLContext clientContext = loopbackClientContext();
+        try (SSLServerSocket listener = (SSLServerSocket) context.getServerSocketFactory()
+                .createServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            listener.setEnabledProtocols(new String[]{"TLSv1.3", "TLSv1.2"});
+            Thread server = new Thread(() -> {
+                for (int i = 0; i < handshakes; i++) {
+                    try (SSLSocket socket = (SSLSocket) listener.accept()) {
+                        socket.getOutputStream().write(socket.getInputStream().read());
+                    } catch (IOException e) {
+                        if (listener.isClosed()) {
+                            return;
+                        }
+                    }
+                }
+            }, "startup-warmup");
+            server.setDaemon(true);
+            server.start();
+            
+            // Mostly TLS 1.3 like real clients, with some TLS 1.2 so both paths are compiled
+            for (int i = 0; i < handshakes; i++) {
+                try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory()
+                        .createSocket(InetAddress.getLoopbackAddress(), listener.getLocalPort())) {
+                    socket.setEnabledProtocols(new String[]{i % 4 == 3 ? "TLSv1.2" : "TLSv1.3"});
+                    socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+                    socket.getOutputStream().write(1);
+                    socket.getInputStream().read();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Client context for talking to this proxy over loopback; it trusts whatever certificate it is shown
+     */
+    private static SSLContext loopbackClientContext() throws GeneralSecurityException {
+        SSLContext clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, new TrustManager[] { new X509TrustManager() {
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {}
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {}
+            public X509Certificate[] getAcceptedIssuers() { return new X509Certificate[0]; }
+        } }, null);
+        return clientContext;
+    }
+    
+    /**
+     * Training run for a class data sharing archive (java -XX:ArchiveClassesAtExit=proxy.jsa SecureSSLProxy --train):
+     * full startup with warm-up, a few real requests over loopback, then exit so the JVM writes the archive
+     */
+    private static void train(SecureSSLProxy proxy) throws Exception {
+        Thread server = new Thread(() -> {
+            try {
+                proxy.start();
+            } catch (IOException e) {
+                System.err.println("Training proxy failed: " + e.getMessage());
+            }
+        }, "training-proxy");
+        server.start();
+        while (proxy.getLocalPort() == 0 && server.isAlive()) {
+            Thread.sleep(10);
+        }
+        
+        SSLSocketFactory factory = loopbackClientContext().getSocketFactory();
+        for (String path : new String[] {"/", "/metrics", "/"}) {
+            try (SSLSocket socket = (SSLSocket) factory.createSocket(InetAddress.getLoopbackAddress(), proxy.getLocalPort())) {
+                SSLParameters parameters = socket.getSSLParameters();
+                parameters.setApplicationProtocols(new String[]{"http/1.1"});
+                socket.setSSLParameters(parameters);
+                socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+                InputStream in = socket.getInputStream();
+                while (in.read() >= 0) {
+                    // Drain the response
+                }
+            }
+        }
+        proxy.stop();
+        server.join(CONNECTION_TIMEOUT);
+    }
+    
+    void setWarmupHandshakes(int warmupHandshakes) {
+        this.warmupHandshakes = warmupHandshakes;
+    }
+    
+    /**
+     * Key managers for the configured P12 file (SSL_P12_FILE), or null if it does not exist.
+     * Also used by DashboardServer's HTTPS mode.
+     */
+    static KeyManager[] loadKeyManagers() throws Exception {
+        File p12File = new File(P12_FILE);
+        if (!p12File.exists()) {
+            return null;
+        }
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (FileInputStream fis = new FileInputStream(p12File)) {
+            keyStore.load(fis, P12_PASSWORD.toCharArray());
+        }
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, P12_PASSWORD.toCharArray());
+        return keyManagerFactory.getKeyManagers();
+    }
+    
     /**
      * Secure X509TrustManager with proper certificate validation
      */
@@ -123,6 +627,10 @@ public class SecureSSLProxy {
             
             // Validate client certificate
             X509Certificate clientCert = chain[0];
+            ConnectionTrace trace = ConnectionTrace.current();
+            if (trace != null) {
+                trace.begin(ConnectionTrace.Phase.CLIENT_CERT_CHECK);
+            }
             
             try {
                 // Check certificate validity
@@ -136,6 +644,10 @@ public class SecureSSLProxy {
             } catch (Exception e) {
                 log("Client certificate validation failed: " + e.getMessage());
                 throw new CertificateException("Invalid client certificate", e);
+            } finally {
+                if (trace != null) {
+                    trace.end(ConnectionTrace.Phase.CLIENT_CERT_CHECK);
+                }
             }
         }
         
@@ -186,20 +698,21 @@ public class SecureSSLProxy {
     /**
      * Check if IP is allowed to connect
      */
-    private boolean isIPAllowed(String clientIP) {
-        // Check if IP is in allowed list
-        if (allowedIPs.contains(clientIP)) {
+    private boolean isIPAllowed(InetAddress clientAddress) {
+        // Check CIDR allow/deny rules
+        IPAccessIndex.Decision decision = accessIndex.lookup(clientAddress);
+        if (decision == IPAccessIndex.Decision.ALLOW) {
             return true;
         }
-        
-        // Rate limiting
-        Integer count = connectionCounts.getOrDefault(clientIP, 0);
-        if (count > 10) { // Max 10 connections per minute per IP
-            log("Rate limit exceeded for IP: " + clientIP);
+        if (decision == IPAccessIndex.Decision.DENY) {
             return false;
         }
         
-        connectionCounts.put(clientIP, count + 1);
+        // Rate limiting, counted across all gossip peers
+        if (!rateLimiter.tryAcquire(clientAddress, RATE_LIMIT_PER_MINUTE)) {
+            log("Rate limit exceeded for IP: " + clientAddress.getHostAddress());
+            return false;
+        }
         return true;
     }
     
@@ -207,38 +720,101 @@ public class SecureSSLProxy {
      * Start the secure SSL proxy
      */
     public void start() throws IOException {
-        SSLServerSocketFactory factory = sslContext.getServerSocketFactory();
-        SSLServerSocket serverSocket = (SSLServerSocket) factory.createServerSocket(PROXY_PORT);
+        if (warmupHandshakes > 0) {
+            long warmupStart = timeline.begin();
+            try {
+                warmUp(sslContext, warmupHandshakes);
+            } catch (IOException | GeneralSecurityException e) {
+                log("WARNING: Warm-up handshakes failed: " + e.getMessage());
+            }
+            timeline.end("warmup." + warmupHandshakes + "_handshakes", warmupStart);
+        }
+        
+        long listenStart = timeline.begin();
+        // Plain channel so silent connections can wait on the hello gate; TLS is layered on
+        // once the client has sent something
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
         
         // Configure SSL settings for maximum security
-        serverSocket.setWantClientAuth(true);  // Request client certificates
-        serverSocket.setSoTimeout(CONNECTION_TIMEOUT);
+        SSLParameters sslParameters = sslContext.getDefaultSSLParameters();
+        sslParameters.setWantClientAuth(true);  // Request client certificates
         
         // Enable only secure protocols and cipher suites
-        serverSocket.setEnabledProtocols(new String[]{"TLSv1.3", "TLSv1.2"});
+        sslParameters.setProtocols(new String[]{"TLSv1.3", "TLSv1.2"});
+        
+        // Offer HTTP/2 through ALPN, falling back to HTTP/1.1
+        sslParameters.setApplicationProtocols(new String[]{"h2", "http/1.1"});
+        if (CIPHER_SUITES != null) {
+            sslParameters.setCipherSuites(preferredCipherSuites(sslContext.getSupportedSSLParameters().getCipherSuites()));
+            sslParameters.setUseCipherSuitesOrder(true);
+        }
+        this.serverParameters = sslParameters;
         
+        ClientHelloGate helloGate = new ClientHelloGate(CLIENT_HELLO_TIMEOUT);
+        metrics.gauge("handshake.hello_waiting", helloGate::getWaitingCount);
+        this.helloGate = helloGate;
+        this.serverChannel = serverChannel;
         running = true;
-        log("Secure SSL Proxy started on port " + PROXY_PORT);
+        startEventFeed();
+        log("Secure SSL Proxy started on port " + serverChannel.socket().getLocalPort());
+        if (CIPHER_SUITES != null) {
+            log("Cipher suite order: " + String.join(", ", sslParameters.getCipherSuites()));
+        }
         log("Client certificate authentication: OPTIONAL");
         log("Allowed protocols: TLSv1.2, TLSv1.3");
+        log("Application protocols: h2, http/1.1");
+        log("Handshake threads: " + HANDSHAKE_THREADS + ", queue: " + HANDSHAKE_QUEUE_SIZE);
+        timeline.end("listen", listenStart);
+        timeline.mark("listening");
+        log("Startup timeline (ms since JVM start):");
+        for (String line : timeline.report()) {
+            log("  " + line);
+        }
         
         while (running) {
             try {
-                SSLSocket clientSocket = (SSLSocket) serverSocket.accept();
+                SocketChannel channel = serverChannel.accept();
+                Socket clientSocket = channel.socket();
+                // Handshake flights span several records; without this Nagle holds them behind delayed ACKs
+                clientSocket.setTcpNoDelay(true);
+                ConnectionTrace trace = new ConnectionTrace();
+                trace.begin(ConnectionTrace.Phase.ACCEPT);
+                
+                AccessLogRing.AccessRecord record = new AccessLogRing.AccessRecord();
+                record.startMillis = System.currentTimeMillis();
+                record.clientAddress = clientSocket.getInetAddress();
+                record.clientPort = clientSocket.getPort();
                 
-                // Check IP whitelist
-                String clientIP = clientSocket.getInetAddress().getHostAddress();
-                if (!isIPAllowed(clientIP)) {
-                    log("Connection rejected from IP: " + clientIP);
+                // Check IP allow/deny rules
+                InetAddress clientAddress = clientSocket.getInetAddress();
+                trace.begin(ConnectionTrace.Phase.IP_CHECK);
+                boolean allowed = isIPAllowed(clientAddress);
+                trace.end(ConnectionTrace.Phase.IP_CHECK);
+                record.clientHost = clientAddress.getHostAddress();
+                events.publish(EventRing.Type.CONNECT, record.clientHost, record.clientPort,
+                    "result", allowed ? "accepted" : "rejected");
+                if (!allowed) {
+                    log("Connection rejected from IP: " + record.clientHost);
+                    metrics.increment("connections.rejected");
                     clientSocket.close();
+                    trace.end(ConnectionTrace.Phase.ACCEPT);
+                    finishConnection(record, trace, AccessLogRing.Outcome.REJECTED);
                     continue;
                 }
+                metrics.increment("connections.accepted");
                 
-                // Handle connection in thread pool
-                threadPool.submit(new SecureProxyHandler(clientSocket));
+                // Deadlines start at accept so time waiting for the client and queued for a worker
+                // counts toward the handshake
+                ConnectionTimeoutWheel.Entry timeout = timeoutWheel.register(channel,
+                    ConnectionTimeoutWheel.Phase.HANDSHAKE, HANDSHAKE_TIMEOUT, MAX_CONNECTION_LIFETIME);
+                
+                // No handshake thread is taken until the ClientHello has started to arrive
+                helloGate.await(channel,
+                    () -> dispatchHandshake(channel, timeout, record, trace),
+                    () -> dropSilentConnection(channel, timeout, record, trace));
+                trace.end(ConnectionTrace.Phase.ACCEPT);
                 
-            } catch (SocketTimeoutException e) {
-                // Normal timeout, continue
             } catch (IOException e) {
                 if (running) {
                     log("Error accepting client connection: " + e.getMessage());
@@ -246,9 +822,161 @@ public class SecureSSLProxy {
             }
         }
         
-        serverSocket.close();
-        threadPool.shutdown();
+        serverChannel.close();
+        helloGate.close();
+        handshakePool.shutdown();
+        scheduler.shutdown();
         cleanupTimer.cancel();
+        timeoutWheel.shutdown();
+        if (accessLog != null) {
+            accessLog.close();
+        }
+    }
+    
+    /**
+     * Layer TLS over a connection whose client has started talking and queue its handshake.
+     * Runs on the hello gate thread.
+     */
+    private void dispatchHandshake(SocketChannel channel, ConnectionTimeoutWheel.Entry timeout,
+            AccessLogRing.AccessRecord record, ConnectionTrace trace) {
+        SSLSocket clientSocket;
+        try {
+            clientSocket = (SSLSocket) sslContext.getSocketFactory().createSocket(channel.socket(), null, true);
+            clientSocket.setSSLParameters(serverParameters);
+        } catch (IOException e) {
+            dropSilentConnection(channel, timeout, record, trace);
+            return;
+        }
+        
+        // Handshake on the dedicated pool; it hands the connection to the I/O workers
+        try {
+            handshakePool.execute(new HandshakeTask(clientSocket, timeout, record, trace));
+        } catch (RejectedExecutionException e) {
+            shedConnection(clientSocket, timeout);
+            finishConnection(record, trace, AccessLogRing.Outcome.SHED);
+        }
+    }
+    
+    /**
+     * Close a connection that sent nothing within CLIENT_HELLO_TIMEOUT, or was
+     * closed before it did. Runs on the hello gate thread.
+     */
+    private void dropSilentConnection(SocketChannel channel, ConnectionTimeoutWheel.Entry timeout,
+            AccessLogRing.AccessRecord record, ConnectionTrace trace) {
+        metrics.increment("handshake.hello_timeouts");
+        timeout.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Connection is being dropped anyway
+        }
+        events.publish(EventRing.Type.HANDSHAKE, record.clientHost, record.clientPort,
+            "result", "failed", "error", "No ClientHello within " + CLIENT_HELLO_TIMEOUT + " ms");
+        finishConnection(record, trace, AccessLogRing.Outcome.TIMEOUT);
+    }
+    
+    /**
+     * Drop a connection when the handshake queue is full. No crypto is spent, and
+     * SO_LINGER 0 asks for a TCP reset so the socket is freed at once.
+     */
+    private void shedConnection(SSLSocket clientSocket, ConnectionTimeoutWheel.Entry timeout) {
+        metrics.increment("handshake.shed");
+        timeout.cancel();
+        try {
+            clientSocket.setSoLinger(true, 0);
+            clientSocket.close();
+        } catch (IOException e) {
+            // Connection is being dropped anyway
+        }
+    }
+    
+    /**
+     * Runs the TLS handshake on the handshake pool, then queues the established
+     * connection for an I/O worker
+     */
+    private class HandshakeTask implements Runnable {
+        private final SSLSocket clientSocket;
+        private final ConnectionTimeoutWheel.Entry timeout;
+        private final AccessLogRing.AccessRecord record;
+        private final ConnectionTrace trace;
+        
+        public HandshakeTask(SSLSocket clientSocket, ConnectionTimeoutWheel.Entry timeout, 
+                AccessLogRing.AccessRecord record, ConnectionTrace trace) {
+            this.clientSocket = clientSocket;
+            this.timeout = timeout;
+            this.record = record;
+            this.trace = trace;
+            trace.begin(ConnectionTrace.Phase.HANDSHAKE_QUEUE);
+        }
+        
+        @Override
+        public void run() {
+            trace.end(ConnectionTrace.Phase.HANDSHAKE_QUEUE);
+            metrics.counter("handshake.queue.wait_micros.total")
+                .add(trace.duration(ConnectionTrace.Phase.HANDSHAKE_QUEUE) / 1000);
+            
+            // Bound so the trust manager can time the client certificate check
+            trace.bind();
+            trace.begin(ConnectionTrace.Phase.HANDSHAKE);
+            try {
+                clientSocket.startHandshake();
+            } catch (IOException e) {
+                trace.end(ConnectionTrace.Phase.HANDSHAKE);
+                metrics.increment("handshake.failed");
+                log("TLS handshake failed for " + record.clientHost + 
+                    ": " + e.getMessage());
+                events.publish(EventRing.Type.HANDSHAKE, record.clientHost, record.clientPort,
+                    "result", "failed", "error", e.getMessage());
+                timeout.cancel();
+                trace.begin(ConnectionTrace.Phase.CLOSE);
+                try {
+                    clientSocket.close();
+                } catch (IOException closeError) {
+                    // Ignore, the handshake already failed
+                }
+                trace.end(ConnectionTrace.Phase.CLOSE);
+                record.handshakeMicros = trace.duration(ConnectionTrace.Phase.HANDSHAKE) / 1000;
+                finishConnection(record, trace, timeout.isExpired() ? 
+                    AccessLogRing.Outcome.TIMEOUT : AccessLogRing.Outcome.HANDSHAKE_FAILED);
+                return;
+            } finally {
+                ConnectionTrace.unbind();
+            }
+            trace.end(ConnectionTrace.Phase.HANDSHAKE);
+            
+            long handshakeMicros = trace.duration(ConnectionTrace.Phase.HANDSHAKE) / 1000;
+            metrics.increment("handshake.completed");
+            metrics.counter("handshake.duration_micros.total").add(handshakeMicros);
+            record.handshakeMicros = handshakeMicros;
+            SSLSession session = clientSocket.getSession();
+            events.publish(EventRing.Type.HANDSHAKE, record.clientHost, record.clientPort,
+                "result", "ok", "protocol", session.getProtocol(), "cipher", session.getCipherSuite(),
+                "alpn", clientSocket.getApplicationProtocol(), "micros", Long.toString(handshakeMicros));
+            timeout.enterPhase(ConnectionTimeoutWheel.Phase.HEADER_READ, HEADER_READ_TIMEOUT);
+            trace.begin(ConnectionTrace.Phase.WORKER_QUEUE);
+            // Queued per client identity so one busy client cannot take every worker
+            String tenant = FairScheduler.tenantKey(peerSubject(session), record.clientHost);
+            try {
+                scheduler.submit(tenant, new SecureProxyHandler(clientSocket, timeout, record, trace, tenant));
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+                timeout.cancel();
+                try {
+                    clientSocket.close();
+                } catch (IOException closeError) {
+                    // Ignore, the proxy is stopping
+                }
+            }
+        }
+        
+        private String peerSubject(SSLSession session) {
+            try {
+                java.security.cert.Certificate[] peerCerts = session.getPeerCertificates();
+                return peerCerts.length > 0 ? ((X509Certificate) peerCerts[0]).getSubjectX500Principal().getName() : null;
+            } catch (SSLPeerUnverifiedException e) {
+                return null;
+            }
+        }
     }
     
     /**
@@ -257,6 +985,75 @@ public class SecureSSLProxy {
     public void stop() {
         running = false;
         log("Stopping Secure SSL Proxy...");
+        rateLimiter.close();
+        if (eventFeed != null) {
+            try {
+                eventFeed.close();
+            } catch (IOException e) {
+                log("Error closing event feed: " + e.getMessage());
+            }
+        }
+        if (certificateAuthority != null) {
+            certificateAuthority.close();
+        }
+        dnsCache.close();
+        
+        // Unblock accept()
+        ServerSocketChannel channel = serverChannel;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log("Error closing server socket: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Port the proxy is listening on, or 0 before start() has bound it
+     */
+    public int getLocalPort() {
+        ServerSocketChannel channel = serverChannel;
+        return channel != null ? channel.socket().getLocalPort() : 0;
+    }
+    
+    public ProxyMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Port of the dashboard event feed, or 0 while it is not serving
+     */
+    public int getEventFeedPort() {
+        EventFeed feed = eventFeed;
+        return feed != null ? feed.getLocalPort() : 0;
+    }
+    
+    /**
+     * Turn per-connection logging off, e.g. while benchmarking
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+    
+    /**
+     * SSL_CIPHER_SUITES in the configured order, skipping suites this JDK does not support
+     */
+    private String[] preferredCipherSuites(String[] supported) {
+        Set<String> available = new HashSet<>(Arrays.asList(supported));
+        List<String> suites = new ArrayList<>();
+        for (String suite : CIPHER_SUITES.split(",")) {
+            suite = suite.trim();
+            if (available.contains(suite)) {
+                suites.add(suite);
+            } else if (!suite.isEmpty()) {
+                log("WARNING: Ignoring unsupported cipher suite: " + suite);
+            }
+        }
+        if (suites.isEmpty()) {
+            throw new IllegalArgumentException("SSL_CIPHER_SUITES contains no supported cipher suite");
+        }
+        return suites.toArray(new String[0]);
     }
     
     /**
@@ -264,31 +1061,51 @@ public class SecureSSLProxy {
      */
     private class SecureProxyHandler implements Runnable {
         private final SSLSocket clientSocket;
+        private final ConnectionTimeoutWheel.Entry timeout;
+        private final AccessLogRing.AccessRecord record;
+        private final ConnectionTrace trace;
+        private final String tenant;
+        private CountingInputStream input;
+        private CountingOutputStream output;
+        // Status of the HTTP/1.1 response sent, for the request event
+        private int responseStatus = 0;
         
-        public SecureProxyHandler(SSLSocket clientSocket) {
+        public SecureProxyHandler(SSLSocket clientSocket, ConnectionTimeoutWheel.Entry timeout,
+                AccessLogRing.AccessRecord record, ConnectionTrace trace, String tenant) {
             this.clientSocket = clientSocket;
+            this.timeout = timeout;
+            this.record = record;
+            this.trace = trace;
+            this.tenant = tenant;
         }
         
         @Override
         public void run() {
-            String clientIP = clientSocket.getInetAddress().getHostAddress();
+            trace.end(ConnectionTrace.Phase.WORKER_QUEUE);
+            String clientIP = record.clientHost;
+            AccessLogRing.Outcome outcome = AccessLogRing.Outcome.OK;
             
             try {
-                // Set socket timeout
-                clientSocket.setSoTimeout(CONNECTION_TIMEOUT);
+                // The handshake already ran on the handshake pool; header and idle
+                // deadlines are enforced by the timeout wheel
                 
                 // Get SSL session information
                 SSLSession session = clientSocket.getSession();
+                record.protocol = session.getProtocol();
+                record.cipher = session.getCipherSuite();
+                record.sni = getRequestedServerName(session);
                 
                 log("=== New Secure SSL Connection from " + clientIP + " ===");
                 log("Protocol: " + session.getProtocol());
                 log("Cipher Suite: " + session.getCipherSuite());
+                log("Application Protocol: " + clientSocket.getApplicationProtocol());
                 
                 // Check for client certificate
                 try {
                     java.security.cert.Certificate[] peerCerts = session.getPeerCertificates();
                     if (peerCerts.length > 0) {
                         X509Certificate clientCert = (X509Certificate) peerCerts[0];
+                        record.clientSubject = clientCert.getSubjectX500Principal().getName();
                         log("Client authenticated with certificate: " + 
                             clientCert.getSubjectX500Principal());
                     }
@@ -296,88 +1113,626 @@ public class SecureSSLProxy {
                     log("Client connected without certificate");
                 }
                 
-                handleSecureConnection();
+                if ("h2".equals(clientSocket.getApplicationProtocol())) {
+                    handleHttp2Connection();
+                } else {
+                    handleSecureConnection();
+                }
                 
             } catch (Exception e) {
+                outcome = timeout.isExpired() ? AccessLogRing.Outcome.TIMEOUT : AccessLogRing.Outcome.ERROR;
                 log("Error in secure proxy handler for " + clientIP + ": " + e.getMessage());
             } finally {
+                timeout.cancel();
+                trace.begin(ConnectionTrace.Phase.CLOSE);
                 try {
                     clientSocket.close();
                 } catch (IOException e) {
                     log("Error closing client socket: " + e.getMessage());
                 }
+                trace.end(ConnectionTrace.Phase.CLOSE);
+                
+                record.bytesIn = input != null ? input.getCount() : 0;
+                record.bytesOut = output != null ? output.getCount() : 0;
+                finishConnection(record, trace, outcome);
+            }
+        }
+        
+        private String getRequestedServerName(SSLSession session) {
+            if (session instanceof ExtendedSSLSession) {
+                for (SNIServerName name : ((ExtendedSSLSession) session).getRequestedServerNames()) {
+                    if (name instanceof SNIHostName) {
+                        return ((SNIHostName) name).getAsciiName();
+                    }
+                }
             }
+            return null;
         }
         
         private void handleSecureConnection() throws IOException {
-            BufferedReader reader = new BufferedReader(
-                new InputStreamReader(clientSocket.getInputStream()));
-            PrintWriter writer = new PrintWriter(
-                clientSocket.getOutputStream(), true);
+            input = new CountingInputStream(clientSocket.getInputStream());
+            output = new CountingOutputStream(clientSocket.getOutputStream());
+            // Pooled buffers start small for the request head and grow only for bulk transfers
+            BufferPool.PooledInputStream reader = new BufferPool.PooledInputStream(input, bufferPool, BufferPool.SMALL);
+            BufferPool.PooledOutputStream writer = new BufferPool.PooledOutputStream(output, bufferPool, BufferPool.RECORD);
             
-            // Read the request with timeout
-            String requestLine = reader.readLine();
-            if (requestLine == null) {
-                return;
+            String requestLine = null;
+            try {
+                // Read the request with timeout
+                trace.begin(ConnectionTrace.Phase.REQUEST_READ);
+                requestLine = reader.readLine(MAX_HEADER_LINE);
+                if (requestLine == null) {
+                    return;
+                }
+                
+                log("Request: " + requestLine);
+                
+                if (requestLine.startsWith("CONNECT")) {
+                    trace.end(ConnectionTrace.Phase.REQUEST_READ);
+                    timeout.enterPhase(ConnectionTimeoutWheel.Phase.IDLE, CONNECTION_TIMEOUT);
+                    trace.begin(ConnectionTrace.Phase.RESPONSE_WRITE);
+                    handleSecureConnectRequest(requestLine, writer);
+                } else {
+                    handleSecureHttpRequest(requestLine, reader, writer);
+                }
+                trace.end(ConnectionTrace.Phase.RESPONSE_WRITE);
+            } finally {
+                reader.release();
+                writer.release();
+                if (requestLine != null) {
+                    String[] parts = requestLine.split(" ");
+                    events.publish(EventRing.Type.REQUEST, record.clientHost, record.clientPort,
+                        "method", parts[0], "target", parts.length > 1 ? parts[1] : "",
+                        "status", Integer.toString(responseStatus));
+                    requestServed();
+                }
             }
+        }
+        
+        /**
+         * Serve an ALPN-negotiated HTTP/2 connection; every stream is handled on the worker pool,
+         * on the workers the scheduler keeps back from connections when the rest are taken
+         */
+        private void handleHttp2Connection() throws IOException {
+            input = new CountingInputStream(clientSocket.getInputStream());
+            output = new CountingOutputStream(clientSocket.getOutputStream());
+            AtomicBoolean firstRequest = new AtomicBoolean(true);
             
-            log("Request: " + requestLine);
+            Http2Connection connection = new Http2Connection(input, output, scheduler.executor(tenant), request -> {
+                if (firstRequest.compareAndSet(true, false)) {
+                    trace.end(ConnectionTrace.Phase.REQUEST_READ);
+                    trace.begin(ConnectionTrace.Phase.RESPONSE_WRITE);
+                }
+                log("HTTP/2 request: " + request.method + " " + request.path + " (stream " + request.streamId + ")");
+                Http2Connection.Response response = handleHttp2Request(request);
+                events.publish(EventRing.Type.REQUEST, record.clientHost, record.clientPort,
+                    "method", request.method, "target", request.path, "status", Integer.toString(response.status),
+                    "stream", Integer.toString(request.streamId));
+                requestServed();
+                return response;
+            }, () -> timeout.enterPhase(ConnectionTimeoutWheel.Phase.IDLE, CONNECTION_TIMEOUT), metrics, bufferPool);
             
-            if (requestLine.startsWith("CONNECT")) {
-                handleSecureConnectRequest(requestLine, writer);
-            } else {
-                handleSecureHttpRequest(requestLine, reader, writer);
+            metrics.increment("http2.connections");
+            trace.begin(ConnectionTrace.Phase.REQUEST_READ);
+            connection.serve();
+            trace.end(ConnectionTrace.Phase.RESPONSE_WRITE);
+        }
+        
+        private Http2Connection.Response handleHttp2Request(Http2Connection.Request request) {
+            if (request.path.equals("/metrics")) {
+                return new Http2Connection.Response(200, metrics.render().getBytes(StandardCharsets.UTF_8))
+                    .header("content-type", "text/plain; charset=utf-8")
+                    .header("x-proxy", "SecureSSLProxy/1.0")
+                    .header("cache-control", "no-store");
             }
+            
+            byte[] body = generateSecureResponse().getBytes(StandardCharsets.UTF_8);
+            return new Http2Connection.Response(200, body)
+                .header("content-type", "text/html; charset=utf-8")
+                .header("x-proxy", "SecureSSLProxy/1.0")
+                .header("x-security", "Enhanced")
+                .header("strict-transport-security", "max-age=31536000; includeSubDomains")
+                .header("x-content-type-options", "nosniff")
+                .header("x-frame-options", "DENY");
         }
         
-        private void handleSecureConnectRequest(String requestLine, PrintWriter writer) {
+        private void handleSecureConnectRequest(String requestLine, BufferPool.PooledOutputStream writer) 
+                throws IOException {
             String[] parts = requestLine.split(" ");
             if (parts.length >= 2) {
                 String hostPort = parts[1];
                 log("CONNECT request to: " + hostPort);
                 
                 // Send 200 Connection established
-                writer.println("HTTP/1.1 200 Connection established");
-                writer.println("Proxy-Agent: SecureSSLProxy/1.0");
-                writer.println();
+                responseStatus = 200;
+                writer.write("HTTP/1.1 200 Connection established\r\n" +
+                    "Proxy-Agent: SecureSSLProxy/1.0\r\n" +
+                    "\r\n");
                 writer.flush();
                 
                 log("CONNECT tunnel established for: " + hostPort);
             }
         }
         
-        private void handleSecureHttpRequest(String requestLine, BufferedReader reader, PrintWriter writer) 
-                throws IOException {
-            // Read headers securely
-            Map<String, String> headers = new HashMap<>();
+        private void handleSecureHttpRequest(String requestLine, BufferPool.PooledInputStream reader,
+                BufferPool.PooledOutputStream writer) throws IOException {
+            // Read headers securely; the lines are kept in order for forwarding
+            List<String> headerLines = new ArrayList<>();
             String line;
-            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            while ((line = reader.readLine(MAX_HEADER_LINE)) != null && !line.isEmpty()) {
                 if (line.contains(":")) {
-                    String[] headerParts = line.split(":", 2);
-                    headers.put(headerParts[0].trim(), headerParts[1].trim());
+                    headerLines.add(line);
                 }
                 log("Header: " + line);
             }
+            trace.end(ConnectionTrace.Phase.REQUEST_READ);
+            timeout.enterPhase(ConnectionTimeoutWheel.Phase.IDLE, CONNECTION_TIMEOUT);
+            trace.begin(ConnectionTrace.Phase.RESPONSE_WRITE);
+            
+            String[] requestParts = requestLine.split(" ");
+            HttpBody requestBody;
+            Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            try {
+                // Duplicates are refused first: the map keeps only the last of each
+                HttpBody.checkRequestFraming(headerLines);
+                for (String headerLine : headerLines) {
+                    String[] headerParts = headerLine.split(":", 2);
+                    headers.put(headerParts[0].trim(), headerParts[1].trim());
+                }
+                requestBody = HttpBody.forRequest(headers);
+            } catch (HttpBody.FramingException e) {
+                sendError(writer, 400, "Bad Request", e.getMessage());
+                return;
+            }
+            if (requestBody.length > MAX_BODY_SIZE) {
+                sendError(writer, 413, "Payload Too Large", "Request body limit is " + MAX_BODY_SIZE + " bytes");
+                return;
+            }
+            boolean expectContinue = "100-continue".equalsIgnoreCase(headers.get("Expect"));
+            
+            if (requestParts.length >= 2 && (requestParts[1].startsWith("http://") || requestParts[1].startsWith("https://"))) {
+                forwardRequest(requestParts[0], requestParts[1], headers, headerLines, requestBody, expectContinue,
+                    reader, writer);
+                return;
+            }
+            
+            // Local responses ignore the body, but it is read off so the connection closes cleanly
+            try {
+                if (expectContinue && requestBody.framing != HttpBody.Framing.NONE) {
+                    writer.write("HTTP/1.1 100 Continue\r\n\r\n");
+                    writer.flush();
+                }
+                requestBody.transfer(reader, OutputStream.nullOutputStream(), MAX_BODY_SIZE, bufferPool, this::bodyProgress);
+            } catch (HttpBody.TooLargeException e) {
+                sendError(writer, 413, "Payload Too Large", e.getMessage());
+                return;
+            }
+            
+            if (requestParts.length >= 2 && requestParts[1].equals("/metrics")) {
+                sendMetrics(writer);
+                return;
+            }
             
             // Generate secure response
-            String responseBody = generateSecureResponse();
+            byte[] responseBody = generateSecureResponse().getBytes(StandardCharsets.UTF_8);
             
-            writer.println("HTTP/1.1 200 OK");
-            writer.println("Content-Type: text/html; charset=utf-8");
-            writer.println("Content-Length: " + responseBody.length());
-            writer.println("X-Proxy: SecureSSLProxy/1.0");
-            writer.println("X-Security: Enhanced");
-            writer.println("Strict-Transport-Security: max-age=31536000; includeSubDomains");
-            writer.println("X-Content-Type-Options: nosniff");
-            writer.println("X-Frame-Options: DENY");
-            writer.println("Connection: close");
-            writer.println();
-            writer.println(responseBody);
+            // Head and body go out in one flush, so a small response is a single TLS record
+            responseStatus = 200;
+            writer.write("HTTP/1.1 200 OK\r\n" +
+                "Content-Type: text/html; charset=utf-8\r\n" +
+                "Content-Length: " + responseBody.length + "\r\n" +
+                "X-Proxy: SecureSSLProxy/1.0\r\n" +
+                "X-Security: Enhanced\r\n" +
+                "Strict-Transport-Security: max-age=31536000; includeSubDomains\r\n" +
+                "X-Content-Type-Options: nosniff\r\n" +
+                "X-Frame-Options: DENY\r\n" +
+                "Connection: close\r\n" +
+                "\r\n");
+            writer.write(responseBody);
             writer.flush();
             
             log("Secure response sent");
         }
         
+        /**
+         * Forward an absolute-form request (http:// or https:// target) to its origin, streaming
+         * the request body up and the response back in fixed-size chunks. GET and HEAD go
+         * through the response cache when it is enabled. Only hosts in SSL_FORWARD_HOSTS are
+         * reached, and only at public addresses unless SSL_FORWARD_PRIVATE is set.
+         */
+        private void forwardRequest(String method, String target, Map<String, String> headers, List<String> headerLines,
+                HttpBody requestBody, boolean expectContinue, BufferPool.PooledInputStream reader,
+                BufferPool.PooledOutputStream writer) throws IOException {
+            URI uri;
+            try {
+                uri = new URI(target);
+            } catch (URISyntaxException e) {
+                sendError(writer, 400, "Bad Request", "Invalid request target");
+                return;
+            }
+            boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+            String host = uri.getHost();
+            if (host == null) {
+                sendError(writer, 400, "Bad Request", "Request target has no host");
+                return;
+            }
+            int port = uri.getPort() > 0 ? uri.getPort() : (secure ? 443 : 80);
+            if (!hostMatches(FORWARD_HOSTS, host)) {
+                metrics.increment("forward.refused");
+                sendError(writer, 403, "Forbidden", "Forwarding to " + host + " is not allowed");
+                return;
+            }
+            
+            // Resolved once up front, so the addresses checked are the ones dialed
+            List<InetSocketAddress> addresses;
+            try {
+                addresses = dnsCache.addresses(host, port);
+            } catch (UnknownHostException e) {
+                metrics.increment("forward.upstream_errors");
+                sendError(writer, 502, "Bad Gateway", "Cannot resolve " + host);
+                return;
+            }
+            if (!FORWARD_PRIVATE) {
+                addresses.removeIf(address -> !isPublicAddress(address.getAddress()));
+                if (addresses.isEmpty()) {
+                    metrics.increment("forward.refused");
+                    sendError(writer, 403, "Forbidden", host + " resolves to a non-public address");
+                    return;
+                }
+            }
+            String path = (uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath()) +
+                (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+            String url = (secure ? "https://" : "http://") + host.toLowerCase() + ":" + port + path;
+            
+            // Serve fresh hits and coalesced misses without touching the origin
+            boolean useCache = responseCache != null && (method.equals("GET") || method.equals("HEAD")) &&
+                requestBody.framing == HttpBody.Framing.NONE && !ResponseCache.bypass(headers);
+            ResponseCache.Entry cached = null;
+            ResponseCache.Flight flight = null;
+            if (useCache) {
+                String key = responseCache.key(url, headers);
+                cached = responseCache.get(key);
+                if (cached != null && ResponseCache.isFresh(cached, headers)) {
+                    serveCached(cached, method, headers, writer, "HIT");
+                    return;
+                }
+                if (cached == null) {
+                    flight = responseCache.join(key);
+                    if (!flight.leader) {
+                        ResponseCache.Entry shared = flight.await(CONNECTION_TIMEOUT);
+                        // Flights are joined before Vary is known: the leader's response may be keyed on
+                        // headers this request does not share, or already stale, and then the origin answers
+                        if (shared != null && shared.key.equals(responseCache.key(url, headers)) &&
+                                ResponseCache.isFresh(shared, headers)) {
+                            serveCached(shared, method, headers, writer, "HIT");
+                            return;
+                        }
+                        flight = null;
+                    }
+                }
+            }
+            boolean revalidating = cached != null && cached.hasValidator();
+            
+            log("Forwarding " + method + " to " + host + ":" + port + path);
+            Socket upstream;
+            try {
+                upstream = connectUpstream(addresses, host, port, secure);
+            } catch (IOException e) {
+                metrics.increment("forward.upstream_errors");
+                if (flight != null) {
+                    responseCache.complete(flight, null);
+                }
+                sendError(writer, 502, "Bad Gateway", e.getMessage());
+                return;
+            }
+            ConnectionTimeoutWheel.Entry upstreamTimeout = timeoutWheel.register(upstream,
+                ConnectionTimeoutWheel.Phase.IDLE, CONNECTION_TIMEOUT, MAX_CONNECTION_LIFETIME);
+            BufferPool.PooledInputStream upstreamReader = null;
+            BufferPool.PooledOutputStream upstreamWriter = null;
+            ResponseCache.Recorder recorder = null;
+            ResponseCache.Entry stored = null;
+            boolean responseStarted = false;
+            try {
+                upstream.setTcpNoDelay(true);
+                upstream.setSoTimeout(CONNECTION_TIMEOUT);
+                upstreamReader = new BufferPool.PooledInputStream(upstream.getInputStream(), bufferPool, BufferPool.SMALL);
+                upstreamWriter = new BufferPool.PooledOutputStream(upstream.getOutputStream(), bufferPool, BufferPool.RECORD);
+                
+                StringBuilder head = new StringBuilder(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+                head.append("Host: ").append(uri.getRawAuthority()).append("\r\n");
+                if (revalidating) {
+                    // The cache asks on its own behalf; the client's conditionals are answered from the entry
+                    List<String> unconditional = new ArrayList<>();
+                    for (String line : headerLines) {
+                        if (!line.regionMatches(true, 0, "If-None-Match:", 0, 14) &&
+                                !line.regionMatches(true, 0, "If-Modified-Since:", 0, 18)) {
+                            unconditional.add(line);
+                        }
+                    }
+                    appendEndToEndHeaders(head, unconditional, requestBody);
+                    if (cached.etag() != null) {
+                        head.append("If-None-Match: ").append(cached.etag()).append("\r\n");
+                    }
+                    if (cached.headers.get("Last-Modified") != null) {
+                        head.append("If-Modified-Since: ").append(cached.headers.get("Last-Modified")).append("\r\n");
+                    }
+                } else {
+                    appendEndToEndHeaders(head, headerLines, requestBody);
+                }
+                head.append("Connection: close\r\n\r\n");
+                upstreamWriter.write(head.toString());
+                
+                // Stream the request body up; both deadlines move with each chunk
+                Runnable progress = () -> {
+                    bodyProgress();
+                    upstreamTimeout.enterPhase(ConnectionTimeoutWheel.Phase.IDLE, CONNECTION_TIMEOUT);
+                };
+                if (expectContinue && requestBody.framing != HttpBody.Framing.NONE) {
+                    writer.write("HTTP/1.1 100 Continue\r\n\r\n");
+                    writer.flush();
+                }
+                try {
+                    long sent = requestBody.transfer(reader, upstreamWriter, MAX_BODY_SIZE, bufferPool, progress);
+                    metrics.counter("forward.request_body_bytes").add(sent);
+                } catch (HttpBody.TooLargeException e) {
+                    sendError(writer, 413, "Payload Too Large", e.getMessage());
+                    return;
+                }
+                upstreamWriter.flush();
+                
+                // Response head; interim 1xx responses are consumed
+                String statusLine;
+                Map<String, String> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                List<String> responseLines = new ArrayList<>();
+                int status;
+                do {
+                    statusLine = upstreamReader.readLine(MAX_HEADER_LINE);
+                    if (statusLine == null) {
+                        throw new EOFException("Upstream closed before responding");
+                    }
+                    status = parseStatus(statusLine);
+                    responseHeaders.clear();
+                    responseLines.clear();
+                    String line;
+                    while ((line = upstreamReader.readLine(MAX_HEADER_LINE)) != null && !line.isEmpty()) {
+                        int colon = line.indexOf(':');
+                        if (colon > 0) {
+                            responseHeaders.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+                            responseLines.add(line);
+                        }
+                    }
+                } while (status / 100 == 1 && status != 101);
+                if (status == 101) {
+                    throw new IOException("Upstream protocol upgrade is not supported");
+                }
+                
+                if (revalidating && status == 304) {
+                    stored = responseCache.revalidated(cached, responseLines, responseHeaders);
+                    serveCached(stored, method, headers, writer, "REVALIDATED");
+                    return;
+                }
+                HttpBody responseBody = HttpBody.forResponse(method, status, responseHeaders);
+                if (useCache && method.equals("GET")) {
+                    responseCache.recordMiss();
+                    recorder = responseCache.recorder();
+                }
+                
+                StringBuilder responseHead = new StringBuilder(statusLine).append("\r\n");
+                appendEndToEndHeaders(responseHead, responseLines);
+                responseHead.append("Via: 1.1 SecureSSLProxy\r\n");
+                if (useCache) {
+                    responseHead.append("X-Cache: MISS\r\n");
+                }
+                responseHead.append("Connection: close\r\n\r\n");
+                responseStarted = true;
+                responseStatus = status;
+                writer.write(responseHead.toString());
+                long received = responseBody.transfer(upstreamReader, writer, recorder, Long.MAX_VALUE, bufferPool, progress);
+                writer.flush();
+                metrics.counter("forward.response_body_bytes").add(received);
+                metrics.increment("forward.requests");
+                log("Forwarded " + method + " " + host + path + " - " + status);
+                
+                if (recorder != null) {
+                    stored = responseCache.store(url, headers, statusLine, status, responseLines, responseHeaders, recorder);
+                    recorder = null;
+                } else if (responseCache != null && !useCache && status < 400 &&
+                        !method.equals("GET") && !method.equals("HEAD")) {
+                    // A successful unsafe request makes stored copies of the URL stale
+                    responseCache.invalidate(url);
+                }
+            } catch (IOException e) {
+                metrics.increment("forward.upstream_errors");
+                if (responseStarted) {
+                    throw e;
+                }
+                if (upstreamTimeout.isExpired() || e instanceof SocketTimeoutException) {
+                    sendError(writer, 504, "Gateway Timeout", "Upstream did not respond in time");
+                } else {
+                    sendError(writer, 502, "Bad Gateway", e.getMessage());
+                }
+            } finally {
+                if (recorder != null) {
+                    recorder.abandon();
+                }
+                if (flight != null) {
+                    responseCache.complete(flight, stored);
+                }
+                upstreamTimeout.cancel();
+                if (upstreamReader != null) {
+                    upstreamReader.release();
+                }
+                if (upstreamWriter != null) {
+                    upstreamWriter.release();
+                }
+                upstream.close();
+            }
+        }
+        
+        /**
+         * Connect to the first of the host's addresses that accepts, trying each in turn.
+         * For https the TLS session is layered on top and the origin's certificate must match host.
+         */
+        private Socket connectUpstream(List<InetSocketAddress> addresses, String host, int port,
+                boolean secure) throws IOException {
+            Socket socket = null;
+            for (InetSocketAddress address : addresses) {
+                Socket attempt = new Socket();
+                try {
+                    attempt.connect(address, CONNECTION_TIMEOUT);
+                    socket = attempt;
+                    break;
+                } catch (IOException e) {
+                    attempt.close();
+                    log("Cannot connect to " + address.getAddress().getHostAddress() + ":" + port + ": " + e.getMessage());
+                }
+            }
+            if (socket == null) {
+                throw new IOException("Cannot connect to " + host + ":" + port);
+            }
+            if (!secure) {
+                return socket;
+            }
+            
+            String serverName = host.startsWith("[") && host.endsWith("]") ? host.substring(1, host.length() - 1) : host;
+            SSLSocket tls = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                .createSocket(socket, serverName, port, true);
+            try {
+                SSLParameters parameters = tls.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                if (!DnsCache.isLiteral(serverName)) {
+                    parameters.setServerNames(Collections.singletonList(new SNIHostName(serverName)));
+                }
+                tls.setSSLParameters(parameters);
+                tls.setSoTimeout(CONNECTION_TIMEOUT);
+                tls.startHandshake();
+            } catch (IOException | IllegalArgumentException e) {
+                tls.close();
+                metrics.increment("forward.upstream_tls_failures");
+                throw new IOException("TLS to " + host + ":" + port + " failed: " + e.getMessage());
+            }
+            return tls;
+        }
+        
+        /**
+         * Answer from a stored response: 304 if the client's If-None-Match matches, else the full entry
+         */
+        private void serveCached(ResponseCache.Entry entry, String method, Map<String, String> headers,
+                BufferPool.PooledOutputStream writer, String cacheStatus) throws IOException {
+            boolean notModified = ResponseCache.etagMatches(headers.get("If-None-Match"), entry.etag());
+            StringBuilder head = new StringBuilder(notModified ? "HTTP/1.1 304 Not Modified" : entry.statusLine)
+                .append("\r\n");
+            List<String> lines = new ArrayList<>();
+            for (String line : entry.headerLines) {
+                String name = line.substring(0, line.indexOf(':')).trim();
+                if (!name.equalsIgnoreCase("Content-Length") && !name.equalsIgnoreCase("Transfer-Encoding") &&
+                        !name.equalsIgnoreCase("Age")) {
+                    lines.add(line);
+                }
+            }
+            appendEndToEndHeaders(head, lines);
+            head.append("Age: ").append(entry.ageMillis(System.currentTimeMillis()) / 1000).append("\r\n");
+            if (!notModified) {
+                head.append("Content-Length: ").append(entry.body.length()).append("\r\n");
+            }
+            head.append("Via: 1.1 SecureSSLProxy\r\n");
+            head.append("X-Cache: ").append(cacheStatus).append("\r\n");
+            head.append("Connection: close\r\n\r\n");
+            responseStatus = notModified ? 304 : parseStatus(entry.statusLine);
+            writer.write(head.toString());
+            if (!notModified && !method.equals("HEAD")) {
+                entry.body.writeTo(writer, bufferPool);
+            }
+            writer.flush();
+            responseCache.recordHit(entry);
+            log("Served " + method + " " + entry.key.split("\n")[0] + " from cache (" + cacheStatus + ")");
+        }
+        
+        /**
+         * Copy header lines except hop-by-hop ones, including those named in Connection
+         */
+        private void appendEndToEndHeaders(StringBuilder head, List<String> headerLines) {
+            Set<String> connectionTokens = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            for (String line : headerLines) {
+                if (line.regionMatches(true, 0, "Connection:", 0, 11)) {
+                    for (String token : line.substring(11).split(",")) {
+                        connectionTokens.add(token.trim());
+                    }
+                }
+            }
+            for (String line : headerLines) {
+                String name = line.substring(0, line.indexOf(':')).trim();
+                if (!HOP_BY_HOP_HEADERS.contains(name) && !connectionTokens.contains(name)) {
+                    head.append(line).append("\r\n");
+                }
+            }
+        }
+        
+        /**
+         * Request header lines for the origin: end-to-end lines without the client's framing,
+         * then the framing the proxy parsed and will send the body with
+         */
+        private void appendEndToEndHeaders(StringBuilder head, List<String> headerLines, HttpBody body) {
+            List<String> unframed = new ArrayList<>();
+            for (String line : headerLines) {
+                String name = line.substring(0, line.indexOf(':')).trim();
+                if (!name.equalsIgnoreCase("Content-Length") && !name.equalsIgnoreCase("Transfer-Encoding")) {
+                    unframed.add(line);
+                }
+            }
+            appendEndToEndHeaders(head, unframed);
+            body.appendRequestFraming(head);
+        }
+        
+        private int parseStatus(String statusLine) throws IOException {
+            String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                throw new IOException("Malformed upstream status line: " + statusLine);
+            }
+            try {
+                return Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed upstream status line: " + statusLine);
+            }
+        }
+        
+        /**
+         * Body data moved: push the idle deadline out, so only a stalled transfer times out
+         */
+        private void bodyProgress() {
+            timeout.enterPhase(ConnectionTimeoutWheel.Phase.IDLE, CONNECTION_TIMEOUT);
+        }
+        
+        private void sendError(BufferPool.PooledOutputStream writer, int status, String reason, String message)
+                throws IOException {
+            byte[] body = (status + " " + reason + ": " + message + "\n").getBytes(StandardCharsets.UTF_8);
+            responseStatus = status;
+            writer.write("HTTP/1.1 " + status + " " + reason + "\r\n" +
+                "Content-Type: text/plain; charset=utf-8\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "X-Proxy: SecureSSLProxy/1.0\r\n" +
+                "Connection: close\r\n" +
+                "\r\n");
+            writer.write(body);
+            writer.flush();
+            log("Request rejected: " + status + " " + message);
+        }
+        
+        private void sendMetrics(BufferPool.PooledOutputStream writer) throws IOException {
+            byte[] body = metrics.render().getBytes(StandardCharsets.UTF_8);
+            
+            responseStatus = 200;
+            writer.write("HTTP/1.1 200 OK\r\n" +
+                "Content-Type: text/plain; charset=utf-8\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "X-Proxy: SecureSSLProxy/1.0\r\n" +
+                "Cache-Control: no-store\r\n" +
+                "Connection: close\r\n" +
+                "\r\n");
+            writer.write(body);
+            writer.flush();
+        }
+        
         private String generateSecureResponse() {
             String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
             SSLSession session = clientSocket.getSession();
@@ -413,10 +1768,73 @@ public class SecureSSLProxy {
         }
     }
     
+    /**
+     * Input stream that counts bytes read, for the access log
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+        
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+        
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+        
+        long getCount() {
+            return count;
+        }
+    }
+    
+    /**
+     * Output stream that counts bytes written, for the access log
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+        
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+        
+        long getCount() {
+            return count;
+        }
+    }
+    
     /**
      * Secure logging with timestamp
      */
     private void log(String message) {
+        if (!verbose) {
+            return;
+        }
         String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
         System.out.println("[" + timestamp + "] " + message);
     }
@@ -428,6 +1846,13 @@ public class SecureSSLProxy {
                 System.out.println("WARNING: Using default P12 password. Set SSL_P12_PASSWORD environment variable for production.");
             }
             
+            if (args.length > 0 && args[0].equals("--train")) {
+                SecureSSLProxy proxy = new SecureSSLProxy(null, 0);
+                proxy.setWarmupHandshakes(Math.max(WARMUP_HANDSHAKES, 20));
+                train(proxy);
+                System.exit(0);
+            }
+            
             SecureSSLProxy proxy = new SecureSSLProxy();
             
             // Add shutdown hook
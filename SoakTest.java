@@ -0,0 +1,761 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+import javax.net.ssl.*;
+
+/**
+ * Soak test for SecureSSLProxy and DashboardServer: mixed loopback load for
+ * hours while the process is watched for slow leaks.
+ *
+ * A proxy and two dashboards (HTTP and HTTPS, both following the proxy's
+ * event feed) run in this JVM on free ports with a throwaway certificate.
+ * Client threads loop over a mix of full TLS handshakes with one HTTP/1.1
+ * request, HTTP/2 connections carrying several requests, dashboard file
+ * downloads, and connections reset in the middle of the handshake or the
+ * request. Three more threads keep slow work going alongside: a reader that
+ * drains a large file a few KB at a time, WebSocket event viewers (some of
+ * which never read), and silent connections the servers are expected to time
+ * out.
+ *
+ * Every sample interval the harness forces a GC and records heap in use, live
+ * threads, open file descriptors and request latency percentiles. After a
+ * warm-up fifth of the run a least-squares line is fitted to each series, and
+ * the run fails if the growth it predicts over the measured time is above the
+ * threshold. After the run both servers are stopped and threads and file
+ * descriptors must return to where they were before the servers started.
+ * Server log output goes to SOAK_SERVER_LOG so the console keeps the samples.
+ *
+ * Usage: java SoakTest [minutes] [client-threads] [sample-seconds]
+ * Exit status: 0 passed, 1 a check failed, 2 the harness could not run.
+ */
+public class SoakTest {
+    private static final double MAX_HEAP_GROWTH_MB = System.getenv("SOAK_MAX_HEAP_GROWTH_MB") != null ?
+        Double.parseDouble(System.getenv("SOAK_MAX_HEAP_GROWTH_MB")) : 32;
+    private static final double MAX_THREAD_GROWTH = System.getenv("SOAK_MAX_THREAD_GROWTH") != null ?
+        Double.parseDouble(System.getenv("SOAK_MAX_THREAD_GROWTH")) : 4;
+    private static final double MAX_FD_GROWTH = System.getenv("SOAK_MAX_FD_GROWTH") != null ?
+        Double.parseDouble(System.getenv("SOAK_MAX_FD_GROWTH")) : 16;
+    private static final double MAX_P99_GROWTH_MS = System.getenv("SOAK_MAX_P99_GROWTH_MS") != null ?
+        Double.parseDouble(System.getenv("SOAK_MAX_P99_GROWTH_MS")) : 50;
+    private static final double MAX_ERROR_RATE = System.getenv("SOAK_MAX_ERROR_RATE") != null ?
+        Double.parseDouble(System.getenv("SOAK_MAX_ERROR_RATE")) : 0.001;
+    private static final String SERVER_LOG = System.getenv("SOAK_SERVER_LOG") != null ?
+        System.getenv("SOAK_SERVER_LOG") : "soak-servers.log";
+
+    private static final int KEEP_ALIVE_REQUESTS = 10;
+    private static final int SMALL_FILE_BYTES = 16 * 1024;
+    private static final int LARGE_FILE_BYTES = 1024 * 1024;
+    private static final int SLOW_READ_BYTES = 8 * 1024;
+    private static final long SLOW_READ_PAUSE_MILLIS = 10;
+    private static final long VIEWER_MILLIS = 5000;
+    private static final int SOCKET_TIMEOUT = 30000;
+    // The proxy drops a connection that sends no request head within 10 s; the dashboards must too
+    private static final long IDLE_LIMIT_MILLIS = 25000;
+    private static final long STOP_WAIT_MILLIS = 15000;
+    private static final int CLIENT_SESSION_CACHE = 64;
+
+    private static final byte[] H2_PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int FRAME_DATA = 0x0;
+    private static final int FRAME_HEADERS = 0x1;
+    private static final int FRAME_RST_STREAM = 0x3;
+    private static final int FRAME_SETTINGS = 0x4;
+    private static final int FRAME_PING = 0x6;
+    private static final int FRAME_GOAWAY = 0x7;
+    private static final int FRAME_WINDOW_UPDATE = 0x8;
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+
+    /**
+     * One sample interval
+     */
+    static class Sample {
+        double seconds;
+        long operations;
+        long errors;
+        double p50Millis;
+        double p99Millis;
+        double heapMegabytes;
+        int threads;
+        long fileDescriptors;
+    }
+
+    /**
+     * One dashboard under load; tls is null for plain HTTP
+     */
+    private static final class Dashboard {
+        final DashboardServer server;
+        final SSLSocketFactory tls;
+        final Thread thread;
+
+        Dashboard(DashboardServer server, SSLSocketFactory tls, Thread thread) {
+            this.server = server;
+            this.tls = tls;
+            this.thread = thread;
+        }
+    }
+
+    private final long durationMillis;
+    private final int clientThreads;
+    private final long sampleMillis;
+    private final PrintStream console;
+    private final SSLSocketFactory clientFactory;
+    private final SSLContext serverContext;
+    private final File documentRoot;
+    private SecureSSLProxy proxy;
+    private Thread proxyThread;
+    private final List<Dashboard> dashboards = new ArrayList<>();
+    private volatile boolean running = true;
+    private volatile ProxyMetrics.Histogram latency = new ProxyMetrics.Histogram();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong idleNotClosed = new AtomicLong();
+    private final AtomicLong idleClosed = new AtomicLong();
+    private final Map<String, AtomicLong> errorKinds = Collections.synchronizedMap(new TreeMap<>());
+    private final List<String> failures = new ArrayList<>();
+
+    SoakTest(long durationMillis, int clientThreads, long sampleMillis, PrintStream console) throws Exception {
+        this.durationMillis = durationMillis;
+        this.clientThreads = clientThreads;
+        this.sampleMillis = sampleMillis;
+        this.console = console;
+        KeyPair keyPair = ProxyBenchmark.KeyType.EC_P256.generate();
+        X509Certificate certificate = new CertificateBuilder()
+            .subject("CN=localhost, O=SecureSSLProxy Soak Test")
+            .dnsName("localhost")
+            .validDays(1)
+            .selfSign(keyPair);
+        this.serverContext = ProxyBenchmark.serverContext(keyPair, certificate);
+        SSLContext clientContext = ProxyBenchmark.clientContext(certificate);
+        // The client side is not under test; a small session cache keeps it out of the heap samples
+        clientContext.getClientSessionContext().setSessionCacheSize(CLIENT_SESSION_CACHE);
+        this.clientFactory = clientContext.getSocketFactory();
+        this.documentRoot = Files.createTempDirectory("soak-dashboard").toFile();
+        Random random = new Random(42);
+        byte[] small = new byte[SMALL_FILE_BYTES];
+        random.nextBytes(small);
+        Files.write(new File(documentRoot, "small.bin").toPath(), small);
+        byte[] large = new byte[LARGE_FILE_BYTES];
+        random.nextBytes(large);
+        Files.write(new File(documentRoot, "large.bin").toPath(), large);
+    }
+
+    /**
+     * Run the soak; returns the failed checks, empty if it passed
+     */
+    public List<String> run() throws Exception {
+        System.gc();
+        int baselineThreads = liveThreads();
+        long baselineFileDescriptors = openFileDescriptors();
+        startServers();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clientThreads; i++) {
+            threads.add(startClient("soak-client-" + (i + 1), this::fastOperation));
+        }
+        threads.add(startClient("soak-slow-reader", this::slowReader));
+        threads.add(startClient("soak-event-viewer", this::eventViewer));
+        threads.add(startClient("soak-idle", this::idleConnection));
+
+        List<Sample> samples = new ArrayList<>();
+        console.printf("%8s %9s %7s %9s %9s %9s %8s %6s%n",
+            "elapsed", "ops/s", "errors", "p50 ms", "p99 ms", "heap MB", "threads", "fds");
+        long start = System.nanoTime();
+        long end = start + durationMillis * 1_000_000L;
+        long previousErrors = 0;
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.min(sampleMillis, Math.max(1, (end - System.nanoTime()) / 1_000_000L)));
+            ProxyMetrics.Histogram interval = latency;
+            latency = new ProxyMetrics.Histogram();
+            long totalErrors = errors.get();
+
+            Sample sample = new Sample();
+            sample.seconds = (System.nanoTime() - start) / 1e9;
+            sample.operations = interval.getCount();
+            sample.errors = totalErrors - previousErrors;
+            sample.p50Millis = interval.percentile(0.50) / 1e6;
+            sample.p99Millis = interval.percentile(0.99) / 1e6;
+            sample.heapMegabytes = heapAfterGc() / (1024.0 * 1024.0);
+            sample.threads = liveThreads();
+            sample.fileDescriptors = openFileDescriptors();
+            previousErrors = totalErrors;
+            samples.add(sample);
+            console.printf("%7.0fs %9.1f %7d %9.2f %9.2f %9.1f %8d %6d%n", sample.seconds,
+                sample.operations / (sampleMillis / 1000.0), sample.errors, sample.p50Millis, sample.p99Millis,
+                sample.heapMegabytes, sample.threads, sample.fileDescriptors);
+        }
+
+        running = false;
+        for (Thread thread : threads) {
+            thread.join(IDLE_LIMIT_MILLIS + SOCKET_TIMEOUT);
+        }
+        checkTrends(samples);
+        checkErrors(samples);
+        stopServers();
+        checkShutdown(baselineThreads, baselineFileDescriptors);
+        deleteDocumentRoot();
+        return failures;
+    }
+
+    private void startServers() throws Exception {
+        proxy = new SecureSSLProxy(serverContext, 0);
+        proxy.setVerbose(false);
+        proxyThread = new Thread(() -> {
+            try {
+                proxy.start();
+            } catch (Exception e) {
+                System.err.println("Proxy failed: " + e.getMessage());
+            }
+        }, "soak-proxy");
+        proxyThread.start();
+        while (proxy.getLocalPort() == 0 && proxyThread.isAlive()) {
+            Thread.sleep(10);
+        }
+        // The feed starts just after the listener; 0 if SSL_EVENT_PORT is off or taken
+        long feedDeadline = System.currentTimeMillis() + 2000;
+        while (proxy.getEventFeedPort() == 0 && System.currentTimeMillis() < feedDeadline) {
+            Thread.sleep(10);
+        }
+
+        for (SSLContext context : new SSLContext[]{null, serverContext}) {
+            DashboardServer server = new DashboardServer(0, context, documentRoot.getPath());
+            server.setVerbose(false);
+            if (proxy.getEventFeedPort() != 0) {
+                server.followProxyEvents("127.0.0.1:" + proxy.getEventFeedPort());
+            }
+            Thread thread = new Thread(() -> {
+                try {
+                    server.start();
+                } catch (IOException e) {
+                    System.err.println("Dashboard failed: " + e.getMessage());
+                }
+            }, "soak-dashboard-" + (context != null ? "https" : "http"));
+            thread.start();
+            while (server.getLocalPort() == 0 && thread.isAlive()) {
+                Thread.sleep(10);
+            }
+            dashboards.add(new Dashboard(server, context != null ? clientFactory : null, thread));
+        }
+        console.println("Proxy on port " + proxy.getLocalPort() + ", dashboards on ports " +
+            dashboards.get(0).server.getLocalPort() + " (HTTP) and " + dashboards.get(1).server.getLocalPort() +
+            " (HTTPS)" + (proxy.getEventFeedPort() != 0 ? ", event feed on " + proxy.getEventFeedPort()
+            : ", event feed off (event viewers skipped)"));
+    }
+
+    private void stopServers() throws InterruptedException {
+        proxy.stop();
+        for (Dashboard dashboard : dashboards) {
+            dashboard.server.stop();
+        }
+        proxyThread.join(STOP_WAIT_MILLIS);
+        for (Dashboard dashboard : dashboards) {
+            dashboard.thread.join(STOP_WAIT_MILLIS);
+        }
+    }
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    private Thread startClient(String name, Operation operation) {
+        Thread thread = new Thread(() -> {
+            while (running) {
+                try {
+                    operation.run();
+                } catch (Exception e) {
+                    error(e.getClass().getSimpleName() + " in " + Thread.currentThread().getName().replaceAll("-[0-9]+$", ""));
+                }
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private void error(String kind) {
+        errors.incrementAndGet();
+        errorKinds.computeIfAbsent(kind, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * One short operation from the weighted mix; request latencies are recorded, resets are not
+     */
+    private void fastOperation() throws Exception {
+        int pick = ThreadLocalRandom.current().nextInt(100);
+        if (pick < 35) {
+            proxyRequest();
+        } else if (pick < 55) {
+            proxyKeepAlive();
+        } else if (pick < 85) {
+            dashboardGet(randomDashboard());
+        } else {
+            abortedConnection(pick);
+        }
+    }
+
+    private Dashboard randomDashboard() {
+        return dashboards.get(ThreadLocalRandom.current().nextInt(dashboards.size()));
+    }
+
+    /**
+     * New TLS connection, one HTTP/1.1 request; every other one without session resumption
+     */
+    private void proxyRequest() throws IOException {
+        long start = System.nanoTime();
+        try (SSLSocket socket = proxySocket("http/1.1")) {
+            socket.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.ISO_8859_1);
+            if (ThreadLocalRandom.current().nextBoolean()) {
+                socket.getSession().invalidate();
+            }
+            if (!response.startsWith("HTTP/1.1 200 ")) {
+                error("proxy HTTP/1.1 status " + statusLine(response));
+                return;
+            }
+        }
+        latency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * One HTTP/2 connection carrying several requests in turn, each timed on its own
+     */
+    private void proxyKeepAlive() throws IOException {
+        try (SSLSocket socket = proxySocket("h2")) {
+            if (!"h2".equals(socket.getApplicationProtocol())) {
+                error("proxy ALPN did not select h2");
+                return;
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            out.write(H2_PREFACE);
+            writeFrame(out, FRAME_SETTINGS, 0, 0, new byte[0]);
+            Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, 65536);
+            for (int i = 0; i < KEEP_ALIVE_REQUESTS; i++) {
+                int stream = 2 * i + 1;
+                ByteArrayOutputStream block = new ByteArrayOutputStream();
+                Hpack.encode(block, ":method", "GET");
+                Hpack.encode(block, ":scheme", "https");
+                Hpack.encode(block, ":path", "/");
+                Hpack.encode(block, ":authority", "localhost");
+                long start = System.nanoTime();
+                writeFrame(out, FRAME_HEADERS, FLAG_END_STREAM | FLAG_END_HEADERS, stream, block.toByteArray());
+                String status = readHttp2Response(in, out, decoder, stream);
+                if (!"200".equals(status)) {
+                    error("proxy HTTP/2 status " + status);
+                    return;
+                }
+                latency.record(System.nanoTime() - start);
+            }
+            writeFrame(out, FRAME_GOAWAY, 0, 0, new byte[8]);
+        }
+    }
+
+    /**
+     * Read frames until stream ends, answering SETTINGS and PING and handing back receive window; returns its :status
+     */
+    private static String readHttp2Response(DataInputStream in, OutputStream out, Hpack.Decoder decoder, int stream)
+            throws IOException {
+        String status = null;
+        while (true) {
+            int length = in.readUnsignedByte() << 16 | in.readUnsignedShort();
+            int type = in.readUnsignedByte();
+            int flags = in.readUnsignedByte();
+            int id = in.readInt() & 0x7fffffff;
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            if (type == FRAME_SETTINGS && (flags & FLAG_ACK) == 0) {
+                writeFrame(out, FRAME_SETTINGS, FLAG_ACK, 0, new byte[0]);
+            } else if (type == FRAME_PING && (flags & FLAG_ACK) == 0) {
+                writeFrame(out, FRAME_PING, FLAG_ACK, 0, payload);
+            } else if (type == FRAME_GOAWAY || (type == FRAME_RST_STREAM && id == stream)) {
+                throw new IOException("HTTP/2 stream " + stream + " ended by frame type " + type);
+            } else if (type == FRAME_HEADERS && id == stream) {
+                for (String[] header : decoder.decode(payload, length)) {
+                    if (header[0].equals(":status")) {
+                        status = header[1];
+                    }
+                }
+            } else if (type == FRAME_DATA && id == stream && length > 0) {
+                // Hand the bytes back so the connection window never runs dry over many requests
+                byte[] increment = {(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length};
+                writeFrame(out, FRAME_WINDOW_UPDATE, 0, 0, increment);
+                if ((flags & FLAG_END_STREAM) == 0) {
+                    writeFrame(out, FRAME_WINDOW_UPDATE, 0, stream, increment);
+                }
+            }
+            if (id == stream && (type == FRAME_DATA || type == FRAME_HEADERS) && (flags & FLAG_END_STREAM) != 0) {
+                return status;
+            }
+        }
+    }
+
+    private static void writeFrame(OutputStream out, int type, int flags, int stream, byte[] payload) throws IOException {
+        out.write(new byte[]{(byte) (payload.length >>> 16), (byte) (payload.length >>> 8), (byte) payload.length,
+            (byte) type, (byte) flags, (byte) (stream >>> 24), (byte) (stream >>> 16), (byte) (stream >>> 8), (byte) stream});
+        out.write(payload);
+        out.flush();
+    }
+
+    private void dashboardGet(Dashboard dashboard) throws IOException {
+        long start = System.nanoTime();
+        try (Socket socket = dashboardSocket(dashboard)) {
+            socket.getOutputStream().write(("GET /small.bin HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+            byte[] response = socket.getInputStream().readAllBytes();
+            String head = new String(response, 0, Math.min(response.length, 64), StandardCharsets.ISO_8859_1);
+            if (!head.startsWith("HTTP/1.1 200 ") || response.length < SMALL_FILE_BYTES) {
+                error("dashboard response " + statusLine(head) + ", " + response.length + " bytes");
+                return;
+            }
+        }
+        latency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Reset a connection part way through: during the proxy's handshake, after it inside the request
+     * head, in the dashboard's request line, or in the middle of a dashboard download
+     */
+    private void abortedConnection(int pick) throws IOException {
+        switch (pick % 4) {
+            case 0:
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress("127.0.0.1", proxy.getLocalPort()), SOCKET_TIMEOUT);
+                    // The first bytes of a TLS 1.2 ClientHello record
+                    socket.getOutputStream().write(new byte[]{0x16, 0x03, 0x01, 0x02, 0x00, 0x01, 0x00});
+                    reset(socket);
+                }
+                break;
+            case 1:
+                try (SSLSocket socket = proxySocket("http/1.1")) {
+                    socket.getOutputStream().write("GET / HTTP/1.1\r\nHo".getBytes(StandardCharsets.US_ASCII));
+                    reset(socket);
+                }
+                break;
+            case 2:
+                try (Socket socket = dashboardSocket(randomDashboard())) {
+                    socket.getOutputStream().write("GET /sma".getBytes(StandardCharsets.US_ASCII));
+                    reset(socket);
+                }
+                break;
+            default:
+                try (Socket socket = dashboardSocket(randomDashboard())) {
+                    socket.getOutputStream().write("GET /large.bin HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII));
+                    socket.getInputStream().read(new byte[SLOW_READ_BYTES]);
+                    reset(socket);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Close with a TCP reset instead of a FIN, like a client that crashed or lost its network
+     */
+    private static void reset(Socket socket) throws IOException {
+        socket.setSoLinger(true, 0);
+        socket.close();
+    }
+
+    /**
+     * Download the large file a few KB at a time
+     */
+    private void slowReader() throws Exception {
+        try (Socket socket = dashboardSocket(randomDashboard())) {
+            socket.setReceiveBufferSize(SLOW_READ_BYTES);
+            socket.getOutputStream().write("GET /large.bin HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                .getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[SLOW_READ_BYTES];
+            long received = 0;
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                received += n;
+                Thread.sleep(SLOW_READ_PAUSE_MILLIS);
+            }
+            if (received < LARGE_FILE_BYTES) {
+                error("slow reader got " + received + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Watch the live event stream for a while; every other viewer never reads what it is sent
+     */
+    private void eventViewer() throws Exception {
+        if (proxy.getEventFeedPort() == 0) {
+            Thread.sleep(VIEWER_MILLIS);
+            return;
+        }
+        boolean reading = ThreadLocalRandom.current().nextBoolean();
+        try (Socket socket = dashboardSocket(randomDashboard())) {
+            byte[] key = new byte[16];
+            ThreadLocalRandom.current().nextBytes(key);
+            socket.getOutputStream().write(("GET /events HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\n" +
+                "Connection: Upgrade\r\nSec-WebSocket-Version: 13\r\nSec-WebSocket-Key: " +
+                Base64.getEncoder().encodeToString(key) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+            byte[] head = new byte[12];
+            int n = in.read(head);
+            if (n < head.length || !new String(head, StandardCharsets.ISO_8859_1).startsWith("HTTP/1.1 101")) {
+                error("event stream not upgraded: " + (n > 0 ? statusLine(new String(head, 0, n, StandardCharsets.ISO_8859_1)) : "closed"));
+                return;
+            }
+            long end = System.currentTimeMillis() + VIEWER_MILLIS;
+            byte[] buffer = new byte[SLOW_READ_BYTES];
+            while (System.currentTimeMillis() < end) {
+                if (reading) {
+                    socket.setSoTimeout((int) Math.max(1, end - System.currentTimeMillis()));
+                    try {
+                        if (in.read(buffer) < 0) {
+                            error("event stream closed early");
+                            return;
+                        }
+                    } catch (SocketTimeoutException e) {
+                        // Quiet period
+                    }
+                } else {
+                    Thread.sleep(end - System.currentTimeMillis());
+                }
+            }
+        }
+    }
+
+    /**
+     * Open a connection and send nothing; the server must close it well before IDLE_LIMIT_MILLIS
+     */
+    private void idleConnection() throws Exception {
+        boolean toProxy = ThreadLocalRandom.current().nextBoolean();
+        Dashboard dashboard = randomDashboard();
+        try (Socket socket = toProxy ? proxySocket("http/1.1") : dashboardSocket(dashboard)) {
+            socket.setSoTimeout((int) IDLE_LIMIT_MILLIS);
+            try {
+                while (socket.getInputStream().read() >= 0) {
+                    // Nothing is expected before the close
+                }
+                idleClosed.incrementAndGet();
+            } catch (SocketTimeoutException e) {
+                idleNotClosed.incrementAndGet();
+                errorKinds.computeIfAbsent("idle connection to " + (toProxy ? "proxy" : dashboard.tls != null ?
+                    "HTTPS dashboard" : "HTTP dashboard") + " still open after " + IDLE_LIMIT_MILLIS / 1000 + " s",
+                    k -> new AtomicLong()).incrementAndGet();
+            } catch (IOException e) {
+                // Closed by the server
+                idleClosed.incrementAndGet();
+            }
+        }
+    }
+
+    private SSLSocket proxySocket(String applicationProtocol) throws IOException {
+        SSLSocket socket = (SSLSocket) clientFactory.createSocket("127.0.0.1", proxy.getLocalPort());
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(SOCKET_TIMEOUT);
+        SSLParameters parameters = socket.getSSLParameters();
+        parameters.setApplicationProtocols(new String[]{applicationProtocol});
+        socket.setSSLParameters(parameters);
+        socket.startHandshake();
+        return socket;
+    }
+
+    private Socket dashboardSocket(Dashboard dashboard) throws IOException {
+        Socket socket = dashboard.tls != null ? dashboard.tls.createSocket("127.0.0.1", dashboard.server.getLocalPort())
+            : new Socket("127.0.0.1", dashboard.server.getLocalPort());
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(SOCKET_TIMEOUT);
+        return socket;
+    }
+
+    private static String statusLine(String response) {
+        int end = response.indexOf('\r');
+        return end >= 0 ? response.substring(0, end) : response.isEmpty() ? "(empty)" : response;
+    }
+
+    /**
+     * Fit a line to every series after the warm-up fifth and fail on the growth it predicts
+     */
+    private void checkTrends(List<Sample> samples) {
+        List<Sample> measured = samples.subList(samples.size() / 5, samples.size());
+        if (measured.size() < 4) {
+            failures.add("Only " + measured.size() + " samples after warm-up; run longer or sample more often");
+            return;
+        }
+        console.println();
+        console.printf("Growth over the last %.0f s (least-squares fit):%n",
+            measured.get(measured.size() - 1).seconds - measured.get(0).seconds);
+        checkGrowth(measured, "heap after GC (MB)", sample -> sample.heapMegabytes, MAX_HEAP_GROWTH_MB);
+        checkGrowth(measured, "live threads", sample -> sample.threads, MAX_THREAD_GROWTH);
+        if (measured.get(0).fileDescriptors >= 0) {
+            checkGrowth(measured, "open file descriptors", sample -> sample.fileDescriptors, MAX_FD_GROWTH);
+        }
+        checkGrowth(measured, "p99 latency (ms)", sample -> sample.p99Millis, MAX_P99_GROWTH_MS);
+    }
+
+    private void checkGrowth(List<Sample> samples, String name, ToDoubleFunction<Sample> series, double limit) {
+        double growth = growth(samples, series);
+        boolean ok = growth <= limit;
+        console.printf("  %-24s %+10.2f  (limit %.2f) %s%n", name, growth, limit, ok ? "ok" : "FAIL");
+        if (!ok) {
+            failures.add(String.format("%s grew by %.2f over the run (limit %.2f)", name, growth, limit));
+        }
+    }
+
+    /**
+     * Least-squares slope times the time covered: how much the series rises from first to last sample
+     */
+    static double growth(List<Sample> samples, ToDoubleFunction<Sample> series) {
+        double meanTime = 0;
+        double meanValue = 0;
+        for (Sample sample : samples) {
+            meanTime += sample.seconds;
+            meanValue += series.applyAsDouble(sample);
+        }
+        meanTime /= samples.size();
+        meanValue /= samples.size();
+        double covariance = 0;
+        double variance = 0;
+        for (Sample sample : samples) {
+            covariance += (sample.seconds - meanTime) * (series.applyAsDouble(sample) - meanValue);
+            variance += (sample.seconds - meanTime) * (sample.seconds - meanTime);
+        }
+        double span = samples.get(samples.size() - 1).seconds - samples.get(0).seconds;
+        return variance > 0 ? covariance / variance * span : 0;
+    }
+
+    private void checkErrors(List<Sample> samples) {
+        long operations = 0;
+        long errorCount = 0;
+        for (Sample sample : samples) {
+            operations += sample.operations;
+            errorCount += sample.errors;
+        }
+        double rate = operations > 0 ? (double) errorCount / operations : errorCount > 0 ? 1 : 0;
+        boolean ok = rate <= MAX_ERROR_RATE;
+        console.printf("  %-24s %10d  (%.4f%% of %d requests, limit %.4f%%) %s%n", "errors", errorCount,
+            rate * 100, operations, MAX_ERROR_RATE * 100, ok ? "ok" : "FAIL");
+        synchronized (errorKinds) {
+            for (Map.Entry<String, AtomicLong> kind : errorKinds.entrySet()) {
+                console.printf("    %6d  %s%n", kind.getValue().get(), kind.getKey());
+            }
+        }
+        if (!ok) {
+            failures.add(String.format("%d errors in %d requests (limit %.4f%%)", errorCount, operations, MAX_ERROR_RATE * 100));
+        }
+        // One is enough: a server that never times out silent clients runs out of workers eventually
+        console.printf("  %-24s %10d  (%d closed by the server) %s%n", "idle connections kept", idleNotClosed.get(),
+            idleClosed.get(), idleNotClosed.get() == 0 ? "ok" : "FAIL");
+        if (idleNotClosed.get() > 0) {
+            failures.add(idleNotClosed.get() + " silent connections were still open after " + IDLE_LIMIT_MILLIS / 1000 + " s");
+        }
+    }
+
+    /**
+     * After stop() the servers' threads and sockets must be gone again
+     */
+    private void checkShutdown(int baselineThreads, long baselineFileDescriptors) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + STOP_WAIT_MILLIS;
+        int threads;
+        long fileDescriptors;
+        while (true) {
+            heapAfterGc();
+            threads = liveThreads();
+            fileDescriptors = openFileDescriptors();
+            boolean settled = threads - baselineThreads <= MAX_THREAD_GROWTH &&
+                fileDescriptors - baselineFileDescriptors <= MAX_FD_GROWTH;
+            if (settled || System.currentTimeMillis() > deadline) {
+                break;
+            }
+            Thread.sleep(500);
+        }
+        console.println();
+        console.printf("After stop: %d threads (%d before start), %d file descriptors (%d before start)%n",
+            threads, baselineThreads, fileDescriptors, baselineFileDescriptors);
+        if (threads - baselineThreads > MAX_THREAD_GROWTH) {
+            List<String> names = new ArrayList<>();
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                names.add(thread.getName());
+            }
+            Collections.sort(names);
+            console.println("  Live threads: " + String.join(", ", names));
+            failures.add((threads - baselineThreads) + " threads still running after stop");
+        }
+        if (baselineFileDescriptors >= 0 && fileDescriptors - baselineFileDescriptors > MAX_FD_GROWTH) {
+            failures.add((fileDescriptors - baselineFileDescriptors) + " file descriptors still open after stop");
+        }
+    }
+
+    private void deleteDocumentRoot() {
+        File[] files = documentRoot.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        documentRoot.delete();
+    }
+
+    static long heapAfterGc() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static int liveThreads() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+
+    /**
+     * Open file descriptors of this process, -1 where the platform does not report them
+     */
+    static long openFileDescriptors() {
+        java.lang.management.OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            return ((com.sun.management.UnixOperatingSystemMXBean) bean).getOpenFileDescriptorCount();
+        }
+        return -1;
+    }
+
+    public static void main(String[] args) {
+        PrintStream console = System.out;
+        try {
+            double minutes = args.length > 0 ? Double.parseDouble(args[0]) : 60;
+            int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+            double sampleSeconds = args.length > 2 ? Double.parseDouble(args[2]) : 30;
+
+            console.println("=== SecureSSLProxy / DashboardServer Soak Test ===");
+            console.println(minutes + " min, " + threads + " client threads, sample every " + sampleSeconds +
+                " s; server log in " + SERVER_LOG + "\n");
+            SoakTest soak = new SoakTest((long) (minutes * 60_000), threads, (long) (sampleSeconds * 1000), console);
+            List<String> failures;
+            try (PrintStream serverLog = new PrintStream(new FileOutputStream(SERVER_LOG), true, "UTF-8")) {
+                System.setOut(serverLog);
+                failures = soak.run();
+            } finally {
+                System.setOut(console);
+            }
+
+            console.println();
+            if (failures.isEmpty()) {
+                console.println("PASSED");
+                System.exit(0);
+            }
+            console.println("FAILED");
+            for (String failure : failures) {
+                console.println("  " + failure);
+            }
+            System.exit(1);
+
+        } catch (Exception e) {
+            System.err.println("Soak test failed to run: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.*;
+
+/**
+ * Startup phases as spans on one clock whose zero is the JVM's process start,
+ * so the time before main() (JVM boot, class loading) shows up too. Spans can
+ * come from several threads and overlap; the report lists them in start order
+ * with the thread that ran each one.
+ */
+final class StartupTimeline {
+    private static final class Span {
+        final String phase;
+        final String thread;
+        final long startNanos;
+        final long endNanos;
+
+        Span(String phase, String thread, long startNanos, long endNanos) {
+            this.phase = phase;
+            this.thread = thread;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+        }
+    }
+
+    // System.nanoTime() value at process start
+    private final long originNanos;
+    private final List<Span> spans = new ArrayList<>();
+
+    StartupTimeline() {
+        long now = System.nanoTime();
+        long processStart = ProcessHandle.current().info().startInstant()
+            .map(instant -> instant.toEpochMilli()).orElse(System.currentTimeMillis());
+        this.originNanos = now - Math.max(0, System.currentTimeMillis() - processStart) * 1_000_000L;
+        spans.add(new Span("jvm", Thread.currentThread().getName(), originNanos, now));
+    }
+
+    /**
+     * Start of a span, to pass to end()
+     */
+    long begin() {
+        return System.nanoTime();
+    }
+
+    void end(String phase, long beginNanos) {
+        Span span = new Span(phase, Thread.currentThread().getName(), beginNanos, System.nanoTime());
+        synchronized (this) {
+            spans.add(span);
+        }
+    }
+
+    /**
+     * A point in time, recorded as a span from process start
+     */
+    void mark(String phase) {
+        end(phase, originNanos);
+    }
+
+    void registerMetrics(ProxyMetrics metrics) {
+        metrics.gauge("startup.total_millis", () -> millisSinceStart("listening"));
+        metrics.gauge("startup.first_request_millis", () -> millisSinceStart("first_request"));
+    }
+
+    /**
+     * End of the first span for phase in ms since process start, or 0 if it has not been recorded
+     */
+    synchronized long millisSinceStart(String phase) {
+        for (Span span : spans) {
+            if (span.phase.equals(phase)) {
+                return (span.endNanos - originNanos) / 1_000_000;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * One line per span: start and end in ms since process start, duration, phase and thread
+     */
+    synchronized List<String> report() {
+        List<Span> ordered = new ArrayList<>(spans);
+        ordered.sort(Comparator.comparingLong((Span span) -> span.startNanos).thenComparingLong(span -> span.endNanos));
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("%7s %7s %7s  %-20s %s", "start", "end", "ms", "phase", "thread"));
+        for (Span span : ordered) {
+            lines.add(String.format("%7.1f %7.1f %7.1f  %-20s %s",
+                (span.startNanos - originNanos) / 1e6, (span.endNanos - originNanos) / 1e6,
+                (span.endNanos - span.startNanos) / 1e6, span.phase, span.thread));
+        }
+        return lines;
+    }
+}
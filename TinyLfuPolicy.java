@@ -0,0 +1,246 @@
+import java.util.*;
+
+/**
+ * Size-weighted W-TinyLFU admission and eviction.
+ *
+ * New entries go into a small LRU window (1% of capacity). Entries pushed out
+ * of the window compete for the main space, a segmented LRU of probation (20%)
+ * and protected (80%). A candidate only displaces the probation victim if a
+ * count-min sketch says it was requested more often recently. The sketch sees
+ * every lookup, hits and misses alike, and halves all counters periodically
+ * so old popularity fades. One-hit wonders therefore never push out a hot
+ * working set, while new popular keys still get in.
+ *
+ * Not thread-safe; callers synchronize.
+ */
+final class TinyLfuPolicy<K> {
+    private static final double WINDOW_SHARE = 0.01;
+    private static final double PROTECTED_SHARE = 0.80;
+
+    private final long capacity;
+    private final long windowCapacity;
+    private final long protectedCapacity;
+    private final FrequencySketch sketch;
+    // Iteration order is LRU first; re-inserting moves a key to the MRU end
+    private final LinkedHashMap<K, Long> window = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Long> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Long> protectedSegment = new LinkedHashMap<>();
+    private long windowSize = 0;
+    private long probationSize = 0;
+    private long protectedSize = 0;
+
+    /**
+     * Policy for capacity units of weight; expectedEntries sizes the frequency sketch
+     */
+    TinyLfuPolicy(long capacity, int expectedEntries) {
+        this.capacity = capacity;
+        this.windowCapacity = Math.max(1, (long) (capacity * WINDOW_SHARE));
+        this.protectedCapacity = (long) ((capacity - windowCapacity) * PROTECTED_SHARE);
+        this.sketch = new FrequencySketch(expectedEntries);
+    }
+
+    /**
+     * Count a request for key; a resident key also moves up its segment
+     */
+    void recordAccess(K key) {
+        sketch.increment(key);
+        Long weight = window.remove(key);
+        if (weight != null) {
+            window.put(key, weight);
+            return;
+        }
+        weight = probation.remove(key);
+        if (weight != null) {
+            probationSize -= weight;
+            protectedSegment.put(key, weight);
+            protectedSize += weight;
+            // Demote the least recently used protected entries back to probation
+            while (protectedSize > protectedCapacity && protectedSegment.size() > 1) {
+                Map.Entry<K, Long> eldest = protectedSegment.entrySet().iterator().next();
+                protectedSegment.remove(eldest.getKey());
+                protectedSize -= eldest.getValue();
+                probation.put(eldest.getKey(), eldest.getValue());
+                probationSize += eldest.getValue();
+            }
+            return;
+        }
+        weight = protectedSegment.remove(key);
+        if (weight != null) {
+            protectedSegment.put(key, weight);
+        }
+    }
+
+    boolean contains(K key) {
+        return window.containsKey(key) || probation.containsKey(key) || protectedSegment.containsKey(key);
+    }
+
+    /**
+     * Add key with the given weight; returns the keys evicted to make room, which
+     * includes key itself when it is too heavy or loses admission
+     */
+    List<K> add(K key, long weight) {
+        List<K> evicted = new ArrayList<>();
+        remove(key);
+        if (weight > capacity - windowCapacity) {
+            evicted.add(key);
+            return evicted;
+        }
+        window.put(key, weight);
+        windowSize += weight;
+
+        while (windowSize > windowCapacity && !window.isEmpty()) {
+            Map.Entry<K, Long> eldest = window.entrySet().iterator().next();
+            K candidate = eldest.getKey();
+            long candidateWeight = eldest.getValue();
+            window.remove(candidate);
+            windowSize -= candidateWeight;
+            if (admit(candidate, candidateWeight, evicted)) {
+                probation.put(candidate, candidateWeight);
+                probationSize += candidateWeight;
+            } else {
+                evicted.add(candidate);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Make room in the main space for candidate if it beats, on frequency, every victim that
+     * would have to go. Victims are only evicted once the whole set is known to make room.
+     */
+    private boolean admit(K candidate, long weight, List<K> evicted) {
+        long excess = probationSize + protectedSize + weight - (capacity - windowCapacity);
+        if (excess <= 0) {
+            return true;
+        }
+        int candidateFrequency = sketch.frequency(candidate);
+        List<K> fromProbation = new ArrayList<>();
+        List<K> fromProtected = new ArrayList<>();
+        long freed = 0;
+        for (LinkedHashMap<K, Long> segment : Arrays.asList(probation, protectedSegment)) {
+            for (Map.Entry<K, Long> victim : segment.entrySet()) {
+                if (freed >= excess) {
+                    break;
+                }
+                if (candidateFrequency <= sketch.frequency(victim.getKey())) {
+                    return false;
+                }
+                (segment == probation ? fromProbation : fromProtected).add(victim.getKey());
+                freed += victim.getValue();
+            }
+        }
+        if (freed < excess) {
+            return false;
+        }
+        for (K victim : fromProbation) {
+            probationSize -= probation.remove(victim);
+            evicted.add(victim);
+        }
+        for (K victim : fromProtected) {
+            protectedSize -= protectedSegment.remove(victim);
+            evicted.add(victim);
+        }
+        return true;
+    }
+
+    void remove(K key) {
+        Long weight = window.remove(key);
+        if (weight != null) {
+            windowSize -= weight;
+            return;
+        }
+        weight = probation.remove(key);
+        if (weight != null) {
+            probationSize -= weight;
+            return;
+        }
+        weight = protectedSegment.remove(key);
+        if (weight != null) {
+            protectedSize -= weight;
+        }
+    }
+
+    long weightedSize() {
+        return windowSize + probationSize + protectedSize;
+    }
+
+    int size() {
+        return window.size() + probation.size() + protectedSegment.size();
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters (16 per long, 4 rows), halved after every
+     * 10 x width increments so the counts track recent popularity
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {
+            0x97cb3127c9b43d2bL, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions = 0;
+
+        FrequencySketch(int expectedEntries) {
+            int width = Integer.highestOneBit(Math.max(64, Math.min(expectedEntries, 1 << 24)) - 1) << 1;
+            this.table = new long[width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * width;
+        }
+
+        int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int frequency = Integer.MAX_VALUE;
+            for (int row = 0; row < 4; row++) {
+                int index = indexOf(hash, row);
+                int shift = counterShift(hash, row);
+                frequency = Math.min(frequency, (int) ((table[index] >>> shift) & 0xf));
+            }
+            return frequency;
+        }
+
+        void increment(Object key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                int index = indexOf(hash, row);
+                int shift = counterShift(hash, row);
+                if (((table[index] >>> shift) & 0xf) < 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        /**
+         * Halve every counter: shift each long right and clear the bit that crossed into the next nibble
+         */
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+            }
+            additions /= 2;
+        }
+
+        private int indexOf(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return (int) h & mask;
+        }
+
+        private int counterShift(int hash, int row) {
+            // Each row uses a different nibble of the long, chosen by the hash
+            return (((hash >>> (row << 3)) & 3) << 2) + (row << 4);
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import javax.net.ssl.*;
+
+/**
+ * TLS over a blocking SocketChannel using an SSLEngine, with a bulk file path.
+ *
+ * File data is read into a direct buffer and wrapped into full-size records.
+ * Up to recordBatch records are collected in one direct network buffer and
+ * written with a single channel write, instead of one write per record. The
+ * direct buffers are per thread, so they are allocated once per worker rather
+ * than per connection.
+ */
+final class TlsChannel implements Closeable {
+    private static final int MAX_RECORD_PLAINTEXT = 16384;
+
+    private static final class DirectBuffers {
+        ByteBuffer file;
+        ByteBuffer network;
+    }
+
+    private static final ThreadLocal<DirectBuffers> DIRECT_BUFFERS = ThreadLocal.withInitial(DirectBuffers::new);
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final int recordBatch;
+    private final ByteBuffer netIn;
+    private final ByteBuffer appIn;
+    private final ByteBuffer netOut;
+    private boolean inboundClosed = false;
+
+    TlsChannel(SocketChannel channel, SSLEngine engine, int recordBatch) {
+        this.channel = channel;
+        this.engine = engine;
+        this.recordBatch = Math.max(1, recordBatch);
+        SSLSession session = engine.getSession();
+        this.netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+        this.appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+        this.netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+        appIn.flip();
+    }
+
+    void handshake() throws IOException {
+        engine.beginHandshake();
+        ByteBuffer empty = ByteBuffer.allocate(0);
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    break;
+                case NEED_WRAP:
+                    netOut.clear();
+                    SSLEngineResult result = engine.wrap(empty, netOut);
+                    netOut.flip();
+                    writeFully(netOut);
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("Engine closed during handshake");
+                    }
+                    break;
+                case NEED_UNWRAP:
+                case NEED_UNWRAP_AGAIN:
+                    if (unwrap() < 0) {
+                        throw new EOFException("Connection closed during handshake");
+                    }
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Unwrap one record into appIn, reading from the channel as needed; -1 at end of stream
+     */
+    private int unwrap() throws IOException {
+        appIn.compact();
+        try {
+            while (true) {
+                netIn.flip();
+                SSLEngineResult result = engine.unwrap(netIn, appIn);
+                netIn.compact();
+                switch (result.getStatus()) {
+                    case OK:
+                        return result.bytesProduced();
+                    case CLOSED:
+                        inboundClosed = true;
+                        return -1;
+                    case BUFFER_UNDERFLOW:
+                        if (channel.read(netIn) < 0) {
+                            inboundClosed = true;
+                            return -1;
+                        }
+                        break;
+                    default:
+                        throw new SSLException("Unexpected unwrap status: " + result.getStatus());
+                }
+            }
+        } finally {
+            appIn.flip();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    InputStream getInputStream() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                while (!appIn.hasRemaining()) {
+                    if (inboundClosed || unwrap() < 0) {
+                        return -1;
+                    }
+                }
+                int n = Math.min(len, appIn.remaining());
+                appIn.get(b, off, n);
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return appIn.remaining();
+            }
+        };
+    }
+
+    OutputStream getOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                TlsChannel.this.write(ByteBuffer.wrap(b, off, len));
+            }
+        };
+    }
+
+    /**
+     * Encrypt and send application data, one record per wrap
+     */
+    void write(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            netOut.clear();
+            SSLEngineResult result = engine.wrap(source, netOut);
+            if (result.getStatus() != SSLEngineResult.Status.OK) {
+                throw new SSLException("Unexpected wrap status: " + result.getStatus());
+            }
+            netOut.flip();
+            writeFully(netOut);
+        }
+    }
+
+    /**
+     * Send a file region as full-size records, recordBatch records per channel write,
+     * running progress after each write
+     */
+    void sendFile(FileChannel file, long position, long count, Runnable progress) throws IOException {
+        int packetSize = engine.getSession().getPacketBufferSize();
+        DirectBuffers buffers = DIRECT_BUFFERS.get();
+        if (buffers.file == null || buffers.file.capacity() < MAX_RECORD_PLAINTEXT * recordBatch) {
+            buffers.file = ByteBuffer.allocateDirect(MAX_RECORD_PLAINTEXT * recordBatch);
+        }
+        if (buffers.network == null || buffers.network.capacity() < packetSize * recordBatch) {
+            buffers.network = ByteBuffer.allocateDirect(packetSize * recordBatch);
+        }
+        ByteBuffer plain = buffers.file;
+        ByteBuffer network = buffers.network;
+        network.clear().limit(packetSize * recordBatch);
+
+        long end = position + count;
+        while (position < end) {
+            plain.clear().limit((int) Math.min(MAX_RECORD_PLAINTEXT * recordBatch, end - position));
+            while (plain.hasRemaining()) {
+                int n = file.read(plain, position + plain.position());
+                if (n < 0) {
+                    throw new EOFException("File shorter than expected");
+                }
+            }
+            position += plain.limit();
+            plain.flip();
+
+            // Each wrap consumes up to one full record; flush once the batch is collected
+            while (plain.hasRemaining()) {
+                SSLEngineResult result = engine.wrap(plain, network);
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    network.flip();
+                    writeFully(network);
+                    progress.run();
+                    network.clear().limit(packetSize * recordBatch);
+                } else if (result.getStatus() != SSLEngineResult.Status.OK) {
+                    throw new SSLException("Unexpected wrap status: " + result.getStatus());
+                }
+            }
+            network.flip();
+            writeFully(network);
+            progress.run();
+            network.clear().limit(packetSize * recordBatch);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            engine.closeOutbound();
+            netOut.clear();
+            engine.wrap(ByteBuffer.allocate(0), netOut);
+            netOut.flip();
+            writeFully(netOut);
+        } catch (IOException e) {
+            // Peer already gone; nothing to notify
+        } finally {
+            channel.close();
+        }
+    }
+}
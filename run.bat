@@ -21,7 +21,7 @@ if "%1"=="compile" (
 REM Function to clean compiled files
 if "%1"=="clean" (
     echo Cleaning compiled files...
-    del /Q *.class >nul 2>&1
+    del /Q *.class proxy.jar proxy.jsa >nul 2>&1
     echo ✅ Cleaned
     goto :eof
 )
@@ -51,6 +51,24 @@ if "%1"=="secure" (
     goto :eof
 )
 
+REM Function to start the proxy from a class data sharing archive
+if "%1"=="fast" (
+    call :compile_all
+    jar cf proxy.jar *.class
+    if not exist proxy.jsa (
+        echo Training class data sharing archive proxy.jsa...
+        set SSL_ACCESS_LOG=off
+        set SSL_EVENT_PORT=0
+        java -XX:ArchiveClassesAtExit=proxy.jsa -Xlog:cds=off -cp proxy.jar SecureSSLProxy --train
+        set SSL_ACCESS_LOG=
+        set SSL_EVENT_PORT=
+    )
+    echo Starting Secure SSL Proxy on port 8444 from proxy.jsa...
+    echo Press Ctrl+C to stop the server
+    java -XX:SharedArchiveFile=proxy.jsa -cp proxy.jar SecureSSLProxy
+    goto :eof
+)
+
 REM Function to start dashboard server
 if "%1"=="dashboard" (
     call :compile_all
@@ -61,6 +79,16 @@ if "%1"=="dashboard" (
     goto :eof
 )
 
+REM Function to start dashboard server over HTTPS
+if "%1"=="dashboard-https" (
+    call :compile_all
+    echo Starting Dashboard Server over HTTPS on port 8443...
+    echo Open https://localhost:8443 in your browser
+    echo Press Ctrl+C to stop the server
+    java DashboardServer https
+    goto :eof
+)
+
 REM Function to start both services
 if "%1"=="full" (
     call :compile_all
@@ -77,8 +105,50 @@ if "%1"=="full" (
     goto :eof
 )
 
+REM Function to export the proxy access log
+if "%1"=="accesslog" (
+    call :compile_all
+    if "%2"=="" (
+        java AccessLogReader proxy-access.ring csv
+    ) else (
+        java AccessLogReader %2 %3
+    )
+    goto :eof
+)
+
+REM Function to benchmark protocols, cipher suites and key types
+if "%1"=="bench" (
+    call :compile_all
+    set SSL_ACCESS_LOG=off
+    java ProxyBenchmark %2 %3 %4
+    goto :eof
+)
+
+REM Function to benchmark dashboard static files over HTTP and HTTPS
+if "%1"=="dashbench" (
+    call :compile_all
+    java DashboardBenchmark %2 %3
+    goto :eof
+)
+
+REM Function to soak test the proxy and dashboard under mixed load
+if "%1"=="soak" (
+    call :compile_all
+    java SoakTest %2 %3 %4
+    goto :eof
+)
+
+REM Function to run the proxy's protocol checks
+if "%1"=="check" (
+    call :compile_all
+    java ForwardingFramingTest
+    if errorlevel 1 goto :eof
+    java GossipConvergenceTest
+    goto :eof
+)
+
 REM Default help message
-echo Usage: %0 {compile^|clean^|badssl^|enhanced^|secure^|dashboard^|full}
+echo Usage: %0 {compile^|clean^|badssl^|enhanced^|secure^|fast^|dashboard^|dashboard-https^|full^|accesslog^|bench^|dashbench^|soak^|check}
 echo.
 echo Commands:
 echo   compile   - Compile all Java files
@@ -86,8 +156,15 @@ echo   clean     - Remove compiled .class files
 echo   badssl    - Run BadSSL Client Test
 echo   enhanced  - Run Enhanced BadSSL Client Test
 echo   secure    - Start Secure SSL Proxy server
+echo   fast      - Start the proxy from a class data sharing archive, training it first if needed
 echo   dashboard - Start Web Dashboard on port 8080
+echo   dashboard-https - Start Web Dashboard over HTTPS on port 8443
 echo   full      - Start both Dashboard and Secure SSL Proxy
+echo   accesslog - Export the proxy access log: accesslog [file] [csv^|json]
+echo   bench     - TLS performance matrix: bench [seconds] [threads] [key types]
+echo   dashbench - Dashboard HTTP vs HTTPS file serving: dashbench [seconds] [sizes in KB]
+echo   soak      - Leak and latency soak test: soak [minutes] [threads] [sample seconds]
+echo   check     - Request smuggling and other protocol checks against a loopback proxy
 echo.
 echo Examples:
 echo   %0 compile     # Compile all files
@@ -20,7 +20,7 @@ compile_all() {
 # Function to clean compiled files
 clean() {
     echo "Cleaning compiled files..."
-    rm -f *.class
+    rm -f *.class proxy.jar proxy.jsa
     echo "✅ Cleaned"
 }
 
@@ -47,12 +47,28 @@ case "$1" in
         echo "Starting Secure SSL Proxy on port 8444..."
         java SecureSSLProxy
         ;;
+    "fast")
+        compile_all
+        jar cf proxy.jar *.class
+        if [ ! -f proxy.jsa ] || [ proxy.jar -nt proxy.jsa ]; then
+            echo "Training class data sharing archive (proxy.jsa)..."
+            SSL_ACCESS_LOG=off SSL_EVENT_PORT=0 java -XX:ArchiveClassesAtExit=proxy.jsa -Xlog:cds=off -cp proxy.jar SecureSSLProxy --train
+        fi
+        echo "Starting Secure SSL Proxy on port 8444 from proxy.jsa..."
+        java -XX:SharedArchiveFile=proxy.jsa -cp proxy.jar SecureSSLProxy
+        ;;
     "dashboard")
         compile_all
         echo "Starting Dashboard Server on port 8080..."
         echo "Open http://localhost:8080 in your browser"
         java DashboardServer
         ;;
+    "dashboard-https")
+        compile_all
+        echo "Starting Dashboard Server over HTTPS on port 8443..."
+        echo "Open https://localhost:8443 in your browser"
+        java DashboardServer https
+        ;;
     "full")
         compile_all
         echo "Starting both Secure SSL Proxy and Dashboard..."
@@ -62,8 +78,32 @@ case "$1" in
         sleep 2
         java SecureSSLProxy
         ;;
+    "accesslog")
+        compile_all
+        java AccessLogReader "${2:-proxy-access.ring}" "${3:-csv}"
+        ;;
+    "bench")
+        compile_all
+        echo "Benchmarking protocols, cipher suites and key types against a local proxy..."
+        SSL_ACCESS_LOG=off java ProxyBenchmark "${@:2}"
+        ;;
+    "dashbench")
+        compile_all
+        echo "Benchmarking dashboard static files over HTTP and HTTPS..."
+        java DashboardBenchmark "${@:2}"
+        ;;
+    "soak")
+        compile_all
+        echo "Soak testing the proxy and dashboard under mixed load..."
+        java SoakTest "${@:2}"
+        ;;
+    "check")
+        compile_all
+        echo "Running the proxy's protocol checks..."
+        java ForwardingFramingTest && java GossipConvergenceTest
+        ;;
     *)
-        echo "Usage: $0 {compile|clean|badssl|enhanced|secure|dashboard|full}"
+        echo "Usage: $0 {compile|clean|badssl|enhanced|secure|fast|dashboard|dashboard-https|full|accesslog|bench|dashbench|soak|check}"
         echo ""
         echo "Commands:"
         echo "  compile   - Compile all Java files"
@@ -71,8 +111,15 @@ case "$1" in
         echo "  badssl    - Run BadSSL Client Test"
         echo "  enhanced  - Run Enhanced BadSSL Client Test"
         echo "  secure    - Start Secure SSL Proxy server"
+        echo "  fast      - Start the proxy from a class data sharing archive, training it first if needed"
         echo "  dashboard - Start Web Dashboard on port 8080"
+        echo "  dashboard-https - Start Web Dashboard over HTTPS on port 8443"
         echo "  full      - Start both Dashboard and Secure SSL Proxy"
+        echo "  accesslog - Export the proxy access log: accesslog [file] [csv|json]"
+        echo "  bench     - TLS performance matrix: bench [seconds] [threads] [key types]"
+        echo "  dashbench - Dashboard HTTP vs HTTPS file serving: dashbench [seconds] [sizes in KB]"
+        echo "  soak      - Leak and latency soak test: soak [minutes] [threads] [sample seconds]"
+        echo "  check     - Request smuggling and other protocol checks against a loopback proxy"
         echo ""
         echo "Examples:"
         echo "  ./run.sh compile     # Compile all files"